@@ -0,0 +1,894 @@
+package tk.pathfinder.Map;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import tk.pathfinder.Networking.Beacon;
+import tk.pathfinder.Networking.BeaconDirectory;
+import tk.pathfinder.exceptions.NoValidPathException;
+
+/***
+ * A map whose graph is held in direct buffers outside the Java heap, for maps too large to keep
+ * as node and edge objects on devices with little memory.
+ * Each node is a row of fixed width columns, ordered by database index. Edges are stored in
+ * compressed sparse rows: the neighbours of row i are neighbours[offsets[i]] to neighbours[offsets[i + 1] - 1].
+ * Room and floor connector objects are only created when they are asked for, and are shared
+ * for as long as something holds on to them.
+ * <p>
+ * The rest of the app works on {@link Map}, so the building is shown a floor at a time through
+ * {@link #getFloorMap(int)}. Each floor is a map of its own nodes, whose searches and routes reach the
+ * whole building through this one.
+ * @author Michael MacLean
+ * @version 1.0
+ * @since 1.0
+ */
+public class ColumnarMap {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // the low two bits of a row's kind.
+    static final int INTERSECTION = 0;
+    static final int ROOM = 1;
+    static final int FLOOR_CONNECTOR = 2;
+    // the remaining bits.
+    private static final int AUTH = 1 << 2;
+    private static final int OPERATIONAL = 1 << 3;
+    private static final int TYPE_SHIFT = 4;
+
+    private final Integer id;
+    private final String name;
+    private final int revision;
+    private final int size;
+    private final IntColumn ids, xs, ys, zs, names, numbers, offsets, neighbours;
+    private final ByteColumn kinds;
+    private final StringColumn strings;
+    private final BeaconDirectory beacons;
+    private final int[] floorRange;
+
+    // nodes that have been handed out, by row.
+    private final HashMap<Integer, NodeReference> cache = new HashMap<>();
+    private final ReferenceQueue<Node> released = new ReferenceQueue<>();
+    // floors built by getFloorMap, kept until memory runs short.
+    private final HashMap<Integer, SoftReference<Map>> floors = new HashMap<>();
+
+    private ColumnarMap(Builder b, IntColumn ids, IntColumn xs, IntColumn ys, IntColumn zs, ByteColumn kinds,
+                        IntColumn names, IntColumn numbers, IntColumn offsets, IntColumn neighbours){
+        this.id = b.id;
+        this.name = b.name;
+        this.revision = b.revision;
+        this.size = ids.size();
+        this.ids = ids;
+        this.xs = xs;
+        this.ys = ys;
+        this.zs = zs;
+        this.kinds = kinds;
+        this.names = names;
+        this.numbers = numbers;
+        this.offsets = offsets;
+        this.neighbours = neighbours;
+        this.strings = b.strings;
+        this.beacons = b.beacons;
+
+        int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+        for(int i = 0; i < size; i++){
+            min = Math.min(min, ys.get(i));
+            max = Math.max(max, ys.get(i));
+        }
+        floorRange = size == 0 ? new int[] {0, 0} : new int[] {min, max};
+    }
+
+    /**
+     * Copy a map into columns. The map's nodes and edges are not kept, so once nothing else holds
+     * the map, only the nodes asked for again take up the heap.
+     * @param map The map.
+     * @return The map in columns.
+     */
+    public static ColumnarMap of(Map map){
+        if(map == null)
+            throw new NullPointerException("map");
+
+        Builder b = new Builder(map.getId(), map.getName()).setRevision(map.getRevision());
+        for(Iterator<Node> i = map.getNodes(); i.hasNext(); ){
+            Node n = i.next();
+            Point p = n.getPoint();
+            if(n instanceof Room){
+                Room r = (Room)n;
+                b.addRoom(r.getId(), p.getX(), p.getY(), p.getZ(), r.getRoomNumber(), r.getName(), r.requiresAuthorization());
+            }
+            else if(n instanceof FloorConnector){
+                FloorConnector fc = (FloorConnector)n;
+                b.addFloorConnector(fc.getId(), p.getX(), p.getY(), p.getZ(), fc.getName(), fc.getType(),
+                        fc.isOperational(), fc.requiresAuthorization());
+            }
+            else b.addIntersection(n.getId(), p.getX(), p.getY(), p.getZ());
+        }
+        for(Iterator<Edge> i = map.getEdges(); i.hasNext(); ){
+            Edge e = i.next();
+            b.addEdge(e.getNode1().getId(), e.getNode2().getId());
+        }
+        // the beacons themselves are shared, since the app keeps every beacon it has seen.
+        for(Beacon beacon : map.getBeaconDirectory().getBeacons())
+            b.beacons.putIfAbsent(beacon);
+        return b.build();
+    }
+
+    /**
+     * @return The name of the map.
+     */
+    public String getName(){
+        return name;
+    }
+
+    /**
+     * @return The database index of the map.
+     */
+    public Integer getId(){
+        return id;
+    }
+
+    /**
+     * @return The server's revision of the map, or 0 if it is not known.
+     */
+    public int getRevision(){
+        return revision;
+    }
+
+    /**
+     * @return The number of nodes.
+     */
+    public int size(){
+        return size;
+    }
+
+    /**
+     * @param id The database index of a node.
+     * @return The row of the node, or -1 if it is not on the map.
+     */
+    public int indexOf(int id){
+        int lo = 0, hi = size - 1;
+        while(lo <= hi){
+            int mid = (lo + hi) >>> 1;
+            int value = ids.get(mid);
+            if(value < id)
+                lo = mid + 1;
+            else if(value > id)
+                hi = mid - 1;
+            else return mid;
+        }
+        return -1;
+    }
+
+    /**
+     * @param index A row.
+     * @return The database index of the node.
+     */
+    public int getNodeId(int index){
+        return ids.get(checkIndex(index));
+    }
+
+    /**
+     * @param index A row.
+     * @return The location of the node.
+     */
+    public Point getPoint(int index){
+        checkIndex(index);
+        return new Point(xs.get(index), ys.get(index), zs.get(index));
+    }
+
+    /**
+     * @param index A row.
+     * @return The floor the node is on.
+     */
+    public int getFloor(int index){
+        return ys.get(checkIndex(index));
+    }
+
+    /**
+     * @param index A row.
+     * @return true if the node is a room.
+     */
+    public boolean isRoom(int index){
+        return (kinds.get(checkIndex(index)) & 3) == ROOM;
+    }
+
+    /**
+     * @param index A row.
+     * @return The number of nodes connected to the node.
+     */
+    public int getDegree(int index){
+        checkIndex(index);
+        return offsets.get(index + 1) - offsets.get(index);
+    }
+
+    /**
+     * @param index A row.
+     * @param k Which neighbour, from 0 to the degree of the node.
+     * @return The row of the neighbour.
+     */
+    public int getNeighbour(int index, int k){
+        if(k < 0 || k >= getDegree(index))
+            throw new IndexOutOfBoundsException("k: " + k);
+        return neighbours.get(offsets.get(index) + k);
+    }
+
+    /**
+     * @param id The database index of a node.
+     * @return The node, or null if it is not on the map.
+     */
+    public Node getNode(int id){
+        int index = indexOf(id);
+        return index < 0 ? null : getNodeAt(index);
+    }
+
+    /**
+     * Get the node in a row, creating it if nothing holds on to it already.
+     * @param index A row.
+     * @return The node.
+     */
+    public Node getNodeAt(int index){
+        checkIndex(index);
+        synchronized(cache){
+            NodeReference r;
+            while((r = (NodeReference)released.poll()) != null)
+                if(cache.get(r.index) == r)
+                    cache.remove(r.index);
+
+            r = cache.get(index);
+            Node n = r == null ? null : r.get();
+            if(n == null){
+                n = materialize(index);
+                cache.put(index, new NodeReference(n, index, released));
+            }
+            return n;
+        }
+    }
+
+    /**
+     * @param floor A floor number.
+     * @return The rooms on the floor, in order of database index.
+     */
+    public List<Room> getRooms(int floor){
+        List<Room> result = new ArrayList<>();
+        for(int i = 0; i < size; i++)
+            if(ys.get(i) == floor && (kinds.get(i) & 3) == ROOM)
+                result.add((Room)getNodeAt(i));
+        return result;
+    }
+
+    /**
+     * @param floor A floor number.
+     * @return The floor connectors on the floor, in order of database index.
+     */
+    public List<FloorConnector> getFloorConnectors(int floor){
+        List<FloorConnector> result = new ArrayList<>();
+        for(int i = 0; i < size; i++)
+            if(ys.get(i) == floor && (kinds.get(i) & 3) == FLOOR_CONNECTOR)
+                result.add((FloorConnector)getNodeAt(i));
+        return result;
+    }
+
+    /**
+     * @return The floor connectors on every floor, in order of database index.
+     */
+    public List<FloorConnector> getFloorConnectors(){
+        List<FloorConnector> result = new ArrayList<>();
+        for(int i = 0; i < size; i++)
+            if((kinds.get(i) & 3) == FLOOR_CONNECTOR)
+                result.add((FloorConnector)getNodeAt(i));
+        return result;
+    }
+
+    /**
+     * Get the map of a single floor, creating its nodes if nothing holds on to them already.
+     * The map also holds the nodes on other floors that this floor's edges lead to, and every beacon
+     * of the building. Its searches, routes and node lookups cover the whole building; see {@link Map#getBuilding()}.
+     * @param floor The floor.
+     * @return The floor's map, or null if the building has no nodes on the floor.
+     */
+    public Map getFloorMap(int floor){
+        Map map = loaded(floor);
+        if(map != null)
+            return map;
+
+        ArrayList<Node> nodes = new ArrayList<>();
+        ArrayList<Edge> edges = new ArrayList<>();
+        HashMap<Integer, Node> others = new HashMap<>();
+        for(int i = 0; i < size; i++){
+            if(ys.get(i) != floor)
+                continue;
+            Node n = getNodeAt(i);
+            nodes.add(n);
+            for(int k = offsets.get(i), end = offsets.get(i + 1); k < end; k++){
+                int j = neighbours.get(k);
+                // an edge within the floor is added from its lower row only.
+                if(ys.get(j) == floor && j < i)
+                    continue;
+                Node other = getNodeAt(j);
+                if(ys.get(j) != floor)
+                    others.put(j, other);
+                edges.add(new Edge(n, other));
+            }
+        }
+        if(nodes.isEmpty())
+            return null;
+        // the same edge is found from both floors, so the far ends are kept in order of row.
+        Integer[] rows = others.keySet().toArray(new Integer[0]);
+        Arrays.sort(rows);
+        for(Integer row : rows)
+            nodes.add(others.get(row));
+
+        Map built = new Map(this, nodes, edges, new ArrayList<>(beacons.getBeacons()));
+        synchronized(floors){
+            map = loaded(floor);
+            // another thread built the floor first; its copy is kept, so every caller shares one.
+            if(map != null)
+                return map;
+            floors.put(floor, new SoftReference<>(built));
+        }
+        return built;
+    }
+
+    // the floor's map, or null if it is not in memory.
+    private Map loaded(int floor){
+        synchronized(floors){
+            SoftReference<Map> r = floors.get(floor);
+            return r == null ? null : r.get();
+        }
+    }
+
+    /**
+     * Search every floor for a destination by room name and number, as {@link Map#search(String, boolean, int)} does.
+     * Each search checks every room, so no index is kept on the heap.
+     * @param keywords The search terms to use.
+     * @param matchAll If true, a room must match every term, otherwise any of them.
+     * @param limit The maximum number of results.
+     * @return The best matching rooms, best first. Every room is returned if there are no terms.
+     * @throws IllegalArgumentException if keywords is null or limit is negative.
+     */
+    public List<Room> search(String keywords, boolean matchAll, int limit) throws IllegalArgumentException {
+        if(keywords == null)
+            throw new IllegalArgumentException("keywords cannot be null");
+        if(limit < 0)
+            throw new IllegalArgumentException("limit must not be negative");
+
+        List<Room> rooms = new ArrayList<>();
+        for(int i = 0; i < size; i++)
+            if((kinds.get(i) & 3) == ROOM)
+                rooms.add((Room)getNodeAt(i));
+        String[] terms = SearchIndex.terms(keywords);
+        if(terms.length == 0)
+            return new ArrayList<>(rooms.subList(0, Math.min(limit, rooms.size())));
+        return SearchIndex.scan(rooms, terms, matchAll, limit);
+    }
+
+    /**
+     * Find the shortest path between two nodes, on any floors. Floor connectors that have been
+     * closed since the map was built are avoided, and no connector type is preferred over another.
+     * @param current The closest node to the user's current position.
+     * @param goal The user's desired destination.
+     * @return The edges along the path, in order from current to goal.
+     * @throws NoValidPathException if either node is not on the map, or there is no way between them.
+     */
+    public Path navigate(Node current, Room goal) throws NoValidPathException {
+        if(current == null)
+            throw new NullPointerException("current");
+        if(goal == null)
+            throw new NullPointerException("goal");
+        int from = indexOf(current.getId()), to = indexOf(goal.getId());
+        if(from < 0 || to < 0)
+            throw new NoValidPathException(current, goal);
+
+        // the connectors in use carry their latest status, which the columns do not.
+        boolean[] closed = new boolean[size];
+        for(int i = 0; i < size; i++){
+            if((kinds.get(i) & 3) != FLOOR_CONNECTOR || i == from || i == to)
+                continue;
+            Node n = peek(i);
+            closed[i] = n == null ? (kinds.get(i) & OPERATIONAL) == 0 : !((FloorConnector)n).isOperational();
+        }
+        int[] rows = findPath(from, to, closed);
+        if(rows == null)
+            throw new NoValidPathException(current, goal);
+
+        Edge[] edges = new Edge[rows.length - 1];
+        for(int i = 0; i < edges.length; i++)
+            edges[i] = new Edge(getNodeAt(rows[i]), getNodeAt(rows[i + 1]));
+        return new Path(edges);
+    }
+
+    /**
+     * @return An array with [0] being the lowest floor, and [1] being the highest.
+     */
+    public int[] getFloorRange(){
+        return floorRange.clone();
+    }
+
+    /**
+     * @param p The point to use as a reference.
+     * @return The row of the closest node on the same floor, or -1 if there is none.
+     * @throws IllegalArgumentException if p is null.
+     */
+    public int closestNode(Point p) throws IllegalArgumentException {
+        if(p == null)
+            throw new IllegalArgumentException("p cannot be null");
+        int best = -1;
+        long min = Long.MAX_VALUE;
+        for(int i = 0; i < size; i++){
+            if(ys.get(i) != p.getY())
+                continue;
+            long dx = xs.get(i) - p.getX();
+            long dz = zs.get(i) - p.getZ();
+            long d = dx * dx + dz * dz;
+            if(d < min){
+                min = d;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Find the shortest path between two nodes, without creating any node or edge objects.
+     * @param from The row of the start node.
+     * @param to The row of the goal.
+     * @return The rows along the path, from start to goal, or null if the goal cannot be reached.
+     */
+    public int[] findPath(int from, int to){
+        return findPath(from, to, null);
+    }
+
+    // the shortest path that does not pass through a closed row, which may be null.
+    private int[] findPath(int from, int to, boolean[] closed){
+        checkIndex(from);
+        checkIndex(to);
+
+        double[] cost = new double[size];
+        Arrays.fill(cost, Double.POSITIVE_INFINITY);
+        int[] cameFrom = new int[size];
+        cost[from] = 0;
+        cameFrom[from] = -1;
+
+        // entries are the float bits of the estimate above the row, so they sort by estimate.
+        PriorityQueue<Long> open = new PriorityQueue<>();
+        open.add(entry(distance(from, to), from));
+        while(!open.isEmpty()){
+            long e = open.poll();
+            int current = (int)e;
+            if(current == to)
+                break;
+            // skip entries left behind by a cheaper route.
+            if(Float.intBitsToFloat((int)(e >>> 32)) > (float)(cost[current] + distance(current, to)))
+                continue;
+
+            for(int k = offsets.get(current), end = offsets.get(current + 1); k < end; k++){
+                int next = neighbours.get(k);
+                if(closed != null && closed[next])
+                    continue;
+                double c = cost[current] + distance(current, next);
+                if(c < cost[next]){
+                    cost[next] = c;
+                    cameFrom[next] = current;
+                    open.add(entry(c + distance(next, to), next));
+                }
+            }
+        }
+
+        if(cost[to] == Double.POSITIVE_INFINITY)
+            return null;
+        int length = 1;
+        for(int i = to; i != from; i = cameFrom[i])
+            length++;
+        int[] path = new int[length];
+        for(int i = to, k = length - 1; k >= 0; i = cameFrom[i], k--)
+            path[k] = i;
+        return path;
+    }
+
+    /**
+     * @param ssid A beacon SSID.
+     * @return The beacon matching the given SSID, or null.
+     */
+    public Beacon getBeacon(String ssid){
+        return beacons.get(ssid);
+    }
+
+    /**
+     * @return The map's beacons, keyed by their (building, beacon) id pair.
+     */
+    public BeaconDirectory getBeaconDirectory(){
+        return beacons;
+    }
+
+    /**
+     * @return The number of bytes held outside the Java heap.
+     */
+    public long getMemoryUsage(){
+        return ids.capacity() + xs.capacity() + ys.capacity() + zs.capacity() + kinds.capacity() + names.capacity()
+                + numbers.capacity() + offsets.capacity() + neighbours.capacity() + strings.capacity();
+    }
+
+    // the node in a row if it has already been created and is still held, without creating it.
+    private Node peek(int index){
+        synchronized(cache){
+            NodeReference r = cache.get(index);
+            return r == null ? null : r.get();
+        }
+    }
+
+    private Node materialize(int index){
+        int id = ids.get(index);
+        Point p = new Point(xs.get(index), ys.get(index), zs.get(index));
+        int kind = kinds.get(index);
+        switch(kind & 3){
+            case ROOM:
+                return new Room(id, p, strings.get(numbers.get(index)), strings.get(names.get(index)), (kind & AUTH) != 0);
+            case FLOOR_CONNECTOR:
+                FloorConnector.FloorConnectorTypes type = FloorConnector.FloorConnectorTypes.values()[(kind >> TYPE_SHIFT) & 3];
+                return new FloorConnector(id, p, strings.get(names.get(index)), type, new int[] {p.getY()},
+                        (kind & OPERATIONAL) != 0, (kind & AUTH) != 0);
+            default:
+                return new Intersection(id, p);
+        }
+    }
+
+    private double distance(int a, int b){
+        double dx = xs.get(a) - xs.get(b);
+        double dz = zs.get(a) - zs.get(b);
+        return Math.sqrt(dx * dx + dz * dz);
+    }
+
+    private static long entry(double estimate, int index){
+        return ((long)Float.floatToIntBits((float)estimate) << 32) | (index & 0xffffffffL);
+    }
+
+    private int checkIndex(int index){
+        if(index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("index: " + index);
+        return index;
+    }
+
+    private static ByteBuffer allocate(int bytes){
+        return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+    }
+
+    private static class NodeReference extends WeakReference<Node> {
+        final int index;
+
+        NodeReference(Node n, int index, ReferenceQueue<Node> queue){
+            super(n, queue);
+            this.index = index;
+        }
+    }
+
+    // a growable array of ints in a direct buffer. only absolute reads are made once it is built,
+    // so it can be read from any thread.
+    private static class IntColumn {
+        private ByteBuffer buffer;
+        private int size = 0;
+
+        IntColumn(int capacity){
+            buffer = allocate(Math.max(capacity, 16) * 4);
+        }
+
+        void add(int value){
+            if(size * 4 == buffer.capacity()){
+                ByteBuffer grown = allocate(buffer.capacity() * 2);
+                buffer.position(0);
+                grown.put(buffer);
+                buffer = grown;
+            }
+            buffer.putInt(size++ * 4, value);
+        }
+
+        int get(int i){
+            return buffer.getInt(i * 4);
+        }
+
+        void set(int i, int value){
+            buffer.putInt(i * 4, value);
+        }
+
+        int size(){
+            return size;
+        }
+
+        long capacity(){
+            return buffer.capacity();
+        }
+    }
+
+    private static class ByteColumn {
+        private ByteBuffer buffer;
+        private int size = 0;
+
+        ByteColumn(int capacity){
+            buffer = allocate(Math.max(capacity, 16));
+        }
+
+        void add(int value){
+            if(size == buffer.capacity()){
+                ByteBuffer grown = allocate(buffer.capacity() * 2);
+                buffer.position(0);
+                grown.put(buffer);
+                buffer = grown;
+            }
+            buffer.put(size++, (byte)value);
+        }
+
+        int get(int i){
+            return buffer.get(i);
+        }
+
+        long capacity(){
+            return buffer.capacity();
+        }
+    }
+
+    // utf-8 strings laid end to end, with the start of each in a separate column.
+    private static class StringColumn {
+        private ByteBuffer bytes = allocate(1024);
+        private int length = 0;
+        private final IntColumn starts = new IntColumn(64);
+
+        StringColumn(){
+            starts.add(0);
+        }
+
+        // returns the index of the string, or -1 for null.
+        int add(String s){
+            if(s == null)
+                return -1;
+            byte[] b = s.getBytes(UTF8);
+            if(length + b.length > bytes.capacity()){
+                ByteBuffer grown = allocate(Math.max(bytes.capacity() * 2, length + b.length));
+                bytes.position(0);
+                bytes.limit(length);
+                grown.put(bytes);
+                bytes = grown;
+            }
+            for(int i = 0; i < b.length; i++)
+                bytes.put(length++, b[i]);
+            starts.add(length);
+            return starts.size() - 2;
+        }
+
+        String get(int index){
+            if(index < 0)
+                return null;
+            int start = starts.get(index);
+            byte[] b = new byte[starts.get(index + 1) - start];
+            for(int i = 0; i < b.length; i++)
+                b[i] = bytes.get(start + i);
+            return new String(b, UTF8);
+        }
+
+        long capacity(){
+            return bytes.capacity() + starts.capacity();
+        }
+    }
+
+    /***
+     * Writes a map straight into columns as it is parsed, without creating node or edge objects.
+     * Nodes sharing an id, duplicate beacons, and duplicate, dangling or looping edges are dropped
+     * and reported through {@link #getWarnings()}. Unlike {@link MapBuilder}, nodes are not merged by location.
+     */
+    public static class Builder implements MapSink {
+
+        private Integer id;
+        private String name;
+        private int revision = 0;
+        // rows in the order they arrive.
+        private final IntColumn ids = new IntColumn(256), xs = new IntColumn(256), ys = new IntColumn(256),
+                zs = new IntColumn(256), names = new IntColumn(256), numbers = new IntColumn(256);
+        private final ByteColumn kinds = new ByteColumn(256);
+        private final IntColumn edges = new IntColumn(512);
+        private final StringColumn strings = new StringColumn();
+        private final BeaconDirectory beacons = new BeaconDirectory();
+        private final List<String> warnings = new ArrayList<>();
+        private boolean built = false;
+
+        /**
+         * @param id The database index of the map.
+         * @param name The name of the map.
+         */
+        public Builder(Integer id, String name){
+            this.id = id;
+            this.name = name;
+        }
+
+        @Override
+        public Builder setMapInfo(Integer id, String name){
+            this.id = id;
+            this.name = name;
+            return this;
+        }
+
+        /**
+         * @param revision The server's revision of the map, or 0 if it is not known.
+         * @return This builder.
+         * @throws IllegalArgumentException if revision is negative.
+         */
+        public Builder setRevision(int revision){
+            if(revision < 0)
+                throw new IllegalArgumentException("revision must not be negative");
+            this.revision = revision;
+            return this;
+        }
+
+        @Override
+        public Builder addRoom(int id, int x, int y, int z, String roomNumber, String name, boolean requiresAuth){
+            if(roomNumber == null && name == null)
+                throw new NullPointerException("roomNumber");
+            return addRow(id, x, y, z, ROOM | (requiresAuth ? AUTH : 0), name, roomNumber);
+        }
+
+        @Override
+        public Builder addFloorConnector(int id, int x, int y, int z, String name, FloorConnector.FloorConnectorTypes type,
+                                         boolean operational, boolean requiresAuth){
+            if(type == null)
+                throw new NullPointerException("type");
+            int kind = FLOOR_CONNECTOR | (requiresAuth ? AUTH : 0) | (operational ? OPERATIONAL : 0)
+                    | (type.ordinal() << TYPE_SHIFT);
+            return addRow(id, x, y, z, kind, name, null);
+        }
+
+        @Override
+        public Builder addIntersection(int id, int x, int y, int z){
+            return addRow(id, x, y, z, INTERSECTION, null, null);
+        }
+
+        @Override
+        public Builder addEdge(int node1, int node2){
+            edges.add(node1);
+            edges.add(node2);
+            return this;
+        }
+
+        @Override
+        public Builder addBeacon(String ssid, int x, int y, int z){
+            Beacon b = new Beacon(ssid, new Point(x, y, z));
+            if(!beacons.putIfAbsent(b))
+                warnings.add("Duplicate beacon " + ssid);
+            return this;
+        }
+
+        /**
+         * @return The problems found by the last call to build.
+         */
+        public List<String> getWarnings(){
+            return Collections.unmodifiableList(warnings);
+        }
+
+        /**
+         * Sort the rows by id and lay out the edges.
+         * @return The map.
+         * @throws IllegalStateException if the builder has already been used.
+         */
+        public ColumnarMap build() throws IllegalStateException {
+            if(built)
+                throw new IllegalStateException("build() may only be called once");
+            built = true;
+
+            // order the rows by id, keeping the first of any repeated id.
+            int count = ids.size();
+            long[] order = new long[count];
+            for(int i = 0; i < count; i++)
+                order[i] = ((long)ids.get(i) << 32) | i;
+            Arrays.sort(order);
+
+            IntColumn sIds = new IntColumn(count), sXs = new IntColumn(count), sYs = new IntColumn(count),
+                    sZs = new IntColumn(count), sNames = new IntColumn(count), sNumbers = new IntColumn(count);
+            ByteColumn sKinds = new ByteColumn(count);
+            for(int i = 0; i < count; i++){
+                int row = (int)order[i];
+                int id = ids.get(row);
+                if(sIds.size() > 0 && sIds.get(sIds.size() - 1) == id){
+                    warnings.add("Duplicate node id " + id);
+                    continue;
+                }
+                sIds.add(id);
+                sXs.add(xs.get(row));
+                sYs.add(ys.get(row));
+                sZs.add(zs.get(row));
+                sKinds.add(kinds.get(row));
+                sNames.add(names.get(row));
+                sNumbers.add(numbers.get(row));
+            }
+            order = null;
+
+            int size = sIds.size();
+            IntColumn offsets = new IntColumn(size + 1);
+            for(int i = 0; i <= size; i++)
+                offsets.add(0);
+            ColumnarMap map = new ColumnarMap(this, sIds, sXs, sYs, sZs, sKinds, sNames, sNumbers, offsets, new IntColumn(edges.size()));
+
+            // resolve the edge ids to rows in place, and count the degree of each row.
+            int edgeCount = edges.size() / 2;
+            for(int i = 0; i < edgeCount; i++){
+                int a = edges.get(i * 2), b = edges.get(i * 2 + 1);
+                int ra = map.indexOf(a), rb = map.indexOf(b);
+                if(ra < 0 || rb < 0)
+                    warnings.add("Dangling edge " + a + " - " + b);
+                else if(ra == rb)
+                    warnings.add("Edge " + a + " - " + b + " connects a node to itself");
+                else{
+                    offsets.set(ra, offsets.get(ra) + 1);
+                    offsets.set(rb, offsets.get(rb) + 1);
+                }
+                if(ra < 0 || rb < 0 || ra == rb)
+                    ra = rb = -1;
+                edges.set(i * 2, ra);
+                edges.set(i * 2 + 1, rb);
+            }
+
+            // each offset becomes the end of its row, then is counted back down to the start as the row is filled.
+            int total = 0;
+            for(int i = 0; i < size; i++){
+                total += offsets.get(i);
+                offsets.set(i, total);
+            }
+            offsets.set(size, total);
+            IntColumn neighbours = map.neighbours;
+            for(int i = 0; i < total; i++)
+                neighbours.add(0);
+            for(int i = 0; i < edgeCount; i++){
+                int a = edges.get(i * 2), b = edges.get(i * 2 + 1);
+                if(a < 0)
+                    continue;
+                int ea = offsets.get(a) - 1, eb = offsets.get(b) - 1;
+                neighbours.set(ea, b);
+                neighbours.set(eb, a);
+                offsets.set(a, ea);
+                offsets.set(b, eb);
+            }
+
+            // sort each row and squeeze out repeated edges.
+            int write = 0;
+            int[] row = new int[16];
+            for(int i = 0; i < size; i++){
+                int start = offsets.get(i), end = offsets.get(i + 1);
+                int n = end - start;
+                if(row.length < n)
+                    row = new int[n * 2];
+                for(int k = 0; k < n; k++)
+                    row[k] = neighbours.get(start + k);
+                Arrays.sort(row, 0, n);
+                offsets.set(i, write);
+                for(int k = 0; k < n; k++){
+                    if(k > 0 && row[k] == row[k - 1]){
+                        // each duplicate appears in both rows; report it once.
+                        if(i < row[k])
+                            warnings.add("Duplicate edge " + sIds.get(i) + " - " + sIds.get(row[k]));
+                        continue;
+                    }
+                    neighbours.set(write++, row[k]);
+                }
+            }
+            offsets.set(size, write);
+            neighbours.size = write;
+            return map;
+        }
+
+        private Builder addRow(int id, int x, int y, int z, int kind, String name, String number){
+            ids.add(id);
+            xs.add(x);
+            ys.add(y);
+            zs.add(z);
+            kinds.add(kind);
+            names.add(strings.add(name));
+            numbers.add(strings.add(number));
+            return this;
+        }
+    }
+}
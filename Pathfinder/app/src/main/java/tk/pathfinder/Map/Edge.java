@@ -1,7 +1,6 @@
 package tk.pathfinder.Map;
 
 import java.util.Comparator;
-import java.util.Objects;
 
 /**
  * Represents a link between two nodes.
@@ -93,6 +92,7 @@ public class Edge implements Comparator<Edge>, Comparable<Edge> {
 
     @Override
     public int hashCode() {
-        return Objects.hash(node1, node2);
+        // symmetric, since an edge equals its reverse.
+        return node1.hashCode() + node2.hashCode();
     }
 }
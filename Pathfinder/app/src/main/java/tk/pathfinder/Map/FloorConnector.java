@@ -1,6 +1,7 @@
 package tk.pathfinder.Map;
 
-import android.util.SparseBooleanArray;
+import java.util.Arrays;
+import java.util.HashMap;
 
 /***
  * Represents a node that allows a user to move between floors, such as an elevator.
@@ -16,8 +17,9 @@ public class FloorConnector extends Node {
 
     private String name;
     private boolean auth;
-    private SparseBooleanArray floors;
-    private boolean operational;
+    private HashMap<Integer, Boolean> floors;
+    // changed by the status feed while routes are being found on other threads.
+    private volatile boolean operational;
     private FloorConnectorTypes type;
 
     /***
@@ -33,7 +35,7 @@ public class FloorConnector extends Node {
             throw new NullPointerException("floors must be non-empty");
         processConstructor(id, p, name, type, operational, requiresAuthorization);
 
-        this.floors = new SparseBooleanArray();
+        this.floors = new HashMap<>();
         for (int floor : floors) this.floors.put(floor, true);
     }
 
@@ -132,6 +134,27 @@ public class FloorConnector extends Node {
         return true;
     }
 
+    /***
+     * @param floor The floor to check.
+     * @return true if the node stands on the floor or reaches it, accessible or not.
+     */
+    public boolean isOnFloor(int floor){
+        return getFloor() == floor || floors.containsKey(floor);
+    }
+
+    /***
+     * @return The floors the node stands on or reaches, accessible or not.
+     */
+    int[] getFloors(){
+        int[] result = new int[floors.size() + 1];
+        int count = 0;
+        result[count++] = getFloor();
+        for(int floor : floors.keySet())
+            if(floor != getFloor())
+                result[count++] = floor;
+        return count == result.length ? result : Arrays.copyOf(result, count);
+    }
+
     /***
      * Set whether or not a floor is accessible from the node.
      * @param floor The floor number.
@@ -0,0 +1,144 @@
+package tk.pathfinder.Map;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+
+/***
+ * The nodes of a map sorted by type and floor once, when the map is created.
+ * Every list handed out is an unmodifiable view over an array built here, so reading them
+ * allocates nothing beyond an iterator.
+ * @author Michael MacLean
+ * @version 1.0
+ * @since 1.0
+ */
+final class FloorViews {
+
+    private static final FloorConnector.FloorConnectorTypes[] TYPES = FloorConnector.FloorConnectorTypes.values();
+
+    final List<Room> rooms;
+    final List<FloorConnector> connectors;
+    final List<FloorConnector>[] connectorsByType;
+    final FloorConnector[] connectorArray;
+    private final TreeMap<Integer, Floor> floors = new TreeMap<>();
+    private final int[] floorRange;
+
+    FloorViews(Collection<Node> nodes){
+        List<Room> allRooms = new ArrayList<>();
+        List<FloorConnector> allConnectors = new ArrayList<>();
+        List<List<FloorConnector>> byType = lists(TYPES.length);
+        int lowest = Integer.MAX_VALUE, highest = Integer.MIN_VALUE;
+
+        for(Node n : nodes){
+            int floor = n.getFloor();
+            lowest = Math.min(lowest, floor);
+            highest = Math.max(highest, floor);
+
+            Floor f = floors.get(floor);
+            if(f == null){
+                f = new Floor();
+                floors.put(floor, f);
+            }
+
+            if(n instanceof Room){
+                allRooms.add((Room)n);
+                f.roomList.add((Room)n);
+            }
+            else if(n instanceof FloorConnector){
+                FloorConnector c = (FloorConnector)n;
+                allConnectors.add(c);
+                f.connectorList.add(c);
+                if(c.getType() != null){
+                    byType.get(c.getType().ordinal()).add(c);
+                    f.byTypeList.get(c.getType().ordinal()).add(c);
+                }
+            }
+            else if(n instanceof Intersection)
+                f.intersectionList.add((Intersection)n);
+        }
+
+        rooms = freeze(allRooms);
+        connectorArray = allConnectors.toArray(new FloorConnector[0]);
+        connectors = Collections.unmodifiableList(Arrays.asList(connectorArray));
+        connectorsByType = freezeAll(byType);
+        for(Floor f : floors.values())
+            f.freeze();
+        floorRange = nodes.isEmpty() ? new int[] {0, 0} : new int[] {lowest, highest};
+    }
+
+    /**
+     * @return An array with [0] being the lowest floor, and [1] being the highest.
+     */
+    int[] getFloorRange(){
+        return floorRange.clone();
+    }
+
+    List<Room> getRooms(int floor){
+        Floor f = floors.get(floor);
+        return f == null ? Collections.emptyList() : f.rooms;
+    }
+
+    List<Intersection> getIntersections(int floor){
+        Floor f = floors.get(floor);
+        return f == null ? Collections.emptyList() : f.intersections;
+    }
+
+    List<FloorConnector> getFloorConnectors(int floor){
+        Floor f = floors.get(floor);
+        return f == null ? Collections.emptyList() : f.connectors;
+    }
+
+    List<FloorConnector> getFloorConnectors(int floor, FloorConnector.FloorConnectorTypes type){
+        Floor f = floors.get(floor);
+        return f == null ? Collections.emptyList() : f.connectorsByType[type.ordinal()];
+    }
+
+    private static <T> List<List<T>> lists(int count){
+        List<List<T>> result = new ArrayList<>(count);
+        for(int i = 0; i < count; i++)
+            result.add(new ArrayList<>());
+        return result;
+    }
+
+    private static <T> List<T> freeze(List<T> list){
+        if(list.isEmpty())
+            return Collections.emptyList();
+        return Collections.unmodifiableList(new ArrayList<>(list));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> List<T>[] freezeAll(List<List<T>> lists){
+        List<T>[] result = new List[lists.size()];
+        for(int i = 0; i < result.length; i++)
+            result[i] = freeze(lists.get(i));
+        return result;
+    }
+
+    // the nodes located on a single floor.
+    private static class Floor {
+        List<Room> roomList = new ArrayList<>();
+        List<Intersection> intersectionList = new ArrayList<>();
+        List<FloorConnector> connectorList = new ArrayList<>();
+        List<List<FloorConnector>> byTypeList = lists(TYPES.length);
+
+        List<Room> rooms;
+        List<Intersection> intersections;
+        List<FloorConnector> connectors;
+        List<FloorConnector>[] connectorsByType;
+
+        // replace the lists used while sorting with their immutable copies.
+        void freeze(){
+            rooms = FloorViews.freeze(roomList);
+            intersections = FloorViews.freeze(intersectionList);
+            connectors = FloorViews.freeze(connectorList);
+            connectorsByType = freezeAll(byTypeList);
+            roomList = null;
+            intersectionList = null;
+            connectorList = null;
+            byTypeList = null;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package tk.pathfinder.Map;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/***
+ * A symmetric-delete index for finding words within a small edit distance of a misspelt term.
+ * Each word is stored under every string that can be made by deleting up to {@link #MAX_DISTANCE}
+ * of its characters. A term generates its own deletes, and any word sharing one of them is a
+ * candidate, which is then checked with a bounded edit distance.
+ * @author Michael MacLean
+ * @version 1.0
+ * @since 1.0
+ */
+class FuzzyIndex {
+
+    static final int MAX_DISTANCE = 2;
+    // words shorter than this are too short to guess at.
+    static final int MIN_LENGTH = 3;
+
+    private final String[] words;
+    private final int[][] rooms;
+    private final HashMap<String, int[]> deletes;
+
+    /**
+     * @param words The distinct words to index.
+     * @param rooms The sorted room indexes containing each word.
+     */
+    FuzzyIndex(List<String> words, List<int[]> rooms){
+        this.words = new String[words.size()];
+        this.rooms = rooms.toArray(new int[0][]);
+
+        HashMap<String, int[]> table = new HashMap<>();
+        HashSet<String> variants = new HashSet<>();
+        for(int i = 0; i < this.words.length; i++){
+            String word = confusable(words.get(i));
+            this.words[i] = word;
+            if(word.length() < MIN_LENGTH)
+                continue;
+            variants.clear();
+            // every word gets the full depth, so a long term can still reach a short word.
+            addDeletes(word, MAX_DISTANCE, variants);
+            for(String v : variants){
+                int[] ids = table.get(v);
+                if(ids == null)
+                    ids = new int[] {i};
+                else{
+                    ids = Arrays.copyOf(ids, ids.length + 1);
+                    ids[ids.length - 1] = i;
+                }
+                table.put(v, ids);
+            }
+        }
+        deletes = table;
+    }
+
+    /**
+     * Find the rooms containing a word close to a term.
+     * @param term A normalised search term.
+     * @return {rooms, scores}: the sorted room indexes and the score of the closest word in each.
+     */
+    int[][] search(String term){
+        term = confusable(term);
+        if(term.length() < MIN_LENGTH)
+            return new int[][] {new int[0], new int[0]};
+
+        int max = maxDistance(term.length());
+        HashSet<String> variants = new HashSet<>();
+        addDeletes(term, max, variants);
+
+        // the closest distance for each candidate word.
+        HashMap<Integer, Integer> found = new HashMap<>();
+        for(String v : variants){
+            int[] ids = deletes.get(v);
+            if(ids == null)
+                continue;
+            for(int id : ids){
+                if(found.containsKey(id))
+                    continue;
+                found.put(id, distance(term, words[id], max));
+            }
+        }
+
+        long[] hits = new long[0];
+        int count = 0;
+        for(java.util.Map.Entry<Integer, Integer> e : found.entrySet()){
+            int d = e.getValue();
+            if(d > max)
+                continue;
+            for(int room : rooms[e.getKey()]){
+                if(count == hits.length)
+                    hits = Arrays.copyOf(hits, Math.max(8, count * 2));
+                // sort by room, then best score first.
+                hits[count++] = ((long)room << 32) | (0xffffffffL - score(d));
+            }
+        }
+        Arrays.sort(hits, 0, count);
+
+        int[] outRooms = new int[count];
+        int[] outScores = new int[count];
+        int n = 0;
+        for(int i = 0; i < count; i++){
+            int room = (int)(hits[i] >>> 32);
+            if(n > 0 && outRooms[n - 1] == room)
+                continue;
+            outRooms[n] = room;
+            outScores[n++] = (int)(0xffffffffL - (hits[i] & 0xffffffffL));
+        }
+        return new int[][] {Arrays.copyOf(outRooms, n), Arrays.copyOf(outScores, n)};
+    }
+
+    /**
+     * @param distance The edit distance between a term and a word.
+     * @return The score of the match, always below an exact substring match.
+     */
+    static int score(int distance){
+        return SearchIndex.SUBSTRING - 1 - distance;
+    }
+
+    /**
+     * @param length The length of a term.
+     * @return The number of edits allowed for a term of that length.
+     */
+    static int maxDistance(int length){
+        return length <= 4 ? 1 : MAX_DISTANCE;
+    }
+
+    /**
+     * Scan words without an index, with the same result as searching one.
+     * @param term A normalised search term.
+     * @param words Normalised words.
+     * @return The score of the closest word, or 0 if none is close enough.
+     */
+    static int scan(String term, String[] words){
+        term = confusable(term);
+        if(term.length() < MIN_LENGTH)
+            return 0;
+        int max = maxDistance(term.length());
+        int best = max + 1;
+        for(String w : words){
+            w = confusable(w);
+            if(w.length() >= MIN_LENGTH)
+                best = Math.min(best, distance(term, w, max));
+        }
+        return best > max ? 0 : score(best);
+    }
+
+    /**
+     * In words containing digits, read the letters that are commonly typed for digits as those digits,
+     * so "2O4" finds "204".
+     * @param word A normalised word.
+     * @return The word with confusable letters replaced.
+     */
+    static String confusable(String word){
+        boolean digits = false;
+        for(int i = 0; i < word.length() && !digits; i++)
+            digits = Character.isDigit(word.charAt(i));
+        if(!digits)
+            return word;
+        return word.replace('o', '0').replace('l', '1').replace('i', '1');
+    }
+
+    private static void addDeletes(String word, int depth, HashSet<String> out){
+        if(!out.add(word) || depth == 0 || word.length() <= 1)
+            return;
+        for(int i = 0; i < word.length(); i++)
+            addDeletes(word.substring(0, i) + word.substring(i + 1), depth - 1, out);
+    }
+
+    /**
+     * The optimal string alignment distance: insertions, deletions, substitutions and swaps of
+     * adjacent characters each count as one edit.
+     * @param a A string.
+     * @param b A string.
+     * @param max The largest distance of interest.
+     * @return The distance, or max + 1 if it is larger than max.
+     */
+    static int distance(String a, String b, int max){
+        if(Math.abs(a.length() - b.length()) > max)
+            return max + 1;
+
+        int[] before = new int[b.length() + 1];
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for(int j = 0; j <= b.length(); j++)
+            previous[j] = j;
+
+        for(int i = 1; i <= a.length(); i++){
+            current[0] = i;
+            int rowMin = i;
+            for(int j = 1; j <= b.length(); j++){
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                int d = Math.min(Math.min(previous[j] + 1, current[j - 1] + 1), previous[j - 1] + cost);
+                if(i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1))
+                    d = Math.min(d, before[j - 2] + 1);
+                current[j] = d;
+                rowMin = Math.min(rowMin, d);
+            }
+            if(rowMin > max)
+                return max + 1;
+
+            int[] t = before;
+            before = previous;
+            previous = current;
+            current = t;
+        }
+        return Math.min(previous[b.length()], max + 1);
+    }
+}
@@ -0,0 +1,94 @@
+package tk.pathfinder.Map;
+
+import java.util.Collection;
+import java.util.HashMap;
+
+/***
+ * A lookup table from database index to object.
+ * Ids are usually allocated in a compact range, so they are stored in a flat array
+ * offset by the smallest id. Widely scattered ids fall back to a hash table.
+ * @author Michael MacLean
+ * @version 1.0
+ * @since 1.0
+ */
+public class IdIndex<T> {
+
+    // the array may be at most this many times larger than the number of items.
+    private static final int MAX_SPARSENESS = 4;
+
+    private final int offset;
+    private final Object[] dense;
+    private final HashMap<Integer, T> sparse;
+    private final int size;
+
+    /**
+     * Gets the database index of an item.
+     */
+    public interface IdFunction<T> {
+        int getId(T item);
+    }
+
+    /**
+     * @param items The items to index. When two items share an id, the first is kept.
+     * @param ids Gets the id of each item.
+     */
+    public IdIndex(Collection<? extends T> items, IdFunction<? super T> ids){
+        if(items == null)
+            throw new NullPointerException("items");
+
+        long min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+        for(T item : items){
+            int id = ids.getId(item);
+            min = Math.min(min, id);
+            max = Math.max(max, id);
+        }
+
+        int count = 0;
+        long range = items.isEmpty() ? 0 : max - min + 1;
+        if(range <= (long)MAX_SPARSENESS * items.size() + 16){
+            offset = items.isEmpty() ? 0 : (int)min;
+            dense = new Object[(int)range];
+            sparse = null;
+            for(T item : items){
+                int i = ids.getId(item) - offset;
+                if(dense[i] == null){
+                    dense[i] = item;
+                    count++;
+                }
+            }
+        }
+        else{
+            offset = 0;
+            dense = null;
+            sparse = new HashMap<>(items.size() * 2);
+            for(T item : items){
+                int id = ids.getId(item);
+                if(!sparse.containsKey(id)){
+                    sparse.put(id, item);
+                    count++;
+                }
+            }
+        }
+        size = count;
+    }
+
+    /**
+     * @param id A database index.
+     * @return The item with the given id, or null.
+     */
+    @SuppressWarnings("unchecked")
+    public T get(int id){
+        if(dense != null){
+            long i = (long)id - offset;
+            if(i < 0 || i >= dense.length)
+                return null;
+            return (T)dense[(int)i];
+        }
+        return sparse.get(id);
+    }
+
+    /**
+     * @return The number of distinct ids.
+     */
+    public int size() { return size; }
+}
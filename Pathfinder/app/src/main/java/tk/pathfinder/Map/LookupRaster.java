@@ -0,0 +1,202 @@
+package tk.pathfinder.Map;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/***
+ * A quantised lookup table of the closest node for each floor.
+ * Each cell of the raster stores the node nearest to its center, so resolving a location
+ * is a single array read. Smaller cells are more accurate but use more memory.
+ * @author Michael MacLean
+ * @version 1.0
+ * @since 1.0
+ */
+public class LookupRaster {
+
+    // floors with more cells than this are left to the spatial grid.
+    private static final int MAX_CELLS_PER_FLOOR = 1 << 22;
+
+    private final HashMap<Integer, Floor> floors = new HashMap<>();
+    private final int cellSize;
+    private long bytes = 0;
+
+    /**
+     * Build the raster for a set of nodes. Rows are resolved in parallel; the calling thread takes part.
+     * @param nodes The nodes to index.
+     * @param grid A nearest-node index over the same nodes.
+     * @param cellSize The width of a cell in map units.
+     * @param executor The pool to spread the rows over, may be null.
+     * @param job The job to check for cancellation, may be null.
+     * @throws CancellationException if the job is cancelled while building.
+     */
+    LookupRaster(Collection<? extends Node> nodes, SpatialGrid grid, int cellSize, ExecutorService executor, MapPreprocessor.Job job)
+            throws CancellationException {
+        if(cellSize < 1)
+            throw new IllegalArgumentException("cellSize must be positive");
+        this.cellSize = cellSize;
+
+        HashMap<Integer, List<Node>> byFloor = new HashMap<>();
+        for(Node n : nodes){
+            List<Node> l = byFloor.get(n.getFloor());
+            if(l == null){
+                l = new ArrayList<>();
+                byFloor.put(n.getFloor(), l);
+            }
+            l.add(n);
+        }
+
+        for(java.util.Map.Entry<Integer, List<Node>> e : byFloor.entrySet()){
+            Floor f = Floor.create(e.getKey(), e.getValue(), cellSize);
+            if(f == null)
+                continue;
+            f.fill(grid, executor, job);
+            floors.put(e.getKey(), f);
+            bytes += f.bytes();
+        }
+    }
+
+    /**
+     * Get the node closest to the center of a location's cell. It is never more than a cell's
+     * diagonal further from the location than the closest node is.
+     * @param p A location.
+     * @return The node closest to the center of the location's cell, or null if the location is outside the raster.
+     */
+    public Node closest(Point p){
+        Floor f = floors.get(p.getY());
+        if(f == null)
+            return null;
+        return f.get(p.getX(), p.getZ());
+    }
+
+    /**
+     * @return The width of a cell in map units.
+     */
+    public int getCellSize() { return cellSize; }
+
+    /**
+     * @return The approximate number of bytes used by the cell tables.
+     */
+    public long getMemoryUsage() { return bytes; }
+
+    private static class Floor {
+        private final int floor;
+        private final int minX;
+        private final int minZ;
+        private final int columns;
+        private final int rows;
+        private final int cellSize;
+        private final Node[] nodes;
+        // cells hold an index into nodes. char is used when it is wide enough to halve the memory cost.
+        private final char[] smallCells;
+        private final int[] cells;
+
+        private Floor(int floor, Node[] nodes, int minX, int minZ, int columns, int rows, int cellSize){
+            this.floor = floor;
+            this.nodes = nodes;
+            this.minX = minX;
+            this.minZ = minZ;
+            this.columns = columns;
+            this.rows = rows;
+            this.cellSize = cellSize;
+            if(nodes.length <= Character.MAX_VALUE){
+                smallCells = new char[columns * rows];
+                cells = null;
+            }
+            else{
+                smallCells = null;
+                cells = new int[columns * rows];
+            }
+        }
+
+        static Floor create(int floor, List<Node> floorNodes, int cellSize){
+            int minX = Integer.MAX_VALUE, minZ = Integer.MAX_VALUE;
+            int maxX = Integer.MIN_VALUE, maxZ = Integer.MIN_VALUE;
+            for(Node n : floorNodes){
+                Point p = n.getPoint();
+                minX = Math.min(minX, p.getX());
+                minZ = Math.min(minZ, p.getZ());
+                maxX = Math.max(maxX, p.getX());
+                maxZ = Math.max(maxZ, p.getZ());
+            }
+            long columns = (maxX - (long)minX) / cellSize + 1;
+            long rows = (maxZ - (long)minZ) / cellSize + 1;
+            if(columns * rows > MAX_CELLS_PER_FLOOR)
+                return null;
+
+            return new Floor(floor, floorNodes.toArray(new Node[0]), minX, minZ, (int)columns, (int)rows, cellSize);
+        }
+
+        Node get(int x, int z){
+            if(x < minX || z < minZ)
+                return null;
+            int column = (x - minX) / cellSize;
+            int row = (z - minZ) / cellSize;
+            if(column >= columns || row >= rows)
+                return null;
+            int i = row * columns + column;
+            return nodes[smallCells != null ? smallCells[i] : cells[i]];
+        }
+
+        long bytes(){
+            return (smallCells != null ? 2L * smallCells.length : 4L * cells.length) + 4L * nodes.length;
+        }
+
+        // resolve every cell center to its nearest node, sharing the rows between workers.
+        void fill(SpatialGrid grid, ExecutorService executor, MapPreprocessor.Job job) throws CancellationException {
+            IdentityHashMap<Node, Integer> index = new IdentityHashMap<>();
+            for(int i = 0; i < nodes.length; i++)
+                index.put(nodes[i], i);
+
+            AtomicInteger nextRow = new AtomicInteger();
+            Runnable worker = () -> {
+                int row;
+                while((row = nextRow.getAndIncrement()) < rows){
+                    if(job != null && job.isCancelled())
+                        return;
+                    int z = minZ + row * cellSize + cellSize / 2;
+                    for(int column = 0; column < columns; column++){
+                        int x = minX + column * cellSize + cellSize / 2;
+                        int n = index.get(grid.closest(new Point(x, floor, z)));
+                        if(smallCells != null)
+                            smallCells[row * columns + column] = (char)n;
+                        else cells[row * columns + column] = n;
+                    }
+                }
+            };
+
+            List<Future<?>> helpers = new ArrayList<>();
+            if(executor != null)
+                for(int i = 1; i < MapPreprocessor.POOL_SIZE; i++)
+                    helpers.add(executor.submit(worker));
+            worker.run();
+
+            // helpers that never started have no rows left to claim.
+            for(Future<?> f : helpers){
+                if(f.cancel(false))
+                    continue;
+                try{
+                    f.get();
+                }
+                catch(CancellationException ignored){ }
+                catch(InterruptedException e){
+                    Thread.currentThread().interrupt();
+                    throw new CancellationException("Interrupted while building the lookup raster");
+                }
+                catch(ExecutionException e){
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+
+            if(job != null && job.isCancelled())
+                throw new CancellationException();
+        }
+    }
+}
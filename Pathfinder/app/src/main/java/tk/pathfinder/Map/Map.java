@@ -3,25 +3,55 @@ package tk.pathfinder.Map;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import tk.pathfinder.Networking.Beacon;
+import tk.pathfinder.Networking.BeaconDirectory;
 
 /***
  * Represents a graph for a building map.
+ * A map is an immutable snapshot: its graph never changes after construction, and each instance
+ * carries a version that is greater than that of every map created before it. Derived indexes
+ * are published into it later, but they only ever replace a scan with an equivalent lookup.
  * @author Michael MacLean
  * @version 1.0
  * @since 1.0
  */
 public class Map {
 
-    private ArrayList<Node> nodes;
-    private ArrayList<Edge> edges;
-    private ArrayList<Beacon> beacons;
-
-    private Integer id;
-    private String name;
+    private final ArrayList<Node> nodes;
+    private final ArrayList<Edge> edges;
+    private final ArrayList<Beacon> beacons;
+    private final IdIndex<Node> nodeIndex;
+    private final BeaconDirectory beaconDirectory;
+    private final FloorViews views;
+
+    private static final AtomicLong versions = new AtomicLong();
+    // typical heap sizes, for getMemoryEstimate: a node with its point, strings and index slots,
+    // an edge, a beacon with its ssid, and a node's adjacency entry.
+    private static final long NODE_BYTES = 160;
+    private static final long EDGE_BYTES = 40;
+    private static final long BEACON_BYTES = 96;
+    private static final long ADJACENCY_BYTES = 64;
+
+    private final Integer id;
+    private final String name;
+    // the server's revision of the map, or 0 if it is not known.
+    private final int revision;
+    // the building this map is a floor of, or null if the map is whole.
+    private final ColumnarMap building;
+    private final long version = versions.incrementAndGet();
+
+    // structures published by the MapPreprocessor; null until their stage has run.
+    private volatile HashMap<Node, Edge[]> adjacency;
+    private volatile SpatialGrid grid;
+    private volatile LookupRaster raster;
+    private volatile RenderIndex renderIndex;
+    private volatile SearchIndex searchIndex;
 
     /**
      * @param id The database index of the map.
@@ -35,66 +65,102 @@ public class Map {
 
         this.id = id;
         this.name = name;
+        this.revision = 0;
+        this.building = null;
 
-        nodes = new ArrayList<>();
-        this.edges = new ArrayList<>();
-
+        // hash sets keep the first of any duplicates, in order, without a quadratic scan.
+        LinkedHashSet<Node> nodeSet = new LinkedHashSet<>();
+        LinkedHashSet<Edge> edgeSet = new LinkedHashSet<>();
         for (Edge edge : edges) {
-            if (edge != null && !this.edges.contains(edge))
-                this.edges.add(edge);
-
-            if (edge != null && edge.getNode1() != null && !nodes.contains(edge.getNode1()))
-                nodes.add(edge.getNode1());
-            if (edge != null && edge.getNode2() != null && !nodes.contains(edge.getNode2()))
-                nodes.add(edge.getNode2());
+            if (edge == null)
+                continue;
+            edgeSet.add(edge);
+            if (edge.getNode1() != null)
+                nodeSet.add(edge.getNode1());
+            if (edge.getNode2() != null)
+                nodeSet.add(edge.getNode2());
         }
+        nodes = new ArrayList<>(nodeSet);
+        this.edges = new ArrayList<>(edgeSet);
+        nodeIndex = new IdIndex<>(nodes, Node::getId);
+        views = new FloorViews(nodes);
 
         this.beacons = new ArrayList<>();
-        this.beacons.addAll(Arrays.asList(beacons));
+        if(beacons != null)
+            this.beacons.addAll(Arrays.asList(beacons));
+        beaconDirectory = new BeaconDirectory(this.beacons);
+    }
+
+    /**
+     * Create a map from data that has already been deduplicated, see {@link MapBuilder}.
+     * @param id The database index of the map.
+     * @param name The name of the map.
+     * @param revision The server's revision of the map, or 0 if it is not known.
+     * @param nodes The nodes, each with a distinct id and location.
+     * @param edges The distinct edges between the nodes.
+     * @param beacons The beacons, each with a distinct id pair.
+     */
+    Map(Integer id, String name, int revision, ArrayList<Node> nodes, ArrayList<Edge> edges, ArrayList<Beacon> beacons){
+        this.id = id;
+        this.name = name;
+        this.revision = revision;
+        this.building = null;
+        this.nodes = nodes;
+        this.edges = edges;
+        this.beacons = beacons;
+        nodeIndex = new IdIndex<>(nodes, Node::getId);
+        views = new FloorViews(nodes);
+        beaconDirectory = new BeaconDirectory(beacons);
+    }
+
+    /**
+     * Create the map of one floor of a building kept in columns, see {@link ColumnarMap#getFloorMap(int)}.
+     * @param building The building.
+     * @param nodes The nodes of the floor, and those on other floors its edges lead to.
+     * @param edges The distinct edges touching the floor.
+     * @param beacons The beacons of the building.
+     */
+    Map(ColumnarMap building, ArrayList<Node> nodes, ArrayList<Edge> edges, ArrayList<Beacon> beacons){
+        this.id = building.getId();
+        this.name = building.getName();
+        this.revision = building.getRevision();
+        this.building = building;
+        this.nodes = nodes;
+        this.edges = edges;
+        this.beacons = beacons;
+        nodeIndex = new IdIndex<>(nodes, Node::getId);
+        views = new FloorViews(nodes);
+        beaconDirectory = new BeaconDirectory(beacons);
     }
 
     /**
      * @return an iterator pointing to all map nodes.
      */
     Iterator<Node> getNodes(){
-        return nodes.iterator();
+        return Collections.unmodifiableList(nodes).iterator();
     }
 
     /***
      * @return an iterator pointing to all edges.
      */
     public Iterator<Edge> getEdges(){
-        return edges.iterator();
+        return Collections.unmodifiableList(edges).iterator();
     }
 
-    public Iterator<Beacon> getBeacons() { return beacons.iterator(); }
+    public Iterator<Beacon> getBeacons() { return Collections.unmodifiableList(beacons).iterator(); }
 
     /***
      * @return an iterator pointing to all rooms.
      */
     public Iterator<Room> getRooms(){
-        List<Room> rooms = new ArrayList<>();
-        for(Iterator<Node> i = getNodes(); i.hasNext(); ){
-            Node n = i.next();
-            if(n instanceof Room)
-                rooms.add((Room)n);
-        }
-
-        return rooms.iterator();
+        return views.rooms.iterator();
     }
 
     /***
      * @return an iterator pointing to all nodes that function as elevators, staircases, or escalators.
      */
     public Iterator<FloorConnector> getFloorConnectors(){
-        ArrayList<FloorConnector> elevators = new ArrayList<>();
-
-        for(Iterator<Node> i = getNodes(); i.hasNext(); ){
-            Node n = i.next();
-            if(n instanceof FloorConnector)
-                elevators.add((FloorConnector)n);
-        }
-        return elevators.iterator();
+        return views.connectors.iterator();
     }
 
     /**
@@ -102,13 +168,59 @@ public class Map {
      * @return An iterator pointing to all floor connectors of the given type.
      */
     Iterator<FloorConnector> getFloorConnectors(FloorConnector.FloorConnectorTypes type){
-        List<FloorConnector> connectors = new ArrayList<>();
-        for(Iterator<Node> i = getNodes(); i.hasNext(); ){
-            Node n = i.next();
-            if(n instanceof FloorConnector && ((FloorConnector)n).getType() == type)
-                connectors.add((FloorConnector)n);
-        }
-        return connectors.iterator();
+        return views.connectorsByType[type.ordinal()].iterator();
+    }
+
+    /**
+     * @return All nodes that function as elevators, staircases, or escalators, as an unmodifiable list.
+     */
+    public List<FloorConnector> getFloorConnectorList(){
+        return views.connectors;
+    }
+
+    /**
+     * @param type A type of floor connector.
+     * @return All floor connectors of the given type, as an unmodifiable list.
+     */
+    public List<FloorConnector> getFloorConnectorList(FloorConnector.FloorConnectorTypes type){
+        if(type == null)
+            throw new NullPointerException("type");
+        return views.connectorsByType[type.ordinal()];
+    }
+
+    /**
+     * @param floor A floor number.
+     * @return The rooms on the floor, as an unmodifiable list.
+     */
+    public List<Room> getRooms(int floor){
+        return views.getRooms(floor);
+    }
+
+    /**
+     * @param floor A floor number.
+     * @return The intersections on the floor, as an unmodifiable list.
+     */
+    public List<Intersection> getIntersections(int floor){
+        return views.getIntersections(floor);
+    }
+
+    /**
+     * @param floor A floor number.
+     * @return The floor connectors located on the floor, as an unmodifiable list.
+     */
+    public List<FloorConnector> getFloorConnectors(int floor){
+        return views.getFloorConnectors(floor);
+    }
+
+    /**
+     * @param floor A floor number.
+     * @param type A type of floor connector.
+     * @return The floor connectors of the given type located on the floor, as an unmodifiable list.
+     */
+    public List<FloorConnector> getFloorConnectors(int floor, FloorConnector.FloorConnectorTypes type){
+        if(type == null)
+            throw new NullPointerException("type");
+        return views.getFloorConnectors(floor, type);
     }
 
     /***
@@ -116,6 +228,13 @@ public class Map {
      * @return an iterator pointing to all edges connected to the current, sorted by weight.
      */
     Iterator<Edge> getNextEdges(Node n){
+        HashMap<Node, Edge[]> adjacency = this.adjacency;
+        if(adjacency != null){
+            Edge[] next = adjacency.get(n);
+            if(next != null)
+                return Arrays.asList(next).iterator();
+        }
+
         final ArrayList<Edge> resultEdges = new ArrayList<>();
 
         for(Edge e : edges)
@@ -131,20 +250,47 @@ public class Map {
      * @return An array with [0] being the lowest floor, and [1] being the highest.
      */
     public int[] getFloorRange(){
-        int lowest = Integer.MAX_VALUE;
-        int highest = Integer.MIN_VALUE;
-
-        if(nodes.size() == 0)
-            return new int[] {0, 0};
-        for(Node n : nodes){
-            int floor = n.getPoint().getY();
-            if(floor < lowest)
-                lowest = floor;
-            if(floor > highest)
-                highest = floor;
+        return views.getFloorRange();
+    }
+
+    /**
+     * Build the list of edges leaving each node, sorted by weight.
+     * @param job The job to check for cancellation, may be null.
+     * @return The adjacency table, or null if the job was cancelled.
+     */
+    HashMap<Node, Edge[]> computeAdjacency(MapPreprocessor.Job job){
+        HashMap<Node, List<Edge>> lists = new HashMap<>();
+        for(Edge e : edges){
+            if(job != null && job.isCancelled())
+                return null;
+            for(Node n : new Node[] {e.getNode1(), e.getNode2()}){
+                List<Edge> l = lists.get(n);
+                if(l == null){
+                    l = new ArrayList<>();
+                    lists.put(n, l);
+                }
+                l.add(e);
+            }
         }
 
-        return new int[] {lowest, highest};
+        HashMap<Node, Edge[]> result = new HashMap<>();
+        for(java.util.Map.Entry<Node, List<Edge>> entry : lists.entrySet()){
+            Edge[] arr = entry.getValue().toArray(new Edge[0]);
+            Arrays.sort(arr);
+            result.put(entry.getKey(), arr);
+        }
+        return result;
+    }
+
+    void setAdjacency(HashMap<Node, Edge[]> value){
+        adjacency = value;
+    }
+
+    /**
+     * @return The adjacency table, or null if it has not been built yet.
+     */
+    HashMap<Node, Edge[]> getAdjacency(){
+        return adjacency;
     }
 
 
@@ -162,18 +308,32 @@ public class Map {
     }
 
     /***
-     * Get the closest node to a given location
+     * Get the closest node to a given location. Once a lookup raster has been built, this is the node
+     * closest to the center of the raster cell the location is in; see {@link LookupRaster#closest(Point)}.
      * @param p The point to use as a reference
      * @return the closest node.
      */
     public Node closestNode(Point p) throws IllegalStateException {
+        if(p == null)
+            throw new IllegalArgumentException("p cannot be null");
+        if(nodes.isEmpty())
+            throw new IllegalStateException("There are no nodes in the map!");
+
+        LookupRaster raster = this.raster;
+        if(raster != null){
+            Node n = raster.closest(p);
+            if(n != null)
+                return n;
+        }
+
+        SpatialGrid grid = this.grid;
+        if(grid != null)
+            return grid.closest(p);
+
         Node n = null; // result
         double dist = -1; // minimum distance
         Iterator<Node> i = getNodes();
 
-        if(!i.hasNext())
-            throw new IllegalStateException("There are no nodes in the map!");
-
         // search each node and compare the distances
         while(i.hasNext()){
             Node current = i.next();
@@ -189,28 +349,165 @@ public class Map {
         return n;
     }
 
+    /**
+     * Get the closest nodes to a given location.
+     * @param p The point to use as a reference.
+     * @param k The maximum number of nodes to return.
+     * @return Up to k nodes on the same floor, ordered from closest to farthest.
+     */
+    public List<Node> closestNodes(Point p, int k){
+        if(p == null)
+            throw new IllegalArgumentException("p cannot be null");
+        if(k < 0)
+            throw new IllegalArgumentException("k must not be negative");
+
+        SpatialGrid grid = this.grid;
+        if(grid != null)
+            return grid.closest(p, k);
+
+        List<Node> result = new ArrayList<>();
+        for(Node n : nodes)
+            if(n.getFloor() == p.getY())
+                result.add(n);
+        Collections.sort(result, (a, b) -> Double.compare(p.distance(a.getPoint()), p.distance(b.getPoint())));
+        return result.size() > k ? new ArrayList<>(result.subList(0, k)) : result;
+    }
+
+    /**
+     * @return A nearest-node index over all of the map's nodes.
+     */
+    SpatialGrid computeGrid(){
+        return new SpatialGrid(nodes);
+    }
+
+    void setGrid(SpatialGrid value){
+        grid = value;
+    }
+
+    SpatialGrid getGrid(){
+        return grid;
+    }
+
+    /**
+     * @param cellSize The width of a raster cell in map units.
+     * @param job The running job, used for cancellation and for its worker pool.
+     * @return A lookup raster over all of the map's nodes.
+     */
+    LookupRaster computeRaster(int cellSize, MapPreprocessor.Job job){
+        SpatialGrid grid = this.grid;
+        if(grid == null)
+            grid = computeGrid();
+        return new LookupRaster(nodes, grid, cellSize, MapPreprocessor.executor, job);
+    }
+
+    void setRaster(LookupRaster value){
+        raster = value;
+    }
+
+    /**
+     * @return The lookup raster used by {@link #closestNode(Point)}, or null if it has not been built.
+     */
+    public LookupRaster getLookupRaster(){
+        return raster;
+    }
+
+    /**
+     * @return The viewport index used for drawing and hit testing, or null if it has not been built yet.
+     */
+    public RenderIndex getRenderIndex(){
+        return renderIndex;
+    }
+
+    RenderIndex computeRenderIndex(){
+        return new RenderIndex(nodes, edges);
+    }
+
+    void setRenderIndex(RenderIndex value){
+        renderIndex = value;
+    }
+
+    /**
+     * @return The number of bytes used by the lookup raster, or 0 if it has not been built.
+     */
+    public long getLookupRasterMemory(){
+        LookupRaster raster = this.raster;
+        return raster == null ? 0 : raster.getMemoryUsage();
+    }
+
+    /**
+     * Estimate the heap taken up by the map and the structures built for it so far. The figure is
+     * rough, from typical object sizes, but it grows with the map and is cheap to work out.
+     * A floor of a building kept in columns also counts the columns, though they are off the heap.
+     * @return The estimate, in bytes.
+     */
+    public long getMemoryEstimate(){
+        int n = nodes.size(), e = edges.size();
+        long bytes = n * NODE_BYTES + e * EDGE_BYTES + beacons.size() * BEACON_BYTES;
+        if(adjacency != null)
+            bytes += n * ADJACENCY_BYTES + e * 2 * 4;
+        if(grid != null)
+            bytes += n * 16;
+        if(renderIndex != null)
+            bytes += (n + e) * 48;
+        if(searchIndex != null)
+            bytes += views.rooms.size() * 160;
+        if(building != null)
+            bytes += building.getMemoryUsage();
+        return bytes + getLookupRasterMemory();
+    }
+
+    SearchIndex computeSearchIndex(){
+        return new SearchIndex(views.rooms);
+    }
+
+    void setSearchIndex(SearchIndex value){
+        searchIndex = value;
+    }
+
+    /**
+     * @return The room search index, or null if it has not been built yet.
+     */
+    SearchIndex getSearchIndex(){
+        return searchIndex;
+    }
+
     /**
      * Search for a destination by name.
      * @param keywords The search terms to use.
-     * @return A list of destinations matching the given keywords.
-     */
-    public List<Room> findDestination(String keywords){
-        List<Room> ret = new ArrayList<>();
-        String[] parts = keywords.split(" ");
-
-        for(Iterator<Room> rooms = getRooms(); rooms.hasNext(); ){
-            Room i = rooms.next();
-            for(String j : parts) {
-                j = j.toLowerCase();
-                if (i.getRoomNumber() != null && i.getRoomNumber().toLowerCase().contains(j)
-                        || i.getName() != null && i.getName().toLowerCase().contains(j)) {
-                    ret.add(i);
-                    break;
-                }
-            }
-        }
+     * @return A list of destinations matching any of the given keywords, best match first.
+     * @throws IllegalArgumentException if keywords is null.
+     */
+    public List<Room> findDestination(String keywords) throws IllegalArgumentException {
+        return search(keywords, false, Integer.MAX_VALUE);
+    }
 
-        return ret;
+    /**
+     * Search for a destination by room name and number. Terms match the start of a word best,
+     * and any part of a word otherwise. Case and accents are ignored. A term found nowhere is matched
+     * against words within a small edit distance instead, ranked below every exact match.
+     * A floor of a building kept in columns searches the whole building.
+     * @param keywords The search terms to use.
+     * @param matchAll If true, a room must match every term, otherwise any of them.
+     * @param limit The maximum number of results.
+     * @return The best matching rooms, best first. Every room is returned if there are no terms.
+     * @throws IllegalArgumentException if keywords is null or limit is negative.
+     */
+    public List<Room> search(String keywords, boolean matchAll, int limit) throws IllegalArgumentException {
+        if(keywords == null)
+            throw new IllegalArgumentException("keywords cannot be null");
+        if(limit < 0)
+            throw new IllegalArgumentException("limit must not be negative");
+        if(building != null)
+            return building.search(keywords, matchAll, limit);
+
+        String[] terms = SearchIndex.terms(keywords);
+        if(terms.length == 0)
+            return new ArrayList<>(views.rooms.subList(0, Math.min(limit, views.rooms.size())));
+
+        SearchIndex index = searchIndex;
+        if(index != null)
+            return index.search(terms, matchAll, limit);
+        return SearchIndex.scan(views.rooms, terms, matchAll, limit);
     }
 
     // get the closest floor connector to a point.
@@ -218,8 +515,7 @@ public class Map {
         FloorConnector result = null;
         double min = Double.POSITIVE_INFINITY; // minimum distance
 
-        for(Iterator<FloorConnector> fcs = getFloorConnectors(); fcs.hasNext(); ){
-            FloorConnector i = fcs.next();
+        for(FloorConnector i : views.connectorArray){
             double dist = p.distance(i.getPoint());
             if(dist < min){
                 min = dist;
@@ -239,7 +535,8 @@ public class Map {
     public int getNodeDistance(Point a, Node b){
         if(a == null || b == null)
             return -2;
-        if(!nodes.contains(b))
+        Node known = getNode(b.getId());
+        if(known == null || !known.equals(b))
             return -1;
 
         // different floor!
@@ -269,14 +566,66 @@ public class Map {
         return id;
     }
 
+    /**
+     * @return The snapshot version. Maps created later always have a higher version.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return The server's revision of the map, or 0 if it is not known. Unlike the snapshot version,
+     * this is the same on every device that has the same map.
+     */
+    public int getRevision() {
+        return revision;
+    }
+
+    /**
+     * @return The number of nodes on the map.
+     */
+    public int getNodeCount(){
+        return nodes.size();
+    }
+
+    /**
+     * @return The number of edges on the map.
+     */
+    public int getEdgeCount(){
+        return edges.size();
+    }
+
+    /**
+     * @param id The database index of a node.
+     * @return The node with the given index, or null if it is not on the map. A floor of a building
+     * kept in columns also finds the nodes on other floors.
+     */
+    public Node getNode(int id){
+        Node n = nodeIndex.get(id);
+        if(n == null && building != null)
+            n = building.getNode(id);
+        return n;
+    }
+
+    /**
+     * @return The building kept in columns that this map is one floor of, or null if the map is whole.
+     */
+    public ColumnarMap getBuilding(){
+        return building;
+    }
+
     /**
      * @param ssid A beacon SSID.
      * @return The beacon matching the given SSID, or null.
      */
     public Beacon getBeacon(String ssid){
-        for(Beacon i : beacons)
-            if(i.getSSID().equals(ssid))
-                return i;
-        return null;
+        return beaconDirectory.get(ssid);
+    }
+
+    /**
+     * @return The map's beacons, keyed by their (building, beacon) id pair.
+     */
+    public BeaconDirectory getBeaconDirectory(){
+        return beaconDirectory;
     }
 }
@@ -0,0 +1,215 @@
+package tk.pathfinder.Map;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import tk.pathfinder.Networking.Beacon;
+import tk.pathfinder.Networking.BeaconDirectory;
+
+/***
+ * Assembles a map from its nodes, edges and beacons in a single linear pass.
+ * Invalid data is left out of the map and reported through {@link #getWarnings()}.
+ * @author Michael MacLean
+ * @version 1.0
+ * @since 1.0
+ */
+public class MapBuilder implements MapSink {
+
+    private Integer id;
+    private String name;
+    private int revision = 0;
+    private final List<Node> nodes = new ArrayList<>();
+    private final List<Beacon> beacons = new ArrayList<>();
+    // edges are held as id pairs until build(), so they may arrive before their nodes.
+    private int[] edgeIds = new int[64];
+    private int edgeCount = 0;
+    private final List<String> warnings = new ArrayList<>();
+    private boolean built = false;
+
+    /**
+     * @param id The database index of the map.
+     * @param name The name of the map.
+     */
+    public MapBuilder(Integer id, String name){
+        this.id = id;
+        this.name = name;
+    }
+
+    /**
+     * @param n A node.
+     * @return This builder.
+     */
+    public MapBuilder addNode(Node n){
+        if(n == null)
+            throw new NullPointerException("n");
+        nodes.add(n);
+        return this;
+    }
+
+    @Override
+    public MapBuilder setMapInfo(Integer id, String name){
+        this.id = id;
+        this.name = name;
+        return this;
+    }
+
+    /**
+     * @param revision The server's revision of the map, or 0 if it is not known.
+     * @return This builder.
+     */
+    public MapBuilder setRevision(int revision){
+        if(revision < 0)
+            throw new IllegalArgumentException("revision must not be negative");
+        this.revision = revision;
+        return this;
+    }
+
+    @Override
+    public MapBuilder addRoom(int id, int x, int y, int z, String roomNumber, String name, boolean requiresAuth){
+        return addNode(new Room(id, new Point(x, y, z), roomNumber, name, requiresAuth));
+    }
+
+    @Override
+    public MapBuilder addFloorConnector(int id, int x, int y, int z, String name, FloorConnector.FloorConnectorTypes type,
+                                        boolean operational, boolean requiresAuth){
+        // the floors served are not sent yet, and every floor is treated as accessible.
+        return addNode(new FloorConnector(id, new Point(x, y, z), name, type, new int[] {y}, operational, requiresAuth));
+    }
+
+    @Override
+    public MapBuilder addIntersection(int id, int x, int y, int z){
+        return addNode(new Intersection(id, new Point(x, y, z)));
+    }
+
+    /**
+     * @param node1 The database index of the first node.
+     * @param node2 The database index of the second node.
+     * @return This builder.
+     */
+    @Override
+    public MapBuilder addEdge(int node1, int node2){
+        if(edgeCount * 2 == edgeIds.length)
+            edgeIds = Arrays.copyOf(edgeIds, edgeIds.length * 2);
+        edgeIds[edgeCount * 2] = node1;
+        edgeIds[edgeCount * 2 + 1] = node2;
+        edgeCount++;
+        return this;
+    }
+
+    /**
+     * @param b A beacon.
+     * @return This builder.
+     */
+    public MapBuilder addBeacon(Beacon b){
+        if(b == null)
+            throw new NullPointerException("b");
+        beacons.add(b);
+        return this;
+    }
+
+    @Override
+    public MapBuilder addBeacon(String ssid, int x, int y, int z){
+        return addBeacon(new Beacon(ssid, new Point(x, y, z)));
+    }
+
+    /**
+     * @return The problems found by the last call to build.
+     */
+    public List<String> getWarnings(){
+        return Collections.unmodifiableList(warnings);
+    }
+
+    /**
+     * Validate the data and create the map. Duplicate nodes and beacons, duplicate or dangling edges,
+     * and edges from a node to itself are dropped. A node sharing its coordinates with an earlier node
+     * is merged into it, as the two are indistinguishable to routing.
+     * @return The map.
+     * @throws IllegalStateException if the builder has already been used.
+     */
+    public Map build() throws IllegalStateException {
+        if(built)
+            throw new IllegalStateException("build() may only be called once");
+        built = true;
+        warnings.clear();
+
+        // nodes: drop repeated ids, merge repeated coordinates.
+        IdIndex<Node> byId = new IdIndex<>(nodes, Node::getId);
+        HashMap<Point, Node> byPoint = new HashMap<>(nodes.size() * 2);
+        ArrayList<Node> mapNodes = new ArrayList<>(byId.size());
+        for(Node n : nodes){
+            if(byId.get(n.getId()) != n){
+                warnings.add("Duplicate node id " + n.getId());
+                continue;
+            }
+            Node existing = byPoint.get(n.getPoint());
+            if(existing != null){
+                warnings.add("Node " + n.getId() + " has the same coordinates as node " + existing.getId() + " " + n.getPoint());
+                continue;
+            }
+            byPoint.put(n.getPoint(), n);
+            mapNodes.add(n);
+        }
+
+        // edges: resolve ids through the merged nodes, drop dangling and repeated edges.
+        HashSet<Long> seen = new HashSet<>(edgeCount * 2);
+        ArrayList<Edge> mapEdges = new ArrayList<>(edgeCount);
+        Set<Node> connected = Collections.newSetFromMap(new IdentityHashMap<>());
+        for(int i = 0; i < edgeCount; i++){
+            int a = edgeIds[i * 2];
+            int b = edgeIds[i * 2 + 1];
+            Node n1 = resolve(byId, byPoint, a);
+            Node n2 = resolve(byId, byPoint, b);
+            if(n1 == null || n2 == null){
+                warnings.add("Dangling edge " + a + " - " + b);
+                continue;
+            }
+            if(n1 == n2){
+                warnings.add("Edge " + a + " - " + b + " connects a node to itself");
+                continue;
+            }
+
+            int lo = Math.min(n1.getId(), n2.getId());
+            int hi = Math.max(n1.getId(), n2.getId());
+            if(!seen.add(((long)lo << 32) | (hi & 0xffffffffL))){
+                warnings.add("Duplicate edge " + a + " - " + b);
+                continue;
+            }
+            mapEdges.add(new Edge(n1, n2));
+            connected.add(n1);
+            connected.add(n2);
+        }
+
+        // like the edge-based constructor, the map only holds nodes that have an edge.
+        ArrayList<Node> reachable = new ArrayList<>(connected.size());
+        for(Node n : mapNodes){
+            if(connected.contains(n))
+                reachable.add(n);
+            else warnings.add("Node " + n.getId() + " has no edges");
+        }
+
+        // beacons: one per (building, beacon) id pair.
+        HashSet<Long> beaconIds = new HashSet<>();
+        ArrayList<Beacon> mapBeacons = new ArrayList<>(beacons.size());
+        for(Beacon b : beacons){
+            if(!beaconIds.add(BeaconDirectory.key(b))){
+                warnings.add("Duplicate beacon " + b.getSSID());
+                continue;
+            }
+            mapBeacons.add(b);
+        }
+
+        return new Map(id, name, revision, reachable, mapEdges, mapBeacons);
+    }
+
+    // find the node an id refers to after merging.
+    private static Node resolve(IdIndex<Node> byId, HashMap<Point, Node> byPoint, int id){
+        Node n = byId.get(id);
+        return n == null ? null : byPoint.get(n.getPoint());
+    }
+}
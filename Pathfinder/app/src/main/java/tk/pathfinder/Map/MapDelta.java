@@ -0,0 +1,354 @@
+package tk.pathfinder.Map;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+
+import tk.pathfinder.Networking.Beacon;
+import tk.pathfinder.Networking.BeaconDirectory;
+
+/***
+ * The changes that take a map from one server revision to a later one.
+ * Nodes and beacons are sent whole, whether they are new or changed, and matched to the old map by
+ * id; edges are id pairs. Applying a delta creates a new map that shares every untouched node, edge
+ * and beacon with the old one, and carries over the routing table with only the touched nodes'
+ * entries rebuilt. When no node changed, the nearest-node indexes and room search index are shared too.
+ * @author Michael MacLean
+ * @version 1.0
+ * @since 1.0
+ */
+public class MapDelta implements MapSink {
+
+    private Integer id;
+    private String name;
+    private int baseRevision = -1;
+    private int revision = -1;
+    // new and changed nodes by id, in the order they arrived.
+    private final LinkedHashMap<Integer, Node> nodes = new LinkedHashMap<>();
+    private final HashSet<Integer> removedNodes = new HashSet<>();
+    private final List<int[]> edges = new ArrayList<>();
+    private final HashSet<Long> removedEdges = new HashSet<>();
+    private final List<Beacon> beacons = new ArrayList<>();
+    private final HashSet<String> removedBeacons = new HashSet<>();
+
+    public MapDelta(){
+    }
+
+    /**
+     * @param baseRevision The revision the delta applies to.
+     * @param revision The revision the delta leads to.
+     */
+    public MapDelta(int baseRevision, int revision){
+        setRevisions(baseRevision, revision);
+    }
+
+    /**
+     * @param baseRevision The revision the delta applies to.
+     * @param revision The revision the delta leads to.
+     * @return This delta.
+     * @throws IllegalArgumentException if the revisions are negative or out of order.
+     */
+    public MapDelta setRevisions(int baseRevision, int revision) throws IllegalArgumentException {
+        if(baseRevision < 0 || revision < baseRevision)
+            throw new IllegalArgumentException("Invalid revisions " + baseRevision + " to " + revision);
+        this.baseRevision = baseRevision;
+        this.revision = revision;
+        return this;
+    }
+
+    public int getBaseRevision() { return baseRevision; }
+
+    public int getRevision() { return revision; }
+
+    public Integer getId() { return id; }
+
+    /**
+     * @return true if the delta changes no node, edge or beacon.
+     */
+    public boolean isEmpty(){
+        return nodes.isEmpty() && removedNodes.isEmpty() && edges.isEmpty()
+                && removedEdges.isEmpty() && beacons.isEmpty() && removedBeacons.isEmpty();
+    }
+
+    /**
+     * Set the map's id, and its new name if it was renamed.
+     * @param id The database index of the map, may be null.
+     * @param name The new name of the map, or null if it did not change.
+     * @return This delta.
+     */
+    @Override
+    public MapDelta setMapInfo(Integer id, String name){
+        this.id = id;
+        this.name = name;
+        return this;
+    }
+
+    /**
+     * Add a node, or replace the node with the same id.
+     * @param n The node.
+     * @return This delta.
+     */
+    public MapDelta addNode(Node n){
+        if(n == null)
+            throw new NullPointerException("n");
+        nodes.put(n.getId(), n);
+        removedNodes.remove(n.getId());
+        return this;
+    }
+
+    @Override
+    public MapDelta addRoom(int id, int x, int y, int z, String roomNumber, String name, boolean requiresAuth){
+        return addNode(new Room(id, new Point(x, y, z), roomNumber, name, requiresAuth));
+    }
+
+    @Override
+    public MapDelta addFloorConnector(int id, int x, int y, int z, String name, FloorConnector.FloorConnectorTypes type,
+                                      boolean operational, boolean requiresAuth){
+        return addNode(new FloorConnector(id, new Point(x, y, z), name, type, new int[] {y}, operational, requiresAuth));
+    }
+
+    @Override
+    public MapDelta addIntersection(int id, int x, int y, int z){
+        return addNode(new Intersection(id, new Point(x, y, z)));
+    }
+
+    /**
+     * Remove a node, along with its edges.
+     * @param id The database index of the node.
+     * @return This delta.
+     */
+    public MapDelta removeNode(int id){
+        nodes.remove(id);
+        removedNodes.add(id);
+        return this;
+    }
+
+    @Override
+    public MapDelta addEdge(int node1, int node2){
+        edges.add(new int[] {node1, node2});
+        removedEdges.remove(key(node1, node2));
+        return this;
+    }
+
+    /**
+     * @param node1 The database index of the first node.
+     * @param node2 The database index of the second node.
+     * @return This delta.
+     */
+    public MapDelta removeEdge(int node1, int node2){
+        removedEdges.add(key(node1, node2));
+        return this;
+    }
+
+    /**
+     * Add a beacon, or replace the beacon with the same id pair.
+     * @param b The beacon.
+     * @return This delta.
+     */
+    public MapDelta addBeacon(Beacon b){
+        if(b == null)
+            throw new NullPointerException("b");
+        beacons.add(b);
+        removedBeacons.remove(b.getSSID());
+        return this;
+    }
+
+    @Override
+    public MapDelta addBeacon(String ssid, int x, int y, int z){
+        return addBeacon(new Beacon(ssid, new Point(x, y, z)));
+    }
+
+    /**
+     * @param ssid The SSID of the beacon to remove.
+     * @return This delta.
+     */
+    public MapDelta removeBeacon(String ssid){
+        if(ssid == null)
+            throw new NullPointerException("ssid");
+        removedBeacons.add(ssid);
+        return this;
+    }
+
+    /**
+     * Create the map this delta leads to. The base map is not changed.
+     * @param base The map at the delta's base revision.
+     * @return The map at the delta's revision.
+     * @throws IllegalArgumentException if the delta is for another map or revision, or it leaves
+     * an edge without a node or two nodes at the same location.
+     */
+    public Map applyTo(Map base) throws IllegalArgumentException {
+        if(base == null)
+            throw new NullPointerException("base");
+        if(revision < 0)
+            throw new IllegalArgumentException("The delta has no revision");
+        if(id != null && base.getId() != null && !id.equals(base.getId()))
+            throw new IllegalArgumentException("The delta is for map " + id + ", not " + base.getId());
+        if(base.getRevision() != baseRevision)
+            throw new IllegalArgumentException("The delta applies to revision " + baseRevision + ", not " + base.getRevision());
+
+        // old node objects that are replaced or removed.
+        Set<Node> replaced = Collections.newSetFromMap(new IdentityHashMap<>());
+        ArrayList<Node> newNodes = new ArrayList<>(base.getNodeCount() + nodes.size());
+        LinkedHashMap<Integer, Node> added = new LinkedHashMap<>(nodes);
+        for(Iterator<Node> i = base.getNodes(); i.hasNext(); ){
+            Node n = i.next();
+            Node changed = added.remove(n.getId());
+            if(changed != null || removedNodes.contains(n.getId()))
+                replaced.add(n);
+            if(changed != null)
+                newNodes.add(changed);
+            else if(!removedNodes.contains(n.getId()))
+                newNodes.add(n);
+        }
+        newNodes.addAll(added.values());
+        if(!nodes.isEmpty()){
+            HashSet<Point> points = new HashSet<>(newNodes.size() * 2);
+            for(Node n : newNodes)
+                if(!points.add(n.getPoint()))
+                    throw new IllegalArgumentException("Node " + n.getId() + " shares its location with another node " + n.getPoint());
+        }
+
+        // edges: untouched ones are kept, those touching a changed node are rebuilt to point at it.
+        Set<Node> dirty = Collections.newSetFromMap(new IdentityHashMap<>());
+        ArrayList<Edge> newEdges = new ArrayList<>(base.getEdgeCount() + edges.size());
+        HashSet<Long> keys = edges.isEmpty() ? null : new HashSet<>();
+        for(Iterator<Edge> i = base.getEdges(); i.hasNext(); ){
+            Edge e = i.next();
+            Node a = e.getNode1(), b = e.getNode2();
+            Edge kept = e;
+            if(removedEdges.contains(key(a.getId(), b.getId())))
+                kept = null;
+            else if(replaced.contains(a) || replaced.contains(b)){
+                Node na = find(base, a.getId()), nb = find(base, b.getId());
+                kept = na == null || nb == null ? null : new Edge(na, nb);
+            }
+
+            if(kept != e){
+                markDirty(dirty, find(base, a.getId()));
+                markDirty(dirty, find(base, b.getId()));
+            }
+            if(kept == null)
+                continue;
+            newEdges.add(kept);
+            if(keys != null)
+                keys.add(key(a.getId(), b.getId()));
+        }
+        for(int[] pair : edges){
+            if(removedEdges.contains(key(pair[0], pair[1])) || !keys.add(key(pair[0], pair[1])))
+                continue;
+            Node na = find(base, pair[0]), nb = find(base, pair[1]);
+            if(na == null || nb == null)
+                throw new IllegalArgumentException("Dangling edge " + pair[0] + " - " + pair[1]);
+            if(na == nb)
+                throw new IllegalArgumentException("Edge " + pair[0] + " - " + pair[1] + " connects a node to itself");
+            newEdges.add(new Edge(na, nb));
+            dirty.add(na);
+            dirty.add(nb);
+        }
+
+        // like the builder, the map only holds nodes that have an edge.
+        boolean nodesChanged = !replaced.isEmpty() || newNodes.size() != base.getNodeCount();
+        if(!dirty.isEmpty() || nodesChanged){
+            Set<Node> connected = Collections.newSetFromMap(new IdentityHashMap<>());
+            for(Edge e : newEdges){
+                connected.add(e.getNode1());
+                connected.add(e.getNode2());
+            }
+            if(connected.size() != newNodes.size()){
+                ArrayList<Node> reachable = new ArrayList<>(connected.size());
+                for(Node n : newNodes)
+                    if(connected.contains(n))
+                        reachable.add(n);
+                    else replaced.add(n);
+                newNodes = reachable;
+                nodesChanged = true;
+            }
+        }
+
+        // beacons: matched by id pair.
+        LinkedHashMap<Long, Beacon> beaconMap = new LinkedHashMap<>();
+        for(Iterator<Beacon> i = base.getBeacons(); i.hasNext(); ){
+            Beacon b = i.next();
+            if(!removedBeacons.contains(b.getSSID()))
+                beaconMap.put(BeaconDirectory.key(b), b);
+        }
+        for(Beacon b : beacons)
+            beaconMap.put(BeaconDirectory.key(b), b);
+
+        Map map = new Map(base.getId() != null ? base.getId() : id, name != null ? name : base.getName(), revision,
+                newNodes, newEdges, new ArrayList<>(beaconMap.values()));
+
+        HashMap<Node, Edge[]> adjacency = base.getAdjacency();
+        if(adjacency != null)
+            map.setAdjacency(updateAdjacency(adjacency, replaced, dirty, newEdges));
+        if(!nodesChanged){
+            // these index the nodes alone, which are the same objects.
+            map.setGrid(base.getGrid());
+            map.setRaster(base.getLookupRaster());
+            map.setSearchIndex(base.getSearchIndex());
+            if(dirty.isEmpty())
+                map.setRenderIndex(base.getRenderIndex());
+        }
+        return map;
+    }
+
+    // the node an id refers to once the delta is applied, or null if there is none.
+    private Node find(Map base, int nodeId){
+        if(removedNodes.contains(nodeId))
+            return null;
+        Node n = nodes.get(nodeId);
+        return n != null ? n : base.getNode(nodeId);
+    }
+
+    private static void markDirty(Set<Node> dirty, Node n){
+        if(n != null)
+            dirty.add(n);
+    }
+
+    // copy the old table, rebuilding only the entries of nodes whose edges changed.
+    private static HashMap<Node, Edge[]> updateAdjacency(HashMap<Node, Edge[]> old, Set<Node> replaced, Set<Node> dirty,
+                                                         List<Edge> edges){
+        HashMap<Node, Edge[]> result = new HashMap<>(old);
+        for(Node n : replaced)
+            result.remove(n);
+        if(dirty.isEmpty())
+            return result;
+
+        IdentityHashMap<Node, List<Edge>> lists = new IdentityHashMap<>();
+        for(Edge e : edges){
+            for(Node n : new Node[] {e.getNode1(), e.getNode2()}){
+                if(!dirty.contains(n))
+                    continue;
+                List<Edge> l = lists.get(n);
+                if(l == null){
+                    l = new ArrayList<>();
+                    lists.put(n, l);
+                }
+                l.add(e);
+            }
+        }
+        for(Node n : dirty){
+            List<Edge> l = lists.get(n);
+            if(l == null){
+                result.remove(n);
+                continue;
+            }
+            Edge[] arr = l.toArray(new Edge[0]);
+            Arrays.sort(arr);
+            result.put(n, arr);
+        }
+        return result;
+    }
+
+    private static long key(int a, int b){
+        int lo = Math.min(a, b), hi = Math.max(a, b);
+        return ((long)lo << 32) | (hi & 0xffffffffL);
+    }
+}
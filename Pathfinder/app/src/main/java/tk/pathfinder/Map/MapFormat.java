@@ -0,0 +1,423 @@
+package tk.pathfinder.Map;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+
+import tk.pathfinder.Networking.Beacon;
+
+/***
+ * A compact binary encoding of a map.
+ * <p>
+ * The file is a header, a table of every string used, the nodes in order of database index, the
+ * edges in compressed sparse row order, and the beacons. Integers are written as variable length
+ * quantities, seven bits to a byte, with signed values zigzag encoded so small magnitudes stay short.
+ * Node ids and coordinates are written as the difference from the previous node. Each edge is written
+ * once, in the row of its lower node, as the distance to the next higher neighbour.
+ * <pre>
+ * header   "PFMP", version (byte), flags (byte), id (zigzag, if flags has HAS_ID),
+ *          revision (if flags has HAS_REVISION), name (string ref)
+ * strings  count, then for each: byte length, utf-8 bytes
+ * nodes    count, then for each: id delta, kind (byte), x delta, y delta, z delta, then
+ *          room: number ref, name ref; floor connector: name ref
+ * edges    for each node: count of higher neighbours, then the gaps between their rows
+ * beacons  count, then for each: ssid ref, x, y, z
+ * </pre>
+ * A string ref is the index of the string in the table plus one, with 0 for null.
+ * @author Michael MacLean
+ * @version 1.0
+ * @since 1.0
+ */
+public class MapFormat {
+
+    /**
+     * The version written by {@link #write(Map, OutputStream)}. Readers reject any other version.
+     */
+    public static final int VERSION = 1;
+
+    private static final byte[] MAGIC = {'P', 'F', 'M', 'P'};
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // header flags.
+    private static final int HAS_ID = 1;
+    private static final int HAS_REVISION = 2;
+
+    // the low two bits of a node's kind byte.
+    private static final int INTERSECTION = 0;
+    private static final int ROOM = 1;
+    private static final int FLOOR_CONNECTOR = 2;
+    // the remaining bits.
+    private static final int AUTH = 1 << 2;
+    private static final int OPERATIONAL = 1 << 3;
+    private static final int TYPE_SHIFT = 4;
+
+    private MapFormat(){}
+
+    /**
+     * Encode a map.
+     * @param map The map.
+     * @return The encoded map.
+     */
+    public static byte[] toBytes(Map map){
+        Output out = new Output();
+        encode(map, out);
+        return Arrays.copyOf(out.bytes, out.length);
+    }
+
+    /**
+     * Encode a map to a stream.
+     * @param map The map.
+     * @param out The stream to write to. It is not closed.
+     * @throws IOException if the stream could not be written.
+     */
+    public static void write(Map map, OutputStream out) throws IOException {
+        Output o = new Output();
+        encode(map, o);
+        out.write(o.bytes, 0, o.length);
+    }
+
+    /**
+     * Decode a map.
+     * @param buffer The encoded map, from its position to its limit. The position is advanced past the map.
+     * @return The map.
+     * @throws IOException if the buffer does not hold a map of this version.
+     */
+    public static Map readMap(ByteBuffer buffer) throws IOException {
+        MapBuilder builder = new MapBuilder(null, null);
+        builder.setRevision(decode(buffer, builder));
+        return builder.build();
+    }
+
+    /**
+     * Decode a map into a sink, straight from the buffer. Nothing but the string table is decoded
+     * ahead of the sink, so a {@link ColumnarMap.Builder} builds its graph without any node objects.
+     * @param buffer The encoded map, from its position to its limit. The position is advanced past the map.
+     * @param sink Receives the map's contents.
+     * @return The server's revision of the map, or 0 if it is not known.
+     * @throws IOException if the buffer does not hold a map of this version.
+     */
+    public static int read(ByteBuffer buffer, MapSink sink) throws IOException {
+        return decode(buffer, sink);
+    }
+
+    // read a map into a sink, and return its revision.
+    private static int decode(ByteBuffer buffer, MapSink sink) throws IOException {
+        if(buffer == null)
+            throw new NullPointerException("buffer");
+        if(sink == null)
+            throw new NullPointerException("sink");
+
+        try{
+            for(byte b : MAGIC)
+                if(buffer.get() != b)
+                    throw new IOException("Not a map file");
+            int version = buffer.get() & 0xff;
+            if(version != VERSION)
+                throw new IOException("Unsupported map file version " + version);
+            int flags = buffer.get() & 0xff;
+            Integer id = (flags & HAS_ID) != 0 ? readSigned(buffer) : null;
+            int revision = (flags & HAS_REVISION) != 0 ? readCount(buffer) : 0;
+            int nameRef = readCount(buffer);
+
+            String[] strings = new String[readLength(buffer)];
+            for(int i = 0; i < strings.length; i++){
+                byte[] b = new byte[readLength(buffer)];
+                buffer.get(b);
+                strings[i] = new String(b, UTF8);
+            }
+            String name = string(strings, nameRef);
+
+            int count = readLength(buffer);
+            int[] ids = new int[count];
+            int nodeId = 0, x = 0, y = 0, z = 0;
+            FloorConnector.FloorConnectorTypes[] types = FloorConnector.FloorConnectorTypes.values();
+            for(int i = 0; i < count; i++){
+                nodeId += readSigned(buffer);
+                int kind = buffer.get();
+                x += readSigned(buffer);
+                y += readSigned(buffer);
+                z += readSigned(buffer);
+                ids[i] = nodeId;
+                switch(kind & 3){
+                    case ROOM:
+                        String number = string(strings, readCount(buffer));
+                        sink.addRoom(nodeId, x, y, z, number, string(strings, readCount(buffer)), (kind & AUTH) != 0);
+                        break;
+                    case FLOOR_CONNECTOR:
+                        int type = (kind >> TYPE_SHIFT) & 3;
+                        if(type >= types.length)
+                            throw new IOException("Unknown connector type " + type);
+                        sink.addFloorConnector(nodeId, x, y, z, string(strings, readCount(buffer)), types[type],
+                                (kind & OPERATIONAL) != 0, (kind & AUTH) != 0);
+                        break;
+                    case INTERSECTION:
+                        sink.addIntersection(nodeId, x, y, z);
+                        break;
+                    default:
+                        throw new IOException("Unknown node kind " + kind);
+                }
+            }
+
+            for(int i = 0; i < count; i++){
+                int degree = readCount(buffer);
+                int row = i;
+                for(int k = 0; k < degree; k++){
+                    int gap = readCount(buffer);
+                    if(gap >= count - row - 1)
+                        throw new IOException("Edge from node " + ids[i] + " leads past the last node");
+                    row += gap + 1;
+                    sink.addEdge(ids[i], ids[row]);
+                }
+            }
+
+            int beacons = readCount(buffer);
+            for(int i = 0; i < beacons; i++){
+                String ssid = string(strings, readCount(buffer));
+                sink.addBeacon(ssid, readSigned(buffer), readSigned(buffer), readSigned(buffer));
+            }
+
+            sink.setMapInfo(id, name);
+            return revision;
+        }
+        catch(BufferUnderflowException e){
+            throw new IOException("The map file is truncated");
+        }
+        catch(IllegalArgumentException | NullPointerException e){
+            // the sink rejected a record.
+            throw new IOException("Invalid map data: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Encode part of a map. Edges whose nodes are not in the list are left out.
+     * @param id The database index of the map.
+     * @param name The name of the map.
+     * @param nodes The nodes to write, each with a distinct id.
+     * @param edges The edges to write.
+     * @param beacons The beacons to write.
+     * @return The encoded map.
+     */
+    static byte[] toBytes(Integer id, String name, List<Node> nodes, List<Edge> edges, List<Beacon> beacons){
+        Output out = new Output();
+        encode(id, name, 0, new ArrayList<>(nodes), edges.iterator(), beacons, out);
+        return Arrays.copyOf(out.bytes, out.length);
+    }
+
+    private static void encode(Map map, Output out){
+        List<Node> nodes = new ArrayList<>();
+        for(Iterator<Node> i = map.getNodes(); i.hasNext(); )
+            nodes.add(i.next());
+        List<Beacon> beacons = new ArrayList<>();
+        for(Iterator<Beacon> i = map.getBeacons(); i.hasNext(); )
+            beacons.add(i.next());
+        encode(map.getId(), map.getName(), map.getRevision(), nodes, map.getEdges(), beacons, out);
+    }
+
+    private static void encode(Integer mapId, String mapName, int revision, List<Node> nodes, Iterator<Edge> edges,
+                               List<Beacon> beacons, Output out){
+        // nodes in order of id.
+        Collections.sort(nodes, (a, b) -> Integer.compare(a.getId(), b.getId()));
+        IdentityHashMap<Node, Integer> rows = new IdentityHashMap<>();
+        for(int i = 0; i < nodes.size(); i++)
+            rows.put(nodes.get(i), i);
+
+        // each edge belongs to the row of its lower node.
+        int[][] higher = new int[nodes.size()][];
+        int[] degree = new int[nodes.size()];
+        List<int[]> pairs = new ArrayList<>();
+        while(edges.hasNext()){
+            Edge e = edges.next();
+            Integer a = rows.get(e.getNode1()), b = rows.get(e.getNode2());
+            if(a == null || b == null || a.equals(b))
+                continue;
+            int lo = Math.min(a, b), hi = Math.max(a, b);
+            pairs.add(new int[] {lo, hi});
+            degree[lo]++;
+        }
+        for(int i = 0; i < higher.length; i++)
+            higher[i] = new int[degree[i]];
+        Arrays.fill(degree, 0);
+        for(int[] p : pairs)
+            higher[p[0]][degree[p[0]]++] = p[1];
+
+        Strings strings = new Strings();
+        int nameRef = strings.ref(mapName);
+        int[][] refs = new int[nodes.size()][];
+        for(int i = 0; i < nodes.size(); i++){
+            Node n = nodes.get(i);
+            if(n instanceof Room){
+                Room r = (Room)n;
+                refs[i] = new int[] {strings.ref(r.getRoomNumber()), strings.ref(r.getName())};
+            }
+            else if(n instanceof FloorConnector)
+                refs[i] = new int[] {strings.ref(((FloorConnector)n).getName())};
+        }
+        int[] ssids = new int[beacons.size()];
+        for(int i = 0; i < ssids.length; i++)
+            ssids[i] = strings.ref(beacons.get(i).getSSID());
+
+        // header
+        out.write(MAGIC);
+        out.write(VERSION);
+        out.write((mapId != null ? HAS_ID : 0) | (revision != 0 ? HAS_REVISION : 0));
+        if(mapId != null)
+            out.writeSigned(mapId);
+        if(revision != 0)
+            out.writeCount(revision);
+        out.writeCount(nameRef);
+
+        out.writeCount(strings.list.size());
+        for(String s : strings.list){
+            byte[] b = s.getBytes(UTF8);
+            out.writeCount(b.length);
+            out.write(b);
+        }
+
+        out.writeCount(nodes.size());
+        int id = 0, x = 0, y = 0, z = 0;
+        for(int i = 0; i < nodes.size(); i++){
+            Node n = nodes.get(i);
+            Point p = n.getPoint();
+            int kind = INTERSECTION;
+            if(n instanceof Room)
+                kind = ROOM | (((Room)n).requiresAuthorization() ? AUTH : 0);
+            else if(n instanceof FloorConnector){
+                FloorConnector fc = (FloorConnector)n;
+                kind = FLOOR_CONNECTOR | (fc.requiresAuthorization() ? AUTH : 0) | (fc.isOperational() ? OPERATIONAL : 0)
+                        | (fc.getType().ordinal() << TYPE_SHIFT);
+            }
+            out.writeSigned(n.getId() - id);
+            out.write(kind);
+            out.writeSigned(p.getX() - x);
+            out.writeSigned(p.getY() - y);
+            out.writeSigned(p.getZ() - z);
+            if(refs[i] != null)
+                for(int ref : refs[i])
+                    out.writeCount(ref);
+            id = n.getId();
+            x = p.getX();
+            y = p.getY();
+            z = p.getZ();
+        }
+
+        for(int i = 0; i < higher.length; i++){
+            int[] h = higher[i];
+            Arrays.sort(h);
+            int count = 0;
+            for(int k = 0; k < h.length; k++)
+                if(k == 0 || h[k] != h[k - 1])
+                    count++;
+            out.writeCount(count);
+            int row = i;
+            for(int k = 0; k < h.length; k++){
+                if(k > 0 && h[k] == h[k - 1])
+                    continue;
+                out.writeCount(h[k] - row - 1);
+                row = h[k];
+            }
+        }
+
+        out.writeCount(beacons.size());
+        for(int i = 0; i < ssids.length; i++){
+            Point p = beacons.get(i).getLocation();
+            out.writeCount(ssids[i]);
+            out.writeSigned(p.getX());
+            out.writeSigned(p.getY());
+            out.writeSigned(p.getZ());
+        }
+    }
+
+    private static String string(String[] strings, int ref) throws IOException {
+        if(ref > strings.length)
+            throw new IOException("String " + ref + " is not in the table");
+        return ref == 0 ? null : strings[ref - 1];
+    }
+
+    private static int readCount(ByteBuffer buffer) throws IOException {
+        int value = readVarint(buffer);
+        if(value < 0)
+            throw new IOException("Invalid count " + (value & 0xffffffffL));
+        return value;
+    }
+
+    // a count of items that each take at least a byte, so it cannot be more than the bytes left.
+    private static int readLength(ByteBuffer buffer) throws IOException {
+        int value = readCount(buffer);
+        if(value > buffer.remaining())
+            throw new IOException("The map file is truncated");
+        return value;
+    }
+
+    private static int readSigned(ByteBuffer buffer) throws IOException {
+        int value = readVarint(buffer);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static int readVarint(ByteBuffer buffer) throws IOException {
+        int value = 0;
+        for(int shift = 0; shift < 35; shift += 7){
+            int b = buffer.get();
+            value |= (b & 0x7f) << shift;
+            if((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Malformed integer");
+    }
+
+    // the strings used by a map, each stored once.
+    private static class Strings {
+        final List<String> list = new ArrayList<>();
+        final HashMap<String, Integer> refs = new HashMap<>();
+
+        int ref(String s){
+            if(s == null)
+                return 0;
+            Integer ref = refs.get(s);
+            if(ref == null){
+                list.add(s);
+                ref = list.size();
+                refs.put(s, ref);
+            }
+            return ref;
+        }
+    }
+
+    private static class Output {
+        byte[] bytes = new byte[4096];
+        int length = 0;
+
+        void write(int b){
+            if(length == bytes.length)
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            bytes[length++] = (byte)b;
+        }
+
+        void write(byte[] b){
+            if(length + b.length > bytes.length)
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + b.length));
+            System.arraycopy(b, 0, bytes, length, b.length);
+            length += b.length;
+        }
+
+        void writeCount(int value){
+            while((value & ~0x7f) != 0){
+                write((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            write(value);
+        }
+
+        void writeSigned(int value){
+            writeCount((value << 1) ^ (value >> 31));
+        }
+    }
+}
@@ -0,0 +1,350 @@
+package tk.pathfinder.Map;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/***
+ * Runs the precomputation stages for a freshly loaded map on a bounded worker pool.
+ * Stages run as soon as their dependencies have finished, and publish their results
+ * into the map as they go, so routing is usable before the optional indexes are built.
+ * @author Michael MacLean
+ * @version 1.0
+ * @since 1.0
+ */
+public class MapPreprocessor {
+
+    static final int POOL_SIZE = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+    static final ExecutorService executor;
+
+    static {
+        AtomicInteger count = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "map-preprocessor-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    t.setPriority(Thread.NORM_PRIORITY - 1);
+                    return t;
+                });
+        pool.allowCoreThreadTimeOut(true);
+        executor = pool;
+    }
+
+    private final LinkedHashMap<String, Stage> stages = new LinkedHashMap<>();
+
+    /**
+     * @return A preprocessor containing the stages needed for routing, positioning, drawing and search.
+     */
+    public static MapPreprocessor createDefault(){
+        MapPreprocessor p = new MapPreprocessor();
+        p.addStage(new Stage("adjacency", true) {
+            @Override
+            protected void run(Map map, Job job) {
+                // a map made by applying a delta may already carry it.
+                if(map.getAdjacency() != null)
+                    return;
+                HashMap<Node, Edge[]> adjacency = map.computeAdjacency(job);
+                if(adjacency != null && !job.isCancelled())
+                    map.setAdjacency(adjacency);
+            }
+        });
+        p.addStage(new Stage("grid", true) {
+            @Override
+            protected void run(Map map, Job job) {
+                if(map.getGrid() != null)
+                    return;
+                SpatialGrid grid = map.computeGrid();
+                if(!job.isCancelled())
+                    map.setGrid(grid);
+            }
+        });
+        p.addStage(new Stage("render", false) {
+            @Override
+            protected void run(Map map, Job job) {
+                if(map.getRenderIndex() != null)
+                    return;
+                RenderIndex index = map.computeRenderIndex();
+                if(!job.isCancelled())
+                    map.setRenderIndex(index);
+            }
+        });
+        p.addStage(new Stage("search", false) {
+            @Override
+            protected void run(Map map, Job job) {
+                if(map.getSearchIndex() != null)
+                    return;
+                SearchIndex index = map.computeSearchIndex();
+                if(!job.isCancelled())
+                    map.setSearchIndex(index);
+            }
+        });
+        return p;
+    }
+
+    /**
+     * Add the optional lookup raster stage, which makes closestNode a single array read.
+     * @param cellSize The width of a raster cell in map units. Halving it quadruples the memory cost.
+     * @return This preprocessor.
+     */
+    public MapPreprocessor addLookupRaster(int cellSize){
+        if(cellSize < 1)
+            throw new IllegalArgumentException("cellSize must be positive");
+        return addStage(new Stage("raster", false, "grid") {
+            @Override
+            protected void run(Map map, Job job) {
+                if(map.getLookupRaster() != null)
+                    return;
+                LookupRaster raster = map.computeRaster(cellSize, job);
+                if(!job.isCancelled())
+                    map.setRaster(raster);
+            }
+        });
+    }
+
+    /**
+     * Register a stage. Its dependencies must already be registered, which keeps the stage graph acyclic.
+     * @param stage The stage to add.
+     * @return This preprocessor.
+     * @throws IllegalArgumentException if the stage name is taken or a dependency is unknown.
+     */
+    public MapPreprocessor addStage(Stage stage) throws IllegalArgumentException {
+        if(stage == null)
+            throw new NullPointerException("stage");
+        if(stages.containsKey(stage.name))
+            throw new IllegalArgumentException("Duplicate stage " + stage.name);
+        for(String d : stage.dependencies)
+            if(!stages.containsKey(d))
+                throw new IllegalArgumentException("Unknown dependency " + d + " for stage " + stage.name);
+        stages.put(stage.name, stage);
+        return this;
+    }
+
+    /**
+     * Start preprocessing a map in the background.
+     * @param map The map to preprocess.
+     * @param listener Receives progress updates, may be null.
+     * @return A handle that can be used to cancel the run.
+     */
+    public Job start(Map map, Listener listener){
+        if(map == null)
+            throw new NullPointerException("map");
+        Job job = new Job(map, listener, new ArrayList<>(stages.values()));
+        job.schedule();
+        return job;
+    }
+
+    /**
+     * A single unit of precomputation.
+     */
+    public static abstract class Stage {
+        private final String name;
+        private final boolean required;
+        private final String[] dependencies;
+
+        /**
+         * @param name The unique name of the stage.
+         * @param required If true, routing is not considered ready until the stage is done.
+         * @param dependencies The names of the stages that must finish first.
+         */
+        protected Stage(String name, boolean required, String... dependencies){
+            if(name == null)
+                throw new NullPointerException("name");
+            this.name = name;
+            this.required = required;
+            this.dependencies = dependencies == null ? new String[0] : dependencies;
+        }
+
+        public String getName() { return name; }
+
+        public boolean isRequired() { return required; }
+
+        /**
+         * Compute and publish the stage's structures. Long running stages should poll {@link Job#isCancelled()}.
+         * @param map The map being processed.
+         * @param job The running job.
+         * @throws Exception on failure; dependent stages will be skipped.
+         */
+        protected abstract void run(Map map, Job job) throws Exception;
+    }
+
+    /**
+     * Receives progress from a running job. Callbacks are made from worker threads.
+     */
+    public interface Listener {
+        void onStageComplete(Map map, String stage, long millis);
+        void onStageFailed(Map map, String stage, Exception e);
+        void onRoutingReady(Map map);
+        void onComplete(Map map, java.util.Map<String, Long> timings);
+        void onCancelled(Map map);
+    }
+
+    /**
+     * A running preprocessing job.
+     */
+    public static class Job {
+        private final Map map;
+        private final Listener listener;
+        private final List<Stage> pending;
+        private final Set<String> finished = new HashSet<>();
+        private final Set<String> failed = new HashSet<>();
+        private final List<Future<?>> futures = new ArrayList<>();
+        private final LinkedHashMap<String, Long> timings = new LinkedHashMap<>();
+        private int running = 0;
+        private int requiredRemaining = 0;
+        private volatile boolean cancelled = false;
+        private volatile boolean done = false;
+
+        private Job(Map map, Listener listener, List<Stage> stages){
+            this.map = map;
+            this.listener = listener;
+            this.pending = stages;
+            for(Stage s : stages)
+                if(s.required)
+                    requiredRemaining++;
+        }
+
+        /**
+         * @return The map being processed.
+         */
+        public Map getMap() { return map; }
+
+        /**
+         * @return true if the job has been cancelled.
+         */
+        public boolean isCancelled() { return cancelled; }
+
+        /**
+         * @return true if every stage has finished, failed or been skipped.
+         */
+        public boolean isDone() { return done; }
+
+        /**
+         * Wait for the job to finish or be cancelled.
+         * @throws InterruptedException if the thread was interrupted while waiting.
+         */
+        public synchronized void await() throws InterruptedException {
+            while(!done)
+                wait();
+        }
+
+        /**
+         * @return The time taken by each finished stage in milliseconds, in order of completion.
+         */
+        public synchronized java.util.Map<String, Long> getTimings(){
+            return Collections.unmodifiableMap(new LinkedHashMap<>(timings));
+        }
+
+        /**
+         * Stop the job. Stages that have not started are dropped and running stages are interrupted.
+         */
+        public void cancel(){
+            synchronized(this){
+                if(cancelled || done)
+                    return;
+                cancelled = true;
+                done = true;
+                notifyAll();
+                for(Future<?> f : futures)
+                    f.cancel(true);
+                futures.clear();
+                pending.clear();
+            }
+            if(listener != null)
+                listener.onCancelled(map);
+        }
+
+        // submit every stage whose dependencies are satisfied.
+        private synchronized void schedule(){
+            if(cancelled)
+                return;
+
+            boolean routingReady = false;
+            for(Iterator<Stage> i = pending.iterator(); i.hasNext(); ){
+                Stage s = i.next();
+                boolean ready = true;
+                boolean skip = false;
+                for(String d : s.dependencies){
+                    if(failed.contains(d))
+                        skip = true;
+                    else if(!finished.contains(d))
+                        ready = false;
+                }
+
+                if(skip){
+                    i.remove();
+                    failed.add(s.name);
+                    // like a failed stage, a skipped one is covered by the scan-based fallbacks.
+                    if(s.required && --requiredRemaining == 0)
+                        routingReady = true;
+                    continue;
+                }
+                if(!ready)
+                    continue;
+
+                i.remove();
+                running++;
+                futures.add(executor.submit(() -> runStage(s)));
+            }
+            if(routingReady && listener != null)
+                listener.onRoutingReady(map);
+
+            if(running == 0 && pending.isEmpty() && !done){
+                done = true;
+                notifyAll();
+                if(listener != null)
+                    listener.onComplete(map, getTimings());
+            }
+        }
+
+        private void runStage(Stage s){
+            if(cancelled)
+                return;
+
+            long start = System.nanoTime();
+            Exception error = null;
+            try{
+                s.run(map, this);
+            }
+            catch(Exception e){
+                error = e;
+            }
+            long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            boolean routingReady = false;
+            synchronized(this){
+                if(cancelled)
+                    return;
+                running--;
+                if(error == null){
+                    finished.add(s.name);
+                    timings.put(s.name, millis);
+                }
+                else failed.add(s.name);
+
+                // the scan-based fallbacks cover a failed required stage, so it still counts.
+                if(s.required)
+                    routingReady = --requiredRemaining == 0;
+            }
+
+            if(listener != null){
+                if(error == null)
+                    listener.onStageComplete(map, s.name, millis);
+                else listener.onStageFailed(map, s.name, error);
+                if(routingReady)
+                    listener.onRoutingReady(map);
+            }
+            schedule();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package tk.pathfinder.Map;
+
+/***
+ * Receives the contents of a map as it is read, one record at a time.
+ * Parsers write to a sink without knowing what it does with the records, so the same parser can
+ * fill a {@link MapBuilder}, a {@link MapDelta} or a {@link ColumnarMap.Builder}.
+ * @author Michael MacLean
+ * @version 1.0
+ * @since 1.0
+ */
+public interface MapSink {
+
+    /**
+     * Set the map's details, which may arrive after its contents.
+     * @param id The database index of the map.
+     * @param name The name of the map.
+     * @return This sink.
+     */
+    MapSink setMapInfo(Integer id, String name);
+
+    /**
+     * @param id The database index of the room.
+     * @param x The x coordinate.
+     * @param y The floor.
+     * @param z The z coordinate.
+     * @param roomNumber The room number, may be null.
+     * @param name The name of the room, may be null.
+     * @param requiresAuth Whether the room requires authorization to enter.
+     * @return This sink.
+     */
+    MapSink addRoom(int id, int x, int y, int z, String roomNumber, String name, boolean requiresAuth);
+
+    /**
+     * @param id The database index of the connector.
+     * @param x The x coordinate.
+     * @param y The floor.
+     * @param z The z coordinate.
+     * @param name The name of the connector, may be null.
+     * @param type The type of connector.
+     * @param operational Whether the connector is working.
+     * @param requiresAuth Whether the connector requires authorization to use.
+     * @return This sink.
+     */
+    MapSink addFloorConnector(int id, int x, int y, int z, String name, FloorConnector.FloorConnectorTypes type,
+                              boolean operational, boolean requiresAuth);
+
+    /**
+     * @param id The database index of the intersection.
+     * @param x The x coordinate.
+     * @param y The floor.
+     * @param z The z coordinate.
+     * @return This sink.
+     */
+    MapSink addIntersection(int id, int x, int y, int z);
+
+    /**
+     * @param node1 The database index of the first node.
+     * @param node2 The database index of the second node.
+     * @return This sink.
+     */
+    MapSink addEdge(int node1, int node2);
+
+    /**
+     * @param ssid The SSID of the beacon.
+     * @param x The x coordinate.
+     * @param y The floor.
+     * @param z The z coordinate.
+     * @return This sink.
+     */
+    MapSink addBeacon(String ssid, int x, int y, int z);
+}
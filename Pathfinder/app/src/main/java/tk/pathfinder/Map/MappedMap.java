@@ -0,0 +1,336 @@
+package tk.pathfinder.Map;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.SoftReference;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.TreeMap;
+
+import tk.pathfinder.Networking.Beacon;
+
+/***
+ * A map kept in a memory mapped file, split by floor, so opening a tall building only reads the
+ * floors that are looked at.
+ * <p>
+ * The file holds a small index and one section per floor, each in the binary map format. The index
+ * is the map's name, its beacons, and every edge between two floors along with its nodes; it is read
+ * when the file is opened. A floor's section holds its nodes and every edge touching them, including
+ * those leading to other floors, so it draws the same as the floor of the full map. A floor is
+ * decoded the first time it is asked for, and may be dropped again under memory pressure, since it
+ * can always be decoded from the file.
+ * <pre>
+ * header   "PFMF", version (byte), floor count (int), index offset (int), index length (int)
+ * floors   for each, lowest first: floor (int), offset (int), length (int)
+ * </pre>
+ * @author Michael MacLean
+ * @version 1.0
+ * @since 1.0
+ */
+public class MappedMap {
+
+    /**
+     * The version written by {@link #write(Map, File)}. Other versions are rejected when opened.
+     */
+    public static final int VERSION = 1;
+
+    private static final byte[] MAGIC = {'P', 'F', 'M', 'F'};
+
+    private final ByteBuffer buffer;
+    private final Map index;
+    private final int[] floors;
+    private final int[] offsets;
+    private final int[] lengths;
+    private final SoftReference<Map>[] loaded;
+    private volatile MapPreprocessor preprocessor;
+
+    @SuppressWarnings("unchecked")
+    private MappedMap(ByteBuffer buffer, Map index, int[] floors, int[] offsets, int[] lengths){
+        this.buffer = buffer;
+        this.index = index;
+        this.floors = floors;
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.loaded = new SoftReference[floors.length];
+    }
+
+    /**
+     * Write a map as a floor partitioned file. The file is written beside its final name and renamed
+     * into place, so a reader never sees half a file.
+     * @param map The map.
+     * @param file The file to write.
+     * @throws IOException if the file could not be written. Any earlier file is left in place.
+     */
+    public static void write(Map map, File file) throws IOException {
+        if(map == null)
+            throw new NullPointerException("map");
+        if(file == null)
+            throw new NullPointerException("file");
+
+        TreeMap<Integer, LinkedHashSet<Node>> floorNodes = new TreeMap<>();
+        TreeMap<Integer, List<Edge>> floorEdges = new TreeMap<>();
+        LinkedHashSet<Node> boundary = new LinkedHashSet<>();
+        List<Edge> crossing = new ArrayList<>();
+        for(Iterator<Node> i = map.getNodes(); i.hasNext(); ){
+            Node n = i.next();
+            nodesOf(floorNodes, n.getFloor()).add(n);
+        }
+        for(Iterator<Edge> i = map.getEdges(); i.hasNext(); ){
+            Edge e = i.next();
+            Node a = e.getNode1(), b = e.getNode2();
+            edgesOf(floorEdges, a.getFloor()).add(e);
+            if(a.getFloor() == b.getFloor())
+                continue;
+            // the far end goes into each floor too, so the edge can be drawn.
+            edgesOf(floorEdges, b.getFloor()).add(e);
+            nodesOf(floorNodes, a.getFloor()).add(b);
+            nodesOf(floorNodes, b.getFloor()).add(a);
+            boundary.add(a);
+            boundary.add(b);
+            crossing.add(e);
+        }
+
+        List<Beacon> beacons = new ArrayList<>();
+        for(Iterator<Beacon> i = map.getBeacons(); i.hasNext(); )
+            beacons.add(i.next());
+        byte[] indexBytes = MapFormat.toBytes(map.getId(), map.getName(), new ArrayList<>(boundary), crossing, beacons);
+        List<byte[]> sections = new ArrayList<>();
+        for(java.util.Map.Entry<Integer, LinkedHashSet<Node>> e : floorNodes.entrySet()){
+            List<Edge> edges = floorEdges.get(e.getKey());
+            sections.add(MapFormat.toBytes(map.getId(), map.getName(), new ArrayList<>(e.getValue()),
+                    edges == null ? Collections.emptyList() : edges, Collections.emptyList()));
+        }
+
+        File directory = file.getAbsoluteFile().getParentFile();
+        if(directory != null && !directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Could not create " + directory);
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream fos = new FileOutputStream(temp);
+        try{
+            DataOutputStream out = new DataOutputStream(fos);
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(sections.size());
+            int offset = MAGIC.length + 1 + 4 + 8 + 12 * sections.size();
+            out.writeInt(offset);
+            out.writeInt(indexBytes.length);
+            offset += indexBytes.length;
+            int s = 0;
+            for(int floor : floorNodes.keySet()){
+                int length = sections.get(s++).length;
+                out.writeInt(floor);
+                out.writeInt(offset);
+                out.writeInt(length);
+                offset += length;
+            }
+            out.write(indexBytes);
+            for(byte[] section : sections)
+                out.write(section);
+            out.flush();
+            // the data must be on disk before the rename makes it visible.
+            fos.getFD().sync();
+        }
+        catch(IOException e){
+            fos.close();
+            temp.delete();
+            throw e;
+        }
+        fos.close();
+
+        if(!temp.renameTo(file)){
+            temp.delete();
+            throw new IOException("Could not move " + temp + " into place");
+        }
+    }
+
+    /**
+     * Open a file written by {@link #write(Map, File)}. Only the header and the index are read.
+     * @param file The file.
+     * @return The map.
+     * @throws IOException if the file could not be read or does not hold a map of this version.
+     */
+    public static MappedMap open(File file) throws IOException {
+        if(file == null)
+            throw new NullPointerException("file");
+
+        MappedByteBuffer buffer;
+        try(RandomAccessFile raf = new RandomAccessFile(file, "r")){
+            FileChannel channel = raf.getChannel();
+            // the mapping stays valid after the channel is closed.
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        try{
+            for(byte b : MAGIC)
+                if(buffer.get() != b)
+                    throw new IOException("Not a floor map file");
+            int version = buffer.get() & 0xff;
+            if(version != VERSION)
+                throw new IOException("Unsupported floor map file version " + version);
+            int count = buffer.getInt();
+            if(count < 0 || count > buffer.remaining() / 12)
+                throw new IOException("The floor map file is truncated");
+            int indexOffset = buffer.getInt();
+            int indexLength = buffer.getInt();
+            int[] floors = new int[count];
+            int[] offsets = new int[count];
+            int[] lengths = new int[count];
+            for(int i = 0; i < count; i++){
+                floors[i] = buffer.getInt();
+                offsets[i] = buffer.getInt();
+                lengths[i] = buffer.getInt();
+                if(i > 0 && floors[i] <= floors[i - 1])
+                    throw new IOException("Floors out of order");
+                checkSection(buffer, offsets[i], lengths[i]);
+            }
+            checkSection(buffer, indexOffset, indexLength);
+
+            Map index = MapFormat.readMap(slice(buffer, indexOffset, indexLength));
+            return new MappedMap(buffer, index, floors, offsets, lengths);
+        }
+        catch(BufferUnderflowException e){
+            throw new IOException("The floor map file is truncated");
+        }
+    }
+
+    /**
+     * Run a preprocessor over each floor as it is decoded, so its lookup and drawing structures are built.
+     * @param value The preprocessor, or null to leave floors unprocessed.
+     */
+    public void setPreprocessor(MapPreprocessor value){
+        preprocessor = value;
+    }
+
+    public Integer getId() { return index.getId(); }
+
+    public String getName() { return index.getName(); }
+
+    /**
+     * @return An array with [0] being the lowest floor, and [1] being the highest.
+     */
+    public int[] getFloorRange(){
+        return floors.length == 0 ? new int[] {0, 0} : new int[] {floors[0], floors[floors.length - 1]};
+    }
+
+    /**
+     * @param ssid The SSID of a beacon.
+     * @return The beacon, or null if it is not on this map.
+     */
+    public Beacon getBeacon(String ssid){
+        return index.getBeacon(ssid);
+    }
+
+    /**
+     * Get the map of a single floor, decoding it from the file if it is not in memory.
+     * The map also holds the nodes on other floors that this floor's edges lead to.
+     * @param floor The floor.
+     * @return The floor's map, or null if the building has no such floor.
+     * @throws IOException if the floor's section of the file is damaged.
+     */
+    public Map getFloor(int floor) throws IOException {
+        int i = find(floor);
+        if(i < 0)
+            return null;
+
+        Map map = loaded(i);
+        if(map != null)
+            return map;
+
+        // decoded outside the lock, so reading one floor does not hold up floors already in memory.
+        Map decoded = MapFormat.readMap(slice(buffer, offsets[i], lengths[i]));
+        synchronized(loaded){
+            map = loaded[i] == null ? null : loaded[i].get();
+            // another thread decoded the floor first; its copy is kept, so every caller shares one.
+            if(map != null)
+                return map;
+            loaded[i] = new SoftReference<>(decoded);
+        }
+        MapPreprocessor p = preprocessor;
+        if(p != null)
+            p.start(decoded, null);
+        return decoded;
+    }
+
+    /**
+     * @param floor A floor.
+     * @return true if the floor is in memory.
+     */
+    public boolean isFloorLoaded(int floor){
+        int i = find(floor);
+        return i >= 0 && loaded(i) != null;
+    }
+
+    // the floor at an index in the table, or null if it is not in memory.
+    private Map loaded(int i){
+        synchronized(loaded){
+            return loaded[i] == null ? null : loaded[i].get();
+        }
+    }
+
+    /**
+     * Get the closest node to a location, decoding only the location's floor.
+     * @param p The location.
+     * @return The closest node, or null if the building has no such floor.
+     * @throws IOException if the floor's section of the file is damaged.
+     */
+    public Node closestNode(Point p) throws IOException {
+        if(p == null)
+            throw new IllegalArgumentException("p cannot be null");
+        Map map = getFloor(p.getY());
+        return map == null ? null : map.closestNode(p);
+    }
+
+    private int find(int floor){
+        int lo = 0, hi = floors.length - 1;
+        while(lo <= hi){
+            int mid = (lo + hi) >>> 1;
+            if(floors[mid] < floor)
+                lo = mid + 1;
+            else if(floors[mid] > floor)
+                hi = mid - 1;
+            else return mid;
+        }
+        return -1;
+    }
+
+    private static void checkSection(ByteBuffer buffer, int offset, int length) throws IOException {
+        if(offset < 0 || length < 0 || offset > buffer.capacity() - length)
+            throw new IOException("The floor map file is truncated");
+    }
+
+    // a view of part of the file, so readers on different floors do not share a position.
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length){
+        ByteBuffer b = buffer.duplicate();
+        b.position(offset);
+        b.limit(offset + length);
+        return b.slice();
+    }
+
+    private static LinkedHashSet<Node> nodesOf(TreeMap<Integer, LinkedHashSet<Node>> floors, int floor){
+        LinkedHashSet<Node> nodes = floors.get(floor);
+        if(nodes == null){
+            nodes = new LinkedHashSet<>();
+            floors.put(floor, nodes);
+        }
+        return nodes;
+    }
+
+    private static List<Edge> edgesOf(TreeMap<Integer, List<Edge>> floors, int floor){
+        List<Edge> edges = floors.get(floor);
+        if(edges == null){
+            edges = new ArrayList<>();
+            floors.put(floor, edges);
+        }
+        return edges;
+    }
+}
@@ -27,11 +27,17 @@ public class Navigation {
      * @param map The map to navigate.
      * @param current The closest node to the user's current position.
      * @param goal The user's desired destination.
-     * @param connector_preference The preferred method of ascending floors.
+     * @param connector_preference The preferred method of ascending floors. A floor of a building kept in
+     *                             columns is routed through the whole building, which prefers none.
      * @return A list of edges, in order from current to goal.
      * @throws NoValidPathException if there is no possible way to get from the current location to the destination.
      */
     public static Path NavigatePath(Map map, Node current, Room goal, FloorConnector.FloorConnectorTypes connector_preference) throws NoValidPathException {
+        // the goal may be on a floor the map does not hold.
+        ColumnarMap building = map.getBuilding();
+        if(building != null)
+            return building.navigate(current, goal);
+
         // on the same floor
         if(current.getFloor() == goal.getFloor()){
             Path p = aStar(map, current, goal);
@@ -42,17 +48,17 @@ public class Navigation {
 
         // go to a floor connector first
         List<FloorConnector> connectors = new ArrayList<>();
-        Iterator<FloorConnector> i;
+        List<FloorConnector> candidates;
         int goalFloor = goal.getFloor();
         if(connector_preference == null)
-            i = map.getFloorConnectors();
-        else i = map.getFloorConnectors(connector_preference);
+            candidates = map.getFloorConnectorList();
+        else candidates = map.getFloorConnectorList(connector_preference);
 
-        while(i.hasNext()){
-            FloorConnector c = i.next();
+        for(int i = 0; i < candidates.size(); i++){
+            FloorConnector c = candidates.get(i);
             if(!c.isFloorAccessible(goalFloor) || !c.isOperational())
                 continue;
-            connectors.add(i.next());
+            connectors.add(c);
         }
 
         // TODO taking multiple connectors, taking others if the preference is not available.
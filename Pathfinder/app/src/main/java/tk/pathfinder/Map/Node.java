@@ -1,7 +1,5 @@
 package tk.pathfinder.Map;
 
-import java.util.Objects;
-
 /***
  *  Represents a node on a graph
  * @author Michael MacLean
@@ -49,11 +47,11 @@ public abstract class Node {
         if (this == o) return true;
         if (!(o instanceof Node)) return false;
         Node node = (Node) o;
-        return Objects.equals(point, node.point);
+        return point == null ? node.point == null : point.equals(node.point);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(point);
+        return point == null ? 0 : point.hashCode();
     }
 }
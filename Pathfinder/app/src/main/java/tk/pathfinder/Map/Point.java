@@ -8,9 +8,9 @@ package tk.pathfinder.Map;
  */
 public final class Point {
 
-    private Integer x;
-    private Integer y;
-    private Integer z;
+    private final int x;
+    private final int y;
+    private final int z;
 
     private static Point nullPoint = new Point(-1, -1, -1);
 
@@ -59,7 +59,9 @@ public final class Point {
      * @return The distance between the points, ignoring elevation.
      */
     public static double distance(Point p, Point q){
-        return Math.abs(Math.sqrt(Math.pow(p.getX() - q.getX(), 2) + Math.pow(p.getZ() - q.getZ(), 2)));
+        double dx = p.x - q.x;
+        double dz = p.z - q.z;
+        return Math.sqrt(dx*dx + dz*dz);
     }
 
     /**
@@ -90,9 +92,14 @@ public final class Point {
         if(!(obj instanceof Point))
             return false;
         Point p = (Point)obj;
-        return this.x.equals(p.x)
-                && this.y.equals(p.y)
-                && this.z.equals(p.z);
+        return this.x == p.x
+                && this.y == p.y
+                && this.z == p.z;
+    }
+
+    @Override
+    public int hashCode() {
+        return (x * 31 + y) * 31 + z;
     }
 
     @Override
@@ -102,6 +109,6 @@ public final class Point {
 
     @Override
     public String toString() {
-        return String.format("(%s, %s, %s)", this.x, this.y, this.z);
+        return "(" + x + ", " + y + ", " + z + ")";
     }
 }
@@ -0,0 +1,155 @@
+package tk.pathfinder.Map;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/***
+ * A static R-tree bulk loaded with the Sort-Tile-Recursive algorithm.
+ * Items are stored with an axis-aligned bounding box in map units (x and z).
+ * @author Michael MacLean
+ * @version 1.0
+ * @since 1.0
+ */
+public class RTree<T> {
+
+    private static final int CAPACITY = 16;
+
+    private final Entry root;
+    private final int size;
+    // reused by every search, so drawing a frame does not allocate.
+    private Entry[] stack;
+
+    /**
+     * Provides the bounding box of an item.
+     */
+    public interface Bounds<T> {
+        /**
+         * @param item The item.
+         * @param box Receives {minX, minZ, maxX, maxZ}.
+         */
+        void get(T item, int[] box);
+    }
+
+    /**
+     * @param items The items to store.
+     * @param bounds Provides the bounding box of each item.
+     */
+    public RTree(List<? extends T> items, Bounds<? super T> bounds){
+        size = items.size();
+        List<Entry> level = new ArrayList<>(items.size());
+        int[] box = new int[4];
+        for(T item : items){
+            bounds.get(item, box);
+            level.add(new Entry(box[0], box[1], box[2], box[3], item, null));
+        }
+
+        if(level.isEmpty()){
+            root = null;
+            stack = new Entry[1];
+            return;
+        }
+
+        // pack each level into parents until a single node remains.
+        int depth = 0;
+        while(level.size() > 1){
+            level = pack(level);
+            depth++;
+        }
+        root = level.get(0);
+        // a depth first walk holds at most the unvisited siblings of each level on the stack.
+        stack = new Entry[1 + depth * (CAPACITY - 1)];
+    }
+
+    /**
+     * @return The number of items in the tree.
+     */
+    public int size() { return size; }
+
+    /**
+     * Find every item whose bounding box intersects a rectangle.
+     * Searches share the tree's stack, so they are serialized between threads.
+     * @param minX The left edge.
+     * @param minZ The top edge.
+     * @param maxX The right edge.
+     * @param maxZ The bottom edge.
+     * @param out Receives the items.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized void search(int minX, int minZ, int maxX, int maxZ, List<? super T> out){
+        if(root == null || !root.intersects(minX, minZ, maxX, maxZ))
+            return;
+
+        // an explicit stack avoids recursion on deep trees.
+        Entry[] stack = this.stack;
+        int top = 0;
+        stack[top++] = root;
+        while(top > 0){
+            Entry e = stack[--top];
+            if(e.children == null){
+                out.add((T)e.item);
+                continue;
+            }
+            for(Entry c : e.children){
+                if(!c.intersects(minX, minZ, maxX, maxZ))
+                    continue;
+                if(top == stack.length)
+                    stack = this.stack = Arrays.copyOf(stack, stack.length * 2);
+                stack[top++] = c;
+            }
+        }
+    }
+
+    // group a level of entries into parents using sort-tile-recursive.
+    private static List<Entry> pack(List<Entry> level){
+        int parents = (level.size() + CAPACITY - 1) / CAPACITY;
+        int slices = (int)Math.ceil(Math.sqrt(parents));
+        int sliceSize = slices * CAPACITY;
+
+        Collections.sort(level, (a, b) -> Long.compare((long)a.minX + a.maxX, (long)b.minX + b.maxX));
+
+        List<Entry> result = new ArrayList<>(parents);
+        for(int s = 0; s < level.size(); s += sliceSize){
+            List<Entry> slice = level.subList(s, Math.min(level.size(), s + sliceSize));
+            Collections.sort(slice, (a, b) -> Long.compare((long)a.minZ + a.maxZ, (long)b.minZ + b.maxZ));
+
+            for(int i = 0; i < slice.size(); i += CAPACITY){
+                Entry[] children = slice.subList(i, Math.min(slice.size(), i + CAPACITY)).toArray(new Entry[0]);
+                int minX = Integer.MAX_VALUE, minZ = Integer.MAX_VALUE;
+                int maxX = Integer.MIN_VALUE, maxZ = Integer.MIN_VALUE;
+                for(Entry c : children){
+                    minX = Math.min(minX, c.minX);
+                    minZ = Math.min(minZ, c.minZ);
+                    maxX = Math.max(maxX, c.maxX);
+                    maxZ = Math.max(maxZ, c.maxZ);
+                }
+                result.add(new Entry(minX, minZ, maxX, maxZ, null, children));
+            }
+        }
+        return result;
+    }
+
+    // a leaf item or an inner node.
+    private static class Entry {
+        final int minX;
+        final int minZ;
+        final int maxX;
+        final int maxZ;
+        final Object item;
+        final Entry[] children;
+
+        Entry(int minX, int minZ, int maxX, int maxZ, Object item, Entry[] children){
+            this.minX = minX;
+            this.minZ = minZ;
+            this.maxX = maxX;
+            this.maxZ = maxZ;
+            this.item = item;
+            this.children = children;
+        }
+
+        boolean intersects(int minX, int minZ, int maxX, int maxZ){
+            return this.minX <= maxX && minX <= this.maxX && this.minZ <= maxZ && minZ <= this.maxZ;
+        }
+    }
+}
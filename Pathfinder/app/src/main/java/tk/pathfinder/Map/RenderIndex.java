@@ -0,0 +1,160 @@
+package tk.pathfinder.Map;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+
+/***
+ * Per-floor R-trees over the edges and nodes of a map, used to draw only what is on screen
+ * and to find what was tapped.
+ * @author Michael MacLean
+ * @version 1.0
+ * @since 1.0
+ */
+public class RenderIndex {
+
+    private final HashMap<Integer, RTree<Edge>> edges = new HashMap<>();
+    private final HashMap<Integer, RTree<Room>> rooms = new HashMap<>();
+    // a connector is indexed on its own floor and on every floor it reaches.
+    private final HashMap<Integer, RTree<FloorConnector>> connectors = new HashMap<>();
+
+    private static final RTree.Bounds<Edge> EDGE_BOUNDS = (e, box) -> {
+        Point a = e.getNode1().getPoint();
+        Point b = e.getNode2().getPoint();
+        box[0] = Math.min(a.getX(), b.getX());
+        box[1] = Math.min(a.getZ(), b.getZ());
+        box[2] = Math.max(a.getX(), b.getX());
+        box[3] = Math.max(a.getZ(), b.getZ());
+    };
+
+    private static final RTree.Bounds<Node> NODE_BOUNDS = (n, box) -> {
+        box[0] = box[2] = n.getPoint().getX();
+        box[1] = box[3] = n.getPoint().getZ();
+    };
+
+    /**
+     * @param mapNodes The nodes of the map.
+     * @param mapEdges The edges of the map.
+     */
+    RenderIndex(Collection<Node> mapNodes, Collection<Edge> mapEdges){
+        HashMap<Integer, List<Edge>> edgesByFloor = new HashMap<>();
+        for(Edge e : mapEdges){
+            int f1 = e.getNode1().getFloor();
+            int f2 = e.getNode2().getFloor();
+            add(edgesByFloor, f1, e);
+            if(f2 != f1)
+                add(edgesByFloor, f2, e);
+        }
+        for(java.util.Map.Entry<Integer, List<Edge>> e : edgesByFloor.entrySet())
+            edges.put(e.getKey(), new RTree<>(e.getValue(), EDGE_BOUNDS));
+
+        HashMap<Integer, List<Room>> roomsByFloor = new HashMap<>();
+        HashMap<Integer, List<FloorConnector>> connectorsByFloor = new HashMap<>();
+        for(Node n : mapNodes){
+            if(n instanceof Room)
+                add(roomsByFloor, n.getFloor(), (Room)n);
+            else if(n instanceof FloorConnector)
+                for(int floor : ((FloorConnector)n).getFloors())
+                    add(connectorsByFloor, floor, (FloorConnector)n);
+        }
+        for(java.util.Map.Entry<Integer, List<Room>> e : roomsByFloor.entrySet())
+            rooms.put(e.getKey(), new RTree<>(e.getValue(), NODE_BOUNDS));
+        for(java.util.Map.Entry<Integer, List<FloorConnector>> e : connectorsByFloor.entrySet())
+            connectors.put(e.getKey(), new RTree<>(e.getValue(), NODE_BOUNDS));
+    }
+
+    private static <T> void add(HashMap<Integer, List<T>> lists, int key, T item){
+        List<T> l = lists.get(key);
+        if(l == null){
+            l = new ArrayList<>();
+            lists.put(key, l);
+        }
+        l.add(item);
+    }
+
+    /**
+     * Find the edges touching a floor that cross a rectangle.
+     * @param floor The floor.
+     * @param minX The left edge of the rectangle.
+     * @param minZ The top edge of the rectangle.
+     * @param maxX The right edge of the rectangle.
+     * @param maxZ The bottom edge of the rectangle.
+     * @param out Receives the edges.
+     */
+    public void findEdges(int floor, int minX, int minZ, int maxX, int maxZ, List<Edge> out){
+        RTree<Edge> tree = edges.get(floor);
+        if(tree != null)
+            tree.search(minX, minZ, maxX, maxZ, out);
+    }
+
+    /**
+     * Find the rooms on a floor inside a rectangle.
+     * @param floor The floor.
+     * @param minX The left edge of the rectangle.
+     * @param minZ The top edge of the rectangle.
+     * @param maxX The right edge of the rectangle.
+     * @param maxZ The bottom edge of the rectangle.
+     * @param out Receives the rooms.
+     */
+    public void findRooms(int floor, int minX, int minZ, int maxX, int maxZ, List<Room> out){
+        RTree<Room> tree = rooms.get(floor);
+        if(tree != null)
+            tree.search(minX, minZ, maxX, maxZ, out);
+    }
+
+    /**
+     * Find the floor connectors accessible from a floor inside a rectangle.
+     * Only connectors on the floor or reaching it when the index was built are considered.
+     * @param floor The floor.
+     * @param minX The left edge of the rectangle.
+     * @param minZ The top edge of the rectangle.
+     * @param maxX The right edge of the rectangle.
+     * @param maxZ The bottom edge of the rectangle.
+     * @param out Receives the connectors.
+     */
+    public void findFloorConnectors(int floor, int minX, int minZ, int maxX, int maxZ, List<FloorConnector> out){
+        RTree<FloorConnector> tree = connectors.get(floor);
+        if(tree == null)
+            return;
+        int start = out.size();
+        tree.search(minX, minZ, maxX, maxZ, out);
+        for(int i = out.size() - 1; i >= start; i--)
+            if(!out.get(i).isFloorAccessible(floor))
+                out.remove(i);
+    }
+
+    /**
+     * Find the room or floor connector closest to a location, within a tolerance.
+     * @param floor The floor.
+     * @param x The x coordinate.
+     * @param z The z coordinate.
+     * @param tolerance The maximum distance in map units.
+     * @return The node, or null if there is none within the tolerance.
+     */
+    public Node nodeAt(int floor, int x, int z, int tolerance){
+        List<Node> candidates = new ArrayList<>();
+        RTree<Room> tree = rooms.get(floor);
+        if(tree != null)
+            tree.search(x - tolerance, z - tolerance, x + tolerance, z + tolerance, candidates);
+        candidates.addAll(findConnectorsNear(floor, x, z, tolerance));
+
+        Node best = null;
+        long bestDist = (long)tolerance * tolerance;
+        for(Node n : candidates){
+            long dx = n.getPoint().getX() - x;
+            long dz = n.getPoint().getZ() - z;
+            if(dx*dx + dz*dz <= bestDist){
+                bestDist = dx*dx + dz*dz;
+                best = n;
+            }
+        }
+        return best;
+    }
+
+    private List<FloorConnector> findConnectorsNear(int floor, int x, int z, int tolerance){
+        List<FloorConnector> result = new ArrayList<>();
+        findFloorConnectors(floor, x - tolerance, z - tolerance, x + tolerance, z + tolerance, result);
+        return result;
+    }
+}
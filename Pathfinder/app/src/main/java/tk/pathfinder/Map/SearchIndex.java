@@ -0,0 +1,418 @@
+package tk.pathfinder.Map;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.regex.Pattern;
+
+/***
+ * An inverted n-gram index over room names and numbers.
+ * Every substring of up to three characters of each word is a key, so a search term of up to three
+ * characters is answered by a single posting list, and a longer term by intersecting the posting lists
+ * of its trigrams and checking the few rooms left. A term that matches nothing is looked up in a
+ * {@link FuzzyIndex} instead, so a misspelt word still finds the rooms it was meant to.
+ * @author Michael MacLean
+ * @version 1.0
+ * @since 1.0
+ */
+class SearchIndex {
+
+    private static final int GRAM = 3;
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    private static final int[] EMPTY = new int[0];
+
+    // how well a term matches a word.
+    static final int SUBSTRING = 4;
+    static final int PREFIX = 5;
+    static final int WORD = 6;
+    static final int ROOM_NUMBER = 7;
+
+    private final Entry[] entries;
+    private final HashMap<String, int[]> postings;
+    private final FuzzyIndex fuzzy;
+
+    /**
+     * @param rooms The rooms to index.
+     */
+    SearchIndex(List<Room> rooms){
+        entries = new Entry[rooms.size()];
+        HashMap<String, IntList> lists = new HashMap<>();
+        HashMap<String, IntList> wordLists = new HashMap<>();
+        for(int i = 0; i < entries.length; i++){
+            entries[i] = new Entry(rooms.get(i));
+            for(String word : entries[i].words){
+                IntList w = wordLists.get(word);
+                if(w == null){
+                    w = new IntList();
+                    wordLists.put(word, w);
+                }
+                w.addUnique(i);
+
+                for(int start = 0; start < word.length(); start++){
+                    for(int end = start + 1; end <= Math.min(word.length(), start + GRAM); end++){
+                        String gram = word.substring(start, end);
+                        IntList l = lists.get(gram);
+                        if(l == null){
+                            l = new IntList();
+                            lists.put(gram, l);
+                        }
+                        l.addUnique(i);
+                    }
+                }
+            }
+        }
+
+        postings = new HashMap<>(lists.size() * 2);
+        for(java.util.Map.Entry<String, IntList> e : lists.entrySet())
+            postings.put(e.getKey(), e.getValue().toArray());
+
+        List<String> words = new ArrayList<>(wordLists.size());
+        List<int[]> wordRooms = new ArrayList<>(wordLists.size());
+        for(java.util.Map.Entry<String, IntList> e : wordLists.entrySet()){
+            words.add(e.getKey());
+            wordRooms.add(e.getValue().toArray());
+        }
+        fuzzy = new FuzzyIndex(words, wordRooms);
+    }
+
+    /**
+     * Search the index.
+     * @param terms Normalised search terms, see {@link #terms(String)}.
+     * @param matchAll If true, a room must match every term, otherwise any.
+     * @param limit The maximum number of rooms to return.
+     * @return The best matching rooms, best first.
+     */
+    List<Room> search(String[] terms, boolean matchAll, int limit){
+        int[] rooms = null;
+        int[] scores = null;
+        for(String term : terms){
+            int[] candidates = candidates(term);
+            int[] termRooms = new int[candidates.length];
+            int[] termScores = new int[candidates.length];
+            int count = 0;
+            for(int i : candidates){
+                int s = entries[i].score(term);
+                if(s > 0){
+                    termRooms[count] = i;
+                    termScores[count++] = s;
+                }
+            }
+
+            if(count == 0){
+                // nothing contains the term, so it may be misspelt.
+                int[][] close = fuzzy.search(term);
+                termRooms = close[0];
+                termScores = close[1];
+                count = termRooms.length;
+            }
+
+            if(rooms == null){
+                rooms = Arrays.copyOf(termRooms, count);
+                scores = Arrays.copyOf(termScores, count);
+            }
+            else{
+                int[][] merged = merge(rooms, scores, termRooms, termScores, count, matchAll);
+                rooms = merged[0];
+                scores = merged[1];
+            }
+            if(matchAll && rooms.length == 0)
+                break;
+        }
+        if(rooms == null)
+            return new ArrayList<>();
+        return top(entries, rooms, scores, rooms.length, limit);
+    }
+
+    /**
+     * Find the rooms containing every term, without looking for misspellings.
+     * @param terms Normalised search terms.
+     * @param within Sorted room indexes to limit the search to, or null to search every room.
+     * @return {rooms, scores}: the sorted indexes of the matching rooms and their scores.
+     */
+    int[][] matchAll(String[] terms, int[] within){
+        int[] rooms = within;
+        int[] scores = within == null ? null : new int[within.length];
+        for(String term : terms){
+            int[] candidates = rooms == null ? candidates(term) : rooms;
+            int[] outRooms = new int[candidates.length];
+            int[] outScores = new int[candidates.length];
+            int count = 0;
+            for(int i = 0; i < candidates.length; i++){
+                int s = entries[candidates[i]].score(term);
+                if(s > 0){
+                    outRooms[count] = candidates[i];
+                    outScores[count++] = s + (scores == null ? 0 : scores[i]);
+                }
+            }
+            rooms = Arrays.copyOf(outRooms, count);
+            scores = Arrays.copyOf(outScores, count);
+            if(count == 0)
+                break;
+        }
+        if(rooms == null)
+            return new int[][] {EMPTY, EMPTY};
+        return new int[][] {rooms, scores};
+    }
+
+    /**
+     * @param rooms Room indexes.
+     * @param scores The score of each room.
+     * @param limit The maximum number of rooms to return.
+     * @return The best rooms, best first.
+     */
+    List<Room> top(int[] rooms, int[] scores, int limit){
+        return top(entries, rooms, scores, rooms.length, limit);
+    }
+
+    // the rooms that may contain the term, or the term with letters typed for digits read as digits:
+    // a superset, to be checked against the words themselves.
+    private int[] candidates(String term){
+        String read = FuzzyIndex.confusable(term);
+        if(read.equals(term))
+            return gramCandidates(term);
+        return union(gramCandidates(term), gramCandidates(read));
+    }
+
+    private int[] gramCandidates(String term){
+        if(term.length() <= GRAM){
+            int[] p = postings.get(term);
+            return p == null ? EMPTY : p;
+        }
+
+        // start from the rarest trigram and narrow it down with the others.
+        int[][] lists = new int[term.length() - GRAM + 1][];
+        for(int i = 0; i < lists.length; i++){
+            lists[i] = postings.get(term.substring(i, i + GRAM));
+            if(lists[i] == null)
+                return EMPTY;
+        }
+        Arrays.sort(lists, (a, b) -> Integer.compare(a.length, b.length));
+
+        int[] result = lists[0];
+        for(int i = 1; i < lists.length && result.length > 0; i++)
+            result = intersect(result, lists[i]);
+        return result;
+    }
+
+    private static int[] union(int[] a, int[] b){
+        int[] out = new int[a.length + b.length];
+        int n = 0, i = 0, j = 0;
+        while(i < a.length || j < b.length){
+            if(j >= b.length || i < a.length && a[i] < b[j])
+                out[n++] = a[i++];
+            else if(i >= a.length || b[j] < a[i])
+                out[n++] = b[j++];
+            else{
+                out[n++] = a[i++];
+                j++;
+            }
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    private static int[] intersect(int[] a, int[] b){
+        int[] out = new int[Math.min(a.length, b.length)];
+        int n = 0;
+        for(int i = 0, j = 0; i < a.length && j < b.length; ){
+            if(a[i] < b[j]) i++;
+            else if(a[i] > b[j]) j++;
+            else{
+                out[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    // combine two sorted posting lists, adding the scores of rooms in both.
+    private static int[][] merge(int[] rooms, int[] scores, int[] otherRooms, int[] otherScores, int otherCount, boolean both){
+        int[] outRooms = new int[both ? Math.min(rooms.length, otherCount) : rooms.length + otherCount];
+        int[] outScores = new int[outRooms.length];
+        int n = 0, i = 0, j = 0;
+        while(i < rooms.length || j < otherCount){
+            if(j >= otherCount || i < rooms.length && rooms[i] < otherRooms[j]){
+                if(!both){
+                    outRooms[n] = rooms[i];
+                    outScores[n++] = scores[i];
+                }
+                i++;
+            }
+            else if(i >= rooms.length || otherRooms[j] < rooms[i]){
+                if(!both){
+                    outRooms[n] = otherRooms[j];
+                    outScores[n++] = otherScores[j];
+                }
+                j++;
+            }
+            else{
+                outRooms[n] = rooms[i];
+                outScores[n++] = scores[i] + otherScores[j];
+                i++;
+                j++;
+            }
+        }
+        return new int[][] {Arrays.copyOf(outRooms, n), Arrays.copyOf(outScores, n)};
+    }
+
+    /**
+     * Search rooms without an index, scoring them exactly as the index would.
+     * @param rooms The rooms to search.
+     * @param terms Normalised search terms, see {@link #terms(String)}.
+     * @param matchAll If true, a room must match every term, otherwise any.
+     * @param limit The maximum number of rooms to return.
+     * @return The best matching rooms, best first.
+     */
+    static List<Room> scan(List<Room> rooms, String[] terms, boolean matchAll, int limit){
+        Entry[] entries = new Entry[rooms.size()];
+        int[][] termScores = new int[terms.length][rooms.size()];
+        boolean[] found = new boolean[terms.length];
+        for(int i = 0; i < entries.length; i++){
+            entries[i] = new Entry(rooms.get(i));
+            for(int t = 0; t < terms.length; t++){
+                termScores[t][i] = entries[i].score(terms[t]);
+                found[t] |= termScores[t][i] > 0;
+            }
+        }
+
+        // like the index, only terms that match nothing are treated as misspelt.
+        for(int t = 0; t < terms.length; t++)
+            if(!found[t])
+                for(int i = 0; i < entries.length; i++)
+                    termScores[t][i] = FuzzyIndex.scan(terms[t], entries[i].words);
+
+        int[] matched = new int[rooms.size()];
+        int[] scores = new int[rooms.size()];
+        int count = 0;
+        for(int i = 0; i < entries.length; i++){
+            int total = 0;
+            boolean all = true;
+            for(int t = 0; t < terms.length; t++){
+                total += termScores[t][i];
+                all &= termScores[t][i] > 0;
+            }
+            if(total > 0 && (all || !matchAll)){
+                matched[count] = i;
+                scores[count++] = total;
+            }
+        }
+        return top(entries, matched, scores, count, limit);
+    }
+
+    // pick the best rooms with a bounded min-heap, so only the results are ever sorted.
+    private static List<Room> top(Entry[] entries, int[] rooms, int[] scores, int count, int limit){
+        PriorityQueue<int[]> heap = new PriorityQueue<>(Math.max(1, Math.min(limit, count)),
+                (a, b) -> -compare(entries, a, b));
+        for(int i = 0; i < count; i++){
+            int[] candidate = {rooms[i], scores[i]};
+            if(heap.size() < limit)
+                heap.add(candidate);
+            else if(limit > 0 && compare(entries, candidate, heap.peek()) < 0){
+                heap.poll();
+                heap.add(candidate);
+            }
+        }
+
+        Room[] result = new Room[heap.size()];
+        for(int i = result.length - 1; i >= 0; i--)
+            result[i] = entries[heap.poll()[0]].room;
+        return new ArrayList<>(Arrays.asList(result));
+    }
+
+    // best first: higher score, then shorter name, then the order of the map.
+    private static int compare(Entry[] entries, int[] a, int[] b){
+        if(a[1] != b[1])
+            return Integer.compare(b[1], a[1]);
+        int la = entries[a[0]].length, lb = entries[b[0]].length;
+        if(la != lb)
+            return Integer.compare(la, lb);
+        return Integer.compare(a[0], b[0]);
+    }
+
+    /**
+     * @param text A search query or room name.
+     * @return The text in lower case without accents.
+     */
+    static String normalize(String text){
+        if(text == null)
+            return "";
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        return MARKS.matcher(decomposed).replaceAll("").toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @param query A search query.
+     * @return The words of the query, normalised, without duplicates.
+     */
+    static String[] terms(String query){
+        String[] split = normalize(query).split("[^\\p{L}\\p{N}]+");
+        List<String> terms = new ArrayList<>(split.length);
+        for(String s : split)
+            if(!s.isEmpty() && !terms.contains(s))
+                terms.add(s);
+        return terms.toArray(new String[0]);
+    }
+
+    // a room with its name and number split into normalised words.
+    private static class Entry {
+        final Room room;
+        final String number;
+        final String[] words;
+        final int length;
+
+        Entry(Room room){
+            this.room = room;
+            this.number = normalize(room.getRoomNumber());
+            String[] nameWords = terms(room.getName());
+            String[] numberWords = terms(room.getRoomNumber());
+            words = Arrays.copyOf(numberWords, numberWords.length + nameWords.length);
+            System.arraycopy(nameWords, 0, words, numberWords.length, nameWords.length);
+            length = room.getName() == null ? 0 : room.getName().length();
+        }
+
+        // a term with digits in it also matches as if its confusable letters were typed as digits, so "2O4" is room 204.
+        int score(String term){
+            String read = FuzzyIndex.confusable(term);
+            int s = match(term);
+            return read.equals(term) ? s : Math.max(s, match(read));
+        }
+
+        private int match(String term){
+            if(term.equals(number))
+                return ROOM_NUMBER;
+            int best = 0;
+            for(String word : words){
+                if(word.equals(term))
+                    return WORD;
+                if(word.startsWith(term))
+                    best = PREFIX;
+                else if(best == 0 && word.contains(term))
+                    best = SUBSTRING;
+            }
+            return best;
+        }
+    }
+
+    // a growable list of sorted room indexes.
+    private static class IntList {
+        int[] items = new int[4];
+        int size = 0;
+
+        // rooms are added in order, so a repeat can only be the last item.
+        void addUnique(int i){
+            if(size > 0 && items[size - 1] == i)
+                return;
+            if(size == items.length)
+                items = Arrays.copyOf(items, size * 2);
+            items[size++] = i;
+        }
+
+        int[] toArray(){
+            return Arrays.copyOf(items, size);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package tk.pathfinder.Map;
+
+import java.util.List;
+
+/***
+ * Searches a map for rooms as the user types.
+ * Rooms matching every term come first. The rooms matching the previous query are kept, and while each
+ * new query only extends the last one, for example "rad" then "radio", only those rooms are checked.
+ * Any other change searches the whole index again. When no room matches every term, even allowing
+ * for misspellings, the rooms matching any of them are returned, best first, as
+ * {@link Map#findDestination(String)} does.
+ * @author Michael MacLean
+ * @version 1.0
+ * @since 1.0
+ */
+public class SearchSession {
+
+    private final Map map;
+    // the last query that was answered without guessing at misspellings, and the rooms matching it.
+    private String[] terms;
+    private int[] rooms;
+    private boolean refined = false;
+
+    /**
+     * @param map The map to search.
+     */
+    public SearchSession(Map map){
+        if(map == null)
+            throw new NullPointerException("map");
+        this.map = map;
+    }
+
+    /**
+     * @return The map being searched.
+     */
+    public Map getMap(){
+        return map;
+    }
+
+    /**
+     * Search for rooms matching every word of a query, or any of them if none matches every word.
+     * @param query The text typed so far.
+     * @param limit The maximum number of results.
+     * @return The best matching rooms, best first.
+     * @throws IllegalArgumentException if query is null or limit is negative.
+     */
+    public synchronized List<Room> search(String query, int limit) throws IllegalArgumentException {
+        if(query == null)
+            throw new IllegalArgumentException("query cannot be null");
+        if(limit < 0)
+            throw new IllegalArgumentException("limit must not be negative");
+
+        String[] next = SearchIndex.terms(query);
+        // a floor's index only holds its own rooms, while a search covers the whole building.
+        SearchIndex index = map.getBuilding() == null ? map.getSearchIndex() : null;
+        refined = false;
+        if(index == null || next.length == 0){
+            terms = null;
+            rooms = null;
+            return searchAll(query, limit);
+        }
+
+        refined = terms != null && narrows(next, terms);
+        int[][] match = index.matchAll(next, refined ? rooms : null);
+        if(match[0].length == 0){
+            // nothing matches exactly; let the full search try for misspellings, and start over next time.
+            terms = null;
+            rooms = null;
+            return searchAll(query, limit);
+        }
+
+        terms = next;
+        rooms = match[0];
+        return index.top(match[0], match[1], limit);
+    }
+
+    /**
+     * @return true if the last search only checked the rooms matching the query before it.
+     */
+    public synchronized boolean wasRefined(){
+        return refined;
+    }
+
+    /**
+     * Clear the remembered results, so the next search covers every room.
+     */
+    public synchronized void reset(){
+        terms = null;
+        rooms = null;
+    }
+
+    // the rooms matching every term, allowing for misspellings, or failing that the rooms matching any term.
+    private List<Room> searchAll(String query, int limit){
+        List<Room> all = map.search(query, true, limit);
+        return all.isEmpty() ? map.search(query, false, limit) : all;
+    }
+
+    // true if every room matching all of next must also match all of previous,
+    // which holds when each previous term is part of some new term.
+    private static boolean narrows(String[] next, String[] previous){
+        for(String p : previous){
+            boolean found = false;
+            for(String n : next){
+                if(n.contains(p)){
+                    found = true;
+                    break;
+                }
+            }
+            if(!found)
+                return false;
+        }
+        return true;
+    }
+}
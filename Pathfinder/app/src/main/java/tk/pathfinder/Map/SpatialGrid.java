@@ -0,0 +1,246 @@
+package tk.pathfinder.Map;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/***
+ * A uniform grid of buckets over the nodes of each floor, used for nearest-node queries.
+ * The cell size is chosen from the node density so each cell holds a couple of nodes.
+ * @author Michael MacLean
+ * @version 1.0
+ * @since 1.0
+ */
+public class SpatialGrid {
+
+    // the average number of nodes we aim to have in each cell.
+    private static final double NODES_PER_CELL = 2;
+
+    private final HashMap<Integer, Floor> floors = new HashMap<>();
+
+    /**
+     * @param nodes The nodes to index.
+     */
+    public SpatialGrid(Collection<? extends Node> nodes){
+        if(nodes == null)
+            throw new NullPointerException("nodes");
+
+        HashMap<Integer, List<Node>> byFloor = new HashMap<>();
+        for(Node n : nodes){
+            List<Node> l = byFloor.get(n.getFloor());
+            if(l == null){
+                l = new ArrayList<>();
+                byFloor.put(n.getFloor(), l);
+            }
+            l.add(n);
+        }
+
+        for(java.util.Map.Entry<Integer, List<Node>> e : byFloor.entrySet())
+            floors.put(e.getKey(), new Floor(e.getValue()));
+    }
+
+    /**
+     * Get the closest node on the same floor as a point.
+     * @param p The point to use as a reference.
+     * @return The closest node, or null if there are no nodes on the floor.
+     */
+    public Node closest(Point p){
+        Floor f = floors.get(p.getY());
+        if(f == null)
+            return null;
+        return f.closest(p.getX(), p.getZ());
+    }
+
+    /**
+     * Get the k closest nodes on the same floor as a point.
+     * @param p The point to use as a reference.
+     * @param k The number of nodes to return.
+     * @return Up to k nodes, ordered from closest to farthest.
+     */
+    public List<Node> closest(Point p, int k){
+        if(k < 0)
+            throw new IllegalArgumentException("k must not be negative");
+        Floor f = floors.get(p.getY());
+        if(f == null || k == 0)
+            return new ArrayList<>();
+        return f.closest(p.getX(), p.getZ(), k);
+    }
+
+    /**
+     * The grid for a single floor. Buckets are stored in CSR form:
+     * the nodes of cell i are nodes[cellStart[i]] up to nodes[cellStart[i + 1]].
+     * Coordinates are copied into columns alongside, so a query never touches the Node objects it rejects.
+     */
+    private static class Floor {
+        private final int minX;
+        private final int minZ;
+        private final int cellSize;
+        private final int columns;
+        private final int rows;
+        private final int[] cellStart;
+        private final Node[] nodes;
+        private final int[] xs;
+        private final int[] zs;
+
+        Floor(List<Node> floorNodes){
+            int minX = Integer.MAX_VALUE, minZ = Integer.MAX_VALUE;
+            int maxX = Integer.MIN_VALUE, maxZ = Integer.MIN_VALUE;
+            for(Node n : floorNodes){
+                Point p = n.getPoint();
+                minX = Math.min(minX, p.getX());
+                minZ = Math.min(minZ, p.getZ());
+                maxX = Math.max(maxX, p.getX());
+                maxZ = Math.max(maxZ, p.getZ());
+            }
+
+            // size the cells so that each one holds about NODES_PER_CELL nodes.
+            double area = Math.max(1.0, (double)(maxX - minX + 1) * (maxZ - minZ + 1));
+            this.cellSize = Math.max(1, (int)Math.ceil(Math.sqrt(area * NODES_PER_CELL / floorNodes.size())));
+            this.minX = minX;
+            this.minZ = minZ;
+            this.columns = (maxX - minX) / cellSize + 1;
+            this.rows = (maxZ - minZ) / cellSize + 1;
+
+            // count, prefix sum, then fill the buckets.
+            int[] cellOf = new int[floorNodes.size()];
+            cellStart = new int[columns * rows + 1];
+            for(int i = 0; i < cellOf.length; i++){
+                Point p = floorNodes.get(i).getPoint();
+                cellOf[i] = cell((p.getX() - minX) / cellSize, (p.getZ() - minZ) / cellSize);
+                cellStart[cellOf[i] + 1]++;
+            }
+            for(int i = 1; i < cellStart.length; i++)
+                cellStart[i] += cellStart[i - 1];
+
+            int[] fill = Arrays.copyOf(cellStart, cellStart.length - 1);
+            nodes = new Node[floorNodes.size()];
+            xs = new int[nodes.length];
+            zs = new int[nodes.length];
+            for(int i = 0; i < cellOf.length; i++){
+                int slot = fill[cellOf[i]]++;
+                Node n = floorNodes.get(i);
+                nodes[slot] = n;
+                xs[slot] = n.getPoint().getX();
+                zs[slot] = n.getPoint().getZ();
+            }
+        }
+
+        // squared planar distance between a slot and a coordinate.
+        private long distanceSquared(int slot, long x, long z){
+            long dx = xs[slot] - x;
+            long dz = zs[slot] - z;
+            return dx*dx + dz*dz;
+        }
+
+        private int cell(int column, int row){
+            return row * columns + column;
+        }
+
+        private int column(long x){
+            return (int)Math.min(columns - 1, Math.max(0, (x - minX) / cellSize));
+        }
+
+        private int row(long z){
+            return (int)Math.min(rows - 1, Math.max(0, (z - minZ) / cellSize));
+        }
+
+        // the smallest distance from the point to any cell outside the given ring.
+        private long outsideRing(long x, long z, int column, int row, int ring){
+            long left = x - (minX + (long)(column - ring) * cellSize);
+            long right = minX + (long)(column + ring + 1) * cellSize - x;
+            long top = z - (minZ + (long)(row - ring) * cellSize);
+            long bottom = minZ + (long)(row + ring + 1) * cellSize - z;
+            return Math.max(0, Math.min(Math.min(left, right), Math.min(top, bottom)));
+        }
+
+        private int maxRing(int column, int row){
+            return Math.max(Math.max(column, columns - 1 - column), Math.max(row, rows - 1 - row));
+        }
+
+        Node closest(long x, long z){
+            int column = column(x);
+            int row = row(z);
+            int maxRing = maxRing(column, row);
+
+            Node best = null;
+            long bestDist = Long.MAX_VALUE;
+            for(int ring = 0; ring <= maxRing; ring++){
+                for(int r = row - ring; r <= row + ring; r++){
+                    if(r < 0 || r >= rows)
+                        continue;
+                    // only the border of the ring, the inside has already been searched.
+                    int step = (r == row - ring || r == row + ring) ? 1 : 2 * ring;
+                    for(int c = column - ring; c <= column + ring; c += Math.max(1, step)){
+                        if(c < 0 || c >= columns)
+                            continue;
+                        int cell = cell(c, r);
+                        for(int i = cellStart[cell]; i < cellStart[cell + 1]; i++){
+                            long d = distanceSquared(i, x, z);
+                            if(d < bestDist){
+                                bestDist = d;
+                                best = nodes[i];
+                            }
+                        }
+                    }
+                }
+
+                long bound = outsideRing(x, z, column, row, ring);
+                if(best != null && bestDist <= bound * bound)
+                    break;
+            }
+            return best;
+        }
+
+        List<Node> closest(long x, long z, int k){
+            int column = column(x);
+            int row = row(z);
+            int maxRing = maxRing(column, row);
+
+            // a max-heap holding the k best candidates so far.
+            PriorityQueue<Candidate> heap = new PriorityQueue<>(k, (a, b) -> Long.compare(b.dist, a.dist));
+            for(int ring = 0; ring <= maxRing; ring++){
+                for(int r = row - ring; r <= row + ring; r++){
+                    if(r < 0 || r >= rows)
+                        continue;
+                    int step = (r == row - ring || r == row + ring) ? 1 : 2 * ring;
+                    for(int c = column - ring; c <= column + ring; c += Math.max(1, step)){
+                        if(c < 0 || c >= columns)
+                            continue;
+                        int cell = cell(c, r);
+                        for(int i = cellStart[cell]; i < cellStart[cell + 1]; i++){
+                            long d = distanceSquared(i, x, z);
+                            if(heap.size() < k)
+                                heap.add(new Candidate(nodes[i], d));
+                            else if(d < heap.peek().dist){
+                                heap.poll();
+                                heap.add(new Candidate(nodes[i], d));
+                            }
+                        }
+                    }
+                }
+
+                long bound = outsideRing(x, z, column, row, ring);
+                if(heap.size() == k && heap.peek().dist <= bound * bound)
+                    break;
+            }
+
+            Node[] result = new Node[heap.size()];
+            for(int i = result.length - 1; i >= 0; i--)
+                result[i] = heap.poll().node;
+            return new ArrayList<>(Arrays.asList(result));
+        }
+    }
+
+    private static class Candidate {
+        final Node node;
+        final long dist;
+
+        Candidate(Node node, long dist){
+            this.node = node;
+            this.dist = dist;
+        }
+    }
+}
@@ -6,15 +6,14 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import javax.net.ssl.HttpsURLConnection;
 import java.io.*;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLEncoder;
-import java.util.ArrayList;
-import java.util.List;
 
 import tk.pathfinder.Map.*;
+import tk.pathfinder.exceptions.HttpStatusException;
 /**
  * Contains API calls for map data.
  * @author Michael MacLean
@@ -24,7 +23,36 @@ import tk.pathfinder.Map.*;
 public class Api {
 
     // change this URL when moving the website home.
-    private static final String URL_BASE = "https://path-finder.tk";
+    private static final String DEFAULT_URL_BASE = "https://path-finder.tk";
+    private static volatile String URL_BASE = DEFAULT_URL_BASE;
+    // milliseconds to wait for the status feed, on top of any time the server holds the request.
+    private static final int STATUS_TIMEOUT = 15000;
+    // milliseconds to wait for a connection, and between bytes of a response, so a dead network fails instead of hanging.
+    private static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+    private static final int DEFAULT_READ_TIMEOUT = 20000;
+    private static volatile int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    private static volatile int readTimeout = DEFAULT_READ_TIMEOUT;
+
+    /**
+     * Point the API at another server, such as a local one for testing.
+     * @param url The server's root URL without a trailing slash, or null for the default.
+     */
+    public static void setUrlBase(String url){
+        URL_BASE = url == null ? DEFAULT_URL_BASE : url;
+    }
+
+    /**
+     * Change how long requests wait on the server, such as to fail quickly in tests.
+     * @param connectMillis The longest to wait for a connection, or 0 for the default.
+     * @param readMillis The longest to wait for each part of a response, or 0 for the default.
+     * @throws IllegalArgumentException if a timeout is negative.
+     */
+    public static void setTimeouts(int connectMillis, int readMillis) throws IllegalArgumentException {
+        if(connectMillis < 0 || readMillis < 0)
+            throw new IllegalArgumentException("Timeouts must not be negative");
+        connectTimeout = connectMillis == 0 ? DEFAULT_CONNECT_TIMEOUT : connectMillis;
+        readTimeout = readMillis == 0 ? DEFAULT_READ_TIMEOUT : readMillis;
+    }
 
     /**
      * Get a map from the database
@@ -33,113 +61,197 @@ public class Api {
      * @throws IOException If there was an error returned by the HTTP connection or the endpoint.
      */
     public static Map getMap(Integer id) throws IOException{
-        HttpsURLConnection con;
-        try{
-            URL url = new URL(URL_BASE + "/api/maps?id=" + id.toString());
-            con = (HttpsURLConnection)url.openConnection();
-        }
-        catch(MalformedURLException e){
-            throw new RuntimeException("Invalid URL encountered");
+        return getMap(id, null, null).getMap();
+    }
+
+    /**
+     * Get a map from the database, unless the server confirms a saved copy is still current.
+     * @param id The map id.
+     * @param etag The entity tag sent with the saved copy, or null.
+     * @param lastModified The Last-Modified header sent with the saved copy, or null.
+     * @return The response. Its map is null if the saved copy is still current.
+     * @throws IOException If there was an error returned by the HTTP connection or the endpoint.
+     */
+    public static MapResponse getMap(Integer id, String etag, String lastModified) throws IOException{
+        long start = System.nanoTime();
+        MapBuilder builder = new MapBuilder(id, null);
+        MapResponse response = readMap(id, builder, etag, lastModified);
+        if(response.reader == null){
+            Log.d("Api", "Map " + id + ": not modified");
+            return response;
         }
-        String response = getReader(con);
-        JSONObject json;
+
+        response.map = builder.setRevision(response.reader.getRevision()).build();
+        for(String warning : builder.getWarnings())
+            Log.w("Api", "Map " + id + ": " + warning);
+        logLoad(id, response, start);
+        return response;
+    }
+
+    /**
+     * Get a map from the database, stored outside the Java heap. Use this for maps too large
+     * to hold as objects.
+     * @param id The map id.
+     * @return The map.
+     * @throws IOException If there was an error returned by the HTTP connection or the endpoint.
+     */
+    public static ColumnarMap getColumnarMap(Integer id) throws IOException{
+        long start = System.nanoTime();
+        ColumnarMap.Builder builder = new ColumnarMap.Builder(id, null);
+        MapResponse response = readMap(id, builder, null, null);
+
+        ColumnarMap map = builder.setRevision(response.reader.getRevision()).build();
+        for(String warning : builder.getWarnings())
+            Log.w("Api", "Map " + id + ": " + warning);
+        logLoad(id, response, start);
+        Log.d("Api", "Map " + id + ": " + map.size() + " nodes in " + map.getMemoryUsage() + " bytes");
+        return map;
+    }
+
+    /**
+     * Get the changes made to a map since a revision, rather than the whole map.
+     * @param id The map id.
+     * @param since The revision of the caller's copy, see {@link Map#getRevision()}.
+     * @return The changes, which are empty if the copy is current, or null if the server no longer
+     * has the changes since that revision and the whole map must be downloaded.
+     * @throws IOException If there was an error returned by the HTTP connection or the endpoint.
+     */
+    public static MapDelta getMapDelta(Integer id, int since) throws IOException{
+        long start = System.nanoTime();
+        HttpURLConnection con = openCompressed("/api/maps/changes?id=" + id.toString() + "&since=" + since);
+        con.setUseCaches(false);
+        con.connect();
+
         try{
-            json = new JSONObject(response);
+            int code = con.getResponseCode();
+            if(code == HttpURLConnection.HTTP_NO_CONTENT)
+                return new MapDelta(since, since).setMapInfo(id, null);
+            if(code == HttpURLConnection.HTTP_GONE || code == HttpURLConnection.HTTP_NOT_FOUND){
+                Log.d("Api", "Map " + id + ": no changes kept since revision " + since);
+                return null;
+            }
+            if(code != HttpURLConnection.HTTP_OK)
+                throw new HttpStatusException(code, "Error getting map changes: HTTP " + code);
+
+            MapDelta delta = new MapDelta();
+            MapReader reader = new MapReader(delta);
+            Transfer transfer = new Transfer(con.getContentEncoding());
+            try(Reader in = new BufferedReader(new InputStreamReader(transfer.decode(con.getInputStream()), "UTF-8"))){
+                reader.read(in);
+            }
+            Log.d("Api", "Map " + id + ": " + reader.getRecordCount() + " changes from revision " + since + " to "
+                    + delta.getRevision() + " in " + (System.nanoTime() - start) / 1000000 + " ms, " + transfer);
+            return delta;
         }
-        catch(JSONException e){
-            throw new IOException("Could not parse JSON result");
+        finally{
+            con.disconnect();
         }
+    }
 
-        if(con.getResponseCode() == 500){
-            try{
-                throw new IOException("Server error encountered: " + json.getString("details"));
-            }
-            catch(JSONException e){
-                throw new IOException("Server error encountered; additionally, a JSON error was encountered while parsing the error.");
+    /**
+     * Get whether each floor connector of a map is in service. The server holds the request open for
+     * up to the given time until the status differs from the caller's version, so a loop of calls
+     * sees each change as it happens.
+     * @param id The map id.
+     * @param since The version of the status the caller has, or -1 for none.
+     * @param waitSeconds The longest the server may hold the request, or 0 to answer at once.
+     * @return The status, or null if it was still at the caller's version when the wait ended.
+     * @throws IOException If there was an error returned by the HTTP connection or the endpoint.
+     */
+    public static ConnectorStatus getConnectorStatus(Integer id, int since, int waitSeconds) throws IOException{
+        HttpURLConnection con = open("/api/maps/status?id=" + id.toString() + "&since=" + since + "&wait=" + waitSeconds);
+        con.setUseCaches(false);
+        con.setConnectTimeout(STATUS_TIMEOUT);
+        // allow for the server holding the request.
+        con.setReadTimeout(waitSeconds * 1000 + STATUS_TIMEOUT);
+        con.connect();
+
+        try{
+            int code = con.getResponseCode();
+            if(code == HttpURLConnection.HTTP_NOT_MODIFIED || code == HttpURLConnection.HTTP_NO_CONTENT)
+                return null;
+            if(code != HttpURLConnection.HTTP_OK)
+                throw new HttpStatusException(code, "Error getting connector status: HTTP " + code);
+            try(InputStream in = new BufferedInputStream(con.getInputStream())){
+                return ConnectorStatus.read(in);
             }
         }
+        finally{
+            con.disconnect();
+        }
+    }
 
-        if(con.getResponseCode() == 204 || con.getResponseCode() == 404){
-            throw new IOException("Empty response received.");
+    private static HttpURLConnection open(String path) throws IOException{
+        try{
+            URL url = new URL(URL_BASE + path);
+            HttpURLConnection con = (HttpURLConnection)url.openConnection();
+            con.setConnectTimeout(connectTimeout);
+            con.setReadTimeout(readTimeout);
+            return con;
+        }
+        catch(MalformedURLException e){
+            throw new RuntimeException("Invalid URL encountered");
         }
+    }
+
+    // a connection that asks for a compressed body. the body must be read through a Transfer.
+    private static HttpURLConnection openCompressed(String path) throws IOException{
+        HttpURLConnection con = open(path);
+        // asking for an encoding ourselves stops the connection decompressing on its own, which would hide the transfer size.
+        con.setRequestProperty("Accept-Encoding", Transfer.ACCEPT_ENCODING);
+        return con;
+    }
+
+    // stream a map into a sink as it downloads. the response has no reader if the server says the copy is current.
+    private static MapResponse readMap(Integer id, MapSink sink, String etag, String lastModified) throws IOException{
+        HttpURLConnection con = openCompressed("/api/maps?id=" + id.toString());
+        // maps are cached by MapCache, not the HTTP cache.
+        con.setUseCaches(false);
+        if(etag != null)
+            con.setRequestProperty("If-None-Match", etag);
+        if(lastModified != null)
+            con.setRequestProperty("If-Modified-Since", lastModified);
+        con.connect();
 
-        Integer index;
-        String name;
-        List<Node> nodes = new ArrayList<>();
-        List<Edge> edges = new ArrayList<>();
-        List<Beacon> beacons = new ArrayList<>();
         try{
-            index = json.getInt("id");
-            name = json.getString("name");
-
-            // parse map nodes
-            JSONArray nArr = json.getJSONArray("nodes");
-            for(int i = 0; i < nArr.length(); i++){
-                JSONObject j = nArr.getJSONObject(i);
-                int n_id = j.getInt("id");
-                JSONObject n_corr = j.getJSONObject("coordinate");
-                Point p = new Point((int)(n_corr.getDouble("x")*1000),
-                        (int)(n_corr.getDouble("y")), (int)(n_corr.getDouble("z")*1000));
-                switch(j.getString("type")){
-                    case "room":
-                        String room_num = j.getString("room_number");
-                        if(room_num.equals("null"))
-                            room_num = null;
-                        String room_name = j.getString("name");
-                        if(room_name.equals("null"))
-                            room_name = null;
-                        boolean auth = j.getBoolean("requires_auth");
-                        nodes.add(new Room(n_id, p, room_num, room_name, auth));
-                        break;
-
-                    case "floor_connector":
-                        String fc_name = j.getString("name");
-                        FloorConnector.FloorConnectorTypes fc_type = FloorConnector.FloorConnectorTypes.values()[j.getInt("connector_type")];
-                        boolean fc_auth = j.getBoolean("requires_auth");
-                        boolean operating = j.getBoolean("is_operational");
-                        nodes.add(new FloorConnector(n_id, p, fc_name, fc_type, new int[0], operating, fc_auth));
-                        break;
-
-                    case "intersection":
-                        nodes.add(new Intersection(n_id, p));
-                        break;
+            int code = con.getResponseCode();
+            if(code == 500){
+                try{
+                    throw new HttpStatusException(code, "Server error encountered: " + new JSONObject(getError(con)).getString("details"));
+                }
+                catch(JSONException | NullPointerException e){
+                    throw new HttpStatusException(code, "Server error encountered; additionally, a JSON error was encountered while parsing the error.");
                 }
             }
 
-            // parse map edges
-            JSONArray eArr = json.getJSONArray("edges");
-            for(int i = 0; i < eArr.length(); i++){
-                JSONArray j = eArr.getJSONArray(i);
-                int n1_id = j.getInt(0);
-                int n2_id = j.getInt(1);
-                Node node1 = findNode(nodes, n1_id);
-                Node node2 = findNode(nodes, n2_id);
-                if(node1 == null || node2 == null)
-                    continue;
-                edges.add(new Edge(node1, node2));
+            if(code == 204 || code == 404){
+                throw new HttpStatusException(code, "Empty response received.");
             }
+            if(code != HttpURLConnection.HTTP_OK && code != HttpURLConnection.HTTP_NOT_MODIFIED)
+                throw new HttpStatusException(code, "Error getting map: HTTP " + code);
 
-            // parse map beacons
-            JSONArray bArr = json.getJSONArray("beacons");
-            for(int i = 0; i < bArr.length(); i++){
-                JSONObject j = bArr.getJSONObject(i);
-                String ssid = j.getString("ssid");
-                JSONObject b_corr = j.getJSONObject("coordinate");
-                Point p = new Point((int)(b_corr.getDouble("x")*1000),
-                        (int)(b_corr.getDouble("y")), (int)(b_corr.getDouble("z")*1000));
-                beacons.add(new Beacon(ssid, p));
+            // the server may send new validators with a 304; otherwise the old ones still apply.
+            String newTag = con.getHeaderField("ETag");
+            String newModified = con.getHeaderField("Last-Modified");
+            if(code == HttpURLConnection.HTTP_NOT_MODIFIED)
+                return new MapResponse(newTag != null ? newTag : etag, newModified != null ? newModified : lastModified, null, null);
+
+            MapReader reader = new MapReader(sink);
+            Transfer transfer = new Transfer(con.getContentEncoding());
+            try(Reader in = new BufferedReader(new InputStreamReader(transfer.decode(con.getInputStream()), "UTF-8"))){
+                reader.read(in);
             }
+            return new MapResponse(newTag, newModified, reader, transfer);
         }
-        catch(JSONException e){
-            throw new IOException("Invalid JSON data type received: " + e.getMessage());
+        finally{
+            con.disconnect();
         }
+    }
 
-        Edge[] eArr = new Edge[edges.size()];
-        Beacon[] bArr = new Beacon[beacons.size()];
-        eArr = edges.toArray(eArr);
-        bArr = beacons.toArray(bArr);
-
-        return new Map(index, name, eArr, bArr);
+    private static void logLoad(Integer id, MapResponse response, long start){
+        long millis = (System.nanoTime() - start) / 1000000;
+        Log.d("Api", "Map " + id + ": " + response.reader.getRecordCount() + " records in " + millis
+                + " ms, " + response.transfer);
     }
 
 
@@ -150,66 +262,158 @@ public class Api {
      * @throws IOException on API failure.
      */
     public static MapQueryResult[] findMaps(String keywords) throws IOException {
-        HttpsURLConnection con;
+        return findMaps(keywords, 0, 0).getResults();
+    }
 
-        try{
-            keywords = URLEncoder.encode(keywords, "UTF-8");
-            URL url = new URL(URL_BASE + "/api/maps?q=" + keywords);
-            con = (HttpsURLConnection)url.openConnection();
-        }
-        catch(MalformedURLException e){
-            throw new RuntimeException("Invalid URL encountered");
-        }
+    /**
+     * Get a page of the maps from the database whose names match a search term.
+     * @param keywords The search terms to return
+     * @param offset The number of matching maps to skip.
+     * @param limit The most maps to return, or 0 for all of them.
+     * @return The page of map information, with the number of matching maps.
+     * @throws IOException on API failure.
+     * @throws IllegalArgumentException if the keywords are null or the offset or limit is negative.
+     */
+    public static MapQueryPage findMaps(String keywords, int offset, int limit) throws IOException {
+        if(keywords == null)
+            throw new IllegalArgumentException("keywords must not be null");
+        if(offset < 0 || limit < 0)
+            throw new IllegalArgumentException("offset and limit must not be negative");
+        String path = "/api/maps?q=" + URLEncoder.encode(keywords, "UTF-8");
+        if(offset > 0 || limit > 0)
+            path += "&offset=" + offset + "&limit=" + limit;
+        HttpURLConnection con = openCompressed(path);
 
         String response = getReader(con);
         JSONObject json;
 
         // empty result!
         if(con.getResponseCode() == 204){
-            return new MapQueryResult[0];
+            return new MapQueryPage(new MapQueryResult[0], offset, offset);
         }
 
-        if(con.getResponseCode() != 200)
+        int code = con.getResponseCode();
+        if(code != 200)
             try{
-                throw new IOException("Error getting maps: " + new JSONObject(response).getString("details"));
+                throw new HttpStatusException(code, "Error getting maps: " + new JSONObject(response).getString("details"));
             }
             catch(NullPointerException e){
-                throw new IOException("Error retrieving maps.");
+                throw new HttpStatusException(code, "Error retrieving maps.");
             }
             catch(JSONException e){
-                throw new IOException("Error getting maps; additionally, a JSON error was encountered while parsing the error.");
+                throw new HttpStatusException(code, "Error getting maps; additionally, a JSON error was encountered while parsing the error.");
             }
 
         try{
             json = new JSONObject(response);
-            MapQueryResult[] results = new MapQueryResult[json.getInt("total")];
             JSONArray arr = json.getJSONArray("buildings");
+            MapQueryResult[] results = new MapQueryResult[arr.length()];
 
             for(int i = 0; i < arr.length(); i++){
                 JSONObject o = arr.getJSONObject(i);
                 results[i] = new MapQueryResult(o.getInt("id"), o.getString("name"));
             }
-            return results;
+            // a server without paging sends every match from the start.
+            return new MapQueryPage(results, json.optInt("offset", 0), json.getInt("total"));
         }
         catch(JSONException e){
             throw new IOException("Could not parse the JSON data");
         }
     }
 
-    private static String getReader(HttpsURLConnection con) throws IOException {
+    // the body of an error response, or null if there is none.
+    private static String getError(HttpURLConnection con) throws IOException {
+        InputStream err = con.getErrorStream();
+        if(err == null)
+            return null;
+        BufferedReader r = new BufferedReader(new InputStreamReader(err));
+        return r.readLine();
+    }
+
+    private static String getReader(HttpURLConnection con) throws IOException {
         con.setUseCaches(false);
         con.connect();
 
-        BufferedReader r = new BufferedReader(new InputStreamReader(con.getInputStream()));
-        return r.readLine();
+        Transfer transfer = new Transfer(con.getContentEncoding());
+        BufferedReader r = new BufferedReader(new InputStreamReader(transfer.decode(con.getInputStream()), "UTF-8"));
+        String line = r.readLine();
+        Log.d("Api", "Search: " + transfer);
+        return line;
+    }
+
+    /**
+     * The result of asking the server for a map.
+     */
+    public static class MapResponse{
+        private Map map;
+        private final String etag;
+        private final String lastModified;
+        private final MapReader reader;
+        private final Transfer transfer;
+
+        MapResponse(String etag, String lastModified, MapReader reader, Transfer transfer){
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.reader = reader;
+            this.transfer = transfer;
+        }
+
+        /**
+         * @return The map, or null if the copy the caller already has is still current.
+         */
+        public Map getMap() { return map; }
+
+        /**
+         * @return The entity tag of the current map, or null if the server did not send one.
+         */
+        public String getETag() { return etag; }
+
+        /**
+         * @return The Last-Modified header of the current map, or null if the server did not send one.
+         */
+        public String getLastModified() { return lastModified; }
+
+        /**
+         * @return The size, encoding and decode time of the download, or null if the map was not sent.
+         */
+        public Transfer getTransfer() { return transfer; }
     }
 
-    // find a node matching a specific id
-    private static Node findNode(List<Node> nodes, int id){
-        for(Node n : nodes)
-            if(n.getId() == id)
-                return n;
-        return null;
+    /**
+     * A run of the maps matching a search, in the order the server ranks them.
+     */
+    public static class MapQueryPage{
+        private final MapQueryResult[] results;
+        private final int offset;
+        private final int total;
+
+        /**
+         * @param results The maps on the page.
+         * @param offset The position of the first map among all the matches.
+         * @param total The number of matching maps.
+         */
+        MapQueryPage(MapQueryResult[] results, int offset, int total){
+            this.results = results;
+            this.offset = offset;
+            this.total = total;
+        }
+
+        public MapQueryResult[] getResults() { return results; }
+
+        /**
+         * @return The position of the first map on the page among all the matches.
+         */
+        public int getOffset() { return offset; }
+
+        /**
+         * @return The number of maps matching the search, on every page.
+         */
+        public int getTotal() { return total; }
+
+        /**
+         * @return true if there are no matches after this page.
+         */
+        public boolean isLast() { return offset + results.length >= total; }
     }
 
     /**
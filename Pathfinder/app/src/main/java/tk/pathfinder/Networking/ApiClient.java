@@ -0,0 +1,337 @@
+package tk.pathfinder.Networking;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import tk.pathfinder.Map.Map;
+import tk.pathfinder.exceptions.HttpStatusException;
+
+/***
+ * Runs calls to the {@link Api} in the background, on a small shared pool of threads, and hands
+ * the results to a callback.
+ * <p>
+ * A call that fails in a way that may pass, such as a timeout, a lost connection or a server error,
+ * is tried again a few times, waiting longer each time, with some randomness so that clients that
+ * failed together do not all come back at once. Other failures, such as a missing map or a response
+ * that cannot be read, are passed on at once. Calls are
+ * given a key; a call made while another with the same key is still running joins it rather than
+ * asking the server again, and each caller gets the same result. A caller can cancel its ticket
+ * without affecting the others, and the call itself stops once every caller has cancelled.
+ * <p>
+ * The pool has a bounded queue. A call that does not fit fails at once rather than waiting behind
+ * requests the user has probably given up on.
+ * @author Michael MacLean
+ * @version 1.0
+ * @since 1.0
+ */
+public class ApiClient {
+
+    // the number of calls run at once, and the number that may wait for a thread.
+    static final int THREADS = 4;
+    static final int QUEUE_SIZE = 32;
+    // the number of times a call is tried before its error is passed on.
+    static final int MAX_ATTEMPTS = 3;
+    // milliseconds to wait before the first retry; each retry waits twice as long, up to the maximum.
+    static final long BASE_BACKOFF = 500;
+    static final long MAX_BACKOFF = 8000;
+
+    /**
+     * A blocking call to the server.
+     * @param <T> The type of the result.
+     */
+    public interface Request<T> {
+        T run() throws IOException;
+    }
+
+    /**
+     * Receives the outcome of a call. Exactly one of the methods is called, unless the ticket is cancelled.
+     * @param <T> The type of the result.
+     */
+    public interface Callback<T> {
+        void onResult(T result);
+        void onError(IOException e);
+    }
+
+    private final Executor callbackExecutor;
+    private final ThreadPoolExecutor executor;
+    private final Random random = new Random();
+    // the calls running or waiting to run, by key.
+    private final HashMap<String, Call<?>> inFlight = new HashMap<>();
+    private final MapSearchCache searches = new MapSearchCache(MapSearchCache.DEFAULT_TTL);
+    private int callCount = 0;
+    private int joinCount = 0;
+    private int retryCount = 0;
+
+    /**
+     * @param callbackExecutor Runs the callbacks, such as on the main thread.
+     */
+    public ApiClient(Executor callbackExecutor){
+        if(callbackExecutor == null)
+            throw new NullPointerException("callbackExecutor");
+        this.callbackExecutor = callbackExecutor;
+        AtomicInteger threads = new AtomicInteger();
+        executor = new ThreadPoolExecutor(THREADS, THREADS, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(QUEUE_SIZE), r -> {
+            Thread t = new Thread(r, "api-" + threads.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Run a call in the background, or join one with the same key already in progress.
+     * @param key Identifies the call, so that identical calls are only made once at a time; null never joins.
+     * @param request The call to make.
+     * @param callback Receives the result, or null if the ticket is only waited on.
+     * @param <T> The type of the result.
+     * @return A ticket for the caller's interest in the result.
+     */
+    public <T> Ticket<T> submit(String key, Request<T> request, Callback<T> callback){
+        if(request == null)
+            throw new NullPointerException("request");
+        Call<T> call;
+        Ticket<T> ticket;
+        synchronized(this){
+            @SuppressWarnings("unchecked")
+            Call<T> running = key == null ? null : (Call<T>)inFlight.get(key);
+            if(running != null){
+                joinCount++;
+                ticket = new Ticket<>(running, callback);
+                running.tickets.add(ticket);
+                Log.d("ApiClient", "Joined call " + key);
+                return ticket;
+            }
+            call = new Call<>(key, request);
+            ticket = new Ticket<>(call, callback);
+            call.tickets.add(ticket);
+            if(key != null)
+                inFlight.put(key, call);
+            callCount++;
+        }
+
+        try{
+            executor.execute(call);
+        }
+        catch(RejectedExecutionException e){
+            Log.w("ApiClient", "Too many calls waiting, dropped " + key);
+            call.fail(new IOException("Too many requests waiting"));
+        }
+        return ticket;
+    }
+
+    /**
+     * Get a map in the background. See {@link Api#getMap(Integer)}.
+     * @param id The map id.
+     * @param callback Receives the map.
+     * @return A ticket for the result.
+     */
+    public Ticket<Map> getMap(int id, Callback<Map> callback){
+        return submit("map/" + id, () -> Api.getMap(id), callback);
+    }
+
+    /**
+     * Get a page of the maps matching a search in the background, from recent results where possible.
+     * See {@link MapSearchCache#find(String, int, int)}.
+     * @param keywords The search terms.
+     * @param offset The number of matching maps to skip.
+     * @param limit The most maps to return.
+     * @param callback Receives the page.
+     * @return A ticket for the result.
+     */
+    public Ticket<Api.MapQueryPage> findMaps(String keywords, int offset, int limit, Callback<Api.MapQueryPage> callback){
+        if(keywords == null)
+            throw new IllegalArgumentException("keywords must not be null");
+        return submit("find/" + MapSearchCache.normalise(keywords) + "/" + offset + "/" + limit,
+                () -> searches.find(keywords, offset, limit), callback);
+    }
+
+    /**
+     * @return The recent search results used by {@link #findMaps(String, int, int, Callback)}.
+     */
+    public MapSearchCache getSearchCache() { return searches; }
+
+    /**
+     * @return The number of calls made, not counting those that joined another.
+     */
+    public synchronized int getCallCount() { return callCount; }
+
+    /**
+     * @return The number of calls that joined one already in progress.
+     */
+    public synchronized int getJoinCount() { return joinCount; }
+
+    /**
+     * @return The number of times a failed call has been tried again.
+     */
+    public synchronized int getRetryCount() { return retryCount; }
+
+    /**
+     * Stop every call. Callbacks are not called for calls that have not finished.
+     */
+    public void shutdown(){
+        executor.shutdownNow();
+    }
+
+    // the milliseconds to wait before trying a call again, between half and all of the doubled backoff.
+    private long backoff(int attempt){
+        long cap = Math.min(MAX_BACKOFF, BASE_BACKOFF << Math.min(attempt - 1, 16));
+        synchronized(random){
+            return cap / 2 + (long)(random.nextDouble() * (cap - cap / 2));
+        }
+    }
+
+    // a call to the server and the callers waiting on it.
+    private class Call<T> extends FutureTask<T> {
+        private final String key;
+        private final ArrayList<Ticket<T>> tickets = new ArrayList<>();
+
+        Call(String key, Request<T> request){
+            super(() -> attempt(key, request));
+            this.key = key;
+        }
+
+        void fail(IOException e){
+            setException(e);
+        }
+
+        @Override
+        protected void done(){
+            ArrayList<Ticket<T>> waiting;
+            synchronized(ApiClient.this){
+                if(key != null && inFlight.get(key) == this)
+                    inFlight.remove(key);
+                waiting = new ArrayList<>(tickets);
+            }
+            if(isCancelled())
+                return;
+
+            T result = null;
+            IOException error = null;
+            try{
+                result = get();
+            }
+            catch(ExecutionException e){
+                error = e.getCause() instanceof IOException ? (IOException)e.getCause() : new IOException(e.getCause());
+            }
+            catch(InterruptedException | CancellationException e){
+                return;
+            }
+            for(Ticket<T> t : waiting)
+                t.deliver(result, error);
+        }
+    }
+
+    private <T> T attempt(String key, Request<T> request) throws IOException, InterruptedException {
+        for(int attempt = 1; ; attempt++){
+            try{
+                return request.run();
+            }
+            catch(IOException e){
+                if(attempt >= MAX_ATTEMPTS || !isTransient(e) || Thread.currentThread().isInterrupted())
+                    throw e;
+                long delay = backoff(attempt);
+                Log.w("ApiClient", "Call " + key + " failed (" + e.getMessage() + "), trying again in " + delay + " ms");
+                synchronized(this){
+                    retryCount++;
+                }
+                Thread.sleep(delay);
+            }
+        }
+    }
+
+    /**
+     * @param e The error a call failed with.
+     * @return true if the same call may succeed if made again: the server could not be reached or
+     * was too slow, the connection was lost, or the server failed on its own account.
+     */
+    private static boolean isTransient(IOException e){
+        if(e instanceof HttpStatusException)
+            return ((HttpStatusException)e).isServerError();
+        return e instanceof SocketTimeoutException || e instanceof SocketException || e instanceof UnknownHostException;
+    }
+
+    /**
+     * One caller's interest in a call. Cancelling it stops the callback; the call itself is
+     * stopped once every ticket on it has been cancelled.
+     * @param <T> The type of the result.
+     */
+    public class Ticket<T> implements Future<T> {
+        private final Call<T> call;
+        private final Callback<T> callback;
+        private volatile boolean cancelled = false;
+
+        Ticket(Call<T> call, Callback<T> callback){
+            this.call = call;
+            this.callback = callback;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning){
+            boolean last;
+            synchronized(ApiClient.this){
+                if(cancelled || call.isDone())
+                    return false;
+                cancelled = true;
+                call.tickets.remove(this);
+                last = call.tickets.isEmpty();
+                if(last && call.key != null && inFlight.get(call.key) == call)
+                    inFlight.remove(call.key);
+            }
+            if(last)
+                call.cancel(mayInterruptIfRunning);
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() { return cancelled; }
+
+        @Override
+        public boolean isDone() { return cancelled || call.isDone(); }
+
+        @Override
+        public T get() throws InterruptedException, ExecutionException {
+            if(cancelled)
+                throw new CancellationException();
+            return call.get();
+        }
+
+        @Override
+        public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            if(cancelled)
+                throw new CancellationException();
+            return call.get(timeout, unit);
+        }
+
+        private void deliver(T result, IOException error){
+            if(callback == null)
+                return;
+            callbackExecutor.execute(() -> {
+                // the caller may have given up while the result was on its way.
+                if(cancelled)
+                    return;
+                if(error == null)
+                    callback.onResult(result);
+                else callback.onError(error);
+            });
+        }
+    }
+}
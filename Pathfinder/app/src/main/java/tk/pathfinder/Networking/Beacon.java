@@ -84,7 +84,9 @@ public class Beacon implements Comparable<Beacon> {
      * @param ssid the ssid string to parse
      * @return an array of the form {building_id, node_id} or {} on failure.
      */
-    static int[] parseSsid(String ssid){
+    public static int[] parseSsid(String ssid){
+        if(ssid == null)
+            return new int[]{};
         String[] parts = ssid.split("_");
 
         if(!parts[0].equals("PF") || parts.length != 3)
@@ -0,0 +1,165 @@
+package tk.pathfinder.Networking;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A hash table of beacons keyed by their (building, beacon) id pair, packed into a long.
+ * Lookups parse the SSID once and probe an open-addressed table of primitive keys, so they never
+ * compare strings. The table is safe to share between threads.
+ * @author Michael MacLean
+ * @version 1.0
+ * @since 1.0
+ */
+public class BeaconDirectory {
+
+    private long[] keys;
+    private Beacon[] values;
+    private int size = 0;
+
+    public BeaconDirectory(){
+        this(8);
+    }
+
+    /**
+     * @param beacons The beacons to add. When two share an id pair, the first is kept.
+     */
+    public BeaconDirectory(Collection<Beacon> beacons){
+        this(beacons.size());
+        for(Beacon b : beacons)
+            putIfAbsent(b);
+    }
+
+    private BeaconDirectory(int expected){
+        // keep the table at most half full.
+        int capacity = 8;
+        while(capacity < expected * 2)
+            capacity <<= 1;
+        keys = new long[capacity];
+        values = new Beacon[capacity];
+    }
+
+    /**
+     * @param building The database index of the building.
+     * @param beacon The database index of the beacon.
+     * @return The key of the pair.
+     */
+    public static long key(int building, int beacon){
+        return ((long)building << 32) | (beacon & 0xffffffffL);
+    }
+
+    /**
+     * @param b A beacon.
+     * @return The key of its id pair.
+     */
+    public static long key(Beacon b){
+        return key(b.getBuildingIndex(), b.getIndex());
+    }
+
+    /**
+     * @param ssid A beacon SSID.
+     * @return The beacon with the same id pair, or null.
+     */
+    public Beacon get(String ssid){
+        int[] ids = Beacon.parseSsid(ssid);
+        if(ids.length == 0)
+            return null;
+        return get(ids[0], ids[1]);
+    }
+
+    /**
+     * @param building The database index of the building.
+     * @param beacon The database index of the beacon.
+     * @return The beacon, or null.
+     */
+    public synchronized Beacon get(int building, int beacon){
+        long key = key(building, beacon);
+        for(int i = slot(key); values[i] != null; i = (i + 1) & (keys.length - 1))
+            if(keys[i] == key)
+                return values[i];
+        return null;
+    }
+
+    /**
+     * Add a beacon, replacing any with the same id pair.
+     * @param b The beacon.
+     * @return The beacon that was replaced, or null.
+     */
+    public synchronized Beacon put(Beacon b){
+        if(b == null)
+            throw new NullPointerException("b");
+        long key = key(b);
+        int i = find(key);
+        Beacon previous = values[i];
+        if(previous == null){
+            if(++size * 2 > keys.length){
+                grow();
+                i = find(key);
+            }
+            keys[i] = key;
+        }
+        values[i] = b;
+        return previous;
+    }
+
+    /**
+     * Add a beacon unless one with the same id pair is already present.
+     * @param b The beacon.
+     * @return true if the beacon was added.
+     */
+    public synchronized boolean putIfAbsent(Beacon b){
+        if(b == null)
+            throw new NullPointerException("b");
+        if(values[find(key(b))] != null)
+            return false;
+        put(b);
+        return true;
+    }
+
+    /**
+     * @return The number of beacons.
+     */
+    public synchronized int size(){
+        return size;
+    }
+
+    /**
+     * @return A copy of the beacons, in no particular order.
+     */
+    public synchronized List<Beacon> getBeacons(){
+        List<Beacon> result = new ArrayList<>(size);
+        for(Beacon b : values)
+            if(b != null)
+                result.add(b);
+        return result;
+    }
+
+    // the slot holding the key, or the empty slot where it belongs.
+    private int find(long key){
+        int i = slot(key);
+        while(values[i] != null && keys[i] != key)
+            i = (i + 1) & (keys.length - 1);
+        return i;
+    }
+
+    private int slot(long key){
+        // spread the bits, so sequential ids in one building land far apart.
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int)(h >>> 32) & (keys.length - 1);
+    }
+
+    private void grow(){
+        long[] oldKeys = keys;
+        Beacon[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new Beacon[oldValues.length * 2];
+        for(int i = 0; i < oldKeys.length; i++){
+            if(oldValues[i] == null)
+                continue;
+            int j = find(oldKeys[i]);
+            keys[j] = oldKeys[i];
+            values[j] = oldValues[i];
+        }
+    }
+}
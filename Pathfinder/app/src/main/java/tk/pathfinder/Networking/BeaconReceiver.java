@@ -12,12 +12,14 @@ import android.net.wifi.rtt.WifiRttManager;
 import android.os.AsyncTask;
 import android.os.Build;
 import android.util.Log;
-import android.util.SparseIntArray;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.RequiresApi;
@@ -34,10 +36,14 @@ import tk.pathfinder.UI.AppStatus;
  */
 public class BeaconReceiver extends BroadcastReceiver implements Iterable<Beacon> {
     private List<Beacon> beacons;
+    // the beacons in range, by id pair; replaced along with beacons.
+    private BeaconDirectory inRange = new BeaconDirectory();
     private WifiManager wifiManager;
     private WifiRttManager rttManager;
     private WifiManager.WifiLock wifiLock;
     private List<ScanResult> lastResults;
+    // smooths the vote at building boundaries, so the map does not flip back and forth.
+    private final BuildingVote vote = new BuildingVote();
     Thread t = null; // the rtt thread
 
     public BeaconReceiver(Context app) {
@@ -91,29 +97,40 @@ public class BeaconReceiver extends BroadcastReceiver implements Iterable<Beacon
 
         Log.d("BeaconReceiver", "Received " + lastResults.size() + " signals");
 
+        // buildings whose beacons are growing stronger are fetched ahead of time.
+        SortedMap<Integer, Integer> votes = countVotes();
+        int building = vote.update(votes);
+        ctx.getPrefetcher().onVotes(votes, currentMap == null ? building : currentMap.getId());
+
         if(currentMap == null){
             // pull from the results to get the right map.
-            int building = getCurrentMapId();
             if(building == -1){
                 ctx.setCurrentLocation(Point.getDefault());
                 return;
             }
 
-            new Thread() {
+            // scans keep arriving while the map downloads; they join the pull already under way.
+            ctx.pullMapAsync(building, new ApiClient.Callback<Void>() {
                 @Override
-                public void run(){
-                    ctx.pullMap(building);
+                public void onResult(Void result){
                     processResults(ctx, building);
                 }
-            }.start();
+
+                @Override
+                public void onError(IOException e){
+                    Log.e("BeaconReceiver", "Could not pull map " + building, e);
+                }
+            });
         }
         else
-            processResults(ctx, getCurrentMapId());
+            processResults(ctx, building);
     }
 
     // process the last received set of results from the WifiManager.
     private void processResults(AppStatus ctx, int building){
         List<Beacon> current = new ArrayList<>();
+        BeaconDirectory currentDirectory = new BeaconDirectory();
+        BeaconDirectory known = ctx.getKnownBeacons();
 
         Map currentMap = ctx.getCurrentMap();
 
@@ -130,7 +147,9 @@ public class BeaconReceiver extends BroadcastReceiver implements Iterable<Beacon
             Beacon b = findBeacon(i.SSID);
             if(b == null){ // if we couldn't find it in our beacon set, pull it from the map
                 b = currentMap.getBeacon(i.SSID);
-                if(b == null) // if it's not in the map, make a new object.
+                if(b == null) // then from any map we have loaded before
+                    b = known.get(i.SSID);
+                if(b == null) // if it's not in any map, make a new object.
                     b = new Beacon(i.SSID, Point.getDefault());
             }
             // we have the beacon but don't know the location.
@@ -142,12 +161,24 @@ public class BeaconReceiver extends BroadcastReceiver implements Iterable<Beacon
             // otherwise, we have the beacon and it shows the correct location
 
             // update our values from the pull
-            b.setLevel(WifiManager.calculateSignalLevel(i.level, 101));
+            int level = WifiManager.calculateSignalLevel(i.level, 101);
+
+            // the same beacon may be reported by more than one radio; keep the strongest.
+            Beacon seen = currentDirectory.get(i.SSID);
+            if(seen != null){
+                if(level > seen.getLevel())
+                    seen.setLevel(level);
+                continue;
+            }
+
+            b.setLevel(level);
             current.add(b);
+            currentDirectory.put(b);
         }
 
         Collections.sort(current);
         beacons = current; // update our collection [probably not be thread safe]
+        inRange = currentDirectory;
 
         // no beacons.. don't show a map.
         if(beacons.size() == 0){
@@ -158,14 +189,18 @@ public class BeaconReceiver extends BroadcastReceiver implements Iterable<Beacon
         // if we are in a different map, pull it and
         // update the beacon references.
         if(!currentMap.getId().equals(building)){
-            new Thread(){
+            ctx.pullMapAsync(building, new ApiClient.Callback<Void>() {
                 @Override
-                public void run(){
-                    ctx.pullMap(building);
+                public void onResult(Void result){
                     changeMap(ctx);
                     setLocation(ctx);
                 }
-            }.start();
+
+                @Override
+                public void onError(IOException e){
+                    Log.e("BeaconReceiver", "Could not pull map " + building, e);
+                }
+            });
         }
         else
             // set the current location of the user based on the closest nodes.
@@ -211,22 +246,17 @@ public class BeaconReceiver extends BroadcastReceiver implements Iterable<Beacon
         ctx.setCurrentLocation(loc);
     }
 
-    // find a beacon with a given ssid
+    // find a beacon in range with a given ssid
     private Beacon findBeacon(String ssid){
-        for(Beacon b : beacons)
-            if(b.getSSID().equals(ssid))
-                return b;
-        return null;
+        return inRange.get(ssid);
     }
 
-    /* Get the beacon consensus on the current map.
-     * If there are multiple maps, the one with the largest number of beacons will be selected. */
-    private int getCurrentMapId(){
-        if(lastResults == null || lastResults.size() == 0)
-            return -1;
-
+    // count the beacons in the last results for each building.
+    private SortedMap<Integer, Integer> countVotes(){
         // each node gets a vote
-        SparseIntArray votes = new SparseIntArray();
+        SortedMap<Integer, Integer> votes = new TreeMap<>();
+        if(lastResults == null)
+            return votes;
 
         for(ScanResult r : lastResults){
             int[] ids = Beacon.parseSsid(r.SSID);
@@ -235,36 +265,32 @@ public class BeaconReceiver extends BroadcastReceiver implements Iterable<Beacon
                 continue;
             int building = ids[0];
 
-            int numVotes = votes.get(building, 0);
-            votes.put(building, numVotes + 1);
-        }
-
-        int max = -1;
-        int max_key = -1;
-        for(int k = 0; k < votes.size(); k++){
-            int key = votes.keyAt(k);
-            int i = votes.get(key);
-            if(i > max){
-                max = i;
-                max_key = key;
-            }
+            Integer numVotes = votes.get(building);
+            votes.put(building, numVotes == null ? 1 : numVotes + 1);
         }
-        return max_key;
+        return votes;
     }
 
     // change the beacon references to mach the current app-wide map.
     private void changeMap(AppStatus app){
+        Map map = app.getCurrentMap();
+        if(map == null)
+            return;
 
-        for(Iterator<Beacon> i = app.getCurrentMap().getBeacons(); i.hasNext(); ){
-            Beacon b = i.next();
-
-            Beacon fromList = findBeacon(b.getSSID());
-            if(fromList == null)
-                continue;
-            int index = beacons.indexOf(fromList);
-            b.setLevel(fromList.getLevel());
-            beacons.set(index, b);
+        // only the beacons in range need replacing, so look each of them up in the map.
+        List<Beacon> current = new ArrayList<>(beacons.size());
+        BeaconDirectory currentDirectory = new BeaconDirectory();
+        for(Beacon b : beacons){
+            Beacon fromMap = map.getBeacon(b.getSSID());
+            if(fromMap != null){
+                fromMap.setLevel(b.getLevel());
+                b = fromMap;
+            }
+            current.add(b);
+            currentDirectory.put(b);
         }
+        beacons = current;
+        inRange = currentDirectory;
     }
 
     /**
@@ -0,0 +1,66 @@
+package tk.pathfinder.Networking;
+
+import java.util.SortedMap;
+
+/***
+ * Decides which building the user is in from the beacon votes of each scan. At the boundary between
+ * two buildings the vote can flip back and forth from one scan to the next, so the building only
+ * changes once another has led for several scans in a row, or the current one is out of range.
+ * A tie keeps the current building.
+ * @author Michael MacLean
+ * @version 1.0
+ * @since 1.0
+ */
+public class BuildingVote {
+
+    // the number of scans in a row another building must lead before the user is taken to be in it.
+    static final int SWITCH_SCANS = 2;
+
+    private int current = -1;
+    private int challenger = -1;
+    private int streak = 0;
+
+    /**
+     * Count a scan.
+     * @param votes The number of beacons seen for each building id.
+     * @return The building the user is in, or -1 if no building is in range.
+     */
+    public synchronized int update(SortedMap<Integer, Integer> votes){
+        int leader = -1, most = 0;
+        for(java.util.Map.Entry<Integer, Integer> e : votes.entrySet()){
+            if(e.getValue() > most){
+                most = e.getValue();
+                leader = e.getKey();
+            }
+        }
+
+        Integer seen = current == -1 ? null : votes.get(current);
+        int held = seen == null ? 0 : seen;
+        if(held == 0){
+            // out of range of the current building, so there is nothing to hold on to.
+            switchTo(leader);
+        }
+        else if(leader == current || most <= held){
+            challenger = -1;
+            streak = 0;
+        }
+        else{
+            streak = leader == challenger ? streak + 1 : 1;
+            challenger = leader;
+            if(streak >= SWITCH_SCANS)
+                switchTo(leader);
+        }
+        return current;
+    }
+
+    /**
+     * @return The building the user is in, or -1.
+     */
+    public synchronized int getCurrent() { return current; }
+
+    private void switchTo(int building){
+        current = building;
+        challenger = -1;
+        streak = 0;
+    }
+}
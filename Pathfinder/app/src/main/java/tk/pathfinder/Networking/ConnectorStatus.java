@@ -0,0 +1,185 @@
+package tk.pathfinder.Networking;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import tk.pathfinder.Map.FloorConnector;
+import tk.pathfinder.Map.Map;
+
+/***
+ * Whether each floor connector of a map is in service, as sent by the status feed.
+ * The feed changes far more often than the map itself, so it carries no geometry: just a version,
+ * the map revision it describes, and one bit per connector, taken in order of id.
+ * <p>
+ * The wire format is the version, the map revision and the connector count as unsigned varints,
+ * followed by the bits, eight to a byte, lowest bit first. A set bit means the connector is operational.
+ * @author Michael MacLean
+ * @version 1.0
+ * @since 1.0
+ */
+public class ConnectorStatus {
+
+    private final int version;
+    private final int revision;
+    private final int count;
+    private final byte[] bits;
+
+    /**
+     * @param version The version of the status, which increases whenever a connector changes.
+     * @param revision The map revision whose connectors the bits describe.
+     * @param operational Whether each connector is in service, in order of id.
+     */
+    public ConnectorStatus(int version, int revision, boolean[] operational){
+        if(operational == null)
+            throw new NullPointerException("operational");
+        if(version < 0 || revision < 0)
+            throw new IllegalArgumentException("version and revision must not be negative");
+        this.version = version;
+        this.revision = revision;
+        this.count = operational.length;
+        this.bits = new byte[(count + 7) / 8];
+        for(int i = 0; i < count; i++)
+            if(operational[i])
+                bits[i >> 3] |= 1 << (i & 7);
+    }
+
+    private ConnectorStatus(int version, int revision, int count, byte[] bits){
+        this.version = version;
+        this.revision = revision;
+        this.count = count;
+        this.bits = bits;
+    }
+
+    /**
+     * @return The version of the status.
+     */
+    public int getVersion() { return version; }
+
+    /**
+     * @return The map revision the status describes, see {@link Map#getRevision()}.
+     */
+    public int getRevision() { return revision; }
+
+    /**
+     * @return The number of connectors described.
+     */
+    public int size() { return count; }
+
+    /**
+     * @param index The position of the connector in order of id.
+     * @return true if the connector is operational.
+     */
+    public boolean isOperational(int index){
+        if(index < 0 || index >= count)
+            throw new IndexOutOfBoundsException("index " + index);
+        return (bits[index >> 3] & (1 << (index & 7))) != 0;
+    }
+
+    /**
+     * @param map A map.
+     * @return The map's floor connectors in the order the status describes them.
+     */
+    public static FloorConnector[] order(Map map){
+        // a floor of a building kept in columns is sent the status of every floor's connectors.
+        List<FloorConnector> list = new ArrayList<>(map.getBuilding() == null ? map.getFloorConnectorList()
+                : map.getBuilding().getFloorConnectors());
+        Collections.sort(list, (a, b) -> Integer.compare(a.getId(), b.getId()));
+        return list.toArray(new FloorConnector[0]);
+    }
+
+    /**
+     * Open or close each connector to match the status. Nothing else about the connectors is changed.
+     * @param connectors The map's connectors, from {@link #order(Map)}.
+     * @return The number of connectors changed, or -1 if the status is for a different set of connectors.
+     */
+    public int applyTo(FloorConnector[] connectors){
+        if(connectors.length != count)
+            return -1;
+        int changed = 0;
+        for(int i = 0; i < count; i++){
+            FloorConnector c = connectors[i];
+            boolean operational = (bits[i >> 3] & (1 << (i & 7))) != 0;
+            if(c.isOperational() == operational)
+                continue;
+            if(operational)
+                c.open();
+            else c.close();
+            changed++;
+        }
+        return changed;
+    }
+
+    /**
+     * Apply the status to a map, if it describes the map's revision.
+     * @param map The map to update.
+     * @return The number of connectors changed, or -1 if the status is for another revision of the map.
+     */
+    public int applyTo(Map map){
+        if(map.getRevision() != revision)
+            return -1;
+        return applyTo(order(map));
+    }
+
+    /**
+     * @return The status in the wire format.
+     */
+    public byte[] toBytes(){
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bits.length + 8);
+        writeVarint(out, version);
+        writeVarint(out, revision);
+        writeVarint(out, count);
+        out.write(bits, 0, bits.length);
+        return out.toByteArray();
+    }
+
+    /**
+     * @param in A status in the wire format.
+     * @return The status.
+     * @throws IOException if the stream could not be read or does not hold a valid status.
+     */
+    public static ConnectorStatus read(InputStream in) throws IOException {
+        int version = readVarint(in);
+        int revision = readVarint(in);
+        int count = readVarint(in);
+        if(version < 0 || revision < 0 || count < 0)
+            throw new IOException("Invalid connector status");
+        // no building has this many connectors, so the body is damaged.
+        if(count > 1 << 20)
+            throw new IOException("Too many connectors: " + count);
+
+        byte[] bits = new byte[(count + 7) / 8];
+        int read = 0;
+        while(read < bits.length){
+            int n = in.read(bits, read, bits.length - read);
+            if(n < 0)
+                throw new IOException("The connector status is truncated");
+            read += n;
+        }
+        return new ConnectorStatus(version, revision, count, bits);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value){
+        while((value & ~0x7f) != 0){
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(InputStream in) throws IOException {
+        int value = 0;
+        for(int shift = 0; shift < 35; shift += 7){
+            int b = in.read();
+            if(b < 0)
+                throw new IOException("The connector status is truncated");
+            value |= (b & 0x7f) << shift;
+            if((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Malformed integer");
+    }
+}
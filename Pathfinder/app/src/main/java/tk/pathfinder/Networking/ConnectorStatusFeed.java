@@ -0,0 +1,219 @@
+package tk.pathfinder.Networking;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.Random;
+
+import tk.pathfinder.Map.FloorConnector;
+import tk.pathfinder.Map.Map;
+
+/***
+ * Keeps the floor connectors of the current map open or closed as the server reports them, without
+ * downloading the map again. A background thread long-polls the status feed, so a change arrives
+ * within moments of being made. If the server answers straight away instead of holding the request,
+ * the feed is polled at an interval; if it cannot be reached, retries back off up to a few minutes.
+ * Only the connectors' operational state is changed, never the map's geometry.
+ * @author Michael MacLean
+ * @version 1.0
+ * @since 1.0
+ */
+public class ConnectorStatusFeed {
+
+    // the longest the server is asked to hold a request.
+    static final int WAIT_SECONDS = 30;
+    // milliseconds between requests when the server does not hold them.
+    static final long POLL_INTERVAL = 15000;
+    // milliseconds before the first retry after an error, doubling up to the most.
+    static final long MIN_BACKOFF = 1000;
+    static final long MAX_BACKOFF = 5 * 60 * 1000;
+
+    /**
+     * Told when an update changes the connectors of the map.
+     */
+    public interface Listener {
+        /**
+         * Called on the feed's thread.
+         * @param map The map updated.
+         * @param changed The number of connectors opened or closed.
+         */
+        void onStatusChanged(Map map, int changed);
+    }
+
+    private final int mapId;
+    private final Listener listener;
+    private final Random random = new Random();
+    private final Object lock = new Object();
+    // the map and its connectors in status order, replaced together under the lock.
+    private Map map;
+    private FloorConnector[] connectors;
+    private ConnectorStatus status;
+    private Thread thread;
+    private volatile boolean running = false;
+
+    private long updates = 0;
+    private long applyNanos = 0;
+
+    /**
+     * @param map The map to keep up to date.
+     * @param listener Told of changes, or null.
+     */
+    public ConnectorStatusFeed(Map map, Listener listener){
+        if(map == null)
+            throw new NullPointerException("map");
+        if(map.getId() == null)
+            throw new IllegalArgumentException("The map has no id");
+        this.mapId = map.getId();
+        this.listener = listener;
+        setMap(map);
+    }
+
+    /**
+     * @return The id of the map the feed is for.
+     */
+    public int getMapId() { return mapId; }
+
+    /**
+     * Switch to a newer copy of the same map, such as one updated from a delta. The last status
+     * received is applied to it straight away, since its connectors come from an older download.
+     * @param map The new copy.
+     * @throws IllegalArgumentException if the map is of another building.
+     */
+    public void setMap(Map map) throws IllegalArgumentException {
+        if(map.getId() == null || map.getId() != mapId)
+            throw new IllegalArgumentException("The feed is for map " + mapId);
+        FloorConnector[] ordered = ConnectorStatus.order(map);
+        synchronized(lock){
+            this.map = map;
+            this.connectors = ordered;
+            if(status != null)
+                apply(status);
+        }
+    }
+
+    /**
+     * @return The last status received, or null.
+     */
+    public ConnectorStatus getStatus(){
+        synchronized(lock){
+            return status;
+        }
+    }
+
+    /**
+     * @return The number of updates applied.
+     */
+    public long getUpdateCount(){
+        synchronized(lock){
+            return updates;
+        }
+    }
+
+    /**
+     * @return The time spent applying updates, in nanoseconds.
+     */
+    public long getApplyNanos(){
+        synchronized(lock){
+            return applyNanos;
+        }
+    }
+
+    /**
+     * Start polling on a background thread. Does nothing if already started.
+     */
+    public synchronized void start(){
+        if(running)
+            return;
+        running = true;
+        thread = new Thread(this::poll, "connector-status-" + mapId);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop polling. A request already waiting on the server is abandoned when it returns.
+     */
+    public synchronized void stop(){
+        running = false;
+        if(thread != null){
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    /**
+     * Apply a status as if it had been received from the server. Older versions are ignored.
+     * @param update The status.
+     * @return The number of connectors changed, or -1 if the status was ignored.
+     */
+    public int update(ConnectorStatus update){
+        int changed;
+        Map updated;
+        synchronized(lock){
+            if(status != null && update.getVersion() <= status.getVersion())
+                return -1;
+            status = update;
+            changed = apply(update);
+            updated = map;
+        }
+        if(changed > 0 && listener != null)
+            listener.onStatusChanged(updated, changed);
+        return changed;
+    }
+
+    // call with the lock held.
+    private int apply(ConnectorStatus update){
+        if(update.getRevision() != map.getRevision()){
+            // the connectors are numbered for another revision; the map will catch up with its next delta.
+            Log.d("ConnectorStatus", "Map " + mapId + ": status " + update.getVersion() + " is for revision "
+                    + update.getRevision() + ", not " + map.getRevision());
+            return -1;
+        }
+        long start = System.nanoTime();
+        int changed = update.applyTo(connectors);
+        applyNanos += System.nanoTime() - start;
+        updates++;
+        return changed;
+    }
+
+    private void poll(){
+        long backoff = MIN_BACKOFF;
+        while(running && !Thread.currentThread().isInterrupted()){
+            long start = System.currentTimeMillis();
+            ConnectorStatus update;
+            try{
+                ConnectorStatus last = getStatus();
+                update = Api.getConnectorStatus(mapId, last == null ? -1 : last.getVersion(), WAIT_SECONDS);
+                backoff = MIN_BACKOFF;
+            }
+            catch(IOException e){
+                Log.w("ConnectorStatus", "Map " + mapId + ": " + e.getMessage());
+                // spread the retries out, so clients cut off together do not come back together.
+                if(!sleep(backoff / 2 + (long)(random.nextDouble() * backoff / 2)))
+                    return;
+                backoff = Math.min(backoff * 2, MAX_BACKOFF);
+                continue;
+            }
+
+            if(update != null){
+                int changed = update(update);
+                Log.d("ConnectorStatus", "Map " + mapId + ": status " + update.getVersion() + ", "
+                        + changed + " connectors changed");
+            }
+            // the server answered without waiting, so it does not hold requests.
+            else if(System.currentTimeMillis() - start < MIN_BACKOFF && !sleep(POLL_INTERVAL))
+                return;
+        }
+    }
+
+    // returns false if the feed was stopped while sleeping.
+    private boolean sleep(long millis){
+        try{
+            Thread.sleep(millis);
+            return running && !Thread.currentThread().isInterrupted();
+        }
+        catch(InterruptedException e){
+            return false;
+        }
+    }
+}
@@ -0,0 +1,370 @@
+package tk.pathfinder.Networking;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import tk.pathfinder.Map.Map;
+import tk.pathfinder.Map.MapFormat;
+
+/***
+ * Keeps recently used maps on disk, so a building can be shown as soon as it is entered and
+ * checked for changes afterwards.
+ * Each map is stored in its own file in the binary map format, along with the validators the server
+ * sent with it and a hash of its contents. A file is written beside its final name and renamed into
+ * place, so a crash leaves either the old entry or the new one. When the files grow past the size
+ * limit, the least recently used maps are removed.
+ * @author Michael MacLean
+ * @version 1.0
+ * @since 1.0
+ */
+public class MapCache {
+
+    private static final int MAGIC = 0x5046_4D43; // "PFMC"
+    private static final int VERSION = 1;
+    private static final String SUFFIX = ".map";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File directory;
+    private final long maxBytes;
+    // map id to file size, least recently used first. loaded from the directory on first use.
+    private LinkedHashMap<Integer, Long> entries;
+    private long totalBytes = 0;
+
+    /**
+     * @param directory The directory to keep the maps in. It is created if needed.
+     * @param maxBytes The most space the maps may take up.
+     * @throws IllegalArgumentException if maxBytes is not positive.
+     */
+    public MapCache(File directory, long maxBytes) throws IllegalArgumentException {
+        if(directory == null)
+            throw new NullPointerException("directory");
+        if(maxBytes <= 0)
+            throw new IllegalArgumentException("maxBytes must be positive");
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Load a map from the cache, and mark it as recently used.
+     * @param id The database index of the map.
+     * @return The entry, or null if the map is not cached or its file is damaged.
+     */
+    public synchronized Entry get(int id){
+        load();
+        // get, not containsKey, so the entry moves to the most recently used end.
+        if(entries.get(id) == null)
+            return null;
+
+        File f = file(id);
+        try{
+            byte[] data = readFile(f);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            if(in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("Not a cached map");
+            String etag = readOptional(in);
+            String lastModified = readOptional(in);
+            String hash = in.readUTF();
+            int offset = data.length - in.available();
+            byte[] body = Arrays.copyOfRange(data, offset, data.length);
+            if(!hash.equals(hash(body)))
+                throw new IOException("Hash mismatch");
+
+            Map map = MapFormat.readMap(ByteBuffer.wrap(body));
+            // file times carry the order of use across restarts.
+            f.setLastModified(System.currentTimeMillis());
+            return new Entry(map, etag, lastModified, hash);
+        }
+        catch(IOException e){
+            Log.w("MapCache", "Dropping cached map " + id + ": " + e.getMessage());
+            remove(id);
+            return null;
+        }
+    }
+
+    /**
+     * Read the validators and hash of a cached map without loading the map. It is not marked as used.
+     * @param id The database index of the map.
+     * @return The entry, with no map, or null if the map is not cached or its file cannot be read.
+     */
+    public synchronized Entry getValidators(int id){
+        load();
+        if(!entries.containsKey(id))
+            return null;
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file(id))))){
+            if(in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("Not a cached map");
+            String etag = readOptional(in);
+            String lastModified = readOptional(in);
+            return new Entry(null, etag, lastModified, in.readUTF());
+        }
+        catch(IOException e){
+            Log.w("MapCache", "Could not read cached map " + id + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Store a map, replacing any earlier copy.
+     * @param id The database index of the map.
+     * @param map The map.
+     * @param etag The entity tag the server sent with the map, may be null.
+     * @param lastModified The Last-Modified header the server sent with the map, may be null.
+     * @return The new entry.
+     * @throws IOException if the map could not be written. The earlier copy is left in place.
+     */
+    public synchronized Entry put(int id, Map map, String etag, String lastModified) throws IOException {
+        if(map == null)
+            throw new NullPointerException("map");
+        load();
+
+        byte[] body = MapFormat.toBytes(map);
+        String hash = hash(body);
+        write(id, body, etag, lastModified, hash);
+        return new Entry(map, etag, lastModified, hash);
+    }
+
+    /**
+     * Record that the server confirmed a cached map is still current.
+     * @param id The database index of the map.
+     * @param etag The entity tag now in force, may be null.
+     * @param lastModified The Last-Modified header now in force, may be null.
+     * @throws IOException if the new validators could not be written.
+     */
+    public synchronized void revalidated(int id, String etag, String lastModified) throws IOException {
+        load();
+        if(!entries.containsKey(id))
+            return;
+        File f = file(id);
+        byte[] data = readFile(f);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        in.readInt();
+        in.readInt();
+        String oldTag = readOptional(in);
+        String oldModified = readOptional(in);
+        String hash = in.readUTF();
+        if(equal(etag, oldTag) && equal(lastModified, oldModified)){
+            f.setLastModified(System.currentTimeMillis());
+            entries.get(id);
+            return;
+        }
+        write(id, Arrays.copyOfRange(data, data.length - in.available(), data.length), etag, lastModified, hash);
+    }
+
+    /**
+     * @param id The database index of the map to forget.
+     */
+    public synchronized void remove(int id){
+        load();
+        Long size = entries.remove(id);
+        if(size != null)
+            totalBytes -= size;
+        if(!file(id).delete() && file(id).exists())
+            Log.w("MapCache", "Could not delete cached map " + id);
+    }
+
+    /**
+     * @return The space taken up by the cached maps, in bytes.
+     */
+    public synchronized long getSize(){
+        load();
+        return totalBytes;
+    }
+
+    /**
+     * @param id The database index of a map.
+     * @return The space the map takes up, in bytes, or 0 if it is not cached. It is not marked as used.
+     */
+    public synchronized long getSize(int id){
+        load();
+        // iterate rather than get, which would move the entry to the most recently used end.
+        for(java.util.Map.Entry<Integer, Long> e : entries.entrySet())
+            if(e.getKey() == id)
+                return e.getValue();
+        return 0;
+    }
+
+    /**
+     * @param id The database index of a map.
+     * @return true if the map is cached.
+     */
+    public synchronized boolean contains(int id){
+        load();
+        return entries.containsKey(id);
+    }
+
+    private void write(int id, byte[] body, String etag, String lastModified, String hash) throws IOException {
+        if(!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Could not create " + directory);
+
+        File temp = new File(directory, id + TEMP_SUFFIX);
+        FileOutputStream fos = new FileOutputStream(temp);
+        try{
+            DataOutputStream out = new DataOutputStream(fos);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeOptional(out, etag);
+            writeOptional(out, lastModified);
+            out.writeUTF(hash);
+            out.write(body);
+            out.flush();
+            // the data must be on disk before the rename makes it visible.
+            fos.getFD().sync();
+        }
+        catch(IOException e){
+            fos.close();
+            temp.delete();
+            throw e;
+        }
+        fos.close();
+
+        File target = file(id);
+        if(!temp.renameTo(target)){
+            temp.delete();
+            throw new IOException("Could not move " + temp + " into place");
+        }
+
+        Long old = entries.remove(id);
+        if(old != null)
+            totalBytes -= old;
+        long size = target.length();
+        entries.put(id, size);
+        totalBytes += size;
+        trim(id);
+    }
+
+    // remove the least recently used maps until the cache fits, keeping the one just written if it can fit alone.
+    private void trim(int keep){
+        Iterator<java.util.Map.Entry<Integer, Long>> i = entries.entrySet().iterator();
+        while(totalBytes > maxBytes && i.hasNext()){
+            java.util.Map.Entry<Integer, Long> e = i.next();
+            if(e.getKey() == keep && entries.size() > 1)
+                continue;
+            i.remove();
+            totalBytes -= e.getValue();
+            file(e.getKey()).delete();
+            Log.d("MapCache", "Evicted map " + e.getKey());
+        }
+    }
+
+    private void load(){
+        if(entries != null)
+            return;
+        entries = new LinkedHashMap<>(16, 0.75f, true);
+        totalBytes = 0;
+        File[] files = directory.listFiles();
+        if(files == null)
+            return;
+
+        // oldest first, so the most recently used end up last.
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for(File f : files){
+            String name = f.getName();
+            if(name.endsWith(TEMP_SUFFIX)){
+                // left behind by a write that never finished.
+                f.delete();
+                continue;
+            }
+            if(!name.endsWith(SUFFIX))
+                continue;
+            try{
+                int id = Integer.parseInt(name.substring(0, name.length() - SUFFIX.length()));
+                entries.put(id, f.length());
+                totalBytes += f.length();
+            }
+            catch(NumberFormatException ignored) {}
+        }
+        trim(Integer.MIN_VALUE);
+    }
+
+    private File file(int id){
+        return new File(directory, id + SUFFIX);
+    }
+
+    private static byte[] readFile(File f) throws IOException {
+        long length = f.length();
+        if(length > Integer.MAX_VALUE)
+            throw new IOException("File too large");
+        byte[] data = new byte[(int)length];
+        try(FileInputStream in = new FileInputStream(f)){
+            int read = 0;
+            while(read < data.length){
+                int n = in.read(data, read, data.length - read);
+                if(n < 0)
+                    throw new IOException("File ended early");
+                read += n;
+            }
+        }
+        return data;
+    }
+
+    private static String readOptional(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeOptional(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if(s != null)
+            out.writeUTF(s);
+    }
+
+    private static boolean equal(String a, String b){
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * @param data Some bytes.
+     * @return The SHA-1 hash of the bytes, in hexadecimal.
+     */
+    static String hash(byte[] data){
+        try{
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(data);
+            StringBuilder s = new StringBuilder(digest.length * 2);
+            for(byte b : digest)
+                s.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            return s.toString();
+        }
+        catch(NoSuchAlgorithmException e){
+            throw new RuntimeException("SHA-1 is not available");
+        }
+    }
+
+    /**
+     * A map read from or written to the cache.
+     */
+    public static class Entry {
+        private final Map map;
+        private final String etag;
+        private final String lastModified;
+        private final String hash;
+
+        Entry(Map map, String etag, String lastModified, String hash){
+            this.map = map;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+
+        public Map getMap() { return map; }
+        public String getETag() { return etag; }
+        public String getLastModified() { return lastModified; }
+
+        /**
+         * @return A hash of the map's contents. Two entries with the same hash hold the same map.
+         */
+        public String getHash() { return hash; }
+    }
+}
@@ -0,0 +1,305 @@
+package tk.pathfinder.Networking;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.SortedMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import tk.pathfinder.Map.Map;
+import tk.pathfinder.Map.MapPreprocessor;
+
+/***
+ * Downloads and preprocesses the maps of buildings the user seems to be walking towards, so that
+ * entering one switches maps without waiting on the network.
+ * <p>
+ * Each scan's beacon votes are smoothed into a share of the votes for each building, along with the
+ * trend of that share. A building that is neither current nor leading the vote, whose share pushed
+ * forward by its trend passes a threshold, is fetched in the background, one at a time, best first.
+ * A prefetched map is saved to the map cache and kept in memory, preprocessed, until it is taken or
+ * pushed out.
+ * <p>
+ * Downloads are limited to a number of bytes per hour, and maps saved by the prefetcher that have
+ * not been used to a number of bytes on disk; the oldest are removed from the cache to make room.
+ * @author Michael MacLean
+ * @version 1.0
+ * @since 1.0
+ */
+public class MapPrefetcher {
+
+    // how quickly the smoothed share follows each scan, and its trend follows the share.
+    static final double SHARE_WEIGHT = 0.4;
+    static final double TREND_WEIGHT = 0.5;
+    // how many scans ahead the trend is projected when ranking buildings.
+    static final double LOOKAHEAD = 3;
+    // the projected share at which a building is fetched.
+    static final double MIN_SCORE = 0.2;
+    // buildings whose share falls below this are forgotten.
+    static final double FORGET_SHARE = 0.01;
+    // the number of preprocessed maps kept in memory.
+    static final int MAX_READY = 2;
+    // a building is not fetched again within this many milliseconds.
+    static final long REFETCH_INTERVAL = 10 * 60 * 1000;
+    static final long BUDGET_WINDOW = 60 * 60 * 1000;
+
+    private final MapCache cache;
+    private final MapPreprocessor preprocessor;
+    private final long bandwidthBudget;
+    private final long storageBudget;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "map-prefetch");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final HashMap<Integer, Trend> trends = new HashMap<>();
+    // preprocessed maps, least recently prefetched first.
+    private final LinkedHashMap<Integer, Map> ready = new LinkedHashMap<>();
+    // maps the prefetcher saved to the cache and that have not been used, with their sizes, oldest first.
+    private final LinkedHashMap<Integer, Long> saved = new LinkedHashMap<>();
+    private final HashMap<Integer, Long> fetchedAt = new HashMap<>();
+    private int fetching = -1;
+    private long windowStart = 0;
+    private long windowBytes = 0;
+    private long totalBytes = 0;
+    private int fetchCount = 0;
+
+    /**
+     * @param cache The cache prefetched maps are saved to.
+     * @param preprocessor Builds the structures of prefetched maps, or null to leave them unprocessed.
+     * @param bandwidthBudget The most bytes to download in an hour.
+     * @param storageBudget The most space maps saved by the prefetcher and not yet used may take up, in bytes.
+     * @throws IllegalArgumentException if a budget is negative.
+     */
+    public MapPrefetcher(MapCache cache, MapPreprocessor preprocessor, long bandwidthBudget, long storageBudget)
+            throws IllegalArgumentException {
+        if(cache == null)
+            throw new NullPointerException("cache");
+        if(bandwidthBudget < 0 || storageBudget < 0)
+            throw new IllegalArgumentException("Budgets must not be negative");
+        this.cache = cache;
+        this.preprocessor = preprocessor;
+        this.bandwidthBudget = bandwidthBudget;
+        this.storageBudget = storageBudget;
+    }
+
+    /**
+     * Record the beacon votes of a scan, and start fetching the most likely next building if it is not ready.
+     * @param votes The number of beacons seen for each building id.
+     * @param current The building the user is in, or -1.
+     */
+    public synchronized void onVotes(SortedMap<Integer, Integer> votes, int current){
+        int total = 0;
+        // the building with the most votes is pulled as soon as it wins, so it is left alone.
+        int dominant = -1;
+        for(java.util.Map.Entry<Integer, Integer> e : votes.entrySet()){
+            total += e.getValue();
+            if(dominant == -1 || e.getValue() > votes.get(dominant))
+                dominant = e.getKey();
+        }
+
+        // buildings not seen this scan count as a share of nothing.
+        for(int id : votes.keySet())
+            if(!trends.containsKey(id))
+                trends.put(id, new Trend());
+        for(Iterator<java.util.Map.Entry<Integer, Trend>> i = trends.entrySet().iterator(); i.hasNext(); ){
+            java.util.Map.Entry<Integer, Trend> e = i.next();
+            Integer seen = votes.get(e.getKey());
+            double share = total == 0 || seen == null ? 0 : seen / (double)total;
+            if(e.getValue().add(share) < FORGET_SHARE && share == 0)
+                i.remove();
+        }
+
+        if(fetching != -1)
+            return;
+        int best = -1;
+        double bestScore = MIN_SCORE;
+        long now = System.currentTimeMillis();
+        for(java.util.Map.Entry<Integer, Trend> e : trends.entrySet()){
+            int id = e.getKey();
+            if(id == current || id == dominant || ready.containsKey(id))
+                continue;
+            Long at = fetchedAt.get(id);
+            if(at != null && now - at < REFETCH_INTERVAL)
+                continue;
+            double score = e.getValue().score();
+            if(score >= bestScore){
+                best = id;
+                bestScore = score;
+            }
+        }
+        if(best == -1)
+            return;
+        if(spent(now) >= bandwidthBudget){
+            Log.d("MapPrefetcher", "Not fetching map " + best + ": " + windowBytes + " bytes downloaded this hour");
+            return;
+        }
+
+        fetching = best;
+        fetchedAt.put(best, now);
+        final int id = best;
+        Log.d("MapPrefetcher", String.format(Locale.US, "Fetching map %d, projected share %.2f", id, bestScore));
+        executor.execute(() -> fetch(id));
+    }
+
+    /**
+     * @param id A building id.
+     * @return The building's projected share of the votes, or 0 if it has not been seen.
+     */
+    public synchronized double getScore(int id){
+        Trend t = trends.get(id);
+        return t == null ? 0 : t.score();
+    }
+
+    /**
+     * @param id A building id.
+     * @return true if the building's map has been prefetched and is waiting in memory.
+     */
+    public synchronized boolean isReady(int id){
+        return ready.containsKey(id);
+    }
+
+    /**
+     * Take a prefetched map for use. It no longer counts against the storage budget.
+     * @param id A building id.
+     * @return The map, preprocessed, or null if it has not been prefetched.
+     */
+    public synchronized Map take(int id){
+        Map map = ready.remove(id);
+        saved.remove(id);
+        if(map != null)
+            Log.d("MapPrefetcher", "Map " + id + " taken from prefetch");
+        return map;
+    }
+
+    /**
+     * Drop the prefetched maps held in memory. Their saved copies stay in the cache.
+     */
+    public synchronized void clear(){
+        ready.clear();
+    }
+
+    /**
+     * @return The bytes downloaded by the prefetcher since it was created.
+     */
+    public synchronized long getBytesDownloaded() { return totalBytes; }
+
+    /**
+     * @return The number of maps the prefetcher has downloaded.
+     */
+    public synchronized int getFetchCount() { return fetchCount; }
+
+    /**
+     * @return The space taken up by maps the prefetcher saved and that have not been used, in bytes.
+     */
+    public synchronized long getStorageUsed(){
+        long total = 0;
+        for(long size : saved.values())
+            total += size;
+        return total;
+    }
+
+    // the bytes downloaded in the current budget window.
+    private long spent(long now){
+        if(now - windowStart >= BUDGET_WINDOW){
+            windowStart = now;
+            windowBytes = 0;
+        }
+        return windowBytes;
+    }
+
+    private void fetch(int id){
+        Map map = null;
+        long bytes = 0;
+        boolean wasCached = cache.contains(id);
+        try{
+            MapCache.Entry cached = wasCached ? cache.get(id) : null;
+            Api.MapResponse response = cached == null ? Api.getMap(id, null, null)
+                    : Api.getMap(id, cached.getETag(), cached.getLastModified());
+            if(response.getTransfer() != null)
+                bytes = response.getTransfer().getWireBytes();
+            if(response.getMap() == null){
+                cache.revalidated(id, response.getETag(), response.getLastModified());
+                map = cached.getMap();
+            }
+            else{
+                map = response.getMap();
+                cache.put(id, map, response.getETag(), response.getLastModified());
+            }
+            if(preprocessor != null)
+                preprocessor.start(map, null).await();
+        }
+        catch(IOException e){
+            Log.w("MapPrefetcher", "Could not fetch map " + id + ": " + e.getMessage());
+        }
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized(this){
+            fetching = -1;
+            spent(System.currentTimeMillis());
+            windowBytes += bytes;
+            totalBytes += bytes;
+            if(map == null)
+                return;
+            fetchCount++;
+            ready.remove(id);
+            ready.put(id, map);
+            while(ready.size() > MAX_READY){
+                Iterator<Integer> oldest = ready.keySet().iterator();
+                oldest.next();
+                oldest.remove();
+            }
+            if(!wasCached)
+                saved.put(id, cache.getSize(id));
+            trimStorage();
+        }
+        Log.d("MapPrefetcher", "Map " + id + " prefetched, " + bytes + " bytes");
+    }
+
+    // remove the oldest maps the prefetcher saved until they fit the storage budget.
+    private void trimStorage(){
+        long used = getStorageUsed();
+        ArrayList<Integer> removed = new ArrayList<>();
+        for(java.util.Map.Entry<Integer, Long> e : saved.entrySet()){
+            if(used <= storageBudget)
+                break;
+            used -= e.getValue();
+            removed.add(e.getKey());
+        }
+        for(int id : removed){
+            saved.remove(id);
+            cache.remove(id);
+            Log.d("MapPrefetcher", "Removed unused map " + id + " from the cache");
+        }
+    }
+
+    // a building's smoothed share of the votes and its trend per scan.
+    private static class Trend {
+        private double share = -1;
+        private double trend = 0;
+
+        // returns the new smoothed share.
+        double add(double sample){
+            if(share < 0){
+                share = sample;
+                return share;
+            }
+            double previous = share;
+            share += SHARE_WEIGHT * (sample - share);
+            trend += TREND_WEIGHT * ((share - previous) - trend);
+            return share;
+        }
+
+        double score(){
+            return share + LOOKAHEAD * trend;
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package tk.pathfinder.Networking;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import tk.pathfinder.Map.FloorConnector;
+import tk.pathfinder.Map.MapDelta;
+import tk.pathfinder.Map.MapSink;
+
+/***
+ * Reads a map from the JSON returned by the API one record at a time, handing each node, edge and
+ * beacon to a sink as soon as it has been read. Only the current record is held in memory, so a map
+ * can be built while the response is still downloading.
+ * <p>
+ * A delta is read the same way: its new and changed records are in the usual fields, alongside
+ * base_version and the removed_nodes, removed_edges and removed_beacons lists.
+ * @author Michael MacLean
+ * @version 1.0
+ * @since 1.0
+ */
+public class MapReader {
+
+    private final MapSink sink;
+    // set when reading a delta.
+    private final MapDelta delta;
+    private int revision = 0;
+    private int records = 0;
+
+    /**
+     * @param sink Receives the map's contents.
+     */
+    public MapReader(MapSink sink){
+        if(sink == null)
+            throw new NullPointerException("sink");
+        this.sink = sink;
+        this.delta = null;
+    }
+
+    /**
+     * @param delta Receives the changes, when reading a delta rather than a whole map.
+     */
+    public MapReader(MapDelta delta){
+        if(delta == null)
+            throw new NullPointerException("delta");
+        this.sink = delta;
+        this.delta = delta;
+    }
+
+    /**
+     * @return The server's revision of the map read, or 0 if it was not sent.
+     */
+    public int getRevision(){
+        return revision;
+    }
+
+    /**
+     * @return The number of nodes, edges and beacons read so far.
+     */
+    public int getRecordCount(){
+        return records;
+    }
+
+    /**
+     * Read a map or delta. The map's id and name are passed to the sink once the whole map has been read.
+     * @param in The response body.
+     * @throws IOException if the stream could not be read, or it does not hold a valid map.
+     */
+    public void read(Reader in) throws IOException {
+        JsonReader r = new JsonReader(in);
+        Integer id = null;
+        String name = null;
+        Integer base = null;
+        try{
+            r.beginObject();
+            while(r.hasNext()){
+                switch(r.nextName()){
+                    case "id":
+                        id = r.nextInt();
+                        break;
+
+                    case "name":
+                        name = nextString(r);
+                        break;
+
+                    case "version":
+                        revision = r.nextInt();
+                        break;
+
+                    case "base_version":
+                        if(delta == null)
+                            r.skipValue();
+                        else base = r.nextInt();
+                        break;
+
+                    case "removed_nodes":
+                        if(delta == null){
+                            r.skipValue();
+                            break;
+                        }
+                        r.beginArray();
+                        while(r.hasNext()){
+                            delta.removeNode(r.nextInt());
+                            counted();
+                        }
+                        r.endArray();
+                        break;
+
+                    case "removed_edges":
+                        if(delta == null){
+                            r.skipValue();
+                            break;
+                        }
+                        r.beginArray();
+                        while(r.hasNext()){
+                            int[] pair = readPair(r);
+                            delta.removeEdge(pair[0], pair[1]);
+                            counted();
+                        }
+                        r.endArray();
+                        break;
+
+                    case "removed_beacons":
+                        if(delta == null){
+                            r.skipValue();
+                            break;
+                        }
+                        r.beginArray();
+                        while(r.hasNext()){
+                            delta.removeBeacon(r.nextString());
+                            counted();
+                        }
+                        r.endArray();
+                        break;
+
+                    case "nodes":
+                        r.beginArray();
+                        while(r.hasNext())
+                            readNode(r);
+                        r.endArray();
+                        break;
+
+                    case "edges":
+                        r.beginArray();
+                        while(r.hasNext()){
+                            int[] pair = readPair(r);
+                            sink.addEdge(pair[0], pair[1]);
+                            counted();
+                        }
+                        r.endArray();
+                        break;
+
+                    case "beacons":
+                        r.beginArray();
+                        while(r.hasNext())
+                            readBeacon(r);
+                        r.endArray();
+                        break;
+
+                    default:
+                        r.skipValue();
+                }
+            }
+            r.endObject();
+        }
+        catch(IllegalStateException | NumberFormatException e){
+            throw new IOException("Invalid JSON data type received: " + e.getMessage());
+        }
+
+        if(id == null)
+            throw new IOException("Invalid JSON data type received: the map has no id");
+        if(delta != null){
+            if(base == null)
+                throw new IOException("Invalid JSON data type received: the delta has no base version");
+            try{
+                delta.setRevisions(base, revision);
+            }
+            catch(IllegalArgumentException e){
+                throw new IOException("Invalid JSON data type received: " + e.getMessage());
+            }
+        }
+        sink.setMapInfo(id, name);
+    }
+
+    // an edge, as an array whose first two values are node ids.
+    private static int[] readPair(JsonReader r) throws IOException {
+        r.beginArray();
+        int a = r.nextInt();
+        int b = r.nextInt();
+        while(r.hasNext())
+            r.skipValue();
+        r.endArray();
+        return new int[] {a, b};
+    }
+
+    private void readNode(JsonReader r) throws IOException {
+        Integer id = null;
+        String type = null;
+        int[] p = null;
+        String roomNumber = null;
+        String name = null;
+        boolean auth = false;
+        boolean operational = false;
+        int connectorType = -1;
+
+        // the fields may come in any order, so the node is only created at the end.
+        r.beginObject();
+        while(r.hasNext()){
+            switch(r.nextName()){
+                case "id":
+                    id = r.nextInt();
+                    break;
+                case "type":
+                    type = nextString(r);
+                    break;
+                case "coordinate":
+                    p = readCoordinate(r);
+                    break;
+                case "room_number":
+                    roomNumber = nextString(r);
+                    break;
+                case "name":
+                    name = nextString(r);
+                    break;
+                case "requires_auth":
+                    auth = r.nextBoolean();
+                    break;
+                case "is_operational":
+                    operational = r.nextBoolean();
+                    break;
+                case "connector_type":
+                    connectorType = r.nextInt();
+                    break;
+                default:
+                    r.skipValue();
+            }
+        }
+        r.endObject();
+
+        if(id == null || type == null || p == null)
+            throw new IOException("Invalid JSON data type received: a node is missing its id, type or coordinate");
+
+        switch(type){
+            case "room":
+                sink.addRoom(id, p[0], p[1], p[2], roomNumber, name, auth);
+                break;
+
+            case "floor_connector":
+                FloorConnector.FloorConnectorTypes[] types = FloorConnector.FloorConnectorTypes.values();
+                if(connectorType < 0 || connectorType >= types.length)
+                    throw new IOException("Invalid JSON data type received: unknown connector type " + connectorType);
+                sink.addFloorConnector(id, p[0], p[1], p[2], name, types[connectorType], operational, auth);
+                break;
+
+            case "intersection":
+                sink.addIntersection(id, p[0], p[1], p[2]);
+                break;
+        }
+        counted();
+    }
+
+    private void readBeacon(JsonReader r) throws IOException {
+        String ssid = null;
+        int[] p = null;
+        r.beginObject();
+        while(r.hasNext()){
+            switch(r.nextName()){
+                case "ssid":
+                    ssid = nextString(r);
+                    break;
+                case "coordinate":
+                    p = readCoordinate(r);
+                    break;
+                default:
+                    r.skipValue();
+            }
+        }
+        r.endObject();
+
+        if(ssid == null || p == null)
+            throw new IOException("Invalid JSON data type received: a beacon is missing its ssid or coordinate");
+        sink.addBeacon(ssid, p[0], p[1], p[2]);
+        counted();
+    }
+
+    // map units are thousandths of the stored x and z; y is the floor.
+    private static int[] readCoordinate(JsonReader r) throws IOException {
+        int[] p = new int[3];
+        r.beginObject();
+        while(r.hasNext()){
+            switch(r.nextName()){
+                case "x":
+                    p[0] = (int)(r.nextDouble()*1000);
+                    break;
+                case "y":
+                    p[1] = (int)r.nextDouble();
+                    break;
+                case "z":
+                    p[2] = (int)(r.nextDouble()*1000);
+                    break;
+                default:
+                    r.skipValue();
+            }
+        }
+        r.endObject();
+        return p;
+    }
+
+    // a string, with null and "null" both read as null.
+    private static String nextString(JsonReader r) throws IOException {
+        if(r.peek() == JsonToken.NULL){
+            r.nextNull();
+            return null;
+        }
+        String s = r.nextString();
+        return s.equals("null") ? null : s;
+    }
+
+    private void counted(){
+        records++;
+    }
+}
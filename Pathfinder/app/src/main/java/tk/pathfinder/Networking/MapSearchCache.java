@@ -0,0 +1,218 @@
+package tk.pathfinder.Networking;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+
+/***
+ * Remembers the results of building searches for a short while, so paging back and forth, or
+ * searching again, does not ask the server twice. Searches are keyed by their keywords in lower
+ * case with the spaces tidied, so "Main  Library" and "main library" share results.
+ * <p>
+ * The server matches buildings whose names contain every keyword. A search that only adds to the
+ * keywords of one whose every result is held, such as "lib" to "library" or "library east", can
+ * only match a subset of those results, so it is answered by filtering them without asking the server.
+ * @author Michael MacLean
+ * @version 1.0
+ * @since 1.0
+ */
+public class MapSearchCache {
+
+    // milliseconds the results of a search are used for.
+    public static final long DEFAULT_TTL = 60 * 1000;
+    // the number of searches kept.
+    static final int MAX_QUERIES = 32;
+
+    private final long ttl;
+    // normalised keywords to results, least recently used first.
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true){
+        @Override
+        protected boolean removeEldestEntry(java.util.Map.Entry<String, Entry> eldest){
+            return size() > MAX_QUERIES;
+        }
+    };
+    private int hits = 0;
+    private int prefixHits = 0;
+    private int misses = 0;
+
+    /**
+     * @param ttl The milliseconds the results of a search are used for.
+     * @throws IllegalArgumentException if the time is not positive.
+     */
+    public MapSearchCache(long ttl) throws IllegalArgumentException {
+        if(ttl <= 0)
+            throw new IllegalArgumentException("ttl must be positive");
+        this.ttl = ttl;
+    }
+
+    /**
+     * @param keywords Search terms as typed.
+     * @return The terms in lower case, separated by single spaces.
+     */
+    public static String normalise(String keywords){
+        return keywords.trim().toLowerCase(Locale.ROOT).replaceAll("\\s+", " ");
+    }
+
+    /**
+     * Get a page of the maps matching a search, from the held results where possible.
+     * @param keywords The search terms.
+     * @param offset The number of matching maps to skip.
+     * @param limit The most maps to return.
+     * @return The page.
+     * @throws IOException if the server had to be asked and could not answer.
+     * @throws IllegalArgumentException if the offset is negative or the limit is not positive.
+     */
+    public Api.MapQueryPage find(String keywords, int offset, int limit) throws IOException {
+        if(keywords == null)
+            throw new NullPointerException("keywords");
+        Api.MapQueryPage page = get(keywords, offset, limit);
+        if(page != null)
+            return page;
+        page = Api.findMaps(normalise(keywords), offset, limit);
+        put(keywords, page);
+        return page;
+    }
+
+    /**
+     * @param keywords The search terms.
+     * @param offset The number of matching maps to skip.
+     * @param limit The most maps to return.
+     * @return The page, or null if the results held do not cover it.
+     * @throws IllegalArgumentException if the offset is negative or the limit is not positive.
+     */
+    public synchronized Api.MapQueryPage get(String keywords, int offset, int limit) throws IllegalArgumentException {
+        if(offset < 0 || limit <= 0)
+            throw new IllegalArgumentException("offset must not be negative and limit must be positive");
+        String query = normalise(keywords);
+        long now = System.currentTimeMillis();
+
+        Entry e = entries.get(query);
+        if(e != null && now - e.fetched >= ttl){
+            entries.remove(query);
+            e = null;
+        }
+        if(e != null && e.covers(offset, limit)){
+            hits++;
+            return e.page(offset, limit);
+        }
+
+        Entry broader = e == null ? findBroader(query, now) : null;
+        if(broader != null){
+            e = broader.filter(query);
+            entries.put(query, e);
+            prefixHits++;
+            Log.d("MapSearchCache", "Answered \"" + query + "\" from " + broader.results.size() + " held results");
+            return e.page(offset, limit);
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * Hold a page of results. Pages are held as a run from the first match; a page that does not
+     * join on to the run held is not kept.
+     * @param keywords The search terms.
+     * @param page The page the server sent.
+     */
+    public synchronized void put(String keywords, Api.MapQueryPage page){
+        String query = normalise(keywords);
+        long now = System.currentTimeMillis();
+        Entry e = entries.get(query);
+        // a new first page starts the run again, as the matches may have changed since the rest was fetched.
+        if(e == null || page.getOffset() == 0 || now - e.fetched >= ttl || e.total != page.getTotal()){
+            if(page.getOffset() != 0)
+                return;
+            e = new Entry(query, page.getTotal(), now);
+            entries.put(query, e);
+        }
+        Api.MapQueryResult[] results = page.getResults();
+        for(int i = e.results.size() - page.getOffset(); i >= 0 && i < results.length; i++)
+            e.results.add(results[i]);
+    }
+
+    /**
+     * Forget every search, such as when buildings have been added.
+     */
+    public synchronized void clear(){
+        entries.clear();
+    }
+
+    /**
+     * @return The number of searches answered from their own held results.
+     */
+    public synchronized int getHitCount() { return hits; }
+
+    /**
+     * @return The number of searches answered by filtering the results of a broader one.
+     */
+    public synchronized int getPrefixHitCount() { return prefixHits; }
+
+    /**
+     * @return The number of searches that had to ask the server.
+     */
+    public synchronized int getMissCount() { return misses; }
+
+    // the held search with the most keywords whose every result is held and that the query only adds to.
+    private Entry findBroader(String query, long now){
+        Entry best = null;
+        for(Entry e : entries.values()){
+            if(now - e.fetched >= ttl || !e.isComplete() || e.query.isEmpty() || !query.startsWith(e.query))
+                continue;
+            if(best == null || e.query.length() > best.query.length())
+                best = e;
+        }
+        return best;
+    }
+
+    // whether a building name contains every keyword.
+    static boolean matches(String name, String[] keywords){
+        String lower = name.toLowerCase(Locale.ROOT);
+        for(String k : keywords)
+            if(!lower.contains(k))
+                return false;
+        return true;
+    }
+
+    // the results of a search held so far, as a run from the first match.
+    private static class Entry {
+        private final String query;
+        private final int total;
+        private final long fetched;
+        private final ArrayList<Api.MapQueryResult> results = new ArrayList<>();
+
+        Entry(String query, int total, long fetched){
+            this.query = query;
+            this.total = total;
+            this.fetched = fetched;
+        }
+
+        boolean isComplete(){
+            return results.size() >= total;
+        }
+
+        boolean covers(int offset, int limit){
+            return isComplete() || offset + limit <= results.size();
+        }
+
+        Api.MapQueryPage page(int offset, int limit){
+            int from = Math.min(offset, results.size());
+            int to = Math.min(offset + limit, results.size());
+            return new Api.MapQueryPage(results.subList(from, to).toArray(new Api.MapQueryResult[0]), offset, total);
+        }
+
+        // the results that also match a narrower query. they are as old as these.
+        Entry filter(String narrower){
+            String[] keywords = narrower.split(" ");
+            ArrayList<Api.MapQueryResult> kept = new ArrayList<>();
+            for(Api.MapQueryResult r : results)
+                if(matches(r.getName(), keywords))
+                    kept.add(r);
+            Entry e = new Entry(narrower, kept.size(), fetched);
+            e.results.addAll(kept);
+            return e;
+        }
+    }
+}
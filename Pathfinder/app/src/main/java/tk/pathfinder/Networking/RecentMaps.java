@@ -0,0 +1,136 @@
+package tk.pathfinder.Networking;
+
+import android.util.Log;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import tk.pathfinder.Map.Map;
+
+/***
+ * Keeps the maps of recently visited buildings in memory, with the structures built for them, so
+ * walking back into one is a matter of handing over the map already held. The maps are bounded by
+ * their estimated size; when a new one does not fit, the least recently used are dropped. The bound
+ * can be lowered for a while when the system runs short of memory.
+ * @author Michael MacLean
+ * @version 1.0
+ * @since 1.0
+ */
+public class RecentMaps {
+
+    private final long maxBytes;
+    // the bound currently in force, which trimming lowers until the next put.
+    private long limit;
+    // map id to entry, least recently used first.
+    private final LinkedHashMap<Integer, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes = 0;
+
+    /**
+     * @param maxBytes The most the maps may take up, by their estimates.
+     * @throws IllegalArgumentException if maxBytes is not positive.
+     */
+    public RecentMaps(long maxBytes) throws IllegalArgumentException {
+        if(maxBytes <= 0)
+            throw new IllegalArgumentException("maxBytes must be positive");
+        this.maxBytes = maxBytes;
+        this.limit = maxBytes;
+    }
+
+    /**
+     * Keep a map, replacing any other copy of the same building, and mark it as the most recently used.
+     * It is measured now, so put it again once its structures have been built.
+     * @param map A map with an id.
+     * @param validated When the map was last known to be current, in milliseconds since the epoch.
+     */
+    public synchronized void put(Map map, long validated){
+        if(map == null)
+            throw new NullPointerException("map");
+        if(map.getId() == null)
+            return;
+        Entry old = entries.remove(map.getId());
+        if(old != null)
+            totalBytes -= old.bytes;
+        Entry e = new Entry(map, validated, map.getMemoryEstimate());
+        entries.put(map.getId(), e);
+        totalBytes += e.bytes;
+        limit = maxBytes;
+        evict(limit);
+    }
+
+    /**
+     * @param id A building id.
+     * @return The entry, or null if the building's map is not held. The entry becomes the most recently used.
+     */
+    public synchronized Entry get(int id){
+        return entries.get(id);
+    }
+
+    /**
+     * Record that a held map was confirmed current.
+     * @param id A building id.
+     * @param validated The time of the check, in milliseconds since the epoch.
+     */
+    public synchronized void validated(int id, long validated){
+        Entry e = entries.get(id);
+        if(e != null)
+            e.validated = validated;
+    }
+
+    /**
+     * Drop maps, least recently used first, until the rest take up no more than a fraction of the
+     * usual bound. The lower bound holds until the next map is put.
+     * @param fraction The share of the bound to keep, from 0 to drop everything to 1.
+     */
+    public synchronized void trim(double fraction){
+        limit = (long)(maxBytes * Math.max(0, Math.min(1, fraction)));
+        evict(limit);
+    }
+
+    /**
+     * @return The estimated size of the maps held, in bytes.
+     */
+    public synchronized long getSize() { return totalBytes; }
+
+    /**
+     * @return The number of maps held.
+     */
+    public synchronized int size() { return entries.size(); }
+
+    private void evict(long bytes){
+        Iterator<Entry> i = entries.values().iterator();
+        // the newest map is kept even if it is too big on its own, unless everything is to go.
+        while(totalBytes > bytes && i.hasNext() && (entries.size() > 1 || bytes == 0)){
+            Entry e = i.next();
+            i.remove();
+            totalBytes -= e.bytes;
+            Log.d("RecentMaps", "Dropped map " + e.map.getId() + ", " + e.bytes / 1024 + " KiB");
+        }
+    }
+
+    /**
+     * A map held in memory.
+     */
+    public static class Entry {
+        private final Map map;
+        private final long bytes;
+        private volatile long validated;
+
+        Entry(Map map, long validated, long bytes){
+            this.map = map;
+            this.validated = validated;
+            this.bytes = bytes;
+        }
+
+        public Map getMap() { return map; }
+
+        /**
+         * @return When the map was last known to be current, in milliseconds since the epoch.
+         */
+        public long getValidated() { return validated; }
+
+        /**
+         * @return The estimated size of the map when it was put, in bytes.
+         */
+        public long getBytes() { return bytes; }
+    }
+}
@@ -0,0 +1,254 @@
+package tk.pathfinder.Networking;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/***
+ * Decodes a compressed response body as it is read, and counts what it cost.
+ * Requests offer the encodings in {@link #ACCEPT_ENCODING} and the server picks one:
+ * <ul>
+ *     <li>{@link #DICTIONARY_ENCODING}: zlib with a preset dictionary of the strings every map
+ *     repeats, so even the start of a body compresses well.</li>
+ *     <li>gzip or deflate.</li>
+ *     <li>identity, for servers that do not compress.</li>
+ * </ul>
+ * The body is never held whole; the parser reads straight from the decoder.
+ * @author Michael MacLean
+ * @version 1.0
+ * @since 1.0
+ */
+public class Transfer {
+
+    /**
+     * The content coding for zlib with the map dictionary. The number changes with the dictionary.
+     */
+    public static final String DICTIONARY_ENCODING = "x-pf-dict-1";
+
+    /**
+     * The Accept-Encoding header sent with requests, best first.
+     */
+    public static final String ACCEPT_ENCODING = DICTIONARY_ENCODING + ", gzip;q=0.8, deflate;q=0.6, identity;q=0.5";
+
+    // the strings of the map schema, most common last, since deflate reaches the end of the dictionary most cheaply.
+    private static final byte[] DICTIONARY = ("{\"id\":,\"name\":\"version\":\"base_version\":\"removed_nodes\":[],"
+            + "\"removed_edges\":[],\"removed_beacons\":[],\"total\":\"buildings\":[{\"id\":"
+            + "\"beacons\":[{\"ssid\":\"PF_\",\"coordinate\":{\"x\":0.,\"y\":1,\"z\":0.}}"
+            + "\"edges\":[[\"nodes\":[{\"id\":,\"type\":\"floor_connector\",\"connector_type\":"
+            + ",\"is_operational\":true,\"is_operational\":false,\"requires_auth\":true,\"requires_auth\":false,"
+            + "\"coordinate\":{\"x\":0.,\"y\":1,\"z\":0.}},{\"id\":,\"type\":\"room\",\"room_number\":\",\"name\":\","
+            + "\"requires_auth\":false,\"coordinate\":{\"x\":0.,\"y\":1,\"z\":0.}},"
+            + "{\"id\":,\"type\":\"intersection\",\"coordinate\":{\"x\":0.,\"y\":1,\"z\":0.}},"
+            + "],[],[,\"coordinate\":{\"x\":0.").getBytes(StandardCharsets.UTF_8);
+
+    private final String encoding;
+    private long wireBytes = 0;
+    private long bodyBytes = 0;
+    // time spent in reads of the decoded body, and the part of it spent waiting on the network.
+    private long readNanos = 0;
+    private long wireNanos = 0;
+
+    /**
+     * @param contentEncoding The Content-Encoding header of the response, or null.
+     * @throws IOException if the encoding is not one this client offers.
+     */
+    public Transfer(String contentEncoding) throws IOException {
+        String e = contentEncoding == null ? "identity" : contentEncoding.trim().toLowerCase(Locale.US);
+        if(e.isEmpty())
+            e = "identity";
+        switch(e){
+            case DICTIONARY_ENCODING: case "gzip": case "x-gzip": case "deflate": case "identity":
+                break;
+            default:
+                throw new IOException("Unsupported content encoding: " + contentEncoding);
+        }
+        this.encoding = e;
+    }
+
+    /**
+     * @return A copy of the dictionary used by {@link #DICTIONARY_ENCODING}.
+     */
+    public static byte[] getDictionary(){
+        return DICTIONARY.clone();
+    }
+
+    /**
+     * @param raw The response body as sent.
+     * @return The decoded body.
+     * @throws IOException if the body's header could not be read.
+     */
+    public InputStream decode(InputStream raw) throws IOException {
+        InputStream wire = new Counter(raw, true);
+        InputStream body;
+        switch(encoding){
+            case DICTIONARY_ENCODING:
+                body = new DictionaryInflaterInputStream(wire);
+                break;
+            case "gzip": case "x-gzip":
+                body = new GZIPInputStream(wire, 8192);
+                break;
+            case "deflate":
+                body = new InflaterInputStream(wire, new Inflater(), 8192);
+                break;
+            default:
+                body = wire;
+        }
+        return new Counter(body, false);
+    }
+
+    /**
+     * @return The content coding of the body.
+     */
+    public String getEncoding() { return encoding; }
+
+    /**
+     * @return The number of bytes received so far.
+     */
+    public synchronized long getWireBytes() { return wireBytes; }
+
+    /**
+     * @return The number of bytes decoded so far.
+     */
+    public synchronized long getBodyBytes() { return bodyBytes; }
+
+    /**
+     * @return The time spent decoding, in nanoseconds, not counting time waiting on the network.
+     */
+    public synchronized long getDecodeNanos(){
+        return encoding.equals("identity") ? 0 : Math.max(0, readNanos - wireNanos);
+    }
+
+    @Override
+    public String toString(){
+        return String.format(Locale.US, "%d bytes %s, %d decoded in %.1f ms", getWireBytes(), encoding,
+                getBodyBytes(), getDecodeNanos() / 1e6);
+    }
+
+    // counts the bytes and time of the reads of one side of the decoder.
+    private class Counter extends FilterInputStream {
+        private final boolean isWire;
+
+        Counter(InputStream in, boolean isWire){
+            super(in);
+            this.isWire = isWire;
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            int b = super.read();
+            count(b < 0 ? 0 : 1, System.nanoTime() - start);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            long start = System.nanoTime();
+            int n = super.read(b, off, len);
+            count(Math.max(n, 0), System.nanoTime() - start);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // read rather than skip, so the bytes are counted.
+            byte[] buffer = new byte[(int)Math.min(n, 4096)];
+            long skipped = 0;
+            while(skipped < n){
+                int r = read(buffer, 0, (int)Math.min(buffer.length, n - skipped));
+                if(r < 0)
+                    break;
+                skipped += r;
+            }
+            return skipped;
+        }
+
+        private void count(int bytes, long nanos){
+            synchronized(Transfer.this){
+                if(isWire){
+                    wireBytes += bytes;
+                    wireNanos += nanos;
+                }
+                else{
+                    bodyBytes += bytes;
+                    readNanos += nanos;
+                }
+            }
+        }
+    }
+
+    // a zlib stream compressed with the map dictionary. InflaterInputStream ends the stream when
+    // a dictionary is needed, and does so differently between versions, so the inflater is driven here.
+    private static class DictionaryInflaterInputStream extends FilterInputStream {
+        private final Inflater inflater = new Inflater();
+        private final byte[] input = new byte[8192];
+        private boolean finished = false;
+
+        DictionaryInflaterInputStream(InputStream in){
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if(len == 0)
+                return 0;
+            if(finished)
+                return -1;
+            try{
+                while(true){
+                    int n = inflater.inflate(b, off, len);
+                    if(n > 0)
+                        return n;
+                    if(inflater.finished()){
+                        finished = true;
+                        return -1;
+                    }
+                    if(inflater.needsDictionary()){
+                        try{
+                            inflater.setDictionary(DICTIONARY);
+                        }
+                        catch(IllegalArgumentException e){
+                            throw new IOException("The body was compressed with another dictionary");
+                        }
+                        continue;
+                    }
+                    if(inflater.needsInput()){
+                        int r = in.read(input, 0, input.length);
+                        if(r < 0)
+                            throw new IOException("The compressed body is truncated");
+                        inflater.setInput(input, 0, r);
+                    }
+                }
+            }
+            catch(DataFormatException e){
+                throw new IOException("The compressed body is damaged: " + e.getMessage());
+            }
+        }
+
+        @Override
+        public int available() throws IOException {
+            return finished ? 0 : 1;
+        }
+
+        @Override
+        public boolean markSupported() { return false; }
+
+        @Override
+        public void close() throws IOException {
+            inflater.end();
+            super.close();
+        }
+    }
+}
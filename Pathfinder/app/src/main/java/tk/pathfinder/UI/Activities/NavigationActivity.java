@@ -1,5 +1,7 @@
 package tk.pathfinder.UI.Activities;
 
+import tk.pathfinder.Map.Map;
+import tk.pathfinder.Map.Node;
 import tk.pathfinder.Map.Room;
 import tk.pathfinder.R;
 
@@ -8,8 +10,6 @@ import android.os.Bundle;
 import android.os.Looper;
 import android.view.View;
 
-import java.util.Iterator;
-
 import tk.pathfinder.UI.Alert;
 import tk.pathfinder.UI.AppStatus;
 import tk.pathfinder.UI.NavigationView;
@@ -32,11 +32,11 @@ public class NavigationActivity extends MenuActivity {
         int roomId = i.getIntExtra("roomId", -1);
         Room destination = null;
 
-        for(Iterator<Room> it = status.getCurrentMap().getRooms(); it.hasNext(); ){
-            Room room = it.next();
-            if(room.getId() == roomId)
-                destination = room;
-        }
+        // look the room up and navigate on the same map snapshot.
+        Map map = status.getCurrentMap();
+        Node node = map == null ? null : map.getNode(roomId);
+        if(node instanceof Room)
+            destination = (Room)node;
 
         // check for errors
         if(roomId == -1 || destination == null){
@@ -47,7 +47,7 @@ public class NavigationActivity extends MenuActivity {
 
         view = findViewById(R.id.navigation_view_window);
         view.setCallbackListener(new CallbackListener());
-        view.setMap(status.getCurrentMap());
+        view.setMap(map);
         view.setDestination(destination);
 
         getSupportActionBar().setTitle(destination.getName());
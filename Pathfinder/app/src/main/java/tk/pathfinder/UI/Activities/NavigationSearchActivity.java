@@ -5,6 +5,10 @@ import androidx.fragment.app.FragmentManager;
 import androidx.fragment.app.FragmentTransaction;
 import android.content.Intent;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.view.View;
 import android.widget.EditText;
 import android.widget.ImageButton;
@@ -12,6 +16,15 @@ import android.widget.ImageButton;
 
 import androidx.appcompat.widget.Toolbar;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import tk.pathfinder.Map.Map;
+import tk.pathfinder.Map.Room;
+import tk.pathfinder.Map.SearchSession;
 import tk.pathfinder.UI.AppStatus;
 import tk.pathfinder.R;
 import tk.pathfinder.UI.Fragments.NavigationResult;
@@ -22,6 +35,25 @@ import tk.pathfinder.UI.Fragments.NavigationResultsFragment;
  */
 public class NavigationSearchActivity extends MenuActivity implements NavigationResult.NavigationResultListener {
 
+    // how long typing must pause before a search starts, in milliseconds.
+    private static final long SEARCH_DELAY = 150;
+    private static final int MAX_RESULTS = 50;
+
+    // one search at a time, off the UI thread; a newer search replaces any that has not started.
+    private static final ExecutorService searchExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "destination-search");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable delayedSearch = this::search;
+    private SearchSession session;
+    private Future<?> pending;
+    // incremented for each search, so results from an older one are dropped.
+    private int generation = 0;
+    private int[] shown;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -36,21 +68,73 @@ public class NavigationSearchActivity extends MenuActivity implements Navigation
         Intent i = getIntent();
 
         String keywords = i.getStringExtra("keywords");
+        EditText search = findViewById(R.id.dest_search_box);
 
         // let's submit our search!
         if(keywords != null){
-            EditText search = findViewById(R.id.dest_search_box);
             ImageButton submit = findViewById(R.id.dest_search_submit);
             search.setText(keywords);
             submit.performClick();
         }
+
+        // search as the user types, once they pause.
+        search.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) { }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) { }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                handler.removeCallbacks(delayedSearch);
+                handler.postDelayed(delayedSearch, SEARCH_DELAY);
+            }
+        });
     }
 
     public void onSubmitClick(View v){
-        EditText search = findViewById(R.id.dest_search_box);
-        String keywords = search.getText().toString();
+        handler.removeCallbacks(delayedSearch);
+        search();
+    }
+
+    // start searching for the text in the search box, replacing any search still running.
+    private void search(){
+        Map map = ((AppStatus)getApplicationContext()).getCurrentMap();
+        if(map == null)
+            return;
+        if(session == null || session.getMap() != map)
+            session = new SearchSession(map);
+
+        EditText box = findViewById(R.id.dest_search_box);
+        final String keywords = box.getText().toString();
+        final SearchSession session = this.session;
+        final int id = ++generation;
+        if(pending != null)
+            pending.cancel(true);
+
+        pending = searchExecutor.submit(() -> {
+            if(Thread.currentThread().isInterrupted())
+                return;
+            List<Room> results = session.search(keywords, MAX_RESULTS);
+            int[] ids = new int[results.size()];
+            for(int k = 0; k < ids.length; k++)
+                ids[k] = results.get(k).getId();
+            handler.post(() -> {
+                if(id == generation)
+                    showResults(ids);
+            });
+        });
+    }
+
+    private void showResults(int[] ids){
         FragmentManager fm = this.getSupportFragmentManager();
-        NavigationResultsFragment f = NavigationResultsFragment.newInstance(keywords);
+        // nothing changed, so keep the fragments we have.
+        if(isFinishing() || fm.isStateSaved() || Arrays.equals(ids, shown))
+            return;
+        shown = ids;
+
+        NavigationResultsFragment f = NavigationResultsFragment.newInstance(ids);
         FragmentTransaction t = fm.beginTransaction();
         t.replace(R.id.dest_results_content, f);
         t.commit();
@@ -74,6 +158,10 @@ public class NavigationSearchActivity extends MenuActivity implements Navigation
     @Override
     protected void onDestroy(){
         super.onDestroy();
+        handler.removeCallbacks(delayedSearch);
+        generation++;
+        if(pending != null)
+            pending.cancel(true);
         AppStatus status = (AppStatus)getApplicationContext();
         status.setNavigationSearchActivity(null);
         if(status.getCurrentActivity() == this)
@@ -1,18 +1,19 @@
 package tk.pathfinder.UI.Activities;
 
-import android.os.AsyncTask;
 import android.os.Bundle;
 
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
 
-import android.os.Looper;
 import android.view.View;
 
 import java.io.IOException;
 
 import tk.pathfinder.Map.Map;
-import tk.pathfinder.Networking.Api;
+import tk.pathfinder.Map.MappedMap;
+import tk.pathfinder.Map.Node;
+import tk.pathfinder.Map.Room;
+import tk.pathfinder.Networking.ApiClient;
 import tk.pathfinder.R;
 import tk.pathfinder.UI.Alert;
 import tk.pathfinder.UI.AppStatus;
@@ -21,6 +22,7 @@ import tk.pathfinder.UI.MapView;
 public class ViewMapActivity extends AppCompatActivity {
     int mapId;
     MapView view;
+    private ApiClient.Ticket<Details> details;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -33,13 +35,23 @@ public class ViewMapActivity extends AppCompatActivity {
 
         mapId = getIntent().getIntExtra("mapId", -1);
         view = findViewById(R.id.map_view_window);
-        new MapDetailsTask().execute(mapId, getApplicationContext(), this);
+        view.setOnNodeTapListener(this::onNodeTap);
+        details = loadDetails((AppStatus)getApplicationContext(), mapId);
     }
 
     public void onCenterClick(View v){
         view.resetPosition();
     }
 
+    // name the room the user tapped.
+    private void onNodeTap(Node node){
+        if(!(node instanceof Room))
+            return;
+        Room r = (Room)node;
+        String name = r.getName() == null || r.getName().isEmpty() ? "Room " + r.getRoomNumber() : r.getName();
+        new Alert(name, "Room " + r.getRoomNumber() + " on floor " + r.getFloor(), this).show();
+    }
+
     @Override
     public void onResume(){
         super.onResume();
@@ -52,39 +64,65 @@ public class ViewMapActivity extends AppCompatActivity {
     @Override
     public void onDestroy(){
         super.onDestroy();
+        if(details != null)
+            details.cancel(true);
         AppStatus status = (AppStatus)getApplicationContext();
         if(status.getCurrentActivity() == this)
             status.setCurrentActivity(null);
         status.setViewMapActivity(null);
     }
 
-    private static class MapDetailsTask extends AsyncTask<Object, String, Map> {
-        private AppStatus ctx;
-        private ViewMapActivity f;
-
-        @Override
-        protected Map doInBackground(Object... args) {
-            ctx = (AppStatus)args[1];
-            f = (ViewMapActivity) args[2];
-
+    // check the saved copy of the map with the server, then read it from its saved floors, off the main thread.
+    private ApiClient.Ticket<Details> loadDetails(AppStatus ctx, int id){
+        return ctx.getApiClient().submit("view/" + id, () -> {
             Map m = null;
+            IOException error = null;
             try{
-                m = Api.getMap((Integer)args[0]);
+                m = ctx.refreshMap(id);
             }
             catch(IOException e){
-                Looper.prepare();
-                new Alert("Error", e.getMessage(), ctx.getCurrentActivity());
+                // a saved copy is better than nothing.
+                error = e;
+            }
+            if(m == null){
+                // a tall building saved by floor; only the floors the user pages to are read.
+                MappedMap mapped = ctx.openFloorFile(id);
+                if(mapped != null)
+                    return new Details(null, mapped);
+                m = ctx.getSavedMap(id);
+                if(m == null)
+                    throw error != null ? error : new IOException("Map " + id + " is not saved");
+            }
+            ctx.addKnownBeacons(m);
+            return new Details(m, null);
+        }, new ApiClient.Callback<Details>() {
+            @Override
+            public void onResult(Details result){
+                if(result.mapped != null){
+                    getSupportActionBar().setTitle(result.mapped.getName());
+                    view.setMap(result.mapped);
+                    return;
+                }
+                getSupportActionBar().setTitle(result.map.getName());
+                view.setMap(result.map);
+            }
+
+            @Override
+            public void onError(IOException e){
                 e.printStackTrace();
+                new Alert("Error", e.getMessage(), ViewMapActivity.this).show();
             }
+        });
+    }
 
-            //d.hide();
-            return m;
-        }
+    // a map, either whole or saved by floor.
+    private static class Details {
+        private final Map map;
+        private final MappedMap mapped;
 
-        @Override
-        protected void onPostExecute(Map result){
-            f.getSupportActionBar().setTitle(result.getName());
-            f.view.setMap(result);
+        Details(Map map, MappedMap mapped){
+            this.map = map;
+            this.mapped = mapped;
         }
     }
 }
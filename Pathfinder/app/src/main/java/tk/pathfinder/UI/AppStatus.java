@@ -4,18 +4,31 @@ import android.app.Activity;
 import android.app.Application;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.net.wifi.WifiManager;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReference;
 
 import tk.pathfinder.Map.*;
 import tk.pathfinder.Networking.Api;
+import tk.pathfinder.Networking.ApiClient;
+import tk.pathfinder.Networking.Beacon;
+import tk.pathfinder.Networking.BeaconDirectory;
 import tk.pathfinder.Networking.BeaconReceiver;
+import tk.pathfinder.Networking.ConnectorStatusFeed;
+import tk.pathfinder.Networking.MapCache;
+import tk.pathfinder.Networking.MapPrefetcher;
+import tk.pathfinder.Networking.RecentMaps;
 import tk.pathfinder.R;
 import tk.pathfinder.UI.Activities.HomeActivity;
 import tk.pathfinder.UI.Activities.MapSearchActivity;
@@ -30,8 +43,13 @@ import tk.pathfinder.UI.Activities.ViewMapActivity;
  * @since 1.0
  */
 public class AppStatus extends Application {
-    private Map currentMap;
-    private Point location;
+    // the width of a lookup raster cell, in map units (maps are 1000 units across).
+    private static final int RASTER_CELL_SIZE = 5;
+
+    // written from the beacon threads and read everywhere, so both are published atomically.
+    // readers should call getCurrentMap() once and keep using that snapshot for the whole operation.
+    private final AtomicReference<Map> currentMap = new AtomicReference<>();
+    private volatile Point location;
     private HomeActivity home;
     private NavigationActivity navigation;
     private NavigationSearchActivity navSearch;
@@ -40,6 +58,33 @@ public class AppStatus extends Application {
     private Activity current;
     private MapReceiver mapReceiver;
     private BeaconReceiver beaconReceiver;
+    private final MapPreprocessor preprocessor = MapPreprocessor.createDefault().addLookupRaster(RASTER_CELL_SIZE);
+    private MapPreprocessor.Job preprocessing;
+    // the most space saved maps may take up on disk.
+    private static final long MAP_CACHE_SIZE = 16 * 1024 * 1024;
+    private MapCache mapCache;
+    // maps with at least this many nodes are kept in columns off the heap, and shown a floor at a time.
+    private static final int COLUMNAR_MIN_NODES = 20000;
+    // maps with at least this many floors are also saved split by floor, so they can be opened a floor at a time.
+    private static final int FLOOR_FILE_MIN_FLOORS = 4;
+    private static final String FLOOR_FILE_SUFFIX = ".floors";
+    private File floorFiles;
+    // the most the prefetcher may download in an hour, and keep on disk for buildings not yet entered.
+    private static final long PREFETCH_BANDWIDTH = 4 * 1024 * 1024;
+    private static final long PREFETCH_STORAGE = 4 * 1024 * 1024;
+    private MapPrefetcher prefetcher;
+    // maps of buildings visited recently, held in memory so walking back into one needs no download.
+    private static final long RECENT_MAPS_SIZE = 24 * 1024 * 1024;
+    // a map held in memory is shown without asking the server if it was checked this recently.
+    private static final long RECENT_MAP_FRESHNESS = 5 * 60 * 1000;
+    private final RecentMaps recentMaps = new RecentMaps(RECENT_MAPS_SIZE);
+    // keeps the shown map's elevators and escalators open or closed as the building reports them.
+    private ConnectorStatusFeed connectorFeed;
+    // runs calls to the server off the main thread, joining identical calls already in progress.
+    private ApiClient apiClient;
+    private Handler mainHandler;
+    // every beacon of every map loaded since the app started.
+    private final BeaconDirectory knownBeacons = new BeaconDirectory();
 
     public HomeActivity getHomeActivity() { return home; }
     public void setHomeActivity(HomeActivity value) { home = value;}
@@ -60,36 +105,405 @@ public class AppStatus extends Application {
     public void setCurrentActivity(Activity value) { current = value; }
 
 
+    /**
+     * @return The current map snapshot, or null.
+     */
     public Map getCurrentMap(){
-        return currentMap;
+        return currentMap.get();
     }
 
     public BeaconReceiver getBeaconReceiver() { return beaconReceiver; }
 
+    /**
+     * @return The prefetcher of nearby buildings' maps.
+     */
+    public MapPrefetcher getPrefetcher() { return prefetcher; }
+
+    /**
+     * @return The client for calls to the server. Its callbacks run on the main thread.
+     */
+    public ApiClient getApiClient() { return apiClient; }
+
+    /**
+     * @return The beacons of every map loaded so far, keyed by their (building, beacon) id pair.
+     */
+    public BeaconDirectory getKnownBeacons() { return knownBeacons; }
+
+    /**
+     * Remember the beacons of a map, so they can be located after it is no longer current.
+     * @param map A map that has been loaded.
+     */
+    public void addKnownBeacons(Map map){
+        if(map == null)
+            return;
+        for(Beacon b : map.getBeaconDirectory().getBeacons())
+            knownBeacons.put(b);
+    }
+
     /**
      * Set the current map and send a tk.pathfinder.MAP_CHANGED action.
      * @param map The map to set.
      */
     public void setCurrentMap(Map map){
         Log.d("AppStatus", "Changing map.");
-        currentMap = map;
+        synchronized(preprocessor){
+            // the old map's structures are no longer needed.
+            if(preprocessing != null && preprocessing.getMap() != map){
+                preprocessing.cancel();
+                preprocessing = null;
+            }
+        }
+        Map previous = currentMap.getAndSet(map);
+        Log.d("AppStatus", "Published map version " + (map == null ? "none" : map.getVersion())
+                + ", replacing " + (previous == null ? "none" : previous.getVersion()));
 
         // tell the main activity that the map has changed!
         sendBroadcast(new Intent("tk.pathfinder.MAP_CHANGED"));
     }
 
     /**
-     * Pull a map from the database and set it to the current map.
+     * Show a map, serving a saved copy straight away if there is one, then check with the server
+     * for a newer version. A saved copy is brought up to date from the changes made since it was
+     * saved where the server still has them. The map is only replaced if its contents have changed.
      * @param map_id The index of the map to pull.
      */
     public void pullMap(int map_id){
+        // a building visited a moment ago is still in memory.
+        RecentMaps.Entry recent = recentMaps.get(map_id);
+        if(recent != null){
+            Map map = recent.getMap();
+            if(getCurrentMap() != map){
+                Log.d("AppStatus", "Switching back to map " + map_id);
+                showMap(map, true);
+            }
+            if(System.currentTimeMillis() - recent.getValidated() < RECENT_MAP_FRESHNESS)
+                return;
+            // the map in memory is already shown; the saved copies need not be read.
+            if(map.getRevision() == 0 || !pullChanges(map_id, map))
+                revalidate(map_id, map);
+            return;
+        }
+
+        // a map prefetched on the way in is already preprocessed; just check it is still current.
+        Map prefetched = prefetcher.take(map_id);
+        if(prefetched != null){
+            Log.d("AppStatus", "Showing prefetched map " + map_id);
+            prefetched = showMap(prefetched, true);
+            // the prefetched map is already shown; the saved copy of it need not be read.
+            if(prefetched.getRevision() == 0 || !pullChanges(map_id, prefetched))
+                revalidate(map_id, prefetched);
+            return;
+        }
+
+        MapCache.Entry cached = mapCache.get(map_id);
+        Map saved = null;
+        if(cached != null){
+            Log.d("AppStatus", "Showing saved copy of map " + map_id);
+            saved = showMap(cached.getMap(), true);
+            if(saved.getRevision() > 0 && pullChanges(map_id, saved))
+                return;
+        }
+
+        Api.MapResponse response;
         try {
-            Map map = Api.getMap(map_id);
-            setCurrentMap(map);
-            setCurrentLocation(Point.getDefault());
+            response = cached == null ? Api.getMap(map_id, null, null)
+                    : Api.getMap(map_id, cached.getETag(), cached.getLastModified());
         } catch (IOException e) {
             Log.e("API", e.getMessage(), e);
-            setCurrentMap(null);
+            // a saved copy is better than nothing.
+            if(cached == null)
+                setCurrentMap(null);
+            return;
+        }
+
+        try{
+            if(response.getMap() == null){
+                mapCache.revalidated(map_id, response.getETag(), response.getLastModified());
+                recentMaps.validated(map_id, System.currentTimeMillis());
+                return;
+            }
+            MapCache.Entry fresh = mapCache.put(map_id, response.getMap(), response.getETag(), response.getLastModified());
+            boolean unchanged = cached != null && fresh.getHash().equals(cached.getHash());
+            saveFloorFile(response.getMap(), fresh.getHash());
+            if(unchanged){
+                Log.d("AppStatus", "Map " + map_id + " is unchanged");
+                recentMaps.validated(map_id, System.currentTimeMillis());
+                return;
+            }
+        }
+        catch(IOException e){
+            Log.w("AppStatus", "Could not save map " + map_id, e);
+            if(response.getMap() == null)
+                return;
+        }
+
+        // the user may have moved on to another building while the download ran.
+        if(saved != null && !isShowing(saved))
+            return;
+        showMap(response.getMap(), cached == null);
+        recentMaps.validated(map_id, System.currentTimeMillis());
+    }
+
+    // check a map held in memory with the server, using the validators of its saved copy, and replace it only if it has changed.
+    private void revalidate(int map_id, Map map){
+        Map fresh;
+        try{
+            fresh = refreshMap(map_id);
+        }
+        catch(IOException e){
+            Log.e("API", e.getMessage(), e);
+            return;
+        }
+        // the user may have moved on to another building while the download ran.
+        if(fresh != null && !isShowing(map))
+            return;
+        if(fresh != null)
+            showMap(fresh, false);
+        recentMaps.validated(map_id, System.currentTimeMillis());
+    }
+
+    /**
+     * Check the saved copy of a map with the server, and save the map again if it has changed.
+     * The map is not shown.
+     * @param map_id The index of the map.
+     * @return The map if there was no saved copy or it has changed, or null if the saved copy is current.
+     * @throws IOException if the server could not be asked.
+     */
+    public Map refreshMap(int map_id) throws IOException {
+        MapCache.Entry saved = mapCache.getValidators(map_id);
+        Api.MapResponse response = saved == null ? Api.getMap(map_id, null, null)
+                : Api.getMap(map_id, saved.getETag(), saved.getLastModified());
+
+        try{
+            if(response.getMap() == null){
+                mapCache.revalidated(map_id, response.getETag(), response.getLastModified());
+                return null;
+            }
+            MapCache.Entry fresh = mapCache.put(map_id, response.getMap(), response.getETag(), response.getLastModified());
+            saveFloorFile(response.getMap(), fresh.getHash());
+            if(saved != null && fresh.getHash().equals(saved.getHash())){
+                Log.d("AppStatus", "Map " + map_id + " is unchanged");
+                return null;
+            }
+        }
+        catch(IOException e){
+            Log.w("AppStatus", "Could not save map " + map_id, e);
+        }
+        return response.getMap();
+    }
+
+    /**
+     * @param map_id The index of the map.
+     * @return The saved copy of the map, or null if it has not been saved.
+     */
+    public Map getSavedMap(int map_id){
+        MapCache.Entry saved = mapCache.get(map_id);
+        return saved == null ? null : saved.getMap();
+    }
+
+    /**
+     * Run {@link #pullMap(int)} in the background. A pull of the same building already in progress
+     * is joined rather than started again, so scans that arrive while a map downloads do not fetch it twice.
+     * @param map_id The index of the map to pull.
+     * @param callback Told on the main thread once the pull is done.
+     * @return A ticket for the pull, which the caller may cancel.
+     */
+    public ApiClient.Ticket<Void> pullMapAsync(int map_id, ApiClient.Callback<Void> callback){
+        return apiClient.submit("pull/" + map_id, () -> {
+            pullMap(map_id);
+            return null;
+        }, callback);
+    }
+
+    // apply the changes made to a saved map since its revision. returns false if the whole map must be downloaded instead.
+    private boolean pullChanges(int map_id, Map base){
+        // the changes are to the whole map, and only a floor of a building kept in columns is a Map.
+        if(base.getBuilding() != null)
+            return false;
+        MapDelta delta;
+        try{
+            delta = Api.getMapDelta(map_id, base.getRevision());
+        }
+        catch(IOException e){
+            // a saved copy is better than nothing.
+            Log.e("API", e.getMessage(), e);
+            return true;
+        }
+        if(delta == null)
+            return false;
+        if(delta.isEmpty() && delta.getRevision() == base.getRevision()){
+            Log.d("AppStatus", "Map " + map_id + " is unchanged");
+            recentMaps.validated(map_id, System.currentTimeMillis());
+            return true;
+        }
+
+        Map map;
+        try{
+            map = delta.applyTo(base);
+        }
+        catch(IllegalArgumentException e){
+            Log.w("AppStatus", "Could not apply changes to map " + map_id + ": " + e.getMessage());
+            return false;
+        }
+        try{
+            // the validators describe a whole download, which this copy is not.
+            saveFloorFile(map, mapCache.put(map_id, map, null, null).getHash());
+        }
+        catch(IOException e){
+            Log.w("AppStatus", "Could not save map " + map_id, e);
+        }
+
+        // the user may have moved on to another building while the changes downloaded.
+        if(isShowing(base)){
+            showMap(map, false);
+            recentMaps.validated(map_id, System.currentTimeMillis());
+        }
+        return true;
+    }
+
+    // save a map split by floor, if it is tall enough to benefit, for openFloorFile. the file is named
+    // for the saved copy it was split from, and the files of copies no longer saved are deleted, so the
+    // floor files never outgrow the map cache.
+    private void saveFloorFile(Map map, String hash){
+        if(map == null || map.getId() == null)
+            return;
+        int[] range = map.getFloorRange();
+        synchronized(floorFiles){
+            File f = getFloorFile(map.getId(), hash);
+            if(range[1] - range[0] + 1 >= FLOOR_FILE_MIN_FLOORS && !f.exists()){
+                try{
+                    MappedMap.write(map, f);
+                }
+                catch(IOException e){
+                    Log.w("AppStatus", "Could not save floors of map " + map.getId(), e);
+                }
+            }
+            pruneFloorFiles();
+        }
+    }
+
+    // delete the floor files that do not belong to a saved copy of a map, and any left half written.
+    private void pruneFloorFiles(){
+        File[] files = floorFiles.listFiles();
+        if(files == null)
+            return;
+        for(File f : files){
+            String name = f.getName();
+            int dash = name.indexOf('-');
+            boolean current = false;
+            if(dash > 0 && name.endsWith(FLOOR_FILE_SUFFIX)){
+                try{
+                    int id = Integer.parseInt(name.substring(0, dash));
+                    MapCache.Entry saved = mapCache.getValidators(id);
+                    current = saved != null && f.equals(getFloorFile(id, saved.getHash()));
+                }
+                catch(NumberFormatException ignored) {}
+            }
+            if(!current && f.delete())
+                Log.d("AppStatus", "Deleted floor file " + name);
+        }
+    }
+
+    /**
+     * Open the floors of the saved copy of a map. Only the index is read; floors are read as they are used.
+     * The saved copy is not checked with the server; see {@link #refreshMap(int)}.
+     * @param map_id The index of the map.
+     * @return The map, or null if it is not saved, is too short to be split by floor, or the file is damaged.
+     */
+    public MappedMap openFloorFile(int map_id){
+        MapCache.Entry saved = mapCache.getValidators(map_id);
+        if(saved == null)
+            return null;
+        File f = getFloorFile(map_id, saved.getHash());
+        if(!f.exists())
+            return null;
+        try{
+            MappedMap mapped = MappedMap.open(f);
+            mapped.setPreprocessor(preprocessor);
+            return mapped;
+        }
+        catch(IOException e){
+            Log.w("AppStatus", "Dropping floors of map " + map_id + ": " + e.getMessage());
+            f.delete();
+            return null;
+        }
+    }
+
+    private File getFloorFile(int map_id, String hash){
+        return new File(floorFiles, map_id + "-" + hash + FLOOR_FILE_SUFFIX);
+    }
+
+    // publish a map and start preprocessing it. a map too large to hold as objects is moved into columns,
+    // and the floor the user is on is published in its place. returns the map published.
+    private Map showMap(Map map, boolean resetLocation){
+        if(map != null && map.getBuilding() == null && map.getNodeCount() >= COLUMNAR_MIN_NODES){
+            ColumnarMap building = ColumnarMap.of(map);
+            Log.d("AppStatus", "Map " + map.getId() + ": " + building.size() + " nodes kept in "
+                    + building.getMemoryUsage() / 1024 + " KiB of columns");
+            map = floorOf(building, resetLocation ? Point.getDefault() : location);
+        }
+        addKnownBeacons(map);
+        if(map != null && map.getId() != null){
+            RecentMaps.Entry recent = recentMaps.get(map.getId());
+            // keep the time of the last check when the same map is shown again.
+            recentMaps.put(map, recent != null && recent.getMap() == map ? recent.getValidated() : 0);
+        }
+        setCurrentMap(map);
+        preprocess(map);
+        followConnectors(map);
+        if(resetLocation)
+            setCurrentLocation(Point.getDefault());
+        return map;
+    }
+
+    // the floor of a building a location is on, or its lowest floor if it has no nodes there.
+    private static Map floorOf(ColumnarMap building, Point p){
+        Map floor = building.getFloorMap(p.getY());
+        return floor != null ? floor : building.getFloorMap(building.getFloorRange()[0]);
+    }
+
+    // true if the map, or another floor of the same building, is the one shown.
+    private boolean isShowing(Map map){
+        Map current = getCurrentMap();
+        return current == map || current != null && map.getBuilding() != null && current.getBuilding() == map.getBuilding();
+    }
+
+    // follow the status feed of a map's connectors, replacing the feed of another building.
+    private synchronized void followConnectors(Map map){
+        boolean sameBuilding = connectorFeed != null && map != null && map.getId() != null
+                && connectorFeed.getMapId() == map.getId();
+        if(sameBuilding){
+            connectorFeed.setMap(map);
+            return;
+        }
+        if(connectorFeed != null){
+            connectorFeed.stop();
+            connectorFeed = null;
+        }
+        if(map == null || map.getId() == null)
+            return;
+        connectorFeed = new ConnectorStatusFeed(map, (updated, changed) -> {
+            Log.d("AppStatus", changed + " connectors of map " + updated.getId() + " changed");
+            // find the route again, in case it used a connector that has closed. this runs on the feed's
+            // thread, and rerouting touches the navigation view.
+            mainHandler.post(() -> {
+                if(getCurrentMap() == updated)
+                    setCurrentLocation(getCurrentLocation());
+            });
+        });
+        connectorFeed.start();
+    }
+
+    /**
+     * Start building the lookup and routing structures for a map.
+     * Any run for a previous map is cancelled.
+     * @param map The map to preprocess.
+     */
+    private void preprocess(Map map){
+        synchronized(preprocessor){
+            if(preprocessing != null)
+                preprocessing.cancel();
+            preprocessing = preprocessor.start(map, new PreprocessListener());
         }
     }
 
@@ -110,20 +524,27 @@ public class AppStatus extends Application {
         }
 
         location = p;
-        // trigger redraw
-        if(navigation != null) {
-            navigation.view.invalidate();
-            navigation.view.getDirection(currentMap.closestNode(p));
+        // the floors of a building kept in columns are shown one at a time, following the user.
+        Map map = currentMap.get();
+        if(map != null && map.getBuilding() != null){
+            Map floor = map.getBuilding().getFloorMap(p.getY());
+            if(floor != null && floor != map)
+                showMap(floor, false);
         }
+        // trigger redraw
+        NavigationActivity navigation = this.navigation;
+        if(navigation != null && navigation.view != null)
+            navigation.view.onLocationChanged(p);
     }
 
     /**
      * @return the ID of the current building, or -1 on failure.
      */
     public int getCurrentBuildingId(){
-        if(currentMap == null)
+        Map map = currentMap.get();
+        if(map == null)
             return -1;
-        return currentMap.getId();
+        return map.getId();
     }
 
     /**
@@ -146,11 +567,79 @@ public class AppStatus extends Application {
 
     public AppStatus() {
     }
+
+    // logs the progress of map preprocessing.
+    private class PreprocessListener implements MapPreprocessor.Listener {
+        @Override
+        public void onStageComplete(Map map, String stage, long millis){
+            Log.d("MapPreprocessor", String.format(Locale.US, "%s: stage %s took %d ms", map.getName(), stage, millis));
+            if(stage.equals("raster"))
+                Log.d("MapPreprocessor", String.format(Locale.US, "%s: lookup raster uses %d KiB",
+                        map.getName(), map.getLookupRasterMemory() / 1024));
+        }
+
+        @Override
+        public void onStageFailed(Map map, String stage, Exception e){
+            Log.e("MapPreprocessor", map.getName() + ": stage " + stage + " failed", e);
+        }
+
+        @Override
+        public void onRoutingReady(Map map){
+            Log.d("MapPreprocessor", map.getName() + ": routing ready");
+        }
+
+        @Override
+        public void onComplete(Map map, java.util.Map<String, Long> timings){
+            // measure the map again now that its structures are built.
+            RecentMaps.Entry recent = map.getId() == null ? null : recentMaps.get(map.getId());
+            if(recent != null && recent.getMap() == map)
+                recentMaps.put(map, recent.getValidated());
+            long total = 0;
+            for(long t : timings.values())
+                total += t;
+            Log.d("MapPreprocessor", String.format(Locale.US, "%s: preprocessing finished, %d ms of work %s", map.getName(), total, timings));
+        }
+
+        @Override
+        public void onCancelled(Map map){
+            Log.d("MapPreprocessor", map.getName() + ": preprocessing cancelled");
+        }
+    }
     
+    @Override
+    public void onTrimMemory(int level){
+        super.onTrimMemory(level);
+        // the maps of other buildings can be downloaded again, so they go first.
+        if(level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL){
+            recentMaps.trim(0);
+            prefetcher.clear();
+        }
+        else if(level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW){
+            recentMaps.trim(0.25);
+            prefetcher.clear();
+        }
+        else if(level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE)
+            recentMaps.trim(0.5);
+        Log.d("AppStatus", "Trimmed memory at level " + level + ": " + recentMaps.size() + " maps, "
+                + recentMaps.getSize() / 1024 + " KiB held");
+    }
+
+    @Override
+    public void onLowMemory(){
+        super.onLowMemory();
+        recentMaps.trim(0);
+        prefetcher.clear();
+    }
+
     @Override
     public void onCreate(){
         super.onCreate();
         location = Point.getDefault();
+        mapCache = new MapCache(new File(getCacheDir(), "maps"), MAP_CACHE_SIZE);
+        floorFiles = new File(getCacheDir(), "floors");
+        prefetcher = new MapPrefetcher(mapCache, preprocessor, PREFETCH_BANDWIDTH, PREFETCH_STORAGE);
+        mainHandler = new Handler(Looper.getMainLooper());
+        apiClient = new ApiClient(mainHandler::post);
 
         // register our receivers
         beaconReceiver = new BeaconReceiver(this);
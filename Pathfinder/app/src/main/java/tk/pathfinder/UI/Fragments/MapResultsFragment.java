@@ -1,12 +1,11 @@
 package tk.pathfinder.UI.Fragments;
 
 import android.app.ProgressDialog;
-import android.os.AsyncTask;
 import android.os.Bundle;
 
 import androidx.fragment.app.Fragment;
 
-import android.os.Looper;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -15,9 +14,9 @@ import java.io.IOException;
 
 import androidx.fragment.app.FragmentTransaction;
 import tk.pathfinder.Networking.Api;
+import tk.pathfinder.Networking.ApiClient;
 import tk.pathfinder.UI.AppStatus;
 import tk.pathfinder.R;
-import tk.pathfinder.UI.Alert;
 
 /**
  * A fragment for listing the results of a map search.
@@ -25,7 +24,18 @@ import tk.pathfinder.UI.Alert;
 public class MapResultsFragment extends Fragment {
 
     private String keywords;
+    // the number of buildings asked for at a time, and how close to the end of the list the next page is loaded.
+    private static final int PAGE_SIZE = 20;
+    private static final int LOAD_MARGIN = 400;
+
     private ProgressDialog d;
+    private View scroll;
+    private ApiClient.Ticket<Api.MapQueryPage> search;
+    // the number of results shown, and the number the search matched, or -1 before the first page.
+    private int shown = 0;
+    private int total = -1;
+    // set from asking for a page until its results have been shown.
+    private boolean loading = false;
 
     public MapResultsFragment() {
         // Required empty public constructor
@@ -56,10 +66,36 @@ public class MapResultsFragment extends Fragment {
         d.setIndeterminate(false);
         d.setCancelable(false);
         d.show();
-        new MapSearchTask().execute(keywords, getActivity().getApplicationContext(), this);
+        scroll = v;
+        // the next page is loaded as the user nears the end of the list.
+        v.setOnScrollChangeListener((view, x, y, oldX, oldY) -> loadMore());
+        loadMore();
         return v;
     }
 
+    // ask for the next page, unless one is on its way or every result is shown.
+    private void loadMore(){
+        if(loading || total != -1 && shown >= total)
+            return;
+        View content = scroll.findViewById(R.id.map_search_results_content);
+        if(total != -1 && scroll.getScrollY() + scroll.getHeight() < content.getHeight() - LOAD_MARGIN)
+            return;
+        AppStatus ctx = (AppStatus)getActivity().getApplicationContext();
+        loading = true;
+        search = ctx.getApiClient().findMaps(keywords == null ? "" : keywords, shown, PAGE_SIZE, new SearchCallback());
+    }
+
+    @Override
+    public void onDestroyView(){
+        super.onDestroyView();
+        // the results have nowhere to go.
+        if(search != null)
+            search.cancel(true);
+        scroll = null;
+        if(d != null)
+            d.dismiss();
+    }
+
     private void addResults(Api.MapQueryResult[] result){
         FragmentTransaction t = getFragmentManager().beginTransaction();
         for(Api.MapQueryResult r : result){
@@ -75,38 +111,39 @@ public class MapResultsFragment extends Fragment {
         t.commit();
     }
 
-    // static to avoid memory leaks
-    // takes (string)keywords, (AppStatus)context, (FragmentManager)mgr as arguments
-    private static class MapSearchTask extends AsyncTask<Object, String, Api.MapQueryResult[]>{
-        AppStatus ctx;
-        MapResultsFragment f;
-
+    // runs on the main thread; the search is cancelled if the view goes away first.
+    private class SearchCallback implements ApiClient.Callback<Api.MapQueryPage> {
         @Override
-        protected Api.MapQueryResult[] doInBackground(Object... args){
-            Api.MapQueryResult[] res = null;
-            ctx = (AppStatus)args[1];
-            f = (MapResultsFragment)args[2];
-
-            try{
-                res = Api.findMaps((String)args[0]);
-            }
-            catch(IOException e){
-                //f.d.dismiss();
-                //new Alert("Error", e.getMessage(), ctx.getCurrentActivity()).show();
-            }
-            return res;
+        public void onResult(Api.MapQueryPage page){
+            loading = false;
+            boolean first = total == -1;
+            total = page.getTotal();
+            Api.MapQueryResult[] result = page.getResults();
+            shown += result.length;
+            if(first && result.length == 0)
+                noResults();
+            else if(result.length > 0)
+                addResults(result);
+            // the matches ran out before the count the server gave; stop asking.
+            if(result.length == 0)
+                total = shown;
+            d.dismiss();
+            // a short page may not fill the screen, so there is nothing to scroll; check once it is laid out.
+            if(scroll != null)
+                scroll.post(() -> {
+                    if(scroll != null)
+                        loadMore();
+                });
         }
 
         @Override
-        protected void onPostExecute(Api.MapQueryResult[] result){
-            super.onPostExecute(result);
-            if(result == null)
-                return;
-            if(result.length == 0)
-                f.noResults();
-            else
-                f.addResults(result);
-            f.d.dismiss();
+        public void onError(IOException e){
+            Log.e("MapResultsFragment", "Search failed", e);
+            // scrolling again tries the page again.
+            loading = false;
+            d.dismiss();
+            if(total == -1)
+                noResults();
         }
     }
 }
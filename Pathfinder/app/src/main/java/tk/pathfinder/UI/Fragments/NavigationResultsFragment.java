@@ -10,10 +10,10 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.LinearLayout;
 
-import java.util.List;
-
 import androidx.fragment.app.FragmentManager;
 import androidx.fragment.app.FragmentTransaction;
+import tk.pathfinder.Map.Map;
+import tk.pathfinder.Map.Node;
 import tk.pathfinder.Map.Room;
 import tk.pathfinder.UI.AppStatus;
 import tk.pathfinder.R;
@@ -23,16 +23,19 @@ import tk.pathfinder.R;
  */
 public class NavigationResultsFragment extends Fragment {
 
-    private String keywords;
+    private int[] roomIds;
 
     public NavigationResultsFragment() {
         // Required empty public constructor
     }
 
-    public static NavigationResultsFragment newInstance(String keywords) {
+    /**
+     * @param roomIds The database indexes of the rooms found, best first.
+     */
+    public static NavigationResultsFragment newInstance(int[] roomIds) {
         NavigationResultsFragment fragment = new NavigationResultsFragment();
         Bundle args = new Bundle();
-        args.putString("keywords", keywords);
+        args.putIntArray("roomIds", roomIds);
         fragment.setArguments(args);
         return fragment;
     }
@@ -41,7 +44,7 @@ public class NavigationResultsFragment extends Fragment {
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         if (getArguments() != null)
-            keywords = getArguments().getString("keywords");
+            roomIds = getArguments().getIntArray("roomIds");
     }
 
     @Override
@@ -53,17 +56,21 @@ public class NavigationResultsFragment extends Fragment {
 
         FragmentManager fm = getFragmentManager();
         FragmentTransaction t = fm.beginTransaction();
-        List<Room> results = null;
-        if(keywords != null){
-            AppStatus context = (AppStatus)getActivity().getApplicationContext();
-            results = context.getCurrentMap().findDestination(keywords);
-            for(Room r : results){
-                NavigationResult result = NavigationResult.newInstance(r, context);
-                t.add(layout.getId(), result);
+        int count = 0;
+        AppStatus context = (AppStatus)getActivity().getApplicationContext();
+        Map map = context.getCurrentMap();
+        if(roomIds != null && map != null){
+            for(int id : roomIds){
+                // the map may have changed since the search.
+                Node n = map.getNode(id);
+                if(!(n instanceof Room))
+                    continue;
+                t.add(layout.getId(), NavigationResult.newInstance((Room)n, context));
+                count++;
             }
         }
 
-        if(results == null || results.size() == 0){
+        if(count == 0){
             t.add(layout.getId(), new NoResultsFragment());
         }
         t.commit();
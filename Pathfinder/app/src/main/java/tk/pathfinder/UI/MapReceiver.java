@@ -26,12 +26,16 @@ public class MapReceiver extends BroadcastReceiver {
     @Override
     public void onReceive(Context context, Intent intent) {
         AppStatus status = (AppStatus)context.getApplicationContext();
-        if(status.getHomeActivity() == null)
-            return;
         Map currentMap = status.getCurrentMap();
-
         Activity activity = status.getCurrentActivity();
 
+        // a newer copy of the building being navigated: keep navigating, on the new map.
+        NavigationActivity navigation = status.getNavigationActivity();
+        if(navigation != null && navigation.view != null && navigation.view.updateMap(currentMap) && activity == navigation)
+            return;
+        if(status.getHomeActivity() == null)
+            return;
+
 
         // only switch when using the navigation-related activities.
         if(activity == null || activity.getClass() == NavigationActivity.class || activity.getClass() == NavigationSearchActivity.class){
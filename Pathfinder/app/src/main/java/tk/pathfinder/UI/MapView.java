@@ -14,7 +14,12 @@ import android.view.MotionEvent;
 import android.view.ScaleGestureDetector;
 import android.view.View;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 import tk.pathfinder.Map.*;
 import tk.pathfinder.R;
@@ -25,7 +30,18 @@ import tk.pathfinder.R;
 public class MapView extends View {
 
     private static final int NODE_RADIUS = 15;
-    protected Map map;
+    // how far outside the screen, in dp, a node may be and still have its icon or label visible.
+    private static final int LABEL_MARGIN = 150;
+    // reads the floors of mapped maps off the main thread, one at a time.
+    private static final Executor FLOOR_LOADER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "floor-loader");
+        t.setDaemon(true);
+        return t;
+    });
+    // replaced from other threads; each frame draws from a single snapshot of it.
+    protected volatile Map map;
+    // set when the map is read floor by floor from a file; map then holds the current floor.
+    private volatile MappedMap mapped;
     protected int floor = 1;
     protected int[] floorRange;
 
@@ -56,6 +72,13 @@ public class MapView extends View {
 
     protected boolean pagingNotAllowed = false;
     protected boolean trackingLocation = true;
+    private OnNodeTapListener nodeTapListener;
+
+    // reused between frames to avoid allocating while drawing.
+    private final List<Edge> visibleEdges = new ArrayList<>();
+    private final List<Room> visibleRooms = new ArrayList<>();
+    private final List<FloorConnector> visibleConnectors = new ArrayList<>();
+    private final int[] viewport = new int[4];
 
     public MapView(Context context) {
         super(context);
@@ -136,88 +159,164 @@ public class MapView extends View {
 
     @Override
     protected void onDraw(Canvas canvas) {
+        Map map = this.map;
         if(map == null)
             return;
 
-        drawEdges(canvas);
-        drawNodes(canvas);
-        drawFloorConnectors(canvas);
+        drawEdges(canvas, map);
+        drawNodes(canvas, map);
+        drawFloorConnectors(canvas, map);
     }
 
-    protected void drawEdges(Canvas canvas){
+    protected void drawEdges(Canvas canvas, Map map){
+        RenderIndex index = map.getRenderIndex();
+        if(index != null && getViewport(0)){
+            visibleEdges.clear();
+            index.findEdges(floor, viewport[0], viewport[1], viewport[2], viewport[3], visibleEdges);
+            for(int i = 0; i < visibleEdges.size(); i++)
+                drawEdge(canvas, visibleEdges.get(i));
+            return;
+        }
+
         for(Iterator<Edge> edges = map.getEdges(); edges.hasNext(); ){
             Edge e = edges.next();
 
-            android.graphics.Point p1 = translatePoint(e.getNode1().getPoint());
-            android.graphics.Point p2 = translatePoint(e.getNode2().getPoint());
-
             // only draw the current floor
             if(e.getNode1().getPoint().getY() != floor && e.getNode2().getPoint().getY() != floor)
                 continue;
 
-            canvas.drawLine(
-                    p1.x,
-                    p1.y,
-                    p2.x,
-                    p2.y,
-                    pathPaint
-            );
+            drawEdge(canvas, e);
         }
     }
 
-    protected void drawNodes(Canvas canvas){
+    private void drawEdge(Canvas canvas, Edge e){
+        android.graphics.Point p1 = translatePoint(e.getNode1().getPoint());
+        android.graphics.Point p2 = translatePoint(e.getNode2().getPoint());
+
+        canvas.drawLine(
+                p1.x,
+                p1.y,
+                p2.x,
+                p2.y,
+                pathPaint
+        );
+    }
+
+    protected void drawNodes(Canvas canvas, Map map){
+        RenderIndex index = map.getRenderIndex();
+        if(index != null && getViewport(LABEL_MARGIN)){
+            visibleRooms.clear();
+            index.findRooms(floor, viewport[0], viewport[1], viewport[2], viewport[3], visibleRooms);
+            for(int i = 0; i < visibleRooms.size(); i++)
+                drawRoom(canvas, visibleRooms.get(i));
+            return;
+        }
+
+        List<Room> rooms = map.getRooms(floor);
+        for(int i = 0; i < rooms.size(); i++)
+            drawRoom(canvas, rooms.get(i));
+    }
+
+    private void drawRoom(Canvas canvas, Room r){
         int c = (int)(NODE_RADIUS*density);
-        for(Iterator<Room> rooms = map.getRooms(); rooms.hasNext(); ){
-            Room r = rooms.next();
+        android.graphics.Point p = translatePoint(r.getPoint());
+
+        String text;
+        if(r.getRoomNumber() == null)
+            text = r.getName();
+        else if(r.getName() == null)
+            text = r.getRoomNumber();
+        else text = r.getRoomNumber() + ": " + r.getName();
+        canvas.drawBitmap(locationIcon, p.x - c, p.y - c, roomPaint);
+        canvas.drawText(text, p.x, p.y + 2*NODE_RADIUS*density, textPaint);
+    }
 
-            if(r.getPoint().getY() != floor)
-                continue;
+    protected void drawFloorConnectors(Canvas canvas, Map map){
+        RenderIndex index = map.getRenderIndex();
+        if(index != null && getViewport(LABEL_MARGIN)){
+            visibleConnectors.clear();
+            index.findFloorConnectors(floor, viewport[0], viewport[1], viewport[2], viewport[3], visibleConnectors);
+            for(int i = 0; i < visibleConnectors.size(); i++)
+                drawFloorConnector(canvas, visibleConnectors.get(i));
+            return;
+        }
 
-            android.graphics.Point p = translatePoint(r.getPoint());
+        List<FloorConnector> connectors = map.getFloorConnectorList();
+        for(int i = 0; i < connectors.size(); i++){
+            FloorConnector con = connectors.get(i);
 
-            String text;
-            if(r.getRoomNumber() == null)
-                text = r.getName();
-            else if(r.getName() == null)
-                text = r.getRoomNumber();
-            else text = r.getRoomNumber() + ": " + r.getName();
-            canvas.drawBitmap(locationIcon, p.x - c, p.y - c, roomPaint);
-            canvas.drawText(text, p.x, p.y + 2*NODE_RADIUS*density, textPaint);
+            if(!con.isOnFloor(floor) || !con.isFloorAccessible(floor))
+                continue;
+
+            drawFloorConnector(canvas, con);
         }
     }
 
-    protected void drawFloorConnectors(Canvas canvas){
+    private void drawFloorConnector(Canvas canvas, FloorConnector con){
         int c = (int)(NODE_RADIUS*density);
+        android.graphics.Point p = translatePoint(con.getPoint());
+
+        Bitmap icon;
+        switch(con.getType()){
+            case STAIRCASE:
+                icon = stairs;
+                break;
+            case ELEVATOR:
+                icon = elevator;
+                break;
+            case UP_ESCALATOR:
+                icon = escalatorUp;
+                break;
+            case DOWN_ESCALATOR:
+                icon = escalatorDown;
+                break;
+            default:
+                return;
+        }
 
-        for(Iterator<FloorConnector> connectors = map.getFloorConnectors(); connectors.hasNext(); ){
-            FloorConnector con = connectors.next();
+        canvas.drawBitmap(icon, p.x - c, p.y - c, roomPaint);
+        canvas.drawText(con.getName(), p.x, p.y + 2*NODE_RADIUS*density, textPaint);
+    }
 
-            if(!con.isFloorAccessible(floor))
-                continue;
+    /**
+     * Find the map rectangle currently on screen and store it in viewport as {minX, minZ, maxX, maxZ}.
+     * @param margin Extra space around the screen to include, in dp.
+     * @return false if the view has not been measured yet.
+     */
+    private boolean getViewport(int margin){
+        if(drawCenter == null)
+            return false;
+        double scaleX = zoom*(content_width - 60*density)/1000d;
+        double scaleY = zoom*(content_height - 80*density)/1000d;
+        if(scaleX <= 0 || scaleY <= 0)
+            return false;
+
+        float m = margin*density;
+        viewport[0] = (int)Math.floor(mapX(-m, scaleX));
+        viewport[1] = (int)Math.floor(mapZ(-m, scaleY));
+        viewport[2] = (int)Math.ceil(mapX(getWidth() + m, scaleX));
+        viewport[3] = (int)Math.ceil(mapZ(getHeight() + m, scaleY));
+        return true;
+    }
 
-            android.graphics.Point p = translatePoint(con.getPoint());
-
-            Bitmap icon;
-            switch(con.getType()){
-                case STAIRCASE:
-                    icon = stairs;
-                    break;
-                case ELEVATOR:
-                    icon = elevator;
-                    break;
-                case UP_ESCALATOR:
-                    icon = escalatorUp;
-                    break;
-                case DOWN_ESCALATOR:
-                    icon = escalatorDown;
-                    break;
-                default:
-                    continue;
-            }
+    // the inverse of translatePoint for each axis.
+    private double mapX(float screenX, double scale){
+        return (screenX - drawCenter.x - padding[3]) / scale + mapCenter.x;
+    }
 
-            canvas.drawBitmap(icon, p.x - c, p.y - c, roomPaint);
-            canvas.drawText(con.getName(), p.x, p.y + 2*NODE_RADIUS*density, textPaint);
-        }
+    private double mapZ(float screenY, double scale){
+        return (screenY - drawCenter.y - padding[0]) / scale + mapCenter.y;
+    }
+
+    // the room or floor connector drawn at a location on the view, or null if there is none or the map has not been indexed yet.
+    private Node findNodeAt(float x, float y){
+        Map map = this.map;
+        RenderIndex index = map == null ? null : map.getRenderIndex();
+        if(index == null || !getViewport(0))
+            return null;
+        double scale = zoom*(content_width - 60*density)/1000d;
+        return index.nodeAt(floor, (int)mapX(x, scale), (int)mapZ(y, zoom*(content_height - 80*density)/1000d),
+                (int)Math.ceil(NODE_RADIUS*density / scale));
     }
 
     /**
@@ -280,16 +379,64 @@ public class MapView extends View {
     }
 
     public void setMap(Map map){
-        this.map = map;
+        this.mapped = null;
         this.floorRange = map.getFloorRange();
+        this.map = map;
         invalidate();
     }
 
+    /**
+     * Show a map kept in a floor partitioned file. Each floor is read from the file, in the background,
+     * the first time it is shown.
+     * @param mapped The map.
+     */
+    public void setMap(MappedMap mapped){
+        this.mapped = mapped;
+        this.floorRange = mapped.getFloorRange();
+        if(floor < floorRange[0] || floor > floorRange[1])
+            floor = floorRange[0];
+        loadFloor(mapped);
+        invalidate();
+    }
+
+    /**
+     * @param listener Told when a room or floor connector is tapped, or null to ignore taps.
+     */
+    public void setOnNodeTapListener(OnNodeTapListener listener){
+        this.nodeTapListener = listener;
+    }
+
     public void setFloor(int floor){
         this.floor = floor;
+        MappedMap mapped = this.mapped;
+        if(mapped != null)
+            loadFloor(mapped);
         invalidate();
     }
 
+    // read the current floor of a mapped map in the background, and swap it in once it is read.
+    // until then, and for a floor with no nodes, the last floor stays in place, which draws nothing on this one.
+    private void loadFloor(MappedMap mapped){
+        int floor = this.floor;
+        FLOOR_LOADER.execute(() -> {
+            Map m;
+            try{
+                m = mapped.getFloor(floor);
+            }
+            catch(IOException e){
+                Log.e("MapView", "Could not read floor " + floor + " of " + mapped.getName(), e);
+                return;
+            }
+            post(() -> {
+                // the user may have paged on, or another map been shown, while the floor was read.
+                if(m == null || this.mapped != mapped || this.floor != floor)
+                    return;
+                this.map = m;
+                invalidate();
+            });
+        });
+    }
+
     /**
      * A listener to detect scaling by panning fingers on the view.
      * Note that onScale will only run if it has detected a valid scale motion.
@@ -306,6 +453,18 @@ public class MapView extends View {
      * A gesture listener to be used in combination with ScaleListener.
      */
     private class GestureListener extends GestureDetector.SimpleOnGestureListener {
+        @Override // select a node
+        public boolean onSingleTapConfirmed(MotionEvent e){
+            OnNodeTapListener listener = nodeTapListener;
+            if(listener == null)
+                return false;
+            Node n = findNodeAt(e.getX(), e.getY());
+            if(n == null)
+                return false;
+            listener.onNodeTap(n);
+            return true;
+        }
+
         @Override // move the center
         public boolean onScroll(MotionEvent e1, MotionEvent e2, float distX, float distY){
             // offset in terms of the original map
@@ -349,4 +508,11 @@ public class MapView extends View {
             return true;
         }
     }
+
+    /**
+     * Receives the room or floor connector the user tapped.
+     */
+    public interface OnNodeTapListener {
+        void onNodeTap(Node node);
+    }
 }
@@ -21,10 +21,11 @@ import tk.pathfinder.exceptions.NoValidPathException;
 
 public class NavigationView extends MapView implements SensorEventListener {
 
-    private Room destination;
+    // the navigation thread and the UI thread share these.
+    private volatile Room destination;
     private AppStatus status;
-    private Path currentPath;
-    private android.graphics.Point direction;
+    private volatile Route route;
+    private volatile android.graphics.Point direction;
     private NavigationListener listener;
 
     private static Paint destinationPathPaint;
@@ -93,25 +94,56 @@ public class NavigationView extends MapView implements SensorEventListener {
         new NavigationRunnable().start();
     }
 
+    /**
+     * Switch to a newer copy of the map being navigated, such as after it was updated from the server.
+     * The route is found again on it.
+     * @param map The new map.
+     * @return false if the map is of another building, which this view cannot switch to.
+     */
+    public boolean updateMap(Map map){
+        Map shown = this.map;
+        if(map == null || shown == null || map.getId() == null || !map.getId().equals(shown.getId()))
+            return false;
+        if(map != shown)
+            setMap(map);
+        return true;
+    }
+
+    /**
+     * Point the user towards the destination from a new location, on the map the view is showing.
+     * @param p The user's location.
+     */
+    public void onLocationChanged(Point p){
+        Map map = this.map;
+        if(map == null)
+            return;
+        invalidate();
+        getDirection(map.closestNode(p));
+    }
+
     @Override
     public void onDraw(Canvas canvas){
+        // draw the whole frame from one map and path, even if they are replaced while drawing.
+        Map map = this.map;
         if(map == null)
             return;
-        floor = status.getCurrentLocation().getY();
-
+        Route route = this.route;
+        Path path = route == null ? null : route.path;
+        android.graphics.Point direction = this.direction;
 
         // update current location
         Point current = status.getCurrentLocation();
+        floor = current.getY();
         if(trackingLocation){
             mapCenter.x = current.getX();
             mapCenter.y = current.getZ();
         }
 
-        drawEdges(canvas);
+        drawEdges(canvas, map);
 
-        if(currentPath != null && currentPath.length() > 0) {
+        if(path != null && path.length() > 0 && direction != null && route.version == map.getVersion()) {
             // draw the path to follow
-            for (Edge e : currentPath) {
+            for (Edge e : path) {
                 Paint paint;
                 if (direction.x == 1 && (e.getNode2().getPoint().getX() >= current.getX() || e.getNode2().getPoint().getX() >= current.getY())
                         || direction.y == 1 && (e.getNode2().getPoint().getZ() < current.getZ() || e.getNode2().getPoint().getZ() < current.getZ())) {
@@ -126,8 +158,8 @@ public class NavigationView extends MapView implements SensorEventListener {
             }
         }
 
-        drawNodes(canvas);
-        drawFloorConnectors(canvas);
+        drawNodes(canvas, map);
+        drawFloorConnectors(canvas, map);
 
         // draw the directional marker
         drawUser(canvas);
@@ -174,16 +206,26 @@ public class NavigationView extends MapView implements SensorEventListener {
 
     // sets the direction we need to move to get to the destination, on each axis. (1 is forward)
     public void getDirection(Node current){
-        if(current == null)
+        Room destination = this.destination;
+        if(current == null || destination == null)
             return;
         int x = (int)Math.signum(destination.getPoint().getX() - current.getPoint().getX());
         int y = (int)Math.signum(destination.getPoint().getZ() - current.getPoint().getZ());
         direction = new android.graphics.Point(x, y);
     }
 
-    public boolean recalculatePath(Node current) {
+    /**
+     * @param map The map snapshot that current belongs to.
+     * @param current The node closest to the user.
+     * @return true if the user has arrived.
+     */
+    public boolean recalculatePath(Map map, Node current) {
+        // the destination is looked up again, so it belongs to the same snapshot as the route.
+        Node goal = map.getNode(destination.getId());
+        if(goal instanceof Room)
+            destination = (Room)goal;
         try {
-            currentPath = Navigation.NavigatePath(map, current, destination);
+            route = new Route(Navigation.NavigatePath(map, current, destination), map.getVersion());
             getDirection(current);
         } catch (NoValidPathException e) {
             listener.onNoPath(e);
@@ -227,22 +269,39 @@ public class NavigationView extends MapView implements SensorEventListener {
 
         @Override
         public void run() {
-            recalculatePath(map.closestNode(status.getCurrentLocation()));
+            Map start = map;
+            recalculatePath(start, start.closestNode(status.getCurrentLocation()));
 
             while(destination != null){
+                // every step works on one snapshot, so the node and the path always come from the same map.
+                Map map = NavigationView.this.map;
                 Node current = map.closestNode(status.getCurrentLocation());
+                Route route = NavigationView.this.route;
+                if(route == null)
+                    break;
 
                 // we have arrived
-                if (currentPath.length() == 0){
+                if (route.path.length() == 0){
                     listener.onArrival();
-                    currentPath = null;
+                    NavigationView.this.route = null;
                     break;
                 }
 
-                // we are lost, recalculate
-                else if(!currentPath.contains(current))
-                        recalculatePath(current);
+                // the map was replaced, or we are lost, recalculate
+                else if(route.version != map.getVersion() || !route.path.contains(current))
+                        recalculatePath(map, current);
             }
         }
     }
+
+    // a route and the version of the map it was found on, published together so they always agree.
+    private static class Route {
+        private final Path path;
+        private final long version;
+
+        Route(Path path, long version){
+            this.path = path;
+            this.version = version;
+        }
+    }
 }
@@ -0,0 +1,37 @@
+package tk.pathfinder.exceptions;
+
+import java.io.IOException;
+
+/***
+ * Thrown when the server answers a request with a status the caller cannot use.
+ * @author Michael MacLean
+ * @version 1.0
+ * @since 1.0
+ */
+public class HttpStatusException extends IOException {
+
+    private final int status;
+
+    /**
+     * @param status The HTTP status code of the response.
+     * @param message A description of the error.
+     */
+    public HttpStatusException(int status, String message){
+        super(message);
+        this.status = status;
+    }
+
+    /**
+     * @return The HTTP status code of the response.
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * @return true if the server failed on its own account, so the same request may succeed later.
+     */
+    public boolean isServerError(){
+        return status >= 500;
+    }
+}
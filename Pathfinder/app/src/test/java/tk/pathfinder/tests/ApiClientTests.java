@@ -0,0 +1,213 @@
+package tk.pathfinder.tests;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import tk.pathfinder.Map.Map;
+import tk.pathfinder.Networking.Api;
+import tk.pathfinder.Networking.ApiClient;
+import tk.pathfinder.exceptions.HttpStatusException;
+
+public class ApiClientTests {
+
+    private static MapTestServer server() throws IOException {
+        MapTestServer server = new MapTestServer(1, "Library");
+        server.intersection(1, 10, 1, 10).room(2, 20, 1, 10, "101", null).edge(1, 2);
+        server.beacon("PF_1_1", 10, 1, 10);
+        server.commit();
+        return server;
+    }
+
+    // collects the outcome of a call.
+    private static class Result<T> implements ApiClient.Callback<T> {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<T> result = new AtomicReference<>();
+        final AtomicReference<IOException> error = new AtomicReference<>();
+
+        @Override
+        public void onResult(T r){
+            result.set(r);
+            latch.countDown();
+        }
+
+        @Override
+        public void onError(IOException e){
+            error.set(e);
+            latch.countDown();
+        }
+
+        boolean await() throws InterruptedException {
+            return latch.await(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void coalesceTest() throws IOException, InterruptedException {
+        ApiClient client = new ApiClient(Runnable::run);
+        try(MapTestServer server = server()){
+            Api.setUrlBase(server.getUrl());
+            server.setDelay(300);
+
+            // scans a moment apart both ask for the building.
+            Result<Map> first = new Result<>(), second = new Result<>();
+            client.getMap(1, first);
+            client.getMap(1, second);
+            Assert.assertTrue(first.await());
+            Assert.assertTrue(second.await());
+            Assert.assertNotNull(first.result.get());
+            Assert.assertSame(first.result.get(), second.result.get());
+            Assert.assertEquals(1, server.getMapRequests(1));
+            Assert.assertEquals(1, client.getCallCount());
+            Assert.assertEquals(1, client.getJoinCount());
+
+            // once it is done, the next call asks again.
+            Result<Map> third = new Result<>();
+            client.getMap(1, third);
+            Assert.assertTrue(third.await());
+            Assert.assertEquals(2, server.getMapRequests(1));
+        }
+        finally{
+            Api.setUrlBase(null);
+            client.shutdown();
+        }
+    }
+
+    @Test
+    public void retryTest() throws IOException, InterruptedException {
+        ApiClient client = new ApiClient(Runnable::run);
+        try(MapTestServer server = server()){
+            Api.setUrlBase(server.getUrl());
+
+            // two failures are ridden out.
+            server.failNext(2);
+            Result<Map> r = new Result<>();
+            client.getMap(1, r);
+            Assert.assertTrue(r.await());
+            Assert.assertNull(r.error.get());
+            Assert.assertEquals(1, (int)r.result.get().getId());
+            Assert.assertEquals(2, client.getRetryCount());
+
+            // three are passed on.
+            server.failNext(3);
+            r = new Result<>();
+            ApiClient.Ticket<Map> ticket = client.getMap(1, r);
+            Assert.assertTrue(r.await());
+            Assert.assertNotNull(r.error.get());
+            try{
+                ticket.get();
+                Assert.fail();
+            }
+            catch(ExecutionException e){
+                Assert.assertTrue(e.getCause() instanceof IOException);
+            }
+            Assert.assertEquals(4, client.getRetryCount());
+
+            // a map the server does not have will not appear by asking again.
+            r = new Result<>();
+            client.getMap(99, r);
+            Assert.assertTrue(r.await());
+            Assert.assertTrue(r.error.get() instanceof HttpStatusException);
+            Assert.assertEquals(404, ((HttpStatusException)r.error.get()).getStatus());
+            Assert.assertEquals(4, client.getRetryCount());
+        }
+        finally{
+            Api.setUrlBase(null);
+            client.shutdown();
+        }
+    }
+
+    @Test
+    public void timeoutTest() throws IOException, InterruptedException {
+        ApiClient client = new ApiClient(Runnable::run);
+        try(MapTestServer server = server()){
+            Api.setUrlBase(server.getUrl());
+            Api.setTimeouts(1000, 200);
+            server.setDelay(2000);
+
+            // a server that never answers fails the call instead of holding a thread forever.
+            long start = System.currentTimeMillis();
+            Result<Map> r = new Result<>();
+            client.getMap(1, r);
+            Assert.assertTrue(r.await());
+            Assert.assertNotNull(r.error.get());
+            Assert.assertTrue(System.currentTimeMillis() - start < 6000);
+        }
+        finally{
+            Api.setUrlBase(null);
+            Api.setTimeouts(0, 0);
+            client.shutdown();
+        }
+    }
+
+    @Test
+    public void cancelTest() throws IOException, InterruptedException {
+        ApiClient client = new ApiClient(Runnable::run);
+        try(MapTestServer server = server()){
+            Api.setUrlBase(server.getUrl());
+            server.setDelay(300);
+
+            // one caller leaving does not affect the other.
+            Result<Map> kept = new Result<>(), dropped = new Result<>();
+            ApiClient.Ticket<Map> a = client.getMap(1, kept);
+            ApiClient.Ticket<Map> b = client.getMap(1, dropped);
+            Assert.assertTrue(b.cancel(true));
+            Assert.assertTrue(b.isCancelled());
+            Assert.assertFalse(a.isCancelled());
+            Assert.assertTrue(kept.await());
+            Assert.assertNotNull(kept.result.get());
+            // its callback would have run alongside the other one.
+            Assert.assertEquals(1, dropped.latch.getCount());
+            Assert.assertFalse(b.cancel(true));
+
+            // with every caller gone, the next call does not join the abandoned one.
+            Result<Map> gone = new Result<>();
+            client.getMap(1, gone).cancel(true);
+            Result<Map> fresh = new Result<>();
+            client.getMap(1, fresh);
+            Assert.assertTrue(fresh.await());
+            Assert.assertNotNull(fresh.result.get());
+            Assert.assertEquals(1, gone.latch.getCount());
+        }
+        finally{
+            Api.setUrlBase(null);
+            client.shutdown();
+        }
+    }
+
+    @Test
+    public void boundTest() throws IOException, InterruptedException {
+        ApiClient client = new ApiClient(Runnable::run);
+        try(MapTestServer server = server()){
+            Api.setUrlBase(server.getUrl());
+            server.setDelay(200);
+
+            // more calls than can run or wait: the rest fail at once.
+            List<ApiClient.Ticket<Map>> tickets = new ArrayList<>();
+            List<Result<Map>> results = new ArrayList<>();
+            for(int i = 0; i < 40; i++){
+                Result<Map> r = new Result<>();
+                results.add(r);
+                tickets.add(client.submit("call/" + i, () -> Api.getMap(1), r));
+            }
+            int rejected = 0;
+            for(Result<Map> r : results)
+                if(r.latch.getCount() == 0 && r.error.get() != null)
+                    rejected++;
+            Assert.assertTrue(rejected >= 40 - 4 - 32);
+            for(ApiClient.Ticket<Map> t : tickets)
+                t.cancel(true);
+        }
+        finally{
+            Api.setUrlBase(null);
+            client.shutdown();
+        }
+    }
+}
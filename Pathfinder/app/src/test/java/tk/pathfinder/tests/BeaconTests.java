@@ -7,6 +7,7 @@ import org.junit.Test;
 
 import tk.pathfinder.Map.Point;
 import tk.pathfinder.Networking.Beacon;
+import tk.pathfinder.Networking.BeaconDirectory;
 import tk.pathfinder.Map.Navigation;
 
 public class BeaconTests {
@@ -31,6 +32,29 @@ public class BeaconTests {
         Assert.assertEquals(20, b.getIndex());
     }
 
+    @Test
+    public void directoryTest(){
+        BeaconDirectory d = new BeaconDirectory();
+        for(int building = 1; building <= 20; building++)
+            for(int i = 1; i <= 50; i++)
+                Assert.assertNull(d.put(new Beacon("PF_" + building + "_" + i, new Point(i, 1, building))));
+        Assert.assertEquals(1000, d.size());
+
+        // the same beacon index in different buildings.
+        Assert.assertEquals(new Point(7, 1, 3), d.get("PF_3_7").getLocation());
+        Assert.assertEquals(new Point(7, 1, 4), d.get(4, 7).getLocation());
+        // keyed by the parsed ids, not the string.
+        Assert.assertEquals(new Point(7, 1, 3), d.get("PF_03_007").getLocation());
+        Assert.assertNull(d.get("PF_21_1"));
+        Assert.assertNull(d.get("SSID"));
+        Assert.assertNull(d.get(null));
+
+        Assert.assertFalse(d.putIfAbsent(new Beacon("PF_3_7", Point.getDefault())));
+        Assert.assertNotNull(d.put(new Beacon("PF_3_7", Point.getDefault())));
+        Assert.assertEquals(Point.getDefault(), d.get("PF_3_7").getLocation());
+        Assert.assertEquals(1000, d.size());
+    }
+
     @Test
     public void strenghTest(){
         Beacon b = new Beacon("PF_1_2", Point.getDefault());
@@ -0,0 +1,279 @@
+package tk.pathfinder.tests;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Locale;
+
+import tk.pathfinder.Map.ColumnarMap;
+import tk.pathfinder.Map.Edge;
+import tk.pathfinder.Map.FloorConnector;
+import tk.pathfinder.Map.Map;
+import tk.pathfinder.Map.MapBuilder;
+import tk.pathfinder.Map.MapSink;
+import tk.pathfinder.Map.Navigation;
+import tk.pathfinder.Map.Node;
+import tk.pathfinder.Map.Path;
+import tk.pathfinder.Map.Point;
+import tk.pathfinder.Map.Room;
+import tk.pathfinder.Map.SearchSession;
+import tk.pathfinder.Networking.Beacon;
+import tk.pathfinder.Networking.ConnectorStatus;
+import tk.pathfinder.exceptions.NoValidPathException;
+
+public class ColumnarMapTests {
+
+    // a corridor of intersections with a room at each end, a lift to a second floor, and a beacon.
+    private static ColumnarMap.Builder sample(){
+        ColumnarMap.Builder b = new ColumnarMap.Builder(7, "Sample");
+        b.addRoom(1, 0, 1, 0, "101", null, false);
+        b.addIntersection(2, 10, 1, 0);
+        b.addIntersection(3, 20, 1, 0);
+        b.addRoom(4, 30, 1, 0, "102", "Caf\u00e9", true);
+        b.addFloorConnector(5, 20, 1, 10, null, FloorConnector.FloorConnectorTypes.ELEVATOR, true, false);
+        b.addFloorConnector(6, 20, 2, 10, null, FloorConnector.FloorConnectorTypes.ELEVATOR, true, false);
+        b.addRoom(7, 0, 2, 10, "201", null, false);
+        b.addEdge(1, 2).addEdge(2, 3).addEdge(3, 4).addEdge(3, 5).addEdge(5, 6).addEdge(6, 7);
+        b.addBeacon("PF_7_1", 5, 1, 5);
+        return b;
+    }
+
+    @Test
+    public void buildTest(){
+        ColumnarMap.Builder b = sample();
+        ColumnarMap map = b.build();
+
+        Assert.assertEquals(0, b.getWarnings().size());
+        Assert.assertEquals(7, (int)map.getId());
+        Assert.assertEquals("Sample", map.getName());
+        Assert.assertEquals(7, map.size());
+        Assert.assertArrayEquals(new int[] {1, 2}, map.getFloorRange());
+        Assert.assertEquals(-1, map.indexOf(8));
+        Assert.assertNotNull(map.getBeacon("PF_7_1"));
+
+        int three = map.indexOf(3);
+        Assert.assertEquals(3, map.getNodeId(three));
+        Assert.assertEquals(3, map.getDegree(three));
+        Assert.assertEquals(2, map.getNodeId(map.getNeighbour(three, 0)));
+        Assert.assertEquals(5, map.getNodeId(map.getNeighbour(three, 2)));
+
+        try{
+            b.build();
+            Assert.fail();
+        }
+        catch(IllegalStateException ignored) {}
+    }
+
+    @Test
+    public void validationTest(){
+        ColumnarMap.Builder b = sample();
+        b.addEdge(4, 3);                    // duplicate, reversed
+        b.addEdge(1, 9);                    // dangling
+        b.addEdge(2, 2);                    // self loop
+        b.addIntersection(2, 50, 1, 50);    // duplicate id
+        b.addBeacon("PF_7_1", 0, 1, 0);     // duplicate ssid
+
+        ColumnarMap map = b.build();
+        Assert.assertEquals(5, b.getWarnings().size());
+        Assert.assertEquals(7, map.size());
+        Assert.assertEquals(10, map.getPoint(map.indexOf(2)).getX());
+        Assert.assertEquals(1, map.getDegree(map.indexOf(4)));
+    }
+
+    @Test
+    public void materializeTest(){
+        ColumnarMap map = sample().build();
+
+        Node n = map.getNode(4);
+        Assert.assertTrue(n instanceof Room);
+        Room r = (Room)n;
+        Assert.assertEquals("Caf\u00e9", r.getName());
+        Assert.assertEquals("102", r.getRoomNumber());
+        Assert.assertTrue(r.requiresAuthorization());
+        // the same object is handed out while it is in use.
+        Assert.assertSame(n, map.getNode(4));
+
+        FloorConnector fc = (FloorConnector)map.getNode(5);
+        Assert.assertEquals("Elevator", fc.getName());
+        Assert.assertEquals(FloorConnector.FloorConnectorTypes.ELEVATOR, fc.getType());
+        Assert.assertTrue(fc.isOperational());
+        Assert.assertTrue(map.getNode(2).isIntersection());
+        Assert.assertNull(map.getNode(9));
+
+        List<Room> rooms = map.getRooms(1);
+        Assert.assertEquals(2, rooms.size());
+        Assert.assertSame(r, rooms.get(1));
+        Assert.assertEquals(1, map.getFloorConnectors(2).size());
+    }
+
+    @Test
+    public void pathTest(){
+        ColumnarMap map = sample().build();
+
+        int[] path = map.findPath(map.indexOf(1), map.indexOf(7));
+        int[] ids = new int[path.length];
+        for(int i = 0; i < path.length; i++)
+            ids[i] = map.getNodeId(path[i]);
+        Assert.assertArrayEquals(new int[] {1, 2, 3, 5, 6, 7}, ids);
+
+        Assert.assertEquals(map.indexOf(4), map.closestNode(new Point(28, 1, 3)));
+        Assert.assertEquals(-1, map.closestNode(new Point(0, 3, 0)));
+
+        ColumnarMap.Builder b = sample();
+        b.addIntersection(8, 90, 1, 90);
+        map = b.build();
+        Assert.assertNull(map.findPath(map.indexOf(1), map.indexOf(8)));
+    }
+
+    @Test
+    public void floorMapTest(){
+        ColumnarMap map = sample().build();
+        Assert.assertNull(map.getFloorMap(3));
+
+        // floor 1 holds its five nodes and the lift's other end, and every edge touching them.
+        Map first = map.getFloorMap(1);
+        Assert.assertSame(first, map.getFloorMap(1));
+        Assert.assertSame(map, first.getBuilding());
+        Assert.assertEquals(7, (int)first.getId());
+        Assert.assertEquals("Sample", first.getName());
+        Assert.assertEquals(6, first.getNodeCount());
+        Assert.assertEquals(5, first.getEdgeCount());
+        Assert.assertEquals(2, first.getRooms(1).size());
+        Assert.assertNotNull(first.getBeacon("PF_7_1"));
+
+        Map second = map.getFloorMap(2);
+        Assert.assertEquals(3, second.getNodeCount());
+        Assert.assertEquals(2, second.getEdgeCount());
+
+        // the floors share their node objects with each other and with the building.
+        Assert.assertSame(map.getNode(5), first.getNode(5));
+        Assert.assertSame(first.getNode(6), second.getNode(6));
+        // nodes on other floors are found through the building.
+        Assert.assertSame(second.getNode(7), first.getNode(7));
+        Assert.assertNull(first.getNode(9));
+        Assert.assertTrue(first.getMemoryEstimate() > map.getMemoryUsage());
+    }
+
+    @Test
+    public void floorSearchTest(){
+        ColumnarMap map = sample().build();
+        Map first = map.getFloorMap(1);
+
+        // rooms are found on every floor, not just the one held.
+        List<Room> found = first.search("201", true, 10);
+        Assert.assertEquals(1, found.size());
+        Assert.assertSame(map.getNode(7), found.get(0));
+        Assert.assertEquals(3, first.search("", false, 10).size());
+        Assert.assertEquals(2, map.search("", false, 2).size());
+        Assert.assertEquals(1, first.findDestination("cafe").size());
+
+        SearchSession session = new SearchSession(first);
+        Assert.assertSame(found.get(0), session.search("201", 10).get(0));
+        Assert.assertEquals("102", session.search("caf", 10).get(0).getRoomNumber());
+    }
+
+    @Test
+    public void floorRouteTest() throws NoValidPathException {
+        ColumnarMap map = sample().build();
+        Map first = map.getFloorMap(1);
+        Room goal = (Room)first.getNode(7);
+
+        // the route leaves the floor held, through the lift.
+        Path path = Navigation.NavigatePath(first, first.getNode(1), goal);
+        Assert.assertEquals(5, path.length());
+        Assert.assertSame(first.getNode(1), path.get(0).getNode1());
+        Assert.assertSame(goal, path.get(4).getNode2());
+        Assert.assertSame(first.getNode(5), path.get(2).getNode2());
+
+        // the connectors carry their status between the floors, and a closed one is avoided.
+        FloorConnector[] connectors = ConnectorStatus.order(first);
+        Assert.assertEquals(2, connectors.length);
+        Assert.assertEquals(1, new ConnectorStatus(1, 0, new boolean[] {false, true}).applyTo(connectors));
+        Assert.assertFalse(((FloorConnector)map.getFloorMap(2).getNode(5)).isOperational());
+        try{
+            Navigation.NavigatePath(first, first.getNode(1), goal);
+            Assert.fail();
+        }
+        catch(NoValidPathException ignored) {}
+        // the goal may still be reached from the floor it is on.
+        Assert.assertEquals(1, map.navigate(map.getNode(6), goal).length());
+    }
+
+    @Test
+    public void copyTest() throws NoValidPathException {
+        MapBuilder b = new MapBuilder(3, "Copy").setRevision(4);
+        b.addRoom(1, 0, 1, 0, "101", "Lab", true);
+        b.addIntersection(2, 10, 1, 0);
+        b.addFloorConnector(3, 10, 1, 10, "Stairs", FloorConnector.FloorConnectorTypes.STAIRCASE, false, false);
+        b.addFloorConnector(4, 10, 2, 10, null, FloorConnector.FloorConnectorTypes.STAIRCASE, true, false);
+        b.addRoom(5, 0, 2, 10, "201", null, false);
+        b.addEdge(1, 2).addEdge(2, 3).addEdge(3, 4).addEdge(4, 5);
+        b.addBeacon(new Beacon("PF_3_1", new Point(5, 1, 5)));
+        Map source = b.build();
+
+        ColumnarMap map = ColumnarMap.of(source);
+        Assert.assertEquals(3, (int)map.getId());
+        Assert.assertEquals("Copy", map.getName());
+        Assert.assertEquals(4, map.getRevision());
+        Assert.assertEquals(5, map.size());
+        Assert.assertSame(source.getBeacon("PF_3_1"), map.getBeacon("PF_3_1"));
+
+        Room lab = (Room)map.getNode(1);
+        Assert.assertEquals("Lab", lab.getName());
+        Assert.assertTrue(lab.requiresAuthorization());
+        FloorConnector stairs = (FloorConnector)map.getNode(3);
+        Assert.assertEquals("Stairs", stairs.getName());
+        Assert.assertFalse(stairs.isOperational());
+        Assert.assertEquals(map.getFloorMap(1).getRevision(), source.getRevision());
+
+        // the stairs were closed in the source, and only open once told so.
+        try{
+            map.navigate(lab, (Room)map.getNode(5));
+            Assert.fail();
+        }
+        catch(NoValidPathException ignored) {}
+        stairs.open();
+        Path path = map.navigate(lab, (Room)map.getNode(5));
+        Assert.assertEquals(4, path.length());
+        for(Edge e : path)
+            Assert.assertNotNull(source.getNode(e.getNode2().getId()));
+    }
+
+    @Test
+    public void largeMapTest(){
+        // a 450 x 450 grid of corridors, a little over 200,000 nodes.
+        int side = 450;
+        long start = System.nanoTime();
+        ColumnarMap.Builder b = new ColumnarMap.Builder(1, "Campus");
+        fillGrid(b, side);
+        ColumnarMap map = b.build();
+        double build = (System.nanoTime() - start) / 1e6;
+
+        Assert.assertEquals(side * side, map.size());
+        Assert.assertEquals(0, b.getWarnings().size());
+
+        start = System.nanoTime();
+        int[] path = map.findPath(0, map.size() - 1);
+        double route = (System.nanoTime() - start) / 1e6;
+        Assert.assertEquals(2 * side - 1, path.length);
+
+        System.out.println(String.format(Locale.US, "%d nodes: build %.1f ms, %.1f bytes/node off heap, corner to corner %.1f ms",
+                map.size(), build, (double)map.getMemoryUsage() / map.size(), route));
+    }
+
+    private static void fillGrid(MapSink sink, int side){
+        for(int i = 0; i < side; i++){
+            for(int j = 0; j < side; j++){
+                int id = i * side + j;
+                if(id % 10 == 0)
+                    sink.addRoom(id, i * 1000, 1, j * 1000, Integer.toString(id), null, false);
+                else sink.addIntersection(id, i * 1000, 1, j * 1000);
+                if(i > 0)
+                    sink.addEdge(id - side, id);
+                if(j > 0)
+                    sink.addEdge(id - 1, id);
+            }
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package tk.pathfinder.tests;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import tk.pathfinder.Map.FloorConnector;
+import tk.pathfinder.Map.Intersection;
+import tk.pathfinder.Map.Map;
+import tk.pathfinder.Map.MapBuilder;
+import tk.pathfinder.Map.Navigation;
+import tk.pathfinder.Map.Point;
+import tk.pathfinder.Map.Room;
+import tk.pathfinder.Networking.Api;
+import tk.pathfinder.Networking.ConnectorStatus;
+import tk.pathfinder.Networking.ConnectorStatusFeed;
+import tk.pathfinder.exceptions.NoValidPathException;
+
+public class ConnectorStatusTests {
+
+    // two floors joined by a lift (id 30) and stairs (id 20), rooms 1 and 2 on either floor.
+    private static Map sample(){
+        MapBuilder b = new MapBuilder(4, "Library").setRevision(6);
+        b.addNode(new Room(1, new Point(0, 1, 0), "101", null, false));
+        b.addNode(new Room(2, new Point(0, 2, 0), "201", null, false));
+        b.addNode(new FloorConnector(30, new Point(100, 1, 0), "Lift", FloorConnector.FloorConnectorTypes.ELEVATOR,
+                new int[] {1, 2}, true, false));
+        b.addNode(new FloorConnector(31, new Point(100, 2, 0), "Lift", FloorConnector.FloorConnectorTypes.ELEVATOR,
+                new int[] {1, 2}, true, false));
+        b.addNode(new FloorConnector(20, new Point(0, 1, 300), "Stairs", FloorConnector.FloorConnectorTypes.STAIRCASE,
+                new int[] {1, 2}, true, false));
+        b.addNode(new FloorConnector(21, new Point(0, 2, 300), "Stairs", FloorConnector.FloorConnectorTypes.STAIRCASE,
+                new int[] {1, 2}, true, false));
+        b.addEdge(1, 30).addEdge(30, 31).addEdge(31, 2).addEdge(1, 20).addEdge(20, 21).addEdge(21, 2);
+        return b.build();
+    }
+
+    @Test
+    public void formatTest() throws IOException {
+        boolean[] operational = new boolean[19];
+        for(int i = 0; i < operational.length; i += 3)
+            operational[i] = true;
+        ConnectorStatus status = new ConnectorStatus(300, 6, operational);
+        byte[] bytes = status.toBytes();
+        // two bytes of version, one each of revision and count, three of bits.
+        Assert.assertEquals(7, bytes.length);
+
+        ConnectorStatus read = ConnectorStatus.read(new ByteArrayInputStream(bytes));
+        Assert.assertEquals(300, read.getVersion());
+        Assert.assertEquals(6, read.getRevision());
+        Assert.assertEquals(19, read.size());
+        for(int i = 0; i < operational.length; i++)
+            Assert.assertEquals(operational[i], read.isOperational(i));
+
+        try{
+            ConnectorStatus.read(new ByteArrayInputStream(Arrays.copyOf(bytes, 5)));
+            Assert.fail();
+        }
+        catch(IOException ignored) {}
+    }
+
+    @Test
+    public void applyTest() {
+        Map map = sample();
+        Room from = (Room)map.getNode(1), to = (Room)map.getNode(2);
+        Point lift = map.getNode(30).getPoint();
+
+        // in order of id: stairs 20 and 21, lift 30 and 31.
+        ConnectorStatusFeed feed = new ConnectorStatusFeed(map, null);
+        Assert.assertEquals(2, feed.update(new ConnectorStatus(1, 6, new boolean[] {true, true, false, false})));
+        Assert.assertFalse(((FloorConnector)map.getNode(30)).isOperational());
+        Assert.assertTrue(((FloorConnector)map.getNode(20)).isOperational());
+        // the geometry is left alone, and routes stop using the lift.
+        Assert.assertSame(lift, map.getNode(30).getPoint());
+        Assert.assertEquals(6, map.getEdgeCount());
+        try{
+            Navigation.NavigatePath(map, from, to, FloorConnector.FloorConnectorTypes.ELEVATOR);
+            Assert.fail();
+        }
+        catch(NoValidPathException ignored) {}
+
+        // old versions, other revisions and other connector counts are ignored.
+        Assert.assertEquals(-1, feed.update(new ConnectorStatus(1, 6, new boolean[] {true, true, true, true})));
+        Assert.assertEquals(-1, feed.update(new ConnectorStatus(2, 7, new boolean[] {true, true, true, true})));
+        Assert.assertEquals(-1, new ConnectorStatus(3, 6, new boolean[] {true, true, true}).applyTo(map));
+        Assert.assertFalse(((FloorConnector)map.getNode(30)).isOperational());
+
+        // a newer copy of the map gets the last status straight away.
+        Map copy = sample();
+        Assert.assertEquals(3, feed.update(new ConnectorStatus(4, 6, new boolean[] {false, false, false, true})));
+        feed.setMap(copy);
+        Assert.assertFalse(((FloorConnector)copy.getNode(20)).isOperational());
+        Assert.assertTrue(((FloorConnector)copy.getNode(31)).isOperational());
+        try{
+            feed.setMap(new MapBuilder(5, "Other").addNode(new Intersection(1, new Point(0, 1, 0))).build());
+            Assert.fail();
+        }
+        catch(IllegalArgumentException ignored) {}
+    }
+
+    @Test
+    public void feedTest() throws IOException, InterruptedException {
+        try(MapTestServer server = new MapTestServer(4, "Library")){
+            Api.setUrlBase(server.getUrl());
+            // a tower with a bank of 40 lifts.
+            for(int i = 0; i < 40; i++){
+                server.intersection(i, 100 + i * 10, 1, 500);
+                server.connector(100 + i, 100 + i * 10, 1, 600, 1, true).edge(i, 100 + i);
+                if(i > 0)
+                    server.edge(i - 1, i);
+            }
+            server.commit();
+            Map map = Api.getMap(4);
+
+            int[] changes = new int[1];
+            ConnectorStatusFeed feed = new ConnectorStatusFeed(map, (m, changed) -> {
+                synchronized(changes){
+                    changes[0] += changed;
+                    changes.notifyAll();
+                }
+            });
+            feed.start();
+            try{
+                waitForUpdates(feed, 1);
+                Assert.assertEquals(0, changes[0]);
+
+                long before = server.getBytesSent();
+                int updates = 20;
+                for(int i = 0; i < updates; i++){
+                    server.setOperational(100 + i, false);
+                    waitForUpdates(feed, i + 2);
+                }
+                long bytes = server.getBytesSent() - before;
+                synchronized(changes){
+                    Assert.assertEquals(updates, changes[0]);
+                }
+                for(int i = 0; i < 40; i++)
+                    Assert.assertEquals(i >= updates, ((FloorConnector)map.getNode(100 + i)).isOperational());
+                Assert.assertEquals(80, map.getNodeCount());
+
+                // version, revision and count, then five bytes of bits.
+                Assert.assertEquals(updates * 8, bytes);
+                Assert.assertTrue(feed.getApplyNanos() > 0);
+            }
+            finally{
+                feed.stop();
+            }
+        }
+        finally{
+            Api.setUrlBase(null);
+        }
+    }
+
+    private static void waitForUpdates(ConnectorStatusFeed feed, long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while(feed.getUpdateCount() < count){
+            Assert.assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(2);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package tk.pathfinder.tests;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import tk.pathfinder.Map.IdIndex;
+
+public class IdIndexTests {
+
+    // an item carrying its id, so two items may share one.
+    private static class Item {
+        final int id;
+
+        Item(int id){
+            this.id = id;
+        }
+    }
+
+    private static IdIndex<Item> index(List<Item> items){
+        return new IdIndex<>(items, item -> item.id);
+    }
+
+    private static List<Item> items(int... ids){
+        List<Item> items = new ArrayList<>();
+        for(int id : ids)
+            items.add(new Item(id));
+        return items;
+    }
+
+    @Test
+    public void denseTest(){
+        List<Item> items = new ArrayList<>();
+        for(int id = 1000; id < 1500; id++)
+            items.add(new Item(id));
+        Collections.shuffle(items, new Random(1));
+        IdIndex<Item> index = index(items);
+
+        Assert.assertEquals(items.size(), index.size());
+        for(Item item : items)
+            Assert.assertSame(item, index.get(item.id));
+        Assert.assertNull(index.get(999));
+        Assert.assertNull(index.get(1500));
+    }
+
+    @Test
+    public void sparseTest(){
+        List<Item> items = items(-2000000000, -7, 0, 12, 40000, 2000000000, Integer.MAX_VALUE, Integer.MIN_VALUE);
+        IdIndex<Item> index = index(items);
+
+        Assert.assertEquals(items.size(), index.size());
+        for(Item item : items)
+            Assert.assertSame(item, index.get(item.id));
+        for(int id : new int[] {-1, 1, 11, 13, 39999, Integer.MAX_VALUE - 1, Integer.MIN_VALUE + 1})
+            Assert.assertNull(index.get(id));
+    }
+
+    @Test
+    public void duplicateTest(){
+        // the first item with an id is kept in both layouts; the later ones are rejected.
+        for(List<Item> items : Arrays.asList(items(1, 2, 3, 2, 3, 3), items(1, 1000000, 1000000, -1000000, 1))){
+            IdIndex<Item> index = index(items);
+            Assert.assertEquals(3, index.size());
+            for(int i = 0; i < items.size(); i++){
+                Item item = items.get(i);
+                boolean first = true;
+                for(int j = 0; j < i; j++)
+                    if(items.get(j).id == item.id)
+                        first = false;
+                if(first)
+                    Assert.assertSame(item, index.get(item.id));
+                else Assert.assertNotSame(item, index.get(item.id));
+            }
+        }
+    }
+
+    @Test
+    public void outOfRangeTest(){
+        // dense ids starting at zero, and at a negative id.
+        IdIndex<Item> zero = index(items(0, 1, 2, 3));
+        for(int id : new int[] {-1, -100, 4, 5, Integer.MIN_VALUE, Integer.MAX_VALUE})
+            Assert.assertNull(zero.get(id));
+
+        IdIndex<Item> negative = index(items(-5, -4, -2));
+        Assert.assertNotNull(negative.get(-5));
+        Assert.assertNull(negative.get(-3));
+        Assert.assertNull(negative.get(-6));
+        Assert.assertNull(negative.get(-1));
+        Assert.assertNull(negative.get(Integer.MIN_VALUE));
+        Assert.assertNull(negative.get(Integer.MAX_VALUE));
+
+        // an id near the top of the range cannot overflow the offset.
+        IdIndex<Item> high = index(items(Integer.MAX_VALUE - 1, Integer.MAX_VALUE));
+        Assert.assertNotNull(high.get(Integer.MAX_VALUE));
+        Assert.assertNull(high.get(Integer.MIN_VALUE));
+
+        IdIndex<Item> empty = index(new ArrayList<>());
+        Assert.assertEquals(0, empty.size());
+        Assert.assertNull(empty.get(0));
+        Assert.assertNull(empty.get(-1));
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void nullTest(){
+        index(null);
+    }
+}
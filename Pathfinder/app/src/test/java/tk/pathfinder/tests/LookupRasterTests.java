@@ -0,0 +1,157 @@
+package tk.pathfinder.tests;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import tk.pathfinder.Map.Intersection;
+import tk.pathfinder.Map.LookupRaster;
+import tk.pathfinder.Map.Map;
+import tk.pathfinder.Map.MapBuilder;
+import tk.pathfinder.Map.MapPreprocessor;
+import tk.pathfinder.Map.Node;
+import tk.pathfinder.Map.Point;
+
+public class LookupRasterTests {
+
+    private static final int QUERIES = 2000;
+
+    // a map of the nodes chained together, with its lookup raster built.
+    private static Map rasterMap(List<Node> nodes, int cellSize) throws InterruptedException {
+        MapBuilder b = new MapBuilder(1, "Raster");
+        for(int i = 0; i < nodes.size(); i++){
+            b.addNode(nodes.get(i));
+            if(i > 0)
+                b.addEdge(i - 1, i);
+        }
+        Map map = b.build();
+        Assert.assertEquals(nodes.size(), map.getNodeCount());
+        MapPreprocessor.Job job = MapPreprocessor.createDefault().addLookupRaster(cellSize).start(map, null);
+        job.await();
+        return map;
+    }
+
+    // scatter nodes over a 1000x1000 map with three floors, no two in the same place.
+    private static List<Node> randomNodes(int count, long seed){
+        Random r = new Random(seed);
+        HashSet<Point> used = new HashSet<>();
+        List<Node> nodes = new ArrayList<>();
+        while(nodes.size() < count){
+            Point p = new Point(r.nextInt(1000), 1 + r.nextInt(3), r.nextInt(1000));
+            if(used.add(p))
+                nodes.add(new Intersection(nodes.size(), p));
+        }
+        return nodes;
+    }
+
+    // the reference implementation: a scan of every node.
+    private static Node linearClosest(List<Node> nodes, Point p){
+        Node best = null;
+        double dist = -1;
+        for(Node n : nodes){
+            if(n.getFloor() != p.getY())
+                continue;
+            double d = p.distance(n.getPoint());
+            if(dist == -1 || d < dist){
+                dist = d;
+                best = n;
+            }
+        }
+        return best;
+    }
+
+    // {minX, minZ, maxX, maxZ} of the nodes on a floor.
+    private static int[] bounds(List<Node> nodes, int floor){
+        int[] b = {Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE};
+        for(Node n : nodes){
+            if(n.getFloor() != floor)
+                continue;
+            b[0] = Math.min(b[0], n.getPoint().getX());
+            b[1] = Math.min(b[1], n.getPoint().getZ());
+            b[2] = Math.max(b[2], n.getPoint().getX());
+            b[3] = Math.max(b[3], n.getPoint().getZ());
+        }
+        return b;
+    }
+
+    @Test
+    public void closestTest() throws InterruptedException {
+        List<Node> nodes = randomNodes(3000, 1);
+        for(int cellSize : new int[] {1, 5, 20}){
+            Map map = rasterMap(nodes, cellSize);
+            LookupRaster raster = map.getLookupRaster();
+            Assert.assertNotNull(raster);
+            Assert.assertEquals(cellSize, raster.getCellSize());
+
+            Random r = new Random(2);
+            for(int i = 0; i < QUERIES; i++){
+                int floor = 1 + r.nextInt(3);
+                int[] b = bounds(nodes, floor);
+                Point p = new Point(b[0] + r.nextInt(b[2] - b[0] + 1), floor, b[1] + r.nextInt(b[3] - b[1] + 1));
+                Node actual = raster.closest(p);
+                Assert.assertNotNull(actual);
+                Assert.assertSame(actual, map.closestNode(p));
+
+                // the cell stores the node closest to its center...
+                Point center = new Point(b[0] + (p.getX() - b[0]) / cellSize * cellSize + cellSize / 2, floor,
+                        b[1] + (p.getZ() - b[1]) / cellSize * cellSize + cellSize / 2);
+                Assert.assertEquals(center.distance(linearClosest(nodes, center).getPoint()),
+                        center.distance(actual.getPoint()), 0);
+
+                // ...so it is at most the cell's diagonal further away than the closest node,
+                // since the location is at most half a diagonal from the center.
+                double best = p.distance(linearClosest(nodes, p).getPoint());
+                Assert.assertTrue(p.distance(actual.getPoint()) <= best + cellSize * Math.sqrt(2) + 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void emptyFloorTest() throws InterruptedException {
+        List<Node> nodes = randomNodes(500, 3);
+        Map map = rasterMap(nodes, 5);
+        LookupRaster raster = map.getLookupRaster();
+
+        // floors with no nodes have no cells, and neither do locations beside the nodes of a floor.
+        Assert.assertNull(raster.closest(new Point(500, 0, 500)));
+        Assert.assertNull(raster.closest(new Point(500, 4, 500)));
+        Assert.assertNull(map.closestNode(new Point(500, 4, 500)));
+        int[] b = bounds(nodes, 1);
+        Assert.assertNull(raster.closest(new Point(b[0] - 1, 1, b[1])));
+        Assert.assertNull(raster.closest(new Point(b[0], 1, b[1] - 1)));
+        Assert.assertNotNull(raster.closest(new Point(b[0], 1, b[1])));
+    }
+
+    @Test
+    public void memoryTest() throws InterruptedException {
+        List<Node> nodes = randomNodes(3000, 4);
+        long[] usage = new long[2];
+        int[] sizes = {10, 5};
+        for(int s = 0; s < sizes.length; s++){
+            Map map = rasterMap(nodes, sizes[s]);
+
+            // two bytes a cell while a floor has few enough nodes, and a reference to each node.
+            long expected = 0;
+            for(int floor = 1; floor <= 3; floor++){
+                int[] b = bounds(nodes, floor);
+                long cells = (long)((b[2] - b[0]) / sizes[s] + 1) * ((b[3] - b[1]) / sizes[s] + 1);
+                int count = 0;
+                for(Node n : nodes)
+                    if(n.getFloor() == floor)
+                        count++;
+                expected += 2 * cells + 4L * count;
+            }
+            usage[s] = map.getLookupRaster().getMemoryUsage();
+            Assert.assertEquals(expected, usage[s]);
+            Assert.assertEquals(usage[s], map.getLookupRasterMemory());
+            Assert.assertTrue(map.getMemoryEstimate() > usage[s]);
+        }
+
+        // halving the cell size about quadruples the cost.
+        Assert.assertTrue(usage[1] > 3 * usage[0]);
+    }
+}
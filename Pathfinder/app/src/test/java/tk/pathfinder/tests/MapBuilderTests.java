@@ -0,0 +1,98 @@
+package tk.pathfinder.tests;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import tk.pathfinder.Map.FloorConnector;
+import tk.pathfinder.Map.Intersection;
+import tk.pathfinder.Map.Map;
+import tk.pathfinder.Map.MapBuilder;
+import tk.pathfinder.Map.Point;
+import tk.pathfinder.Map.Room;
+import tk.pathfinder.Networking.Beacon;
+
+public class MapBuilderTests {
+
+    private static MapBuilder sample(){
+        MapBuilder b = new MapBuilder(7, "Sample");
+        b.addNode(new Room(1, new Point(0, 1, 0), "101", null, false));
+        b.addNode(new Intersection(2, new Point(10, 1, 0)));
+        b.addNode(new Room(3, new Point(20, 1, 0), "102", "Office", false));
+        b.addEdge(1, 2);
+        b.addEdge(2, 3);
+        b.addBeacon(new Beacon("PF_7_1", new Point(5, 1, 5)));
+        return b;
+    }
+
+    @Test
+    public void buildTest(){
+        MapBuilder b = sample();
+        Map map = b.build();
+
+        Assert.assertEquals(0, b.getWarnings().size());
+        Assert.assertEquals(7, (int)map.getId());
+        Assert.assertEquals("Sample", map.getName());
+        Assert.assertEquals(3, map.getNode(3).getId());
+        Assert.assertNull(map.getNode(4));
+        Assert.assertNotNull(map.getBeacon("PF_7_1"));
+
+        try{
+            b.build();
+            Assert.fail();
+        }
+        catch(IllegalStateException ignored) {}
+    }
+
+    @Test
+    public void validationTest(){
+        MapBuilder b = sample();
+        b.addEdge(3, 2);   // duplicate, reversed
+        b.addEdge(1, 9);   // dangling
+        b.addEdge(2, 2);   // self loop
+        b.addNode(new Intersection(2, new Point(50, 1, 50)));   // duplicate id
+        b.addNode(new Intersection(4, new Point(10, 1, 0)));    // same place as node 2
+        b.addEdge(4, 1);   // resolves to 2 - 1, a duplicate
+        b.addNode(new Intersection(5, new Point(90, 1, 90)));   // no edges
+        b.addBeacon(new Beacon("PF_7_1", new Point(0, 1, 0)));  // duplicate ssid
+
+        Map map = b.build();
+        Assert.assertEquals(8, b.getWarnings().size());
+        Assert.assertNull(map.getNode(4));
+        Assert.assertNull(map.getNode(5));
+        Assert.assertEquals(new Point(10, 1, 0), map.getNode(2).getPoint());
+        Assert.assertEquals(new Point(5, 1, 5), map.getBeacon("PF_7_1").getLocation());
+    }
+
+    @Test
+    public void versionTest(){
+        Map first = sample().build();
+        Map second = sample().build();
+        Assert.assertTrue(second.getVersion() > first.getVersion());
+    }
+
+    @Test
+    public void floorViewsTest(){
+        MapBuilder b = sample();
+        b.addNode(new FloorConnector(4, new Point(20, 2, 0), null,
+                FloorConnector.FloorConnectorTypes.ELEVATOR, new int[] {1, 2}, true, false));
+        b.addNode(new Room(5, new Point(30, 2, 0), "201", null, false));
+        b.addEdge(3, 4);
+        b.addEdge(4, 5);
+        Map map = b.build();
+
+        Assert.assertArrayEquals(new int[] {1, 2}, map.getFloorRange());
+        Assert.assertEquals(2, map.getRooms(1).size());
+        Assert.assertEquals(1, map.getRooms(2).size());
+        Assert.assertEquals(0, map.getRooms(3).size());
+        Assert.assertEquals(1, map.getIntersections(1).size());
+        Assert.assertEquals(1, map.getFloorConnectors(2, FloorConnector.FloorConnectorTypes.ELEVATOR).size());
+        Assert.assertEquals(0, map.getFloorConnectorList(FloorConnector.FloorConnectorTypes.STAIRCASE).size());
+        Assert.assertSame(map.getRooms(1), map.getRooms(1));
+
+        try{
+            map.getRooms(1).clear();
+            Assert.fail();
+        }
+        catch(UnsupportedOperationException ignored) {}
+    }
+}
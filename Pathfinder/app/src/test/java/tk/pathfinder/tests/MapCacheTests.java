@@ -0,0 +1,126 @@
+package tk.pathfinder.tests;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import tk.pathfinder.Map.Intersection;
+import tk.pathfinder.Map.Map;
+import tk.pathfinder.Map.MapBuilder;
+import tk.pathfinder.Map.Point;
+import tk.pathfinder.Map.Room;
+import tk.pathfinder.Networking.MapCache;
+
+public class MapCacheTests {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    // a corridor of the given length, so maps of different sizes can be made.
+    private static Map corridor(int id, int length){
+        MapBuilder b = new MapBuilder(id, "Map " + id);
+        b.addNode(new Room(0, new Point(0, 1, 0), "100", null, false));
+        for(int i = 1; i < length; i++){
+            b.addNode(new Intersection(i, new Point(i * 10, 1, 0)));
+            b.addEdge(i - 1, i);
+        }
+        return b.build();
+    }
+
+    @Test
+    public void putGetTest() throws IOException {
+        File dir = new File(folder.getRoot(), "maps");
+        MapCache cache = new MapCache(dir, 1024 * 1024);
+        Assert.assertNull(cache.get(1));
+
+        MapCache.Entry put = cache.put(1, corridor(1, 20), "\"v1\"", null);
+        Assert.assertTrue(cache.contains(1));
+
+        // a new cache over the same directory sees the saved map.
+        cache = new MapCache(dir, 1024 * 1024);
+        MapCache.Entry got = cache.get(1);
+        Assert.assertNotNull(got);
+        Assert.assertEquals("Map 1", got.getMap().getName());
+        Assert.assertEquals(19, got.getMap().getNode(19).getId());
+        Assert.assertEquals("\"v1\"", got.getETag());
+        Assert.assertNull(got.getLastModified());
+        Assert.assertEquals(put.getHash(), got.getHash());
+
+        // the same contents hash the same; different contents do not.
+        Assert.assertEquals(put.getHash(), cache.put(1, corridor(1, 20), "\"v2\"", null).getHash());
+        Assert.assertNotEquals(put.getHash(), cache.put(1, corridor(1, 21), "\"v3\"", null).getHash());
+
+        cache.revalidated(1, "\"v4\"", "Tue, 01 Oct 2019 10:00:00 GMT");
+        got = cache.get(1);
+        Assert.assertEquals("\"v4\"", got.getETag());
+        Assert.assertEquals("Tue, 01 Oct 2019 10:00:00 GMT", got.getLastModified());
+        Assert.assertEquals(20, got.getMap().getNode(20).getId());
+
+        // the validators can be read without the map, to ask the server about a copy already in memory.
+        MapCache.Entry validators = cache.getValidators(1);
+        Assert.assertNull(validators.getMap());
+        Assert.assertEquals("\"v4\"", validators.getETag());
+        Assert.assertEquals(got.getHash(), validators.getHash());
+        Assert.assertNull(cache.getValidators(2));
+
+        cache.remove(1);
+        Assert.assertNull(cache.get(1));
+        Assert.assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void evictionTest() throws IOException {
+        File dir = folder.newFolder("maps");
+        MapCache probe = new MapCache(folder.newFolder("probe"), 1 << 20);
+        probe.put(1, corridor(1, 200), null, null);
+        long size = probe.getSize();
+
+        // room for three maps.
+        MapCache cache = new MapCache(dir, size * 3 + size / 2);
+        cache.put(1, corridor(1, 200), null, null);
+        cache.put(2, corridor(2, 200), null, null);
+        cache.put(3, corridor(3, 200), null, null);
+        // using map 1 makes map 2 the least recently used.
+        Assert.assertNotNull(cache.get(1));
+        cache.put(4, corridor(4, 200), null, null);
+
+        Assert.assertTrue(cache.contains(1));
+        Assert.assertFalse(cache.contains(2));
+        Assert.assertTrue(cache.contains(3));
+        Assert.assertTrue(cache.contains(4));
+        Assert.assertTrue(cache.getSize() <= size * 3 + size / 2);
+        Assert.assertFalse(new File(dir, "2.map").exists());
+
+        // a map too large for the cache is not kept.
+        cache.put(5, corridor(5, 2000), null, null);
+        Assert.assertFalse(cache.contains(5));
+    }
+
+    @Test
+    public void damageTest() throws IOException {
+        File dir = folder.newFolder("maps");
+        MapCache cache = new MapCache(dir, 1 << 20);
+        cache.put(1, corridor(1, 50), null, null);
+        cache.put(2, corridor(2, 50), null, null);
+
+        // flip a byte in the middle of one file, and leave a half written file behind.
+        try(RandomAccessFile f = new RandomAccessFile(new File(dir, "1.map"), "rw")){
+            f.seek(f.length() / 2);
+            int b = f.read();
+            f.seek(f.length() / 2);
+            f.write(b ^ 0xff);
+        }
+        Assert.assertTrue(new File(dir, "3.tmp").createNewFile());
+
+        cache = new MapCache(dir, 1 << 20);
+        Assert.assertNull(cache.get(1));
+        Assert.assertFalse(new File(dir, "1.map").exists());
+        Assert.assertFalse(new File(dir, "3.tmp").exists());
+        Assert.assertNotNull(cache.get(2));
+    }
+}
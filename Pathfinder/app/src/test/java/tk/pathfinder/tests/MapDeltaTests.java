@@ -0,0 +1,182 @@
+package tk.pathfinder.tests;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+import tk.pathfinder.Map.Edge;
+import tk.pathfinder.Map.FloorConnector;
+import tk.pathfinder.Map.Intersection;
+import tk.pathfinder.Map.Map;
+import tk.pathfinder.Map.MapBuilder;
+import tk.pathfinder.Map.MapDelta;
+import tk.pathfinder.Map.MapFormat;
+import tk.pathfinder.Map.MapPreprocessor;
+import tk.pathfinder.Map.Navigation;
+import tk.pathfinder.Map.Path;
+import tk.pathfinder.Map.Point;
+import tk.pathfinder.Map.Room;
+import tk.pathfinder.Networking.Api;
+import tk.pathfinder.Networking.Beacon;
+import tk.pathfinder.exceptions.NoValidPathException;
+
+public class MapDeltaTests {
+
+    //  1 - 2 - 3 - 4        rooms 1 and 4, a shortcut 2 - 3 across the middle,
+    //      |       |        and a detour 2 - 5 - 6 - 4 round the bottom.
+    //      5 ----- 6        connector 7 hangs off node 6.
+    private static Map sample() throws InterruptedException {
+        MapBuilder b = new MapBuilder(9, "Annex").setRevision(3);
+        b.addNode(new Room(1, new Point(0, 1, 0), "101", null, false));
+        b.addNode(new Intersection(2, new Point(100, 1, 0)));
+        b.addNode(new Intersection(3, new Point(200, 1, 0)));
+        b.addNode(new Room(4, new Point(300, 1, 0), "104", null, false));
+        b.addNode(new Intersection(5, new Point(100, 1, 100)));
+        b.addNode(new Intersection(6, new Point(300, 1, 100)));
+        b.addNode(new FloorConnector(7, new Point(300, 1, 200), "Lift", FloorConnector.FloorConnectorTypes.ELEVATOR,
+                new int[] {1}, true, false));
+        b.addEdge(1, 2).addEdge(2, 3).addEdge(3, 4).addEdge(2, 5).addEdge(5, 6).addEdge(6, 4).addEdge(6, 7);
+        b.addBeacon(new Beacon("PF_9_1", new Point(0, 1, 0)));
+        b.addBeacon(new Beacon("PF_9_2", new Point(300, 1, 0)));
+        Map map = b.build();
+
+        MapPreprocessor.Job job = MapPreprocessor.createDefault().start(map, null);
+        while(!job.isDone())
+            Thread.sleep(5);
+        return map;
+    }
+
+    @Test
+    public void applyTest() throws InterruptedException, NoValidPathException, IOException {
+        Map base = sample();
+        Room from = (Room)base.getNode(1), to = (Room)base.getNode(4);
+
+        MapDelta delta = new MapDelta(3, 5)
+                .removeEdge(3, 2)
+                .addFloorConnector(7, 300, 1, 200, "Lift", FloorConnector.FloorConnectorTypes.ELEVATOR, false, false)
+                .addRoom(8, 200, 1, 200, "108", "Store", false)
+                .addEdge(7, 8)
+                .removeBeacon("PF_9_2");
+        Map map = delta.applyTo(base);
+
+        Assert.assertEquals(5, map.getRevision());
+        Assert.assertEquals("Annex", map.getName());
+        Assert.assertTrue(map.getVersion() > base.getVersion());
+        // the base map is untouched.
+        Assert.assertEquals(3, base.getRevision());
+        Assert.assertEquals(7, base.getEdgeCount());
+        Assert.assertTrue(((FloorConnector)base.getNode(7)).isOperational());
+
+        // untouched nodes and edges are shared; edges of a changed node lead to the new node.
+        Assert.assertSame(base.getNode(1), map.getNode(1));
+        Assert.assertSame(base.getNode(6), map.getNode(6));
+        Assert.assertFalse(((FloorConnector)map.getNode(7)).isOperational());
+        Assert.assertEquals(8, map.getNodeCount());
+        Assert.assertEquals(7, map.getEdgeCount());
+        for(Iterator<Edge> i = map.getEdges(); i.hasNext(); ){
+            Edge e = i.next();
+            if(e.getNode1().getId() == 1)
+                Assert.assertTrue(containsSame(base, e));
+            if(e.getNode1().getId() == 7 || e.getNode2().getId() == 7)
+                Assert.assertTrue(e.getNode1() == map.getNode(7) || e.getNode2() == map.getNode(7));
+        }
+        Assert.assertNull(map.getBeacon("PF_9_2"));
+        Assert.assertNotNull(map.getBeacon("PF_9_1"));
+
+        // the carried over routing table knows the shortcut is gone, leaving only the detour.
+        Path path = Navigation.NavigatePath(map, from, to);
+        Assert.assertFalse(path.contains(map.getNode(2), map.getNode(3)));
+        Assert.assertEquals(500, path.distance());
+        // the new room is reached through the changed lift.
+        Assert.assertEquals(600, Navigation.NavigatePath(map, (Room)map.getNode(8), from).distance());
+
+        // the revision survives the binary format.
+        Assert.assertEquals(5, MapFormat.readMap(ByteBuffer.wrap(MapFormat.toBytes(map))).getRevision());
+    }
+
+    @Test
+    public void invalidTest() throws InterruptedException {
+        Map base = sample();
+        MapDelta[] invalid = {
+                new MapDelta(2, 4),
+                new MapDelta(3, 4).setMapInfo(10, null),
+                new MapDelta(3, 4).addEdge(1, 99),
+                new MapDelta(3, 4).removeNode(3).addEdge(3, 4),
+                new MapDelta(3, 4).addIntersection(9, 0, 1, 0).addEdge(9, 5),
+                new MapDelta()
+        };
+        for(MapDelta d : invalid){
+            try{
+                d.applyTo(base);
+                Assert.fail();
+            }
+            catch(IllegalArgumentException ignored) {}
+        }
+
+        // removing a node removes its edges, and a node left without edges goes with them.
+        Map map = new MapDelta(3, 4).removeNode(6).applyTo(base);
+        Assert.assertNull(map.getNode(6));
+        Assert.assertNull(map.getNode(7));
+        Assert.assertEquals(4, map.getEdgeCount());
+        Assert.assertTrue(new MapDelta(4, 4).isEmpty());
+    }
+
+    @Test
+    public void serverTest() throws IOException {
+        try(MapTestServer server = new MapTestServer(9, "Tower")){
+            Api.setUrlBase(server.getUrl());
+            // a floor of 400 nodes in a line, with a lift at one end.
+            for(int i = 0; i < 400; i++){
+                server.intersection(i, i * 2 + 125, 1, 500);
+                if(i > 0)
+                    server.edge(i - 1, i);
+            }
+            server.connector(1000, 125, 1, 625, 0, true).edge(0, 1000).beacon("PF_9_1", 0, 1, 0);
+            server.commit();
+
+            Map map = Api.getMap(9);
+            Assert.assertEquals(2, map.getRevision());
+            Assert.assertEquals(401, map.getNodeCount());
+            long full = server.getBytesSent();
+            Assert.assertTrue(Api.getMapDelta(9, 2).isEmpty());
+
+            // the lift goes out of service, and a room is added.
+            server.connector(1000, 125, 1, 625, 0, false);
+            server.room(2000, 250, 1, 625, "101", "Office").edge(2000, 1000).removeEdge(398, 399);
+            server.commit();
+            long before = server.getBytesSent();
+            MapDelta delta = Api.getMapDelta(9, 2);
+            long deltaBytes = server.getBytesSent() - before;
+            Assert.assertEquals(2, delta.getBaseRevision());
+            Assert.assertEquals(3, delta.getRevision());
+
+            Map updated = delta.applyTo(map);
+            Map fresh = Api.getMap(9);
+            Assert.assertEquals(fresh.getRevision(), updated.getRevision());
+            Assert.assertEquals(fresh.getNodeCount(), updated.getNodeCount());
+            Assert.assertEquals(fresh.getEdgeCount(), updated.getEdgeCount());
+            Assert.assertFalse(((FloorConnector)updated.getNode(1000)).isOperational());
+            Assert.assertEquals("Office", ((Room)updated.getNode(2000)).getName());
+            Assert.assertNull(updated.getNode(399));
+            Assert.assertSame(map.getNode(200), updated.getNode(200));
+            Assert.assertTrue(deltaBytes * 20 < full);
+
+            // a copy older than the changes the server keeps has to download the whole map.
+            server.forgetBefore(3);
+            Assert.assertNull(Api.getMapDelta(9, 2));
+        }
+        finally{
+            Api.setUrlBase(null);
+        }
+    }
+
+    private static boolean containsSame(Map map, Edge edge){
+        for(Iterator<Edge> i = map.getEdges(); i.hasNext(); )
+            if(i.next() == edge)
+                return true;
+        return false;
+    }
+}
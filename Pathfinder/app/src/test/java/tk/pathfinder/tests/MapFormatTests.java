@@ -0,0 +1,139 @@
+package tk.pathfinder.tests;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import tk.pathfinder.Map.ColumnarMap;
+import tk.pathfinder.Map.FloorConnector;
+import tk.pathfinder.Map.Intersection;
+import tk.pathfinder.Map.Map;
+import tk.pathfinder.Map.MapBuilder;
+import tk.pathfinder.Map.MapFormat;
+import tk.pathfinder.Map.Point;
+import tk.pathfinder.Map.Room;
+import tk.pathfinder.Networking.Beacon;
+import tk.pathfinder.Networking.MapReader;
+
+public class MapFormatTests {
+
+    private static Map sample(){
+        MapBuilder b = new MapBuilder(-7, "Caf\u00e9 Annex");
+        b.addNode(new Room(10, new Point(-500, 1, 2500), "101", null, true));
+        b.addNode(new Intersection(3, new Point(0, 1, 2500)));
+        b.addNode(new Room(12, new Point(500, 1, 2500), "102", "Office", false));
+        b.addNode(new FloorConnector(20, new Point(0, 1, 0), null, FloorConnector.FloorConnectorTypes.DOWN_ESCALATOR,
+                new int[] {1}, false, true));
+        b.addNode(new FloorConnector(21, new Point(0, 2, 0), "Lift B", FloorConnector.FloorConnectorTypes.ELEVATOR,
+                new int[] {2}, true, false));
+        b.addEdge(10, 3).addEdge(3, 12).addEdge(3, 20).addEdge(20, 21);
+        b.addBeacon(new Beacon("PF_7_1", new Point(-5, 1, 5)));
+        return b.build();
+    }
+
+    @Test
+    public void roundTripTest() throws IOException {
+        Map map = sample();
+        byte[] bytes = MapFormat.toBytes(map);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MapFormat.write(map, out);
+        Assert.assertArrayEquals(bytes, out.toByteArray());
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        Map copy = MapFormat.readMap(buffer);
+        Assert.assertEquals(0, buffer.remaining());
+        Assert.assertEquals(-7, (int)copy.getId());
+        Assert.assertEquals("Caf\u00e9 Annex", copy.getName());
+
+        Room r = (Room)copy.getNode(10);
+        Assert.assertEquals(new Point(-500, 1, 2500), r.getPoint());
+        Assert.assertEquals("101", r.getName());
+        Assert.assertTrue(r.requiresAuthorization());
+        Assert.assertEquals("Office", ((Room)copy.getNode(12)).getName());
+        Assert.assertTrue(copy.getNode(3).isIntersection());
+
+        FloorConnector down = (FloorConnector)copy.getNode(20);
+        Assert.assertEquals(FloorConnector.FloorConnectorTypes.DOWN_ESCALATOR, down.getType());
+        Assert.assertEquals("Escalator", down.getName());
+        Assert.assertFalse(down.isOperational());
+        Assert.assertTrue(down.requiresAuthorization());
+        FloorConnector lift = (FloorConnector)copy.getNode(21);
+        Assert.assertEquals("Lift B", lift.getName());
+        Assert.assertTrue(lift.isOperational());
+
+        Assert.assertEquals(new Point(-5, 1, 5), copy.getBeacon("PF_7_1").getLocation());
+        // encoding the copy gives the same bytes.
+        Assert.assertArrayEquals(bytes, MapFormat.toBytes(copy));
+
+        // the same file builds a columnar map.
+        ColumnarMap.Builder cb = new ColumnarMap.Builder(null, null);
+        cb.setRevision(MapFormat.read(ByteBuffer.wrap(bytes), cb));
+        ColumnarMap columns = cb.build();
+        Assert.assertEquals(copy.getRevision(), columns.getRevision());
+        Assert.assertEquals(5, columns.size());
+        Assert.assertEquals(-7, (int)columns.getId());
+        Assert.assertEquals(3, columns.getDegree(columns.indexOf(3)));
+    }
+
+    @Test
+    public void invalidTest(){
+        byte[] bytes = MapFormat.toBytes(sample());
+
+        byte[] magic = bytes.clone();
+        magic[0] = 'X';
+        byte[] version = bytes.clone();
+        version[4] = (byte)(MapFormat.VERSION + 1);
+        byte[][] invalid = {magic, version, Arrays.copyOf(bytes, bytes.length - 1), Arrays.copyOf(bytes, 6), new byte[0]};
+        for(byte[] b : invalid){
+            try{
+                MapFormat.readMap(ByteBuffer.wrap(b));
+                Assert.fail();
+            }
+            catch(IOException ignored) {}
+        }
+    }
+
+    @Test
+    public void compareJsonTest() throws IOException {
+        String json = payload(100000);
+        MapBuilder b = new MapBuilder(null, null);
+        new MapReader(b).read(new StringReader(json));
+        Map map = b.build();
+
+        // the binary copy is the same map in under a quarter of the space.
+        byte[] bytes = MapFormat.toBytes(map);
+        Assert.assertTrue(bytes.length * 4 < json.length());
+        Map copy = MapFormat.readMap(ByteBuffer.wrap(bytes));
+        Assert.assertEquals(map.getNodeCount(), copy.getNodeCount());
+        Assert.assertEquals(map.getEdgeCount(), copy.getEdgeCount());
+        Assert.assertTrue(copy.getNode(99999).isIntersection());
+        Assert.assertEquals("Room 99990", ((Room)copy.getNode(99990)).getName());
+
+        ColumnarMap.Builder cb = new ColumnarMap.Builder(null, null);
+        MapFormat.read(ByteBuffer.wrap(bytes), cb);
+        Assert.assertEquals(100000, cb.build().size());
+    }
+
+    // a corridor of nodes, every tenth a room, as the API sends it.
+    private static String payload(int count){
+        StringBuilder s = new StringBuilder("{\"id\":1,\"name\":\"Campus\",\"nodes\":[");
+        for(int i = 0; i < count; i++){
+            if(i > 0)
+                s.append(',');
+            s.append("{\"id\":").append(i).append(",\"coordinate\":{\"x\":").append(i * 0.25).append(",\"y\":1,\"z\":0.5},");
+            if(i % 10 == 0)
+                s.append("\"type\":\"room\",\"room_number\":\"").append(i).append("\",\"name\":\"Room ").append(i)
+                        .append("\",\"requires_auth\":false}");
+            else s.append("\"type\":\"intersection\"}");
+        }
+        s.append("],\"edges\":[");
+        for(int i = 1; i < count; i++)
+            s.append(i > 1 ? "," : "").append('[').append(i - 1).append(',').append(i).append(']');
+        return s.append("],\"beacons\":[]}").toString();
+    }
+}
@@ -0,0 +1,146 @@
+package tk.pathfinder.tests;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import tk.pathfinder.Map.Map;
+import tk.pathfinder.Map.MapPreprocessor;
+import tk.pathfinder.Networking.Api;
+import tk.pathfinder.Networking.MapCache;
+import tk.pathfinder.Networking.MapPrefetcher;
+
+public class MapPrefetcherTests {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    // buildings 1 and its neighbours 7 and 8 all get the same corridor of rooms.
+    private static MapTestServer server() throws IOException {
+        MapTestServer server = new MapTestServer(1, "Campus");
+        for(int i = 0; i < 300; i++){
+            server.intersection(i, i * 3 + 10, 1, 500);
+            server.room(1000 + i, i * 3 + 10, 1, 530, "R" + i, null).edge(i, 1000 + i);
+            if(i > 0)
+                server.edge(i - 1, i);
+        }
+        server.beacon("PF_1_1", 10, 1, 500);
+        server.commit();
+        server.serveAs(7, 8);
+        return server;
+    }
+
+    // building, votes, building, votes...
+    private static SortedMap<Integer, Integer> votes(int... pairs){
+        SortedMap<Integer, Integer> votes = new TreeMap<>();
+        for(int i = 0; i < pairs.length; i += 2)
+            votes.put(pairs[i], pairs[i + 1]);
+        return votes;
+    }
+
+    @Test
+    public void trendTest() throws IOException {
+        // with no bandwidth, nothing is fetched and only the trends are followed.
+        MapPrefetcher prefetcher = new MapPrefetcher(new MapCache(new File(folder.getRoot(), "maps"), 1 << 20), null, 0, 0);
+
+        // building 8 stays at the edge of range, while 7 grows stronger.
+        prefetcher.onVotes(votes(1, 8, 7, 1, 8, 1), 1);
+        Assert.assertTrue(prefetcher.getScore(7) < 0.2);
+        prefetcher.onVotes(votes(1, 7, 7, 3, 8, 1), 1);
+        Assert.assertTrue(prefetcher.getScore(7) >= 0.2);
+        // once it stops growing, its score settles at its share.
+        for(int i = 0; i < 10; i++)
+            prefetcher.onVotes(votes(1, 7, 7, 3, 8, 1), 1);
+        Assert.assertTrue(prefetcher.getScore(8) < 0.2);
+        Assert.assertEquals(3 / 11.0, prefetcher.getScore(7), 0.02);
+
+        // a building that drops out of range fades, then is forgotten.
+        for(int i = 0; i < 20; i++)
+            prefetcher.onVotes(votes(1, 9), 1);
+        Assert.assertEquals(0, prefetcher.getScore(8), 0);
+        Assert.assertEquals(1, prefetcher.getScore(1), 0.01);
+        Assert.assertEquals(0, prefetcher.getFetchCount());
+    }
+
+    @Test
+    public void prefetchTest() throws IOException, InterruptedException {
+        MapCache cache = new MapCache(new File(folder.getRoot(), "maps"), 1 << 20);
+        MapPrefetcher prefetcher = new MapPrefetcher(cache, MapPreprocessor.createDefault(), 1 << 20, 1 << 20);
+        try(MapTestServer server = server()){
+            Api.setUrlBase(server.getUrl());
+            prefetcher.onVotes(votes(1, 9, 7, 1), 1);
+            prefetcher.onVotes(votes(1, 7, 7, 3), 1);
+            waitUntilReady(prefetcher, 7);
+            Assert.assertEquals(1, server.getMapRequests(7));
+            Assert.assertEquals(0, server.getMapRequests(1));
+            // more scans do not fetch it again.
+            prefetcher.onVotes(votes(1, 6, 7, 4), 1);
+            Assert.assertEquals(1, prefetcher.getFetchCount());
+        }
+        finally{
+            Api.setUrlBase(null);
+        }
+
+        // with the server gone, walking in needs no network: the map is in memory and already preprocessed.
+        Map map = prefetcher.take(7);
+        Assert.assertNotNull(map);
+        Assert.assertEquals(7, (int)map.getId());
+        Assert.assertNotNull(map.getRenderIndex());
+        Assert.assertNull(prefetcher.take(7));
+        Assert.assertEquals(0, prefetcher.getStorageUsed());
+        // a saved copy is kept too.
+        Assert.assertTrue(cache.contains(7));
+        Assert.assertTrue(prefetcher.getBytesDownloaded() > 0);
+    }
+
+    @Test
+    public void budgetTest() throws IOException, InterruptedException {
+        try(MapTestServer server = server()){
+            Api.setUrlBase(server.getUrl());
+
+            // a budget of one byte lets one map through, and no more.
+            MapCache cache = new MapCache(new File(folder.getRoot(), "a"), 1 << 20);
+            MapPrefetcher prefetcher = new MapPrefetcher(cache, null, 1, 1 << 20);
+            prefetcher.onVotes(votes(1, 6, 7, 2, 8, 1), 1);
+            prefetcher.onVotes(votes(1, 6, 7, 3, 8, 2), 1);
+            waitUntilReady(prefetcher, 7);
+            prefetcher.onVotes(votes(1, 6, 7, 3, 8, 3), 1);
+            Assert.assertTrue(prefetcher.getScore(8) >= 0.2);
+            Assert.assertEquals(1, prefetcher.getFetchCount());
+            Assert.assertEquals(0, server.getMapRequests(8));
+            long size = cache.getSize(7);
+            Assert.assertEquals(size, prefetcher.getStorageUsed());
+
+            // room on disk for one unused map: the older is removed when the next arrives.
+            cache = new MapCache(new File(folder.getRoot(), "b"), 1 << 20);
+            prefetcher = new MapPrefetcher(cache, null, 1 << 20, size * 3 / 2);
+            prefetcher.onVotes(votes(1, 6, 7, 4), 1);
+            waitUntilReady(prefetcher, 7);
+            prefetcher.onVotes(votes(1, 6, 7, 4, 8, 2), 1);
+            prefetcher.onVotes(votes(1, 6, 7, 4, 8, 3), 1);
+            waitUntilReady(prefetcher, 8);
+            Assert.assertFalse(cache.contains(7));
+            Assert.assertTrue(cache.contains(8));
+            Assert.assertEquals(size, prefetcher.getStorageUsed());
+            // both are still in memory.
+            Assert.assertTrue(prefetcher.isReady(7));
+        }
+        finally{
+            Api.setUrlBase(null);
+        }
+    }
+
+    private static void waitUntilReady(MapPrefetcher prefetcher, int id) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while(!prefetcher.isReady(id)){
+            Assert.assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package tk.pathfinder.tests;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import tk.pathfinder.Map.Map;
+import tk.pathfinder.Map.MapBuilder;
+import tk.pathfinder.Map.MapPreprocessor;
+import tk.pathfinder.Map.Point;
+import tk.pathfinder.Map.Room;
+
+public class MapPreprocessorTests {
+
+    private static Map map(){
+        return new MapBuilder(1, "Sample").addNode(new Room(1, new Point(0, 1, 0), "101", null, false)).build();
+    }
+
+    // a stage that records when it runs, and fails if asked to.
+    private static class Step extends MapPreprocessor.Stage {
+        private final List<String> log;
+        private final boolean fail;
+
+        Step(List<String> log, String name, boolean required, boolean fail, String... dependencies){
+            super(name, required, dependencies);
+            this.log = log;
+            this.fail = fail;
+        }
+
+        @Override
+        protected void run(Map map, MapPreprocessor.Job job) throws Exception {
+            log.add(getName());
+            if(fail)
+                throw new IllegalStateException(getName() + " failed");
+        }
+    }
+
+    // records every callback, in order.
+    private static class Events implements MapPreprocessor.Listener {
+        final List<String> events = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch finished = new CountDownLatch(1);
+
+        @Override
+        public void onStageComplete(Map map, String stage, long millis){
+            events.add("complete " + stage);
+        }
+
+        @Override
+        public void onStageFailed(Map map, String stage, Exception e){
+            events.add("failed " + stage);
+        }
+
+        @Override
+        public void onRoutingReady(Map map){
+            events.add("routing");
+        }
+
+        @Override
+        public void onComplete(Map map, java.util.Map<String, Long> timings){
+            events.add("done");
+            finished.countDown();
+        }
+
+        @Override
+        public void onCancelled(Map map){
+            events.add("cancelled");
+            finished.countDown();
+        }
+
+        int count(String event){
+            int n = 0;
+            synchronized(events){
+                for(String e : events)
+                    if(e.equals(event))
+                        n++;
+            }
+            return n;
+        }
+    }
+
+    @Test
+    public void orderTest() throws InterruptedException {
+        List<String> log = Collections.synchronizedList(new ArrayList<>());
+        MapPreprocessor p = new MapPreprocessor()
+                .addStage(new Step(log, "a", true, false))
+                .addStage(new Step(log, "b", true, false, "a"))
+                .addStage(new Step(log, "c", false, false, "b"))
+                .addStage(new Step(log, "d", false, false));
+        try{
+            p.addStage(new Step(log, "e", false, false, "f"));
+            Assert.fail();
+        }
+        catch(IllegalArgumentException ignored) {}
+
+        Events events = new Events();
+        MapPreprocessor.Job job = p.start(map(), events);
+        job.await();
+        Assert.assertTrue(events.finished.await(5, TimeUnit.SECONDS));
+
+        // each stage runs after the ones it needs.
+        Assert.assertEquals(4, log.size());
+        Assert.assertTrue(log.indexOf("a") < log.indexOf("b"));
+        Assert.assertTrue(log.indexOf("b") < log.indexOf("c"));
+        Assert.assertEquals(4, job.getTimings().size());
+
+        // routing is ready once both required stages are, and before everything is.
+        Assert.assertEquals(1, events.count("routing"));
+        Assert.assertTrue(events.events.indexOf("complete b") < events.events.indexOf("routing"));
+        Assert.assertEquals("done", events.events.get(events.events.size() - 1));
+    }
+
+    @Test
+    public void skipTest() throws InterruptedException {
+        List<String> log = Collections.synchronizedList(new ArrayList<>());
+        MapPreprocessor p = new MapPreprocessor()
+                .addStage(new Step(log, "a", true, true))
+                .addStage(new Step(log, "b", true, false, "a"))
+                .addStage(new Step(log, "c", false, false, "b"))
+                .addStage(new Step(log, "d", false, false));
+        Events events = new Events();
+        MapPreprocessor.Job job = p.start(map(), events);
+        job.await();
+        Assert.assertTrue(events.finished.await(5, TimeUnit.SECONDS));
+
+        // what needs a failed stage is skipped, and the rest still runs.
+        Assert.assertFalse(log.contains("b"));
+        Assert.assertFalse(log.contains("c"));
+        Assert.assertTrue(log.contains("d"));
+        Assert.assertEquals(1, events.count("failed a"));
+        Assert.assertEquals(0, events.count("failed b"));
+        Assert.assertFalse(job.getTimings().containsKey("a"));
+        Assert.assertTrue(job.getTimings().containsKey("d"));
+
+        // a skipped required stage does not hold routing back for good.
+        Assert.assertEquals(1, events.count("routing"));
+        Assert.assertEquals(1, events.count("done"));
+    }
+
+    @Test
+    public void cancelTest() throws InterruptedException {
+        List<String> log = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        MapPreprocessor p = new MapPreprocessor()
+                .addStage(new MapPreprocessor.Stage("slow", true) {
+                    @Override
+                    protected void run(Map map, MapPreprocessor.Job job) {
+                        started.countDown();
+                        try{
+                            Thread.sleep(10000);
+                        }
+                        catch(InterruptedException e){
+                            interrupted.countDown();
+                        }
+                    }
+                })
+                .addStage(new Step(log, "after", true, false, "slow"));
+        Events events = new Events();
+        MapPreprocessor.Job job = p.start(map(), events);
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        // the running stage is interrupted, and the stage waiting on it never starts.
+        job.cancel();
+        Assert.assertTrue(job.isCancelled());
+        Assert.assertTrue(job.isDone());
+        job.await();
+        Assert.assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        Thread.sleep(50);
+        Assert.assertTrue(log.isEmpty());
+        Assert.assertEquals(1, events.count("cancelled"));
+        Assert.assertEquals(0, events.count("routing"));
+        Assert.assertEquals(0, events.count("done"));
+
+        // cancelling again does nothing.
+        job.cancel();
+        Assert.assertEquals(1, events.count("cancelled"));
+    }
+}
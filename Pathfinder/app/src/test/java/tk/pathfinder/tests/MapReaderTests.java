@@ -0,0 +1,99 @@
+package tk.pathfinder.tests;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import tk.pathfinder.Map.FloorConnector;
+import tk.pathfinder.Map.Map;
+import tk.pathfinder.Map.MapBuilder;
+import tk.pathfinder.Map.Room;
+import tk.pathfinder.Networking.MapReader;
+
+public class MapReaderTests {
+
+    // fields out of order, nulls written both ways, and a field the reader does not know.
+    private static final String SAMPLE = "{\"nodes\":["
+            + "{\"coordinate\":{\"x\":0.5,\"y\":1,\"z\":0},\"id\":1,\"type\":\"room\",\"room_number\":\"101\",\"name\":null,\"requires_auth\":false},"
+            + "{\"id\":2,\"type\":\"intersection\",\"coordinate\":{\"x\":1.5,\"y\":1,\"z\":0},\"extra\":[1,{\"a\":2}]},"
+            + "{\"id\":3,\"type\":\"floor_connector\",\"name\":\"null\",\"connector_type\":1,\"requires_auth\":true,"
+            + "\"is_operational\":true,\"coordinate\":{\"x\":2.5,\"y\":1,\"z\":0}}],"
+            + "\"edges\":[[1,2],[2,3]],"
+            + "\"beacons\":[{\"ssid\":\"PF_7_1\",\"coordinate\":{\"x\":1,\"y\":1,\"z\":1}}],"
+            + "\"name\":\"Sample\",\"id\":7}";
+
+    @Test
+    public void readTest() throws IOException {
+        MapBuilder b = new MapBuilder(null, null);
+        MapReader reader = new MapReader(b);
+        reader.read(new StringReader(SAMPLE));
+        Map map = b.build();
+
+        Assert.assertEquals(6, reader.getRecordCount());
+        Assert.assertEquals(0, b.getWarnings().size());
+        Assert.assertEquals(7, (int)map.getId());
+        Assert.assertEquals("Sample", map.getName());
+
+        Room r = (Room)map.getNode(1);
+        Assert.assertEquals("101", r.getName());
+        Assert.assertEquals(500, r.getPoint().getX());
+        Assert.assertTrue(map.getNode(2).isIntersection());
+        FloorConnector fc = (FloorConnector)map.getNode(3);
+        Assert.assertEquals("Elevator", fc.getName());
+        Assert.assertTrue(fc.requiresAuthorization());
+        Assert.assertNotNull(map.getBeacon("PF_7_1"));
+    }
+
+    @Test
+    public void invalidTest(){
+        String[] invalid = {
+                "{\"id\":\"seven\"}",
+                "{\"name\":\"No id\"}",
+                "{\"id\":1,\"nodes\":[{\"id\":1,\"type\":\"room\"}]}",
+                "{\"id\":1,\"nodes\":[{\"id\":1,\"type\":\"floor_connector\",\"connector_type\":9,\"coordinate\":{}}]}",
+                "{\"id\":1,\"edges\":[[1,2]"
+        };
+        for(String s : invalid){
+            try{
+                new MapReader(new MapBuilder(null, null)).read(new StringReader(s));
+                Assert.fail(s);
+            }
+            catch(IOException ignored) {}
+        }
+    }
+
+    @Test
+    public void largePayloadTest() throws IOException {
+        // a response far larger than any one record is read straight into the map.
+        MapBuilder b = new MapBuilder(null, null);
+        MapReader reader = new MapReader(b);
+        reader.read(new StringReader(payload(100000)));
+        Map map = b.build();
+
+        Assert.assertEquals(100000 + 99999, reader.getRecordCount());
+        Assert.assertEquals(0, b.getWarnings().size());
+        Assert.assertEquals("Campus", map.getName());
+        Assert.assertTrue(map.getNode(99999).isIntersection());
+        Assert.assertEquals("Room 99990", ((Room)map.getNode(99990)).getName());
+    }
+
+    // a corridor of nodes, every tenth a room.
+    private static String payload(int count){
+        StringBuilder s = new StringBuilder("{\"id\":1,\"name\":\"Campus\",\"nodes\":[");
+        for(int i = 0; i < count; i++){
+            if(i > 0)
+                s.append(',');
+            s.append("{\"id\":").append(i).append(",\"coordinate\":{\"x\":").append(i * 0.25).append(",\"y\":1,\"z\":0.5},");
+            if(i % 10 == 0)
+                s.append("\"type\":\"room\",\"room_number\":\"").append(i).append("\",\"name\":\"Room ").append(i)
+                        .append("\",\"requires_auth\":false}");
+            else s.append("\"type\":\"intersection\"}");
+        }
+        s.append("],\"edges\":[");
+        for(int i = 1; i < count; i++)
+            s.append(i > 1 ? "," : "").append('[').append(i - 1).append(',').append(i).append(']');
+        return s.append("],\"beacons\":[]}").toString();
+    }
+}
@@ -0,0 +1,128 @@
+package tk.pathfinder.tests;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import tk.pathfinder.Networking.Api;
+import tk.pathfinder.Networking.MapSearchCache;
+
+public class MapSearchCacheTests {
+
+    // 45 halls, 10 libraries and a gym.
+    private static MapTestServer server() throws IOException {
+        MapTestServer server = new MapTestServer(1, "Hall 0");
+        for(int i = 0; i < 45; i++)
+            server.listBuilding(i + 1, "Hall " + i);
+        for(int i = 0; i < 10; i++)
+            server.listBuilding(100 + i, (i % 2 == 0 ? "Main" : "East") + " Library " + i);
+        server.listBuilding(200, "Gym");
+        return server;
+    }
+
+    private static int[] ids(Api.MapQueryPage page){
+        int[] ids = new int[page.getResults().length];
+        for(int i = 0; i < ids.length; i++)
+            ids[i] = page.getResults()[i].getId();
+        return ids;
+    }
+
+    @Test
+    public void pageTest() throws IOException {
+        MapSearchCache cache = new MapSearchCache(MapSearchCache.DEFAULT_TTL);
+        try(MapTestServer server = server()){
+            Api.setUrlBase(server.getUrl());
+
+            // the list is read a page at a time as it scrolls.
+            Api.MapQueryPage page = cache.find("hall", 0, 20);
+            Assert.assertEquals(20, page.getResults().length);
+            Assert.assertEquals(45, page.getTotal());
+            Assert.assertFalse(page.isLast());
+            page = cache.find("hall", 20, 20);
+            Assert.assertEquals(20, page.getOffset());
+            Assert.assertEquals(21, page.getResults()[0].getId());
+            page = cache.find("hall", 40, 20);
+            Assert.assertEquals(5, page.getResults().length);
+            Assert.assertTrue(page.isLast());
+            Assert.assertEquals(3, server.getSearchRequests());
+
+            // searching again, however it is typed, reads the held pages.
+            page = cache.find("  HALL ", 20, 20);
+            Assert.assertEquals(21, page.getResults()[0].getId());
+            Assert.assertEquals(3, server.getSearchRequests());
+            Assert.assertEquals(1, cache.getHitCount());
+
+            // an unpaged search still gets every match.
+            Assert.assertEquals(45, Api.findMaps("hall").length);
+            try{
+                Api.findMaps(null);
+                Assert.fail();
+            }
+            catch(IllegalArgumentException ignored){}
+        }
+        finally{
+            Api.setUrlBase(null);
+        }
+    }
+
+    @Test
+    public void prefixTest() throws IOException {
+        MapSearchCache cache = new MapSearchCache(MapSearchCache.DEFAULT_TTL);
+        try(MapTestServer server = server()){
+            Api.setUrlBase(server.getUrl());
+
+            // every library is on the first page, so narrower searches can be answered here.
+            Assert.assertTrue(cache.find("lib", 0, 20).isLast());
+            Api.MapQueryPage page = cache.find("Library", 0, 20);
+            Api.MapQueryPage main = cache.find("library main", 0, 20);
+            Assert.assertEquals(1, server.getSearchRequests());
+            Assert.assertEquals(2, cache.getPrefixHitCount());
+            Assert.assertEquals(10, page.getTotal());
+            Assert.assertEquals(5, main.getTotal());
+            // the same as the server would have said.
+            Assert.assertArrayEquals(ids(Api.findMaps("library main", 0, 20)), ids(main));
+
+            // a search that is not only narrower asks the server.
+            Assert.assertEquals(1, cache.find("gym", 0, 20).getTotal());
+            Assert.assertEquals(3, server.getSearchRequests());
+
+            // halls are not all held after one page, so a narrower search cannot be answered from them.
+            cache.find("hall", 0, 20);
+            page = cache.find("hall 4", 0, 20);
+            Assert.assertEquals(9, page.getTotal());
+            Assert.assertEquals(5, server.getSearchRequests());
+            Assert.assertEquals(2, cache.getPrefixHitCount());
+        }
+        finally{
+            Api.setUrlBase(null);
+        }
+    }
+
+    @Test
+    public void expiryTest() throws IOException, InterruptedException {
+        MapSearchCache cache = new MapSearchCache(50);
+        try(MapTestServer server = server()){
+            Api.setUrlBase(server.getUrl());
+            cache.find("gym", 0, 20);
+            cache.find("gym", 0, 20);
+            Assert.assertEquals(1, server.getSearchRequests());
+
+            // results are not trusted for long, nor used to answer narrower searches.
+            server.listBuilding(201, "Gym Annex");
+            Thread.sleep(100);
+            Assert.assertEquals(2, cache.find("gym", 0, 20).getTotal());
+            Thread.sleep(100);
+            Assert.assertEquals(1, cache.find("gym annex", 0, 20).getTotal());
+            Assert.assertEquals(3, server.getSearchRequests());
+            Assert.assertEquals(0, cache.getPrefixHitCount());
+
+            // forgetting every search leaves nothing to answer from.
+            cache.clear();
+            Assert.assertNull(cache.get("gym", 0, 20));
+        }
+        finally{
+            Api.setUrlBase(null);
+        }
+    }
+}
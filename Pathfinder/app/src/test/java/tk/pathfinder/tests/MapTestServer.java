@@ -0,0 +1,477 @@
+package tk.pathfinder.tests;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import tk.pathfinder.Networking.ConnectorStatus;
+import tk.pathfinder.Networking.Transfer;
+
+/**
+ * A stand-in for the map API on a free local port. It serves one map over plain HTTP, both whole
+ * and as the changes made since a revision, and counts the bytes it sends.
+ * Changes are made with the record methods and become a new revision on {@link #commit()}.
+ * It also serves the connector status feed, holding each request until the status changes.
+ * JSON is sent as it is, unless {@link #setEncodings(String...)} lets the server compress it.
+ */
+public class MapTestServer implements AutoCloseable {
+
+    private final HttpServer server;
+    // status requests are held open, so each needs a thread of its own.
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final int mapId;
+    private final String name;
+    private int revision = 1;
+    // changes since revisions older than this are no longer kept.
+    private int oldest = 1;
+    private long bytesSent = 0;
+
+    private final TreeMap<Integer, String> nodes = new TreeMap<>();
+    private final TreeMap<Long, String> edges = new TreeMap<>();
+    private final TreeMap<String, String> beacons = new TreeMap<>();
+    // the revision each record last changed in, including removals.
+    private final HashMap<Integer, Integer> nodeChanged = new HashMap<>();
+    private final HashMap<Long, Integer> edgeChanged = new HashMap<>();
+    private final HashMap<String, Integer> beaconChanged = new HashMap<>();
+    // whether each connector is operational, as sent by the status feed.
+    private final TreeMap<Integer, Boolean> connectors = new TreeMap<>();
+    private int statusVersion = 0;
+    // the encodings the server may use, best first.
+    private List<String> encodings = Collections.emptyList();
+    // further building ids the map is served under, as if each were a building of its own.
+    private final HashSet<Integer> aliases = new HashSet<>();
+    private final HashMap<Integer, Integer> mapRequests = new HashMap<>();
+    // building names for searches, by id.
+    private final TreeMap<Integer, String> directory = new TreeMap<>();
+    private int searchRequests = 0;
+    private long delay = 0;
+    private int failures = 0;
+
+    public MapTestServer(int mapId, String name) throws IOException {
+        this.mapId = mapId;
+        this.name = name;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/api/maps", this::handleMap);
+        server.createContext("/api/maps/changes", this::handleChanges);
+        server.createContext("/api/maps/status", this::handleStatus);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * @return The URL to pass to Api.setUrlBase.
+     */
+    public String getUrl(){
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public synchronized int getRevision() { return revision; }
+
+    /**
+     * Set the encodings the server may compress JSON with, when the client accepts them.
+     * @param encodings Content codings, best first, or none to send JSON as it is.
+     */
+    public synchronized void setEncodings(String... encodings){
+        this.encodings = Arrays.asList(encodings);
+    }
+
+    public synchronized long getBytesSent() { return bytesSent; }
+
+    public synchronized MapTestServer room(int id, int x, int y, int z, String number, String roomName){
+        return node(id, String.format(Locale.US, "{\"id\":%d,\"type\":\"room\",\"room_number\":%s,\"name\":%s,"
+                + "\"requires_auth\":false,\"coordinate\":%s}", id, quote(number), quote(roomName), coordinate(x, y, z)));
+    }
+
+    public synchronized MapTestServer connector(int id, int x, int y, int z, int type, boolean operational){
+        setStatus(id, operational);
+        return node(id, String.format(Locale.US, "{\"id\":%d,\"type\":\"floor_connector\",\"connector_type\":%d,"
+                + "\"is_operational\":%b,\"requires_auth\":false,\"coordinate\":%s}", id, type, operational, coordinate(x, y, z)));
+    }
+
+    public synchronized MapTestServer intersection(int id, int x, int y, int z){
+        return node(id, String.format(Locale.US, "{\"id\":%d,\"type\":\"intersection\",\"coordinate\":%s}", id, coordinate(x, y, z)));
+    }
+
+    /**
+     * Open or close a connector through the status feed alone, leaving the map as it is.
+     * @return The new status version.
+     */
+    public synchronized int setOperational(int id, boolean operational){
+        if(!connectors.containsKey(id))
+            throw new IllegalArgumentException("No connector " + id);
+        setStatus(id, operational);
+        return statusVersion;
+    }
+
+    public synchronized MapTestServer removeNode(int id){
+        if(connectors.remove(id) != null)
+            setStatus(null, false);
+        nodes.remove(id);
+        nodeChanged.put(id, revision + 1);
+        return this;
+    }
+
+    public synchronized MapTestServer edge(int a, int b){
+        edges.put(key(a, b), "[" + a + "," + b + "]");
+        edgeChanged.put(key(a, b), revision + 1);
+        return this;
+    }
+
+    public synchronized MapTestServer removeEdge(int a, int b){
+        edges.remove(key(a, b));
+        edgeChanged.put(key(a, b), revision + 1);
+        return this;
+    }
+
+    public synchronized MapTestServer beacon(String ssid, int x, int y, int z){
+        beacons.put(ssid, "{\"ssid\":\"" + ssid + "\",\"coordinate\":" + coordinate(x, y, z) + "}");
+        beaconChanged.put(ssid, revision + 1);
+        return this;
+    }
+
+    public synchronized MapTestServer removeBeacon(String ssid){
+        beacons.remove(ssid);
+        beaconChanged.put(ssid, revision + 1);
+        return this;
+    }
+
+    /**
+     * Publish the changes made since the last commit as a new revision.
+     * @return The new revision.
+     */
+    public synchronized int commit(){
+        return ++revision;
+    }
+
+    /**
+     * Stop keeping the changes made before a revision, so older copies must download the whole map.
+     * @param revision The oldest revision changes are still served from.
+     */
+    public synchronized void forgetBefore(int revision){
+        oldest = revision;
+    }
+
+    /**
+     * Serve the map under other building ids as well.
+     * @param ids The building ids.
+     */
+    public synchronized void serveAs(int... ids){
+        for(int id : ids)
+            aliases.add(id);
+    }
+
+    /**
+     * @param id A building id.
+     * @return The number of times the whole map was asked for under the id.
+     */
+    public synchronized int getMapRequests(int id){
+        Integer n = mapRequests.get(id);
+        return n == null ? 0 : n;
+    }
+
+    /**
+     * List a building in searches.
+     * @param id The building id.
+     * @param name The building name.
+     */
+    public synchronized MapTestServer listBuilding(int id, String name){
+        directory.put(id, name);
+        return this;
+    }
+
+    /**
+     * @return The number of searches asked for.
+     */
+    public synchronized int getSearchRequests() { return searchRequests; }
+
+    /**
+     * Hold each map request for a while before answering it.
+     * @param millis The time to wait.
+     */
+    public synchronized void setDelay(long millis){
+        delay = millis;
+    }
+
+    /**
+     * Answer the next map requests with a server error.
+     * @param count The number of requests to fail.
+     */
+    public synchronized void failNext(int count){
+        failures = count;
+    }
+
+    @Override
+    public void close(){
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void setStatus(Integer id, boolean operational){
+        if(id != null)
+            connectors.put(id, operational);
+        statusVersion++;
+        notifyAll();
+    }
+
+    private MapTestServer node(int id, String json){
+        nodes.put(id, json);
+        nodeChanged.put(id, revision + 1);
+        return this;
+    }
+
+    private void handleMap(HttpExchange exchange) throws IOException {
+        if(parameter(exchange, "q") != null){
+            handleSearch(exchange);
+            return;
+        }
+        String requested = parameter(exchange, "id");
+        int id = requested == null ? mapId : Integer.parseInt(requested);
+        long wait;
+        boolean fail;
+        synchronized(this){
+            wait = delay;
+            fail = failures > 0;
+            if(fail)
+                failures--;
+        }
+        if(wait > 0){
+            try{
+                Thread.sleep(wait);
+            }
+            catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+            }
+        }
+        if(fail){
+            send(exchange, 500, "");
+            return;
+        }
+        StringBuilder s;
+        synchronized(this){
+            if(id != mapId && !aliases.contains(id)){
+                s = null;
+            }
+            else{
+                Integer n = mapRequests.get(id);
+                mapRequests.put(id, n == null ? 1 : n + 1);
+                s = new StringBuilder();
+                s.append("{\"id\":").append(id).append(",\"name\":").append(quote(name)).append(",\"version\":").append(revision);
+                s.append(",\"nodes\":[").append(String.join(",", nodes.values())).append(']');
+                s.append(",\"edges\":[").append(String.join(",", edges.values())).append(']');
+                s.append(",\"beacons\":[").append(String.join(",", beacons.values())).append("]}");
+            }
+        }
+        if(s == null)
+            send(exchange, 404, "");
+        else send(exchange, 200, s.toString());
+    }
+
+    // buildings whose names contain every keyword, a page at a time if asked.
+    private void handleSearch(HttpExchange exchange) throws IOException {
+        String[] keywords = decode(parameter(exchange, "q")).toLowerCase(Locale.ROOT).trim().split("\\s+");
+        String offset = parameter(exchange, "offset"), limit = parameter(exchange, "limit");
+        int from = offset == null ? 0 : Integer.parseInt(offset);
+        int count = limit == null || limit.equals("0") ? Integer.MAX_VALUE : Integer.parseInt(limit);
+        StringBuilder list = new StringBuilder();
+        int total = 0;
+        synchronized(this){
+            searchRequests++;
+            for(java.util.Map.Entry<Integer, String> e : directory.entrySet()){
+                boolean match = true;
+                for(String k : keywords)
+                    match &= e.getValue().toLowerCase(Locale.ROOT).contains(k);
+                if(!match)
+                    continue;
+                if(total >= from && total - from < count)
+                    append(list, "{\"id\":" + e.getKey() + ",\"name\":" + quote(e.getValue()) + "}");
+                total++;
+            }
+        }
+        send(exchange, 200, "{\"total\":" + total + ",\"offset\":" + from + ",\"buildings\":[" + list + "]}");
+    }
+
+    private void handleChanges(HttpExchange exchange) throws IOException {
+        int since = Integer.parseInt(parameter(exchange, "since"));
+        String body;
+        int code;
+        synchronized(this){
+            if(since < oldest || since > revision){
+                code = 410;
+                body = "";
+            }
+            else if(since == revision){
+                code = 204;
+                body = null;
+            }
+            else{
+                code = 200;
+                body = changes(since);
+            }
+        }
+        send(exchange, code, body);
+    }
+
+    private void handleStatus(HttpExchange exchange) throws IOException {
+        int since = Integer.parseInt(parameter(exchange, "since"));
+        long deadline = System.currentTimeMillis() + Integer.parseInt(parameter(exchange, "wait")) * 1000L;
+        byte[] body = null;
+        synchronized(this){
+            try{
+                for(long left; statusVersion == since && (left = deadline - System.currentTimeMillis()) > 0; )
+                    wait(left);
+            }
+            catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+            }
+            if(statusVersion != since){
+                boolean[] operational = new boolean[connectors.size()];
+                int i = 0;
+                for(boolean b : connectors.values())
+                    operational[i++] = b;
+                body = new ConnectorStatus(statusVersion, revision, operational).toBytes();
+            }
+        }
+        if(body == null)
+            send(exchange, 304, (byte[])null);
+        else send(exchange, 200, body);
+    }
+
+    // every record that changed after a revision, as it is now, and every record removed since.
+    private String changes(int since){
+        StringBuilder nodeList = new StringBuilder(), removedNodes = new StringBuilder();
+        for(java.util.Map.Entry<Integer, Integer> e : nodeChanged.entrySet()){
+            if(e.getValue() <= since || e.getValue() > revision)
+                continue;
+            String json = nodes.get(e.getKey());
+            if(json != null)
+                append(nodeList, json);
+            else append(removedNodes, e.getKey().toString());
+        }
+        StringBuilder edgeList = new StringBuilder(), removedEdges = new StringBuilder();
+        for(java.util.Map.Entry<Long, Integer> e : edgeChanged.entrySet()){
+            if(e.getValue() <= since || e.getValue() > revision)
+                continue;
+            String json = edges.get(e.getKey());
+            if(json != null)
+                append(edgeList, json);
+            else append(removedEdges, "[" + (int)(e.getKey() >> 32) + "," + e.getKey().intValue() + "]");
+        }
+        StringBuilder beaconList = new StringBuilder(), removedBeacons = new StringBuilder();
+        for(java.util.Map.Entry<String, Integer> e : beaconChanged.entrySet()){
+            if(e.getValue() <= since || e.getValue() > revision)
+                continue;
+            String json = beacons.get(e.getKey());
+            if(json != null)
+                append(beaconList, json);
+            else append(removedBeacons, quote(e.getKey()));
+        }
+        return "{\"id\":" + mapId + ",\"name\":" + quote(name) + ",\"base_version\":" + since + ",\"version\":" + revision
+                + ",\"nodes\":[" + nodeList + "],\"removed_nodes\":[" + removedNodes
+                + "],\"edges\":[" + edgeList + "],\"removed_edges\":[" + removedEdges
+                + "],\"beacons\":[" + beaconList + "],\"removed_beacons\":[" + removedBeacons + "]}";
+    }
+
+    private void send(HttpExchange exchange, int code, String body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        if(body == null || body.isEmpty()){
+            send(exchange, code, body == null ? null : new byte[0]);
+            return;
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        String encoding = chooseEncoding(exchange.getRequestHeaders().getFirst("Accept-Encoding"));
+        if(encoding != null){
+            exchange.getResponseHeaders().set("Content-Encoding", encoding);
+            bytes = compress(bytes, encoding);
+        }
+        send(exchange, code, bytes);
+    }
+
+    // the first of the server's encodings the client accepts.
+    private synchronized String chooseEncoding(String accept){
+        if(accept == null)
+            return null;
+        for(String encoding : encodings)
+            for(String offered : accept.split(","))
+                if(offered.split(";")[0].trim().equals(encoding) && !offered.replace(" ", "").endsWith(";q=0"))
+                    return encoding;
+        return null;
+    }
+
+    static byte[] compress(byte[] bytes, String encoding) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        if(encoding.equals(Transfer.DICTIONARY_ENCODING))
+            deflater.setDictionary(Transfer.getDictionary());
+        try(OutputStream out = encoding.equals("gzip") ? new GZIPOutputStream(buffer)
+                : new DeflaterOutputStream(buffer, deflater)){
+            out.write(bytes);
+        }
+        finally{
+            deflater.end();
+        }
+        return buffer.toByteArray();
+    }
+
+    private void send(HttpExchange exchange, int code, byte[] body) throws IOException {
+        // counted before the body goes out, so a client that has read the response always sees it counted.
+        synchronized(this){
+            bytesSent += body == null ? 0 : body.length;
+        }
+        exchange.sendResponseHeaders(code, body == null ? -1 : body.length);
+        if(body != null)
+            try(OutputStream out = exchange.getResponseBody()){
+                out.write(body);
+            }
+        exchange.close();
+    }
+
+    private static String parameter(HttpExchange exchange, String name){
+        for(String pair : exchange.getRequestURI().getRawQuery().split("&"))
+            if(pair.startsWith(name + "="))
+                return pair.substring(name.length() + 1);
+        return null;
+    }
+
+    private static String decode(String s) throws UnsupportedEncodingException {
+        return URLDecoder.decode(s, "UTF-8");
+    }
+
+    private static void append(StringBuilder s, String item){
+        if(s.length() > 0)
+            s.append(',');
+        s.append(item);
+    }
+
+    // the API sends x and z in thousandths of the map's width.
+    private static String coordinate(int x, int y, int z){
+        return String.format(Locale.US, "{\"x\":%s,\"y\":%d,\"z\":%s}", x / 1000.0, y, z / 1000.0);
+    }
+
+    private static String quote(String s){
+        return s == null ? "null" : "\"" + s.replace("\"", "\\\"") + "\"";
+    }
+
+    private static long key(int a, int b){
+        return ((long)Math.min(a, b) << 32) | (Math.max(a, b) & 0xffffffffL);
+    }
+}
@@ -0,0 +1,159 @@
+package tk.pathfinder.tests;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import tk.pathfinder.Map.FloorConnector;
+import tk.pathfinder.Map.Intersection;
+import tk.pathfinder.Map.Map;
+import tk.pathfinder.Map.MapBuilder;
+import tk.pathfinder.Map.MapFormat;
+import tk.pathfinder.Map.MappedMap;
+import tk.pathfinder.Map.Node;
+import tk.pathfinder.Map.Point;
+import tk.pathfinder.Map.Room;
+import tk.pathfinder.Networking.Beacon;
+
+public class MappedMapTests {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    // a tower where each floor is a corridor of rooms, with a lift at one end and stairs at the other.
+    // node ids are floor * 10000 + position; the lift is 9998 and the stairs 9999.
+    private static Map tower(int floors, int length){
+        MapBuilder b = new MapBuilder(5, "Tower");
+        for(int f = 1; f <= floors; f++){
+            int base = f * 10000;
+            b.addNode(new FloorConnector(base + 9998, new Point(0, f, 500), "Lift",
+                    FloorConnector.FloorConnectorTypes.ELEVATOR, new int[] {f}, true, false));
+            b.addNode(new FloorConnector(base + 9999, new Point(1000, f, 500), "Stairs",
+                    FloorConnector.FloorConnectorTypes.STAIRCASE, new int[] {f}, true, false));
+            for(int i = 0; i < length; i++){
+                // long corridors wrap onto further rows, so no two nodes share a location.
+                int x = (i % 900 + 1) * 1000 / (Math.min(length, 900) + 1);
+                int z = 500 + i / 900;
+                if(i % 2 == 0)
+                    b.addNode(new Room(base + i, new Point(x, f, z), f + "" + i, null, false));
+                else b.addNode(new Intersection(base + i, new Point(x, f, z)));
+                b.addEdge(i == 0 ? base + 9998 : base + i - 1, base + i);
+            }
+            b.addEdge(base + length - 1, base + 9999);
+            if(f > 1)
+                b.addEdge(base - 10000 + 9998, base + 9998).addEdge(base - 10000 + 9999, base + 9999);
+            b.addBeacon(new Beacon("PF_5_" + f, new Point(500, f, 500)));
+        }
+        return b.build();
+    }
+
+    @Test
+    public void lazyFloorTest() throws IOException {
+        File file = new File(folder.getRoot(), "5.floors");
+        MappedMap.write(tower(6, 9), file);
+        MappedMap mapped = MappedMap.open(file);
+
+        Assert.assertEquals(5, (int)mapped.getId());
+        Assert.assertEquals("Tower", mapped.getName());
+        Assert.assertArrayEquals(new int[] {1, 6}, mapped.getFloorRange());
+        Assert.assertNotNull(mapped.getBeacon("PF_5_4"));
+        for(int f = 1; f <= 6; f++)
+            Assert.assertFalse(mapped.isFloorLoaded(f));
+
+        Map third = mapped.getFloor(3);
+        Assert.assertTrue(mapped.isFloorLoaded(3));
+        Assert.assertFalse(mapped.isFloorLoaded(2));
+        Assert.assertSame(third, mapped.getFloor(3));
+        Assert.assertEquals(5, third.getRooms(3).size());
+        Assert.assertEquals(2, third.getFloorConnectors(3).size());
+        Assert.assertTrue(third.getRooms(2).isEmpty());
+        Assert.assertNull(mapped.getFloor(7));
+
+        Node n = mapped.closestNode(new Point(480, 2, 500));
+        Assert.assertEquals(20004, n.getId());
+        Assert.assertTrue(mapped.isFloorLoaded(2));
+        Assert.assertFalse(mapped.isFloorLoaded(1));
+    }
+
+    @Test
+    public void concurrentFloorTest() throws Exception {
+        File file = new File(folder.getRoot(), "5.floors");
+        MappedMap.write(tower(6, 900), file);
+        MappedMap mapped = MappedMap.open(file);
+        Map second = mapped.getFloor(2);
+
+        // threads racing to decode the same floor all get one copy, and a floor already read is not held up.
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try{
+            List<Future<Map>> results = new ArrayList<>();
+            for(int i = 0; i < 8; i++){
+                int floor = i % 2 == 0 ? 5 : 2;
+                results.add(pool.submit(() -> mapped.getFloor(floor)));
+            }
+            Map fifth = mapped.getFloor(5);
+            for(int i = 0; i < 8; i++)
+                Assert.assertSame(i % 2 == 0 ? fifth : second, results.get(i).get());
+        }
+        finally{
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void invalidTest() throws IOException {
+        File file = new File(folder.getRoot(), "5.floors");
+        MappedMap.write(tower(2, 3), file);
+        long length = file.length();
+
+        try(RandomAccessFile f = new RandomAccessFile(file, "rw")){
+            f.setLength(length - 10);
+        }
+        try{
+            MappedMap.open(file);
+            Assert.fail();
+        }
+        catch(IOException ignored) {}
+
+        try(RandomAccessFile f = new RandomAccessFile(file, "rw")){
+            f.seek(0);
+            f.write('X');
+        }
+        try{
+            MappedMap.open(file);
+            Assert.fail();
+        }
+        catch(IOException ignored) {}
+    }
+
+    @Test
+    public void coldOpenTest() throws IOException {
+        Map full = tower(40, 2500);
+        File file = new File(folder.getRoot(), "5.floors");
+        MappedMap.write(full, file);
+        byte[] bytes = MapFormat.toBytes(full);
+
+        Map whole = MapFormat.readMap(ByteBuffer.wrap(bytes));
+        Assert.assertEquals(40 * 2502, whole.getNodeCount());
+
+        // opening the file reads only its index; showing a floor reads only that floor.
+        MappedMap mapped = MappedMap.open(file);
+        Assert.assertFalse(mapped.isFloorLoaded(1));
+        Map floor = mapped.getFloor(1);
+        Assert.assertNotNull(floor.getNode(10000));
+        Assert.assertNull(floor.getNode(400000));
+        Assert.assertTrue(mapped.isFloorLoaded(1));
+        Assert.assertFalse(mapped.isFloorLoaded(2));
+        Assert.assertTrue(floor.getNodeCount() < whole.getNodeCount() / 10);
+    }
+}
@@ -0,0 +1,89 @@
+package tk.pathfinder.tests;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+
+import tk.pathfinder.Map.Edge;
+import tk.pathfinder.Map.Intersection;
+import tk.pathfinder.Map.Node;
+import tk.pathfinder.Map.Point;
+import tk.pathfinder.Map.Room;
+
+public class PointTests {
+
+    @Test
+    public void equalsTest(){
+        Random r = new Random(1);
+        for(int i = 0; i < 1000; i++){
+            int x = r.nextInt(2000) - 1000, y = r.nextInt(20) - 5, z = r.nextInt(2000) - 1000;
+            Point p = new Point(x, y, z);
+            Point q = new Point(x, y, z);
+
+            Assert.assertEquals(p, q);
+            Assert.assertEquals(q, p);
+            Assert.assertEquals(p.hashCode(), q.hashCode());
+            Assert.assertEquals(p, p);
+            Assert.assertNotEquals(p, null);
+            Assert.assertNotEquals(p, x);
+
+            // a change to any one coordinate makes a different point.
+            Assert.assertNotEquals(p, new Point(x + 1, y, z));
+            Assert.assertNotEquals(p, new Point(x, y, z + 1));
+            Assert.assertNotEquals(p, new Point(x, y + 1, z));
+        }
+        Assert.assertEquals(new Point(), new Point(0, 0, 0));
+        Assert.assertEquals(new Point().hashCode(), new Point(0, 0, 0).hashCode());
+    }
+
+    @Test
+    public void floorTest(){
+        // the same spot on every floor of a building is a distinct point, and a distinct key.
+        HashSet<Point> points = new HashSet<>();
+        HashMap<Point, Integer> floors = new HashMap<>();
+        for(int floor = -3; floor <= 30; floor++){
+            Point p = new Point(120, floor, 45);
+            Assert.assertTrue(points.add(p));
+            floors.put(p, floor);
+        }
+        Assert.assertEquals(34, points.size());
+        for(int floor = -3; floor <= 30; floor++){
+            Point p = new Point(120, floor, 45);
+            Assert.assertTrue(points.contains(p));
+            Assert.assertEquals(floor, (int)floors.get(p));
+        }
+        Assert.assertFalse(points.contains(new Point(120, 31, 45)));
+
+        // coordinates trading places across the floor do not collide.
+        Assert.assertNotEquals(new Point(1, 2, 3), new Point(3, 2, 1));
+        Assert.assertNotEquals(new Point(1, 2, 3), new Point(2, 1, 3));
+
+        // the distance ignores the floor, even though the points differ.
+        Assert.assertEquals(0, new Point(5, 1, 5).distance(new Point(5, 2, 5)), 0);
+        Assert.assertEquals(5, new Point(0, 1, 0).distance(new Point(3, 4, 4)), 0);
+        Assert.assertEquals(5, Point.distance(new Point(0, 1, 0), new Point(3, 1, 4)), 0);
+    }
+
+    @Test
+    public void nodeTest(){
+        // nodes and edges are keyed by their points, so they follow the same rules.
+        Node a = new Intersection(1, new Point(10, 1, 10));
+        Node b = new Room(2, new Point(10, 1, 10), "101", "Office", false);
+        Node c = new Intersection(3, new Point(10, 2, 10));
+        Assert.assertEquals(a, b);
+        Assert.assertEquals(a.hashCode(), b.hashCode());
+        Assert.assertNotEquals(a, c);
+
+        Edge e = new Edge(a, c);
+        Edge reverse = new Edge(c, b);
+        Assert.assertEquals(e, reverse);
+        Assert.assertEquals(e.hashCode(), reverse.hashCode());
+        HashSet<Edge> edges = new HashSet<>();
+        edges.add(e);
+        Assert.assertTrue(edges.contains(reverse));
+        Assert.assertFalse(edges.contains(new Edge(a, new Intersection(4, new Point(10, 3, 10)))));
+    }
+}
@@ -0,0 +1,126 @@
+package tk.pathfinder.tests;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import tk.pathfinder.Map.Intersection;
+import tk.pathfinder.Map.Map;
+import tk.pathfinder.Map.MapBuilder;
+import tk.pathfinder.Map.MapPreprocessor;
+import tk.pathfinder.Map.Point;
+import tk.pathfinder.Map.Room;
+import tk.pathfinder.Networking.BuildingVote;
+import tk.pathfinder.Networking.RecentMaps;
+
+public class RecentMapsTests {
+
+    // a corridor of the given length, so maps of different sizes can be made.
+    private static Map corridor(int id, int length){
+        MapBuilder b = new MapBuilder(id, "Map " + id);
+        b.addNode(new Room(0, new Point(0, 1, 0), "100", null, false));
+        for(int i = 1; i < length; i++){
+            b.addNode(new Intersection(i, new Point(i * 2, 1, 0)));
+            b.addEdge(i - 1, i);
+        }
+        return b.build();
+    }
+
+    @Test
+    public void lruTest() throws InterruptedException {
+        Map a = corridor(1, 100), b = corridor(2, 100), c = corridor(3, 100);
+        long size = a.getMemoryEstimate();
+        Assert.assertTrue(size > 0);
+
+        RecentMaps recent = new RecentMaps(size * 5 / 2);
+        recent.put(a, 10);
+        recent.put(b, 20);
+        // switching back is the same object, with no copy made.
+        Assert.assertSame(a, recent.get(1).getMap());
+        Assert.assertEquals(10, recent.get(1).getValidated());
+        // b is now the least recently used, so it makes way for c.
+        recent.put(c, 30);
+        Assert.assertNull(recent.get(2));
+        Assert.assertSame(a, recent.get(1).getMap());
+        Assert.assertEquals(2, recent.size());
+        Assert.assertEquals(size * 2, recent.getSize());
+
+        // a newer copy of a building replaces the old one.
+        Map a2 = corridor(1, 100);
+        recent.put(a2, 40);
+        Assert.assertSame(a2, recent.get(1).getMap());
+        Assert.assertEquals(2, recent.size());
+        recent.validated(1, 50);
+        Assert.assertEquals(50, recent.get(1).getValidated());
+
+        // preprocessing makes a map bigger, which shows when it is put again.
+        MapPreprocessor.createDefault().start(a2, null).await();
+        Assert.assertTrue(a2.getMemoryEstimate() > size);
+        recent.put(a2, 50);
+        Assert.assertEquals(1, recent.size());
+
+        // a map too big for the bound on its own is still kept, as the newest.
+        Map big = corridor(4, 1000);
+        recent.put(big, 0);
+        Assert.assertEquals(1, recent.size());
+        Assert.assertSame(big, recent.get(4).getMap());
+    }
+
+    @Test
+    public void trimTest(){
+        Map[] maps = new Map[4];
+        for(int i = 0; i < maps.length; i++)
+            maps[i] = corridor(i + 1, 100);
+        long size = maps[0].getMemoryEstimate();
+        RecentMaps recent = new RecentMaps(size * 4);
+        for(Map m : maps)
+            recent.put(m, 0);
+        Assert.assertEquals(4, recent.size());
+
+        recent.trim(0.5);
+        Assert.assertEquals(2, recent.size());
+        Assert.assertNotNull(recent.get(4));
+        Assert.assertNull(recent.get(1));
+        recent.trim(0);
+        Assert.assertEquals(0, recent.size());
+        Assert.assertEquals(0, recent.getSize());
+
+        // the full bound comes back with the next map.
+        for(Map m : maps)
+            recent.put(m, 0);
+        Assert.assertEquals(4, recent.size());
+    }
+
+    @Test
+    public void voteTest(){
+        // walking along the wall between buildings 1 and 2, the lead flips on every other scan.
+        int[][] scans = {{5, 1}, {3, 4}, {4, 3}, {3, 4}, {4, 4}, {3, 4}, {4, 3}, {2, 5}, {1, 6}, {0, 6}, {6, 0}};
+        int[] expected = {1, 1, 1, 1, 1, 1, 1, 1, 2, 2, 1};
+        BuildingVote vote = new BuildingVote();
+        int naive = 0, smoothed = 0, last = -1, lastNaive = -1;
+        for(int i = 0; i < scans.length; i++){
+            SortedMap<Integer, Integer> votes = new TreeMap<>();
+            if(scans[i][0] > 0)
+                votes.put(1, scans[i][0]);
+            if(scans[i][1] > 0)
+                votes.put(2, scans[i][1]);
+            int building = vote.update(votes);
+            Assert.assertEquals("scan " + i, expected[i], building);
+
+            int leader = scans[i][0] >= scans[i][1] ? 1 : 2;
+            if(leader != lastNaive)
+                naive++;
+            if(building != last)
+                smoothed++;
+            lastNaive = leader;
+            last = building;
+        }
+        // counting the first building, the plain vote changes map nine times; the smoothed vote three.
+        Assert.assertEquals(9, naive);
+        Assert.assertEquals(3, smoothed);
+
+        Assert.assertEquals(-1, vote.update(new TreeMap<>()));
+    }
+}
@@ -0,0 +1,192 @@
+package tk.pathfinder.tests;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import tk.pathfinder.Map.Edge;
+import tk.pathfinder.Map.FloorConnector;
+import tk.pathfinder.Map.Intersection;
+import tk.pathfinder.Map.Map;
+import tk.pathfinder.Map.MapBuilder;
+import tk.pathfinder.Map.MapPreprocessor;
+import tk.pathfinder.Map.Node;
+import tk.pathfinder.Map.Point;
+import tk.pathfinder.Map.RTree;
+import tk.pathfinder.Map.RenderIndex;
+import tk.pathfinder.Map.Room;
+
+public class RenderIndexTests {
+
+    private static final RTree.Bounds<int[]> BOX = (b, box) -> System.arraycopy(b, 0, box, 0, 4);
+
+    private static boolean intersects(int[] b, int minX, int minZ, int maxX, int maxZ){
+        return b[0] <= maxX && minX <= b[2] && b[1] <= maxZ && minZ <= b[3];
+    }
+
+    @Test
+    public void rangeTest(){
+        Random r = new Random(1);
+        for(int count : new int[] {0, 1, 15, 16, 17, 300, 5000}){
+            List<int[]> boxes = new ArrayList<>();
+            for(int i = 0; i < count; i++){
+                int x = r.nextInt(1000), z = r.nextInt(1000);
+                boxes.add(new int[] {x, z, x + r.nextInt(40), z + r.nextInt(40)});
+            }
+            RTree<int[]> tree = new RTree<>(boxes, BOX);
+            Assert.assertEquals(count, tree.size());
+
+            // the same list is searched into repeatedly, as a view does every frame.
+            List<int[]> found = new ArrayList<>();
+            for(int q = 0; q < 200; q++){
+                int minX = r.nextInt(1100) - 50, minZ = r.nextInt(1100) - 50;
+                int maxX = minX + r.nextInt(300), maxZ = minZ + r.nextInt(300);
+                found.clear();
+                tree.search(minX, minZ, maxX, maxZ, found);
+
+                HashSet<int[]> expected = new HashSet<>();
+                for(int[] b : boxes)
+                    if(intersects(b, minX, minZ, maxX, maxZ))
+                        expected.add(b);
+                Assert.assertEquals(expected.size(), found.size());
+                Assert.assertEquals(expected, new HashSet<>(found));
+            }
+
+            // the whole plane finds everything.
+            found.clear();
+            tree.search(Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, found);
+            Assert.assertEquals(count, found.size());
+        }
+    }
+
+    // rooms and intersections over three floors, chained together, with a connector on floor 1 reaching floor 2.
+    private static Map indexedMap(List<Node> nodes) throws InterruptedException {
+        Random r = new Random(2);
+        HashSet<Point> used = new HashSet<>();
+        while(nodes.size() < 600){
+            Point p = new Point(r.nextInt(1000), 1 + r.nextInt(3), r.nextInt(1000));
+            if(!used.add(p))
+                continue;
+            int id = nodes.size();
+            nodes.add(id % 3 == 0 ? new Intersection(id, p) : new Room(id, p, Integer.toString(id), "Room " + id, false));
+        }
+        Point p = new Point(2000, 1, 2000);
+        nodes.add(new FloorConnector(nodes.size(), p, "Lift", FloorConnector.FloorConnectorTypes.ELEVATOR,
+                new int[] {1, 2}, true, false));
+
+        MapBuilder b = new MapBuilder(1, "Render");
+        for(int i = 0; i < nodes.size(); i++){
+            b.addNode(nodes.get(i));
+            if(i > 0)
+                b.addEdge(i - 1, i);
+        }
+        Map map = b.build();
+        Assert.assertEquals(nodes.size(), map.getNodeCount());
+        MapPreprocessor.createDefault().start(map, null).await();
+        Assert.assertNotNull(map.getRenderIndex());
+        return map;
+    }
+
+    @Test
+    public void floorQueryTest() throws InterruptedException {
+        List<Node> nodes = new ArrayList<>();
+        Map map = indexedMap(nodes);
+        RenderIndex index = map.getRenderIndex();
+        List<Edge> edges = new ArrayList<>();
+        for(Iterator<Edge> i = map.getEdges(); i.hasNext(); )
+            edges.add(i.next());
+
+        Random r = new Random(3);
+        List<Edge> foundEdges = new ArrayList<>();
+        List<Room> foundRooms = new ArrayList<>();
+        for(int q = 0; q < 300; q++){
+            int floor = 1 + r.nextInt(3);
+            int minX = r.nextInt(1000), minZ = r.nextInt(1000);
+            int maxX = minX + r.nextInt(200), maxZ = minZ + r.nextInt(200);
+
+            foundEdges.clear();
+            index.findEdges(floor, minX, minZ, maxX, maxZ, foundEdges);
+            HashSet<Edge> expectedEdges = new HashSet<>();
+            for(Edge e : edges){
+                Point a = e.getNode1().getPoint(), c = e.getNode2().getPoint();
+                int[] box = {Math.min(a.getX(), c.getX()), Math.min(a.getZ(), c.getZ()),
+                        Math.max(a.getX(), c.getX()), Math.max(a.getZ(), c.getZ())};
+                if((a.getY() == floor || c.getY() == floor) && intersects(box, minX, minZ, maxX, maxZ))
+                    expectedEdges.add(e);
+            }
+            Assert.assertEquals(expectedEdges, new HashSet<>(foundEdges));
+
+            foundRooms.clear();
+            index.findRooms(floor, minX, minZ, maxX, maxZ, foundRooms);
+            HashSet<Room> expectedRooms = new HashSet<>();
+            for(Node n : nodes){
+                Point p = n.getPoint();
+                if(n instanceof Room && p.getY() == floor && intersects(new int[] {p.getX(), p.getZ(), p.getX(), p.getZ()}, minX, minZ, maxX, maxZ))
+                    expectedRooms.add((Room)n);
+            }
+            Assert.assertEquals(expectedRooms.size(), foundRooms.size());
+            Assert.assertEquals(expectedRooms, new HashSet<>(foundRooms));
+        }
+
+        // the connector is found on the floors it serves, and only there.
+        List<FloorConnector> connectors = new ArrayList<>();
+        for(int floor = 0; floor <= 4; floor++){
+            connectors.clear();
+            index.findFloorConnectors(floor, 1990, 1990, 2010, 2010, connectors);
+            Assert.assertEquals(floor == 1 || floor == 2 ? 1 : 0, connectors.size());
+        }
+        connectors.clear();
+        index.findFloorConnectors(1, 0, 0, 1000, 1000, connectors);
+        Assert.assertTrue(connectors.isEmpty());
+    }
+
+    @Test
+    public void nodeAtTest() throws InterruptedException {
+        List<Node> nodes = new ArrayList<>();
+        Map map = indexedMap(nodes);
+        RenderIndex index = map.getRenderIndex();
+
+        for(Node n : nodes){
+            Point p = n.getPoint();
+            Node hit = index.nodeAt(p.getY(), p.getX(), p.getZ(), 0);
+            if(n instanceof Room)
+                Assert.assertSame(n, hit);
+            else if(n instanceof Intersection)
+                Assert.assertNull(hit);
+        }
+
+        // a tap beside a room finds the closest room or connector within the tolerance, as a scan would.
+        Random r = new Random(4);
+        for(int q = 0; q < 500; q++){
+            int floor = 1 + r.nextInt(3), x = r.nextInt(1000), z = r.nextInt(1000), tolerance = r.nextInt(30);
+            Node hit = index.nodeAt(floor, x, z, tolerance);
+            long best = -1;
+            for(Node n : nodes){
+                if(!(n instanceof Room) || n.getFloor() != floor)
+                    continue;
+                long dx = n.getPoint().getX() - x, dz = n.getPoint().getZ() - z;
+                if(dx*dx + dz*dz <= (long)tolerance * tolerance && (best == -1 || dx*dx + dz*dz < best))
+                    best = dx*dx + dz*dz;
+            }
+            if(best == -1){
+                Assert.assertNull(hit);
+                continue;
+            }
+            Assert.assertTrue(hit instanceof Room);
+            Assert.assertEquals(floor, hit.getFloor());
+            long dx = hit.getPoint().getX() - x, dz = hit.getPoint().getZ() - z;
+            Assert.assertEquals(best, dx*dx + dz*dz);
+        }
+
+        // the connector is hit on both floors it serves, and missed on the others.
+        Assert.assertTrue(index.nodeAt(1, 2003, 2004, 5) instanceof FloorConnector);
+        Assert.assertTrue(index.nodeAt(2, 2003, 2004, 5) instanceof FloorConnector);
+        Assert.assertNull(index.nodeAt(3, 2003, 2004, 5));
+        Assert.assertNull(index.nodeAt(1, 2004, 2004, 5));
+    }
+}
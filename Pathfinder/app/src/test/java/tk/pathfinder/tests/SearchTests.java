@@ -0,0 +1,186 @@
+package tk.pathfinder.tests;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import tk.pathfinder.Map.Map;
+import tk.pathfinder.Map.MapBuilder;
+import tk.pathfinder.Map.MapPreprocessor;
+import tk.pathfinder.Map.Point;
+import tk.pathfinder.Map.Room;
+import tk.pathfinder.Map.SearchSession;
+
+public class SearchTests {
+
+    private static final String[] WORDS = {"Radiology", "Cardiology", "Pharmacy", "Garage", "Cafeteria",
+            "Office", "Laboratory", "Waiting", "Room", "Surgery", "Clinic", "Caf\u00e9", "Nursing", "Station"};
+
+    // a hospital-sized map with one room per node, chained together.
+    private static Map hospital(int rooms){
+        Random r = new Random(7);
+        MapBuilder b = new MapBuilder(1, "Hospital");
+        for(int i = 0; i < rooms; i++){
+            String name = WORDS[r.nextInt(WORDS.length)] + " " + WORDS[r.nextInt(WORDS.length)];
+            b.addNode(new Room(i, new Point(i % 1000, 1 + i / 1000, i / 1000), String.format(Locale.US, "%d-%03d", 1 + i / 1000, i % 1000), name, false));
+            if(i > 0)
+                b.addEdge(i - 1, i);
+        }
+        return b.build();
+    }
+
+    private static void index(Map map) throws InterruptedException {
+        MapPreprocessor.Job job = MapPreprocessor.createDefault().start(map, null);
+        while(!job.isDone())
+            Thread.sleep(5);
+    }
+
+    @Test
+    public void searchTest() throws InterruptedException {
+        Map map = hospital(3000);
+        String[] queries = {"radio", "garage", "cafe", "the garage", "1-004", "ology room", "z", "oom",
+                "radiolgy", "pharmcy offce", "rm 0O4", "labrotory"};
+        Object[] expected = new Object[queries.length];
+
+        for(int pass = 0; pass < 2; pass++){
+            try{
+                map.findDestination(null);
+                Assert.fail();
+            }
+            catch(IllegalArgumentException ignored) {}
+
+            Assert.assertEquals(0, map.findDestination("blah").size());
+            Assert.assertNotEquals(0, map.findDestination("GARAGE ").size());
+            Assert.assertEquals("1-004", map.search("1-004", false, 1).get(0).getRoomNumber());
+
+            // every result of an AND query contains every term.
+            for(Room room : map.search("radiology office", true, 50)){
+                String name = room.getName().toLowerCase(Locale.ROOT);
+                Assert.assertTrue(name.contains("radiology") && name.contains("office"));
+            }
+            Assert.assertTrue(map.search("radiology office", true, 1000).size()
+                    <= map.search("radiology office", false, 1000).size());
+
+            // misspelt terms fall back to the closest words.
+            Assert.assertTrue(map.search("radiolgy", false, 1).get(0).getName().contains("Radiology"));
+            Assert.assertTrue(map.search("Labrotory", false, 1).get(0).getName().contains("Laboratory"));
+            Assert.assertEquals("1-004", map.search("1-0O4", true, 1).get(0).getRoomNumber());
+            Assert.assertEquals(0, map.findDestination("xqzv").size());
+
+            if(pass == 0){
+                // the scan results, kept to compare with the index.
+                for(int i = 0; i < queries.length; i++)
+                    expected[i] = map.search(queries[i], false, 20);
+                index(map);
+            }
+            else{
+                for(int i = 0; i < queries.length; i++)
+                    Assert.assertEquals(queries[i], expected[i], map.search(queries[i], false, 20));
+            }
+        }
+    }
+
+    @Test
+    public void sessionTest() throws InterruptedException {
+        Map map = hospital(3000);
+        index(map);
+        SearchSession session = new SearchSession(map);
+
+        String[] typed = {"r", "ra", "rad", "radi", "radio", "radio o", "radio of", "radio off"};
+        for(String q : typed){
+            Assert.assertEquals(q, map.search(q, true, 20), session.search(q, 20));
+            Assert.assertEquals(q, !q.equals("r"), session.wasRefined());
+        }
+
+        // deleting a character starts over.
+        Assert.assertEquals(map.search("radio of", true, 20), session.search("radio of", 20));
+        Assert.assertFalse(session.wasRefined());
+
+        // a misspelling is not refined from, and still finds something.
+        Assert.assertNotEquals(0, session.search("radiolgy", 20).size());
+        Assert.assertFalse(session.search("radiolgyy", 20).isEmpty() && session.wasRefined());
+    }
+
+    // a clinic corridor with two radiology rooms and a pharmacy.
+    private static Map clinic(){
+        return new MapBuilder(2, "Clinic")
+                .addNode(new Room(1, new Point(100, 1, 500), "204", "Radiology", false))
+                .addNode(new Room(2, new Point(200, 1, 500), "205", "Pharmacy", false))
+                .addNode(new Room(3, new Point(300, 1, 500), "206", "Radiology Office", false))
+                .addEdge(1, 2).addEdge(2, 3)
+                .build();
+    }
+
+    @Test
+    public void sessionWordsTest() throws InterruptedException {
+        Map map = clinic();
+        for(int pass = 0; pass < 2; pass++){
+            SearchSession session = new SearchSession(map);
+
+            // rooms matching every word are all that is returned when there are any.
+            List<Room> found = session.search("radiology office", 20);
+            Assert.assertEquals(1, found.size());
+            Assert.assertEquals("206", found.get(0).getRoomNumber());
+            found = session.search("office radiology", 20);
+            Assert.assertEquals(1, found.size());
+
+            // when no room matches every word, the rooms matching any of them are returned, best first.
+            found = session.search("room 204", 20);
+            Assert.assertFalse(found.isEmpty());
+            Assert.assertEquals("204", found.get(0).getRoomNumber());
+            found = session.search("pharmacy radiology", 20);
+            Assert.assertEquals(3, found.size());
+            Assert.assertEquals(map.findDestination("pharmacy radiology").size(), found.size());
+            Assert.assertTrue(session.search("xqzv vvvq", 20).isEmpty());
+
+            index(map);
+        }
+    }
+
+    @Test
+    public void sessionTypoTest() throws InterruptedException {
+        Map map = clinic();
+        for(int pass = 0; pass < 2; pass++){
+            SearchSession session = new SearchSession(map);
+
+            // letters typed for digits still name the room, ahead of a room that only contains "rm".
+            List<Room> found = session.search("rm 2O4", 20);
+            Assert.assertFalse(found.isEmpty());
+            Assert.assertEquals("204", found.get(0).getRoomNumber());
+            Assert.assertEquals("204", session.search("2O4", 20).get(0).getRoomNumber());
+
+            // a misspelt name finds the room named with the word meant, the closest name first.
+            found = session.search("radiolgy", 20);
+            Assert.assertEquals(2, found.size());
+            Assert.assertEquals("204", found.get(0).getRoomNumber());
+
+            index(map);
+        }
+    }
+
+    @Test
+    public void largeMapTest() throws InterruptedException {
+        Map map = hospital(3000);
+        String[] queries = {"r", "ra", "rad", "radi", "radio", "radiol", "radiolo", "radiology"};
+
+        // the index finds the same rooms as a scan of every room, for each prefix typed.
+        int[] scanned = new int[queries.length];
+        for(int i = 0; i < queries.length; i++)
+            scanned[i] = map.findDestination(queries[i]).size();
+        index(map);
+        for(int i = 0; i < queries.length; i++)
+            Assert.assertEquals(queries[i], scanned[i], map.findDestination(queries[i]).size());
+
+        // each misspelling finds rooms named with the word meant.
+        String[] typos = {"radiolgy", "cardiolgoy", "pharmcy", "cafetria", "labrotory", "surgey"};
+        String[] meant = {"radiology", "cardiology", "pharmacy", "cafeteria", "laboratory", "surgery"};
+        for(int i = 0; i < typos.length; i++){
+            List<Room> found = map.search(typos[i], false, 20);
+            Assert.assertFalse(typos[i], found.isEmpty());
+            Assert.assertTrue(typos[i], found.get(0).getName().toLowerCase(Locale.ROOT).contains(meant[i]));
+        }
+    }
+}
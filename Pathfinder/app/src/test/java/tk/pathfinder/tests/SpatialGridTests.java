@@ -0,0 +1,102 @@
+package tk.pathfinder.tests;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import tk.pathfinder.Map.Intersection;
+import tk.pathfinder.Map.Node;
+import tk.pathfinder.Map.Point;
+import tk.pathfinder.Map.SpatialGrid;
+
+public class SpatialGridTests {
+
+    private static final int QUERIES = 2000;
+
+    // scatter nodes over a 1000x1000 map with three floors.
+    private static List<Node> randomNodes(int count, long seed){
+        Random r = new Random(seed);
+        List<Node> nodes = new ArrayList<>();
+        for(int i = 0; i < count; i++)
+            nodes.add(new Intersection(i, new Point(r.nextInt(1000), 1 + r.nextInt(3), r.nextInt(1000))));
+        return nodes;
+    }
+
+    // the reference implementation: a scan of every node.
+    private static Node linearClosest(List<Node> nodes, Point p){
+        Node best = null;
+        double dist = -1;
+        for(Node n : nodes){
+            if(n.getFloor() != p.getY())
+                continue;
+            double d = p.distance(n.getPoint());
+            if(dist == -1 || d < dist){
+                dist = d;
+                best = n;
+            }
+        }
+        return best;
+    }
+
+    @Test
+    public void closestMatchesLinearScan(){
+        List<Node> nodes = randomNodes(5000, 1);
+        SpatialGrid grid = new SpatialGrid(nodes);
+        Random r = new Random(2);
+
+        for(int i = 0; i < QUERIES; i++){
+            // include points outside of the map bounds
+            Point p = new Point(r.nextInt(1400) - 200, 1 + r.nextInt(3), r.nextInt(1400) - 200);
+            Node expected = linearClosest(nodes, p);
+            Node actual = grid.closest(p);
+            Assert.assertEquals(p.distance(expected.getPoint()), p.distance(actual.getPoint()), 0);
+        }
+
+        Assert.assertNull(grid.closest(new Point(5, 9, 5)));
+    }
+
+    @Test
+    public void kClosestIsOrdered(){
+        List<Node> nodes = randomNodes(2000, 3);
+        SpatialGrid grid = new SpatialGrid(nodes);
+        Point p = new Point(500, 2, 500);
+
+        List<Node> result = grid.closest(p, 10);
+        Assert.assertEquals(10, result.size());
+        Assert.assertEquals(p.distance(linearClosest(nodes, p).getPoint()), p.distance(result.get(0).getPoint()), 0);
+        for(int i = 1; i < result.size(); i++)
+            Assert.assertTrue(p.distance(result.get(i - 1).getPoint()) <= p.distance(result.get(i).getPoint()));
+
+        // nothing on floor 2 is closer than the tenth result
+        double tenth = p.distance(result.get(9).getPoint());
+        int closer = 0;
+        for(Node n : nodes)
+            if(n.getFloor() == 2 && p.distance(n.getPoint()) < tenth)
+                closer++;
+        Assert.assertTrue(closer <= 9);
+
+        Assert.assertEquals(0, grid.closest(p, 0).size());
+    }
+
+    @Test
+    public void largeMapTest(){
+        // a dense map, and one whose nodes are bunched into a corner far from most queries.
+        List<Node> dense = randomNodes(100000, 4);
+        List<Node> bunched = new ArrayList<>();
+        Random r = new Random(5);
+        for(int i = 0; i < 500; i++)
+            bunched.add(new Intersection(i, new Point(r.nextInt(20), 1, r.nextInt(20))));
+
+        for(List<Node> nodes : new List[] {dense, bunched}){
+            SpatialGrid grid = new SpatialGrid(nodes);
+            for(int i = 0; i < 200; i++){
+                Point p = new Point(r.nextInt(1000), 1, r.nextInt(1000));
+                Node expected = linearClosest(nodes, p);
+                Assert.assertEquals(p.distance(expected.getPoint()), p.distance(grid.closest(p).getPoint()), 0);
+            }
+        }
+    }
+}
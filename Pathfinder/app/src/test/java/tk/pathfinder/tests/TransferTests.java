@@ -0,0 +1,139 @@
+package tk.pathfinder.tests;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import tk.pathfinder.Map.Map;
+import tk.pathfinder.Networking.Api;
+import tk.pathfinder.Networking.Transfer;
+
+public class TransferTests {
+
+    private static final String BODY = "{\"id\":3,\"name\":\"Hall\",\"version\":2,\"nodes\":["
+            + "{\"id\":1,\"type\":\"intersection\",\"coordinate\":{\"x\":0.125,\"y\":1,\"z\":0.5}},"
+            + "{\"id\":2,\"type\":\"room\",\"room_number\":\"101\",\"name\":\"Office\",\"requires_auth\":false,"
+            + "\"coordinate\":{\"x\":0.25,\"y\":1,\"z\":0.5}}],\"edges\":[[1,2]],\"beacons\":[]}";
+
+    @Test
+    public void decodeTest() throws IOException {
+        byte[] body = BODY.getBytes(StandardCharsets.UTF_8);
+        for(String encoding : new String[] {Transfer.DICTIONARY_ENCODING, "gzip", "deflate"}){
+            byte[] wire = MapTestServer.compress(body, encoding);
+            Transfer transfer = new Transfer(encoding);
+            Assert.assertArrayEquals(body, readAll(transfer.decode(new ByteArrayInputStream(wire))));
+            Assert.assertEquals(wire.length, transfer.getWireBytes());
+            Assert.assertEquals(body.length, transfer.getBodyBytes());
+        }
+
+        // the dictionary pays off most on a short body.
+        Assert.assertTrue(MapTestServer.compress(body, Transfer.DICTIONARY_ENCODING).length * 2
+                < MapTestServer.compress(body, "deflate").length);
+
+        Transfer identity = new Transfer(null);
+        Assert.assertEquals("identity", identity.getEncoding());
+        Assert.assertArrayEquals(body, readAll(identity.decode(new ByteArrayInputStream(body))));
+        Assert.assertEquals(0, identity.getDecodeNanos());
+    }
+
+    @Test
+    public void invalidTest() throws IOException {
+        try{
+            new Transfer("br");
+            Assert.fail();
+        }
+        catch(IOException ignored) {}
+
+        byte[] body = BODY.getBytes(StandardCharsets.UTF_8);
+        byte[] wire = MapTestServer.compress(body, Transfer.DICTIONARY_ENCODING);
+        byte[][] invalid = {
+                Arrays.copyOf(wire, wire.length / 2),
+                compressWith(body, "another dictionary".getBytes(StandardCharsets.UTF_8)),
+                "not compressed".getBytes(StandardCharsets.UTF_8)
+        };
+        for(byte[] b : invalid){
+            try{
+                readAll(new Transfer(Transfer.DICTIONARY_ENCODING).decode(new ByteArrayInputStream(b)));
+                Assert.fail();
+            }
+            catch(IOException ignored) {}
+        }
+    }
+
+    @Test
+    public void serverTest() throws IOException {
+        try(MapTestServer server = new MapTestServer(3, "Hall")){
+            Api.setUrlBase(server.getUrl());
+            // two floors of 500 rooms along a corridor.
+            for(int i = 0; i < 1000; i++){
+                int floor = i / 500 + 1, x = (i % 500) * 2 + 1;
+                server.intersection(i, x, floor, 500);
+                server.room(10000 + i, x, floor, 520, String.format(Locale.US, "%d%03d", floor, i % 500), "Office " + i);
+                server.edge(i, 10000 + i);
+                if(i % 500 > 0)
+                    server.edge(i - 1, i);
+            }
+            server.connector(20000, 1, 1, 480, 0, true).connector(20001, 1, 2, 480, 0, true)
+                    .edge(0, 20000).edge(20000, 20001).edge(20001, 500);
+            server.commit();
+
+            String[][] settings = {{}, {"gzip"}, {Transfer.DICTIONARY_ENCODING}};
+            long[] sizes = new long[settings.length];
+            long body = 0;
+            for(int i = 0; i < settings.length; i++){
+                server.setEncodings(settings[i]);
+                long before = server.getBytesSent();
+                Api.MapResponse response = Api.getMap(3, null, null);
+                Transfer transfer = response.getTransfer();
+                Assert.assertEquals(2002, response.getMap().getNodeCount());
+                Assert.assertEquals(settings[i].length == 0 ? "identity" : settings[i][0], transfer.getEncoding());
+                Assert.assertEquals(server.getBytesSent() - before, transfer.getWireBytes());
+                sizes[i] = transfer.getWireBytes();
+                // the body is the same however it is sent.
+                if(i == 0)
+                    body = transfer.getBodyBytes();
+                Assert.assertEquals(body, transfer.getBodyBytes());
+            }
+            Assert.assertEquals(sizes[0], body);
+            Assert.assertTrue(sizes[1] * 5 < sizes[0]);
+            Assert.assertTrue(sizes[2] <= sizes[1]);
+
+            // a server that compresses nothing still works.
+            server.setEncodings();
+            Map map = Api.getMap(3);
+            Assert.assertEquals(2, map.getRevision());
+        }
+        finally{
+            Api.setUrlBase(null);
+        }
+    }
+
+    private static byte[] compressWith(byte[] bytes, byte[] dictionary) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater();
+        deflater.setDictionary(dictionary);
+        try(DeflaterOutputStream out = new DeflaterOutputStream(buffer, deflater)){
+            out.write(bytes);
+        }
+        deflater.end();
+        return buffer.toByteArray();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[100];
+        for(int n; (n = in.read(buffer)) >= 0; )
+            out.write(buffer, 0, n);
+        in.close();
+        return out.toByteArray();
+    }
+}